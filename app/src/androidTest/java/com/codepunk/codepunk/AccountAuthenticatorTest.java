@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import android.accounts.Account;
+import android.accounts.AccountAuthenticatorResponse;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepunk.codepunk.app.AppComponent;
+import com.codepunk.codepunk.app.AppComponents;
+import com.codepunk.codepunk.app.DaggerStandInAppComponent;
+import com.codepunk.codepunk.app.StandInAppModule;
+import com.codepunk.codepunk.app.TestAccounts;
+import com.codepunk.codepunk.standin.StandInConfig;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static android.accounts.AccountManager.KEY_AUTHTOKEN;
+import static android.accounts.AccountManager.KEY_INTENT;
+import static com.codepunk.codepunk.api.AuthTokenType.AUTH_TOKEN_TYPE_DEFAULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for token refreshes in {@link AccountAuthenticator#getAuthToken}, driven through the
+ * {@link AccountManager} against a stand-in server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AccountAuthenticatorTest {
+
+  private static final int CALLERS = 8;
+
+  private Context mContext;
+  private StandInServer mServer;
+  private AppComponent mPreviousComponent;
+  private TestAccounts mAccounts;
+  private AccountManager mAccountManager;
+  private Account mAccount;
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mServer = new StandInServer(
+        new StandInConfig.Builder().setLatency(200, TimeUnit.MILLISECONDS).build());
+    mServer.start();
+    mPreviousComponent = AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(mContext, mServer.getAuthority()))
+        .build());
+    mAccounts = new TestAccounts(mContext, mServer);
+    mAccountManager = AccountManager.get(mContext);
+    mAccount = mAccounts.add("alice", "secret");
+    mAccounts.expire(mAccount);
+  }
+
+  @After
+  public void tearDown() {
+    mAccounts.removeAll();
+    AppComponents.set(mPreviousComponent);
+    mServer.shutdown();
+  }
+
+  /**
+   * Stands in for the account manager's end of an {@link AccountAuthenticatorResponse}, so that
+   * the authenticator can be called directly, without the account manager in between.
+   */
+  private static class ResponseBinder extends Binder {
+    private static final String DESCRIPTOR = "android.accounts.IAccountAuthenticatorResponse";
+    private static final int TRANSACTION_ON_RESULT = FIRST_CALL_TRANSACTION;
+
+    final SettableFuture<Bundle> mResult = SettableFuture.create();
+
+    AccountAuthenticatorResponse newResponse() {
+      final Parcel parcel = Parcel.obtain();
+      try {
+        parcel.writeStrongBinder(this);
+        parcel.setDataPosition(0);
+        return AccountAuthenticatorResponse.CREATOR.createFromParcel(parcel);
+      } finally {
+        parcel.recycle();
+      }
+    }
+
+    @Override
+    protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) {
+      data.enforceInterface(DESCRIPTOR);
+      if (code == TRANSACTION_ON_RESULT) {
+        mResult.set(data.readInt() != 0 ? Bundle.CREATOR.createFromParcel(data) : null);
+      } else {
+        mResult.setException(new IOException("Unexpected response transaction " + code));
+      }
+      return true;
+    }
+  }
+
+  @SuppressWarnings({"MissingPermission"})
+  private Bundle getAuthToken() throws Exception {
+    return mAccountManager.getAuthToken(
+        mAccount,
+        AUTH_TOKEN_TYPE_DEFAULT.getString(),
+        null /* options */,
+        false /* notifyAuthFailure */,
+        null /* callback */,
+        null /* handler */).getResult(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void concurrentCallersShareOneRefresh() throws Exception {
+    final StandInStats stats = mServer.getStats();
+    final long refreshes = stats.get(StandInStats.REFRESH_GRANTS);
+    final long rejected = stats.get(StandInStats.REJECTED_GRANTS);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    final List<Future<Bundle>> results = new ArrayList<>(CALLERS);
+    try {
+      for (int i = 0; i < CALLERS; i++) {
+        results.add(executor.submit(new Callable<Bundle>() {
+          @Override
+          public Bundle call() throws Exception {
+            return getAuthToken();
+          }
+        }));
+      }
+      final Set<String> authTokens = new HashSet<>();
+      for (Future<Bundle> result : results) {
+        final String authToken = result.get(10, TimeUnit.SECONDS).getString(KEY_AUTHTOKEN);
+        assertNotNull(authToken);
+        authTokens.add(authToken);
+      }
+      assertEquals(1, authTokens.size());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(refreshes + 1, stats.get(StandInStats.REFRESH_GRANTS));
+    assertEquals(rejected, stats.get(StandInStats.REJECTED_GRANTS));
+  }
+
+  @Test
+  public void concurrentGetAuthTokenCallsSendOneRefreshGrant() throws Exception {
+    final StandInStats stats = mServer.getStats();
+    final long refreshes = stats.get(StandInStats.REFRESH_GRANTS);
+    final long rejected = stats.get(StandInStats.REJECTED_GRANTS);
+    final AccountAuthenticator authenticator = new AccountAuthenticator(mContext);
+    final CountDownLatch start = new CountDownLatch(1);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    final List<Future<Bundle>> results = new ArrayList<>(CALLERS);
+    try {
+      for (int i = 0; i < CALLERS; i++) {
+        results.add(executor.submit(new Callable<Bundle>() {
+          @Override
+          public Bundle call() throws Exception {
+            final ResponseBinder binder = new ResponseBinder();
+            start.await();
+            // Like binder threads, every caller enters getAuthToken at once
+            final Bundle result = authenticator.getAuthToken(
+                binder.newResponse(),
+                mAccount,
+                AUTH_TOKEN_TYPE_DEFAULT.getString(),
+                null /* options */);
+            return (result == null ? binder.mResult.get(10, TimeUnit.SECONDS) : result);
+          }
+        }));
+      }
+      start.countDown();
+      final Set<String> authTokens = new HashSet<>();
+      for (Future<Bundle> result : results) {
+        final String authToken = result.get(10, TimeUnit.SECONDS).getString(KEY_AUTHTOKEN);
+        assertNotNull(authToken);
+        authTokens.add(authToken);
+      }
+      assertEquals(1, authTokens.size());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(refreshes + 1, stats.get(StandInStats.REFRESH_GRANTS));
+    assertEquals(rejected, stats.get(StandInStats.REJECTED_GRANTS));
+  }
+
+  @Test
+  public void refusedRefreshTokenAsksTheUserToLogIn() throws Exception {
+    mServer.getAccounts().revokeRefreshTokens();
+
+    final Bundle result = getAuthToken();
+    assertNotNull(result.getParcelable(KEY_INTENT));
+    assertNull(result.getString(KEY_AUTHTOKEN));
+  }
+
+  @Test
+  public void unreachableServerIsANetworkError() throws Exception {
+    mServer.shutdown();
+
+    try {
+      final Bundle result = getAuthToken();
+      fail("Got a result without a server: " + result);
+    } catch (IOException e) {
+      // AccountManager reports ERROR_CODE_NETWORK_ERROR as an IOException
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.gson.JsonObject;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.Response.Listener;
+import com.android.volley.VolleyError;
+import com.codepunk.codepunk.app.ApiManager;
+import com.codepunk.codepunk.app.AppComponent;
+import com.codepunk.codepunk.app.AppComponents;
+import com.codepunk.codepunk.app.DaggerStandInAppComponent;
+import com.codepunk.codepunk.app.StandInAppModule;
+import com.codepunk.codepunk.load.AllocationCounter;
+import com.codepunk.codepunk.model.CodepunkResponse;
+import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.standin.StandInCbor;
+import com.codepunk.codepunk.standin.StandInResponse;
+import com.codepunk.codepunk.standin.StandInServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * <p>
+ * Allocation budgets for the request hot path: building a request in {@link ApiUserDelegate}
+ * (header map, {@code buildUrl} and retry policy), computing its headers, parsing the response
+ * (the work a network dispatcher thread does in the app) and delivering it through
+ * {@link CodepunkRequest}'s response handling. Every stage runs on the test thread rather than
+ * on Volley's threads, so {@link AllocationCounter} sees all of its allocations. Results are
+ * logged under {@link #TAG}.
+ * </p>
+ *
+ * <p>
+ * The budgets are ceilings with headroom for differences between runtimes, not targets. When
+ * a change lowers the allocations of a stage, lower its budget with it.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestAllocationTest {
+
+  private static final String TAG = "RequestAllocationTest";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String AUTH_TOKEN = "0123456789abcdef0123456789abcdef0123456789abcdef";
+
+  private static final long BUILD_URL_ALLOCATIONS = 80;
+  private static final long BUILD_URL_BYTES = 8 * 1024;
+
+  private static final long NEW_REQUEST_ALLOCATIONS = 600;
+  private static final long NEW_REQUEST_BYTES = 64 * 1024;
+
+  private static final long GET_HEADERS_ALLOCATIONS = 20;
+  private static final long GET_HEADERS_BYTES = 2 * 1024;
+
+  private static final long PARSE_ALLOCATIONS = 600;
+  private static final long PARSE_BYTES = 64 * 1024;
+
+  private static final long DELIVER_ALLOCATIONS = 10;
+  private static final long DELIVER_BYTES = 1024;
+
+  private static final long LIFECYCLE_ALLOCATIONS = 1500;
+  private static final long LIFECYCLE_BYTES = 160 * 1024;
+
+  private final AllocationCounter mCounter = new AllocationCounter();
+
+  private StandInServer mServer;
+  private AppComponent mPreviousComponent;
+  private ApiUserDelegate mDelegate;
+  private NetworkResponse mJsonResponse;
+  private NetworkResponse mCborResponse;
+  private User mDelivered;
+
+  private final Listener<User> mListener = new Listener<User>() {
+    @Override
+    public void onResponse(User response) {
+      mDelivered = response;
+    }
+  };
+
+  private final ErrorListener mErrorListener = new ErrorListener() {
+    @Override
+    public void onErrorResponse(VolleyError error) {
+      throw new AssertionError(error);
+    }
+  };
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue("Allocation counting is not supported", AllocationCounter.isSupported());
+    final Context context = InstrumentationRegistry.getTargetContext();
+    mServer = new StandInServer();
+    mServer.start();
+    mPreviousComponent = AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(context, mServer.getAuthority()))
+        .build());
+    mDelegate = ApiManager.getInstance(context).getUserDelegate();
+
+    final JsonObject user = new JsonObject();
+    user.addProperty("id", 42);
+    user.addProperty("username", "Alice");
+    user.addProperty("username_canonical", "alice");
+    user.addProperty("email", "alice@example.com");
+    user.addProperty("email_canonical", "alice@example.com");
+    user.addProperty("enabled", true);
+    user.addProperty("locked", false);
+    user.addProperty("expired", false);
+    user.addProperty("credentials_expired", false);
+    user.addProperty("last_login", "2016-12-01T10:00:00+0000");
+    final JsonObject body = new JsonObject();
+    body.add("result", user);
+    mJsonResponse = newNetworkResponse(
+        StandInResponse.CONTENT_TYPE_JSON + "; charset=UTF-8",
+        body.toString().getBytes(UTF_8));
+    mCborResponse = newNetworkResponse(
+        StandInResponse.CONTENT_TYPE_CBOR,
+        StandInCbor.encode(body));
+  }
+
+  @After
+  public void tearDown() {
+    if (mPreviousComponent != null) {
+      AppComponents.set(mPreviousComponent);
+    }
+    if (mServer != null) {
+      mServer.shutdown();
+    }
+  }
+
+  @Test
+  public void buildUrl_staysWithinBudget() throws Exception {
+    final AllocationCounter.Result result = mCounter.measure(
+        "buildUrl",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() {
+            mDelegate.buildUrl(StandInServer.ENDPOINT_GET_AUTHENTICATED_USER);
+          }
+        });
+
+    assertWithin(result, BUILD_URL_ALLOCATIONS, BUILD_URL_BYTES);
+  }
+
+  @Test
+  public void newRequest_staysWithinBudget() throws Exception {
+    final AllocationCounter.Result result = mCounter.measure(
+        "newAuthenticatedUserRequest",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() {
+            newRequest();
+          }
+        });
+
+    assertWithin(result, NEW_REQUEST_ALLOCATIONS, NEW_REQUEST_BYTES);
+  }
+
+  @Test
+  public void getHeaders_staysWithinBudget() throws Exception {
+    final CodepunkRequest<User> request = newRequest();
+
+    final AllocationCounter.Result result = mCounter.measure(
+        "getHeaders",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() throws Exception {
+            request.getHeaders();
+          }
+        });
+
+    assertWithin(result, GET_HEADERS_ALLOCATIONS, GET_HEADERS_BYTES);
+  }
+
+  @Test
+  public void parseNetworkResponse_staysWithinBudget() throws Exception {
+    final CodepunkRequest<User> request = newRequest();
+
+    final AllocationCounter.Result json = mCounter.measure(
+        "parseNetworkResponse (JSON)",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() {
+            request.parseNetworkResponse(mJsonResponse);
+          }
+        });
+    final AllocationCounter.Result cbor = mCounter.measure(
+        "parseNetworkResponse (CBOR)",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() {
+            request.parseNetworkResponse(mCborResponse);
+          }
+        });
+
+    assertEquals("alice", request.parseNetworkResponse(mCborResponse)
+        .result.getResult().getUsernameCanonical());
+    assertWithin(json, PARSE_ALLOCATIONS, PARSE_BYTES);
+    assertWithin(cbor, PARSE_ALLOCATIONS, PARSE_BYTES);
+  }
+
+  @Test
+  public void deliverResponse_staysWithinBudget() throws Exception {
+    final CodepunkRequest<User> request = newRequest();
+    final CodepunkResponse<User> response = request.parseNetworkResponse(mJsonResponse).result;
+
+    final AllocationCounter.Result result = mCounter.measure(
+        "deliverResponse",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() {
+            request.deliverResponse(response);
+          }
+        });
+
+    assertEquals(response.getResult(), mDelivered);
+    assertWithin(result, DELIVER_ALLOCATIONS, DELIVER_BYTES);
+  }
+
+  @Test
+  public void lifecycle_staysWithinBudget() throws Exception {
+    final AllocationCounter.Result result = mCounter.measure(
+        "lifecycle",
+        new AllocationCounter.Operation() {
+          @Override
+          public void run() throws Exception {
+            final CodepunkRequest<User> request = newRequest();
+            request.getHeaders();
+            final Response<CodepunkResponse<User>> response =
+                request.parseNetworkResponse(mJsonResponse);
+            request.deliverResponse(response.result);
+          }
+        });
+
+    assertWithin(result, LIFECYCLE_ALLOCATIONS, LIFECYCLE_BYTES);
+  }
+
+  private CodepunkRequest<User> newRequest() {
+    return mDelegate.newAuthenticatedUserRequest(AUTH_TOKEN, null, mListener, mErrorListener);
+  }
+
+  private static NetworkResponse newNetworkResponse(String contentType, byte[] data) {
+    // Volley hands requests case-insensitive header maps
+    final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    headers.put("Content-Type", contentType);
+    headers.put("Cache-Control", "no-cache");
+    return new NetworkResponse(200, data, headers, false, 20L);
+  }
+
+  private static void assertWithin(
+      AllocationCounter.Result result,
+      long maxAllocations,
+      long maxBytes) {
+    Log.i(TAG, result.toString());
+    assertTrue(
+        result + " exceeds budget of " + maxAllocations + " allocations, " + maxBytes + " bytes",
+        result.isWithin(maxAllocations, maxBytes));
+  }
+}
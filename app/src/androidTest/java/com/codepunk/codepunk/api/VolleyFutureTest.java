@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.volley.VolleyError;
+import com.codepunk.codepunk.app.ApiManager;
+import com.codepunk.codepunk.app.AppComponent;
+import com.codepunk.codepunk.app.AppComponents;
+import com.codepunk.codepunk.app.DaggerStandInAppComponent;
+import com.codepunk.codepunk.app.StandInAppModule;
+import com.codepunk.codepunk.app.VolleyManager;
+import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.standin.StandInConfig;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link VolleyFuture}, completed by user requests to a stand-in server. The server
+ * answers after a delay, so that requests can be canceled while they are in flight.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VolleyFutureTest {
+
+  private static final String TAG = "VolleyFutureTest";
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule(
+      new StandInConfig.Builder().setLatency(300, TimeUnit.MILLISECONDS).build());
+
+  private Context mContext;
+  private StandInServer mServer;
+  private AppComponent mPreviousComponent;
+  private String mAuthToken;
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mServer = mStandIn.getServer();
+    mPreviousComponent = AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(mContext, mServer.getAuthority()))
+        .build());
+    mAuthToken = mStandIn.getAccessToken();
+  }
+
+  @After
+  public void tearDown() {
+    AppComponents.set(mPreviousComponent);
+  }
+
+  @SuppressWarnings("unchecked")
+  private VolleyFuture<User> getAuthenticatedUser(String authToken) {
+    final ListenableFuture<User> future =
+        ApiManager.getInstance(mContext).getUserDelegate().getAuthenticatedUser(authToken, TAG);
+    return (VolleyFuture<User>) future;
+  }
+
+  @Test
+  public void completesWithTheResponse() throws Exception {
+    final VolleyFuture<User> future = getAuthenticatedUser(mAuthToken);
+    assertEquals("alice", future.get(10, TimeUnit.SECONDS).getUsername());
+  }
+
+  @Test
+  public void failsWithTheError() throws Exception {
+    final VolleyFuture<User> future = getAuthenticatedUser("not-a-token");
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("The request succeeded with an invalid token");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof VolleyError);
+    }
+  }
+
+  @Test
+  public void cancelingTheFutureCancelsTheRequest() throws Exception {
+    final VolleyFuture<User> future = getAuthenticatedUser(mAuthToken);
+    assertTrue(future.cancel(true));
+    assertTrue(future.isCancelled());
+    assertTrue(future.getRequest().isCanceled());
+  }
+
+  @Test
+  public void cancelingTheRequestCancelsTheFuture() throws Exception {
+    final VolleyFuture<User> future = getAuthenticatedUser(mAuthToken);
+    VolleyManager.getInstance(mContext).cancelAll(TAG);
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail("The request was not canceled");
+    } catch (CancellationException e) {
+      assertTrue(future.isCancelled());
+    }
+    assertTrue(future.getRequest().isCanceled());
+    assertFalse(future.cancel(true));
+  }
+}
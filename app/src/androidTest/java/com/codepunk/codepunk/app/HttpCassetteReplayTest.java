@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.StringRequest;
+import com.codepunk.codepunk.standin.StandInConfig;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.codepunk.codepunk.api.AuthTokenType.AUTH_TOKEN_TYPE_DEFAULT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that traffic recorded by a {@link RecordingNetwork} is served back by a
+ * {@link ReplayNetwork} once the stand-in server that answered it has been shut down, both for
+ * single requests and for {@link SessionManager} flows run through
+ * {@link VolleyManager#recordTo(HttpCassette)} and
+ * {@link VolleyManager#replayFrom(HttpCassette, float)}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HttpCassetteReplayTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String PASSWORD = "hunter2";
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule().setPassword(PASSWORD);
+
+  private Context mContext;
+  private StandInServer mServer;
+  private AppComponent mPreviousComponent;
+  private TestAccounts mAccounts;
+  private File mFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mServer = mStandIn.getServer();
+    mPreviousComponent = installComponent();
+    mAccounts = new TestAccounts(mContext, mServer);
+    mFile = mStandIn.newFile("cassette", ".json", mContext.getCacheDir());
+  }
+
+  @After
+  public void tearDown() {
+    mAccounts.removeAll();
+    AppComponents.set(mPreviousComponent);
+  }
+
+  /**
+   * Installs a new stand-in component, so that the next requests go through a new, unstarted
+   * {@link VolleyManager}.
+   * @return The component that was installed before.
+   */
+  private AppComponent installComponent() {
+    return AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(mContext, mServer.getAuthority()))
+        .build());
+  }
+
+  private static <V> V await(ListenableFuture<V> future) throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+
+  private Request<String> newUserRequest(final String authToken) {
+    return new StringRequest(
+        Request.Method.GET,
+        mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_AUTHENTICATED_USER,
+        null,
+        null) {
+      @Override
+      public Map<String, String> getHeaders() {
+        return Collections.singletonMap("Authorization", "Bearer " + authToken);
+      }
+    };
+  }
+
+  private static HttpCassette reload(HttpCassette cassette) throws Exception {
+    final StringWriter writer = new StringWriter();
+    cassette.write(writer);
+    return HttpCassette.read(new StringReader(writer.toString()));
+  }
+
+  @Test
+  public void replayNetwork_servesWhatRecordingNetworkRecorded() throws Exception {
+    final String authToken =
+        mServer.getAccounts().issueTokens("alice").get("access_token").getAsString();
+    final HttpCassette cassette = new HttpCassette();
+    final Network recording = new RecordingNetwork(new BasicNetwork(new HurlStack()), cassette);
+    final NetworkResponse recorded = recording.performRequest(newUserRequest(authToken));
+    try {
+      recording.performRequest(newUserRequest("bogus"));
+      fail();
+    } catch (AuthFailureError e) {
+      // Expected
+    }
+    assertEquals(2, cassette.size());
+    cassette.save(mFile);
+    mServer.shutdown();
+
+    final Network replay = new ReplayNetwork(HttpCassette.load(mFile), 0.0f);
+    final NetworkResponse replayed = replay.performRequest(newUserRequest(authToken));
+    assertEquals(recorded.statusCode, replayed.statusCode);
+    assertArrayEquals(recorded.data, replayed.data);
+    assertEquals(recorded.headers.get("Content-Type"), replayed.headers.get("Content-Type"));
+    try {
+      replay.performRequest(newUserRequest("bogus"));
+      fail();
+    } catch (AuthFailureError e) {
+      assertEquals(401, e.networkResponse.statusCode);
+    }
+    try {
+      replay.performRequest(new StringRequest(
+          Request.Method.GET,
+          mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_ALL_USERS,
+          null,
+          null));
+      fail();
+    } catch (NoConnectionError e) {
+      // Expected: it was never recorded
+    }
+  }
+
+  @Test
+  public void recordingNetwork_keepsPasswordsOutOfTheCassette() throws Exception {
+    final Map<String, String> params = new LinkedHashMap<>();
+    params.put("grant_type", "password");
+    params.put("client_id", StandInConfig.DEFAULT_CLIENT_ID);
+    params.put("client_secret", StandInConfig.DEFAULT_CLIENT_SECRET);
+    params.put("username", "alice");
+    params.put("password", PASSWORD);
+    final Request<String> request = new StringRequest(
+        Request.Method.POST,
+        mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_AUTH_TOKEN,
+        null,
+        null) {
+      @Override
+      protected Map<String, String> getParams() {
+        return params;
+      }
+    };
+    final HttpCassette cassette = new HttpCassette();
+    new RecordingNetwork(new BasicNetwork(new HurlStack()), cassette).performRequest(request);
+    final StringWriter writer = new StringWriter();
+
+    cassette.write(writer);
+    final HttpCassette loaded = HttpCassette.read(new StringReader(writer.toString()));
+
+    assertFalse(writer.toString().contains(PASSWORD));
+    final HttpCassette.Exchange exchange =
+        loaded.play(Request.Method.POST, request.getUrl(), request.getBody());
+    assertEquals(200, exchange.getStatus());
+    assertTrue(new String(exchange.getBody(), UTF_8).contains("access_token"));
+    assertTrue(exchange.getHeaders().get("Content-Type").startsWith("application/json"));
+  }
+
+  @Test
+  public void volleyManager_replaysASessionManagerFlowWithoutTheServer() throws Exception {
+    final AccountManager accountManager = AccountManager.get(mContext);
+    final String tokenType = AUTH_TOKEN_TYPE_DEFAULT.getString();
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    final String accessToken = accountManager.peekAuthToken(alice, tokenType);
+    final String refreshToken = accountManager.getPassword(alice);
+
+    // Record signing in, then a refresh whose sync is rejected and retried with a new token
+    final HttpCassette cassette = new HttpCassette();
+    VolleyManager.getInstance(mContext).recordTo(cassette);
+    final SessionManager recordingManager = SessionManager.getInstance();
+    final Session session = await(recordingManager.addAccount(mContext, alice));
+    mServer.getAccounts().expireAccessTokens();
+    final Session refreshed = await(recordingManager.refresh(mContext));
+    assertNotEquals(session.getAuthToken(), refreshed.getAuthToken());
+    cassette.save(mFile);
+    mServer.shutdown();
+
+    // Put the account back as it was, so that the same requests are made again
+    installComponent();
+    VolleyManager.getInstance(mContext).replayFrom(HttpCassette.load(mFile), 0.0f);
+    accountManager.setPassword(alice, refreshToken);
+    accountManager.setAuthToken(alice, tokenType, accessToken);
+    mContext.deleteDatabase(SessionManager.getEntityDatabaseName(Environment.STAND_IN, alice));
+    final SessionManager replayingManager = SessionManager.getInstance();
+
+    final Session replayed = await(replayingManager.addAccount(mContext, alice));
+    assertEquals(session.getAuthToken(), replayed.getAuthToken());
+    assertEquals("alice", replayed.getUser().getUsername());
+    final Session replayedRefresh = await(replayingManager.refresh(mContext));
+    assertEquals(refreshed.getAuthToken(), replayedRefresh.getAuthToken());
+    assertEquals(refreshed.getUser().getId(), replayedRefresh.getUser().getId());
+    assertEquals(refreshed.getUser().getEmail(), replayedRefresh.getUser().getEmail());
+    assertFalse(mServer.isRunning());
+  }
+
+  @Test
+  public void volleyManager_refusesACassetteOnceTheQueueHasStarted() throws Exception {
+    final VolleyManager volleyManager = VolleyManager.getInstance(mContext);
+    volleyManager.recordTo(new HttpCassette());
+    try {
+      volleyManager.replayFrom(new HttpCassette(), 0.0f);
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    installComponent();
+    final VolleyManager started = VolleyManager.getInstance(mContext);
+    await(started.getRequestQueueFuture());
+    try {
+      started.recordTo(new HttpCassette());
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+}
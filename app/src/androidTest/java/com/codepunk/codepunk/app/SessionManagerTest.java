@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.JsonObject;
+
+import android.accounts.Account;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.standin.StandInConfig;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.codepunk.codepunk.app.AppConstants.KEY_SAVED_ACCOUNT_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for adding, switching and refreshing sessions through {@link SessionManager}, against a
+ * stand-in server.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionManagerTest {
+
+  private static final String PASSWORD = "secret";
+
+  private Context mContext;
+  private StandInServer mServer;
+  private AppComponent mPreviousComponent;
+  private TestAccounts mAccounts;
+  private SessionManager mSessionManager;
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mServer = new StandInServer(
+        new StandInConfig.Builder().setLatency(50, TimeUnit.MILLISECONDS).build());
+    mServer.start();
+    mPreviousComponent = AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(mContext, mServer.getAuthority()))
+        .build());
+    mAccounts = new TestAccounts(mContext, mServer);
+    mSessionManager = SessionManager.getInstance();
+  }
+
+  @After
+  public void tearDown() {
+    mAccounts.removeAll();
+    AppComponents.set(mPreviousComponent);
+    mServer.shutdown();
+  }
+
+  private static <V> V await(ListenableFuture<V> future) throws Exception {
+    return future.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void addAccount_authenticatesWithoutUi() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+
+    final Session session = await(mSessionManager.addAccount(mContext, alice));
+    assertEquals(alice, session.getAccount());
+    assertEquals("alice", session.getUser().getUsername());
+    assertEquals(SessionManager.State.AUTHENTICATED, mSessionManager.getState());
+    assertSame(session, mSessionManager.getSession());
+  }
+
+  @Test
+  public void addAccount_keepsSessionsAliveAndSwitchesWithoutApiCalls() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    final Account bob = mAccounts.add("bob", PASSWORD);
+    final Session aliceSession = await(mSessionManager.addAccount(mContext, alice));
+    final Session bobSession = await(mSessionManager.addAccount(mContext, bob));
+
+    final List<Session> sessions = mSessionManager.getSessions();
+    assertEquals(2, sessions.size());
+    assertSame(aliceSession, sessions.get(0));
+    assertSame(bobSession, sessions.get(1));
+    assertEquals("bob", mSessionManager.getUser().getUsername());
+
+    final long requests = mServer.getStats().get(StandInStats.REQUESTS);
+    assertTrue(mSessionManager.switchSession(mContext, "alice"));
+    assertEquals(SessionManager.State.AUTHENTICATED, mSessionManager.getState());
+    assertEquals(alice, mSessionManager.getAccount());
+    assertSame(aliceSession.getUser(), mSessionManager.getUser());
+    assertSame(aliceSession, mSessionManager.getSessions().get(1));
+    assertFalse(mSessionManager.switchSession(mContext, "carol"));
+    assertEquals(requests, mServer.getStats().get(StandInStats.REQUESTS));
+  }
+
+  @Test
+  public void addAccount_doesNotInterruptAnAuthenticationInProgress() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    final Account bob = mAccounts.add("bob", PASSWORD);
+
+    final ListenableFuture<Session> first = mSessionManager.addAccount(mContext, alice);
+    final ListenableFuture<Session> second = mSessionManager.addAccount(mContext, bob);
+    try {
+      await(second);
+      fail("A second authentication started while the first was in progress");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(alice, await(first).getAccount());
+    assertEquals(alice, mSessionManager.getAccount());
+    assertEquals(1, mSessionManager.getSessions().size());
+  }
+
+  @Test
+  public void addAccount_fallsBackToTheLiveSessionWhenAuthenticationFails() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    final Account bob = mAccounts.add("bob", PASSWORD);
+    final Session aliceSession = await(mSessionManager.addAccount(mContext, alice));
+
+    // Bob's refresh token is no good, and there is no activity to log in with
+    mAccounts.expire(bob);
+    mServer.getAccounts().revokeRefreshTokens();
+    try {
+      await(mSessionManager.addAccount(mContext, bob));
+      fail("Authenticated an account whose refresh token was revoked");
+    } catch (ExecutionException e) {
+      // Expected
+    }
+
+    assertEquals(SessionManager.State.AUTHENTICATED, mSessionManager.getState());
+    assertSame(aliceSession, mSessionManager.getSession());
+    assertEquals(
+        "alice",
+        SessionStore.getInstance(mContext)
+            .get(Environment.STAND_IN)
+            .getString(KEY_SAVED_ACCOUNT_NAME, null));
+  }
+
+  @Test
+  public void addAccount_looksUpAKnownUserWithoutCallingTheApi() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    final Session first = await(mSessionManager.addAccount(mContext, alice));
+    await(mSessionManager.getUserStore(mContext).flush());
+
+    // A new component stands in for the app starting again with the account already added
+    AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(mContext, mServer.getAuthority()))
+        .build());
+    mSessionManager = SessionManager.getInstance();
+    mServer.getStats().reset();
+    final Session second = await(mSessionManager.addAccount(mContext, alice));
+
+    assertEquals(first.getUser().getId(), second.getUser().getId());
+    assertEquals("alice", second.getUser().getUsername());
+    assertEquals(0, mServer.getStats().get(StandInStats.USER_REQUESTS));
+  }
+
+  @Test
+  public void refresh_replacesARejectedAuthToken() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    final Session session = await(mSessionManager.addAccount(mContext, alice));
+    final long refreshes = mServer.getStats().get(StandInStats.REFRESH_GRANTS);
+
+    // The app still believes the token is valid; only the server knows it is not
+    mServer.getAccounts().expireAccessTokens();
+    final Session refreshed = await(mSessionManager.refresh(mContext));
+
+    assertNotEquals(session.getAuthToken(), refreshed.getAuthToken());
+    assertEquals("alice", refreshed.getUser().getUsername());
+    assertEquals(refreshes + 1, mServer.getStats().get(StandInStats.REFRESH_GRANTS));
+    assertSame(refreshed, mSessionManager.getSession());
+    assertSame(refreshed.getUser(), mSessionManager.getUser());
+
+    // The new token is the one the session uses from now on
+    final long refreshesAfter = mServer.getStats().get(StandInStats.REFRESH_GRANTS);
+    assertEquals(
+        refreshed.getAuthToken(),
+        await(mSessionManager.refresh(mContext)).getAuthToken());
+    assertEquals(refreshesAfter, mServer.getStats().get(StandInStats.REFRESH_GRANTS));
+  }
+
+  @Test
+  public void refresh_syncsOnlyWhatChanged() throws Exception {
+    final Account alice = mAccounts.add("alice", PASSWORD);
+    await(mSessionManager.addAccount(mContext, alice));
+    await(mSessionManager.refresh(mContext));
+    mServer.getStats().reset();
+
+    final JsonObject update = new JsonObject();
+    update.addProperty("email", "alice@example.org");
+    mServer.getAccounts().updateUser("alice", update);
+    final Session refreshed = await(mSessionManager.refresh(mContext));
+
+    assertEquals("alice@example.org", refreshed.getUser().getEmail());
+    assertEquals("alice", refreshed.getUser().getUsername());
+    assertSame(refreshed.getUser(), mSessionManager.getUser());
+    assertEquals(1, mServer.getStats().get(StandInStats.SYNC_REQUESTS));
+    assertEquals(1, mServer.getStats().get(StandInStats.SYNC_CHANGES));
+    assertEquals(0, mServer.getStats().get(StandInStats.USER_REQUESTS));
+    assertEquals(
+        "alice@example.org",
+        mSessionManager.getEntityStore(mContext, alice)
+            .get(User.ENTITY_TYPE, String.valueOf(refreshed.getUser().getId()))
+            .get("email")
+            .getAsString());
+  }
+}
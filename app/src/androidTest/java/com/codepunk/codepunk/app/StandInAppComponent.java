@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+/**
+ * An {@link AppComponent} wired to a stand-in server. Install it with
+ * {@link AppComponents#set(AppComponent)}:
+ * <pre>
+ * AppComponents.set(DaggerStandInAppComponent.builder()
+ *     .standInAppModule(new StandInAppModule(context, server.getAuthority()))
+ *     .build());
+ * </pre>
+ */
+@Singleton
+@Component(modules = StandInAppModule.class)
+public interface StandInAppComponent extends AppComponent {
+}
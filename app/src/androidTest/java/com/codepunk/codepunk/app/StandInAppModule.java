@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+
+import com.codepunk.codepunk.api.Api;
+import com.codepunk.codepunk.util.AccountIndex;
+
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.Provides;
+
+/**
+ * A replacement for {@link AppModule} that points the app at a stand-in server. The managers
+ * it provides are fresh instances, independent of the ones the app started with.
+ */
+@Module
+public class StandInAppModule {
+
+  /**
+   * The application context.
+   */
+  private final Context mAppContext;
+
+  /**
+   * Constructor that accepts a {@link Context} and the authority of the stand-in server.
+   * @param context The context to use to get the application context.
+   * @param authority The authority (host and port) of the stand-in server.
+   */
+  public StandInAppModule(Context context, String authority) {
+    mAppContext = context.getApplicationContext();
+    Api.ApiStandIn.setAuthority(authority);
+  }
+
+  @Provides
+  @Singleton
+  Context provideContext() {
+    return mAppContext;
+  }
+
+  /**
+   * Creates a {@link SessionManager} set to the stand-in environment, independent of the one
+   * the component provides. Tests that simulate several devices use one per device.
+   * @return The new SessionManager.
+   */
+  public static SessionManager newSessionManager() {
+    final SessionManager sessionManager = new SessionManager();
+    sessionManager.setEnvironment(Environment.STAND_IN);
+    return sessionManager;
+  }
+
+  @Provides
+  @Singleton
+  SessionManager provideSessionManager() {
+    return newSessionManager();
+  }
+
+  @Provides
+  @Singleton
+  VolleyManager provideVolleyManager(Context context) {
+    return new VolleyManager(context);
+  }
+
+  @Provides
+  @Singleton
+  ApiManager provideApiManager(Context context, SessionManager sessionManager) {
+    return new ApiManager(context, sessionManager);
+  }
+
+  @Provides
+  @Singleton
+  SessionStore provideSessionStore(Context context) {
+    return new SessionStore(context);
+  }
+
+  @Provides
+  @Singleton
+  TlsSessionManager provideTlsSessionManager(Context context) {
+    return new TlsSessionManager(context);
+  }
+
+  @Provides
+  @Singleton
+  ConnectionPrewarmer provideConnectionPrewarmer(Context context, SessionManager sessionManager) {
+    final ConnectionPrewarmer connectionPrewarmer = new ConnectionPrewarmer(context);
+    sessionManager.setConnectionPrewarmer(connectionPrewarmer);
+    return connectionPrewarmer;
+  }
+
+  @Provides
+  @Singleton
+  AccountIndex provideAccountIndex(Context context) {
+    return new AccountIndex(context);
+  }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepunk.codepunk.model.ChangeSet;
+import com.codepunk.codepunk.model.CodepunkResponse;
+import com.codepunk.codepunk.standin.StandInAccounts;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+import com.codepunk.codepunk.standin.StandInStats;
+import com.codepunk.codepunk.util.VersionedEntityStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SyncEngine} and {@link VersionedEntityStore}, run against a
+ * {@link StandInServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncEngineTest {
+
+  private static final String TYPE = StandInAccounts.TYPE_USER;
+  private static final int PAGE_LIMIT = 3;
+  private static final String DATABASE_NAME = "sync_engine_test.db";
+  private static final Type CHANGE_SET_TYPE =
+      new TypeToken<CodepunkResponse<ChangeSet>>() {}.getType();
+
+  /**
+   * A change source that calls the stand-in server's sync endpoint directly.
+   */
+  private class HttpChangeSource implements SyncEngine.ChangeSource {
+    @Override
+    public ListenableFuture<ChangeSet> getChanges(String syncToken) {
+      try {
+        final String url = mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_CHANGES
+            + "?limit=" + PAGE_LIMIT + (syncToken == null ? "" : "&since=" + syncToken);
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Authorization", "Bearer " + mAccessToken);
+        try {
+          if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + connection.getResponseCode());
+          }
+          final Reader reader =
+              new InputStreamReader(connection.getInputStream(), Charset.forName("UTF-8"));
+          final CodepunkResponse<ChangeSet> response = new Gson().fromJson(reader, CHANGE_SET_TYPE);
+          return Futures.immediateFuture(response.getResult());
+        } finally {
+          connection.disconnect();
+        }
+      } catch (IOException e) {
+        return Futures.immediateFailedFuture(e);
+      }
+    }
+  }
+
+  /**
+   * An observer that records what it hears.
+   */
+  private static class RecordingObserver implements SyncEngine.Observer {
+    final Map<String, Set<String>> mChanged = new LinkedHashMap<>();
+    final Map<String, JsonObject> mEntities = new LinkedHashMap<>();
+    final List<String> mDeleted = new ArrayList<>();
+
+    @Override
+    public void onEntityChanged(
+        SyncEngine engine,
+        String type,
+        String id,
+        JsonObject entity,
+        Set<String> changedFields) {
+      mChanged.put(id, changedFields);
+      mEntities.put(id, entity);
+    }
+
+    @Override
+    public void onEntityDeleted(SyncEngine engine, String type, String id) {
+      mDeleted.add(id);
+    }
+
+    void clear() {
+      mChanged.clear();
+      mEntities.clear();
+      mDeleted.clear();
+    }
+  }
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule().setUserCount(10);
+
+  private StandInServer mServer;
+  private String mAccessToken;
+  private Context mContext;
+  private List<VersionedEntityStore> mStores;
+  private RecordingObserver mObserver;
+  private SyncEngine mEngine;
+
+  @Before
+  public void setUp() throws Exception {
+    mServer = mStandIn.getServer();
+    mAccessToken = mStandIn.getAccessToken();
+
+    mContext = InstrumentationRegistry.getTargetContext();
+    mContext.deleteDatabase(DATABASE_NAME);
+    mStores = new ArrayList<>();
+    mObserver = new RecordingObserver();
+    mEngine = newEngine();
+  }
+
+  @After
+  public void tearDown() {
+    for (VersionedEntityStore store : mStores) {
+      store.close();
+    }
+    mContext.deleteDatabase(DATABASE_NAME);
+  }
+
+  private SyncEngine newEngine() {
+    final VersionedEntityStore store = new VersionedEntityStore(mContext, DATABASE_NAME);
+    mStores.add(store);
+    final SyncEngine engine = new SyncEngine(
+        store,
+        new HttpChangeSource(),
+        MoreExecutors.directExecutor());
+    engine.addObserver(TYPE, mObserver);
+    return engine;
+  }
+
+  @Test
+  public void sync_firstSyncPagesThroughEveryEntity() throws Exception {
+    assertEquals(Integer.valueOf(10), mEngine.sync().get());
+
+    assertEquals(10, mObserver.mChanged.size());
+    assertTrue(mObserver.mChanged.get("1").containsAll(Arrays.asList("username", "email")));
+    assertEquals("alice", mObserver.mEntities.get("1").get("username").getAsString());
+    assertEquals(10, mEngine.getStore().getIds(TYPE).size());
+    assertEquals(String.valueOf(mServer.getChangeLog().getSequence()),
+        mEngine.getStore().getSyncToken());
+    assertEquals(4, mServer.getStats().get(StandInStats.SYNC_REQUESTS));
+    assertFalse(mEngine.isSyncing());
+  }
+
+  @Test
+  public void sync_doesNothingOnTheCallingThread() throws Exception {
+    final Queue<Runnable> queued = new ArrayDeque<>();
+    final VersionedEntityStore store = new VersionedEntityStore(mContext, DATABASE_NAME);
+    mStores.add(store);
+    final SyncEngine engine = new SyncEngine(store, new HttpChangeSource(), new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        queued.add(command);
+      }
+    });
+
+    final ListenableFuture<Integer> sync = engine.sync();
+    assertSame(sync, engine.sync());
+    assertEquals(1, queued.size());
+    assertEquals(0, mServer.getStats().get(StandInStats.SYNC_REQUESTS));
+
+    while (!sync.isDone()) {
+      queued.remove().run();
+    }
+    assertEquals(Integer.valueOf(10), sync.get());
+    assertEquals(4, mServer.getStats().get(StandInStats.SYNC_REQUESTS));
+  }
+
+  @Test
+  public void sync_onlyTransfersAndReportsWhatChanged() throws Exception {
+    mEngine.sync().get();
+    mObserver.clear();
+    mServer.getStats().reset();
+
+    final JsonObject update = new JsonObject();
+    update.addProperty("email", "alice@example.org");
+    update.addProperty("enabled", true);
+    mServer.getAccounts().updateUser("alice", update);
+
+    assertEquals(Integer.valueOf(1), mEngine.sync().get());
+    assertEquals(1, mServer.getStats().get(StandInStats.SYNC_REQUESTS));
+    assertEquals(1, mServer.getStats().get(StandInStats.SYNC_CHANGES));
+    assertEquals(Collections.singleton("1"), mObserver.mChanged.keySet());
+    assertEquals(
+        "enabled was already true, so only the email changed",
+        Collections.singleton("email"),
+        mObserver.mChanged.get("1"));
+    assertEquals("alice@example.org", mObserver.mEntities.get("1").get("email").getAsString());
+    assertEquals("alice", mObserver.mEntities.get("1").get("username").getAsString());
+
+    // Nothing changed since, so nothing is transferred
+    mServer.getStats().reset();
+    assertEquals(Integer.valueOf(0), mEngine.sync().get());
+    assertEquals(0, mServer.getStats().get(StandInStats.SYNC_CHANGES));
+  }
+
+  @Test
+  public void sync_appliesTombstones() throws Exception {
+    mEngine.sync().get();
+    mObserver.clear();
+    final String id = mServer.getAccounts().getUser("user3").get("id").getAsString();
+
+    mServer.getAccounts().removeUser("user3");
+    assertEquals(Integer.valueOf(1), mEngine.sync().get());
+    assertEquals(Collections.singletonList(id), mObserver.mDeleted);
+    assertTrue(mObserver.mChanged.isEmpty());
+    assertNull(mEngine.getStore().get(TYPE, id));
+    assertTrue(mEngine.getStore().isDeleted(TYPE, id));
+    assertEquals(9, mEngine.getStore().getIds(TYPE).size());
+  }
+
+  @Test
+  public void sync_collapsesUpdatesAndDeletionsMadeBetweenSyncs() throws Exception {
+    mEngine.sync().get();
+    mObserver.clear();
+    final String id = mServer.getAccounts().getUser("user5").get("id").getAsString();
+
+    final JsonObject update = new JsonObject();
+    update.addProperty("locked", true);
+    mServer.getAccounts().updateUser("user5", update);
+    mServer.getAccounts().removeUser("user5");
+    mServer.getStats().reset();
+
+    assertEquals(Integer.valueOf(1), mEngine.sync().get());
+    assertEquals(1, mServer.getStats().get(StandInStats.SYNC_CHANGES));
+    assertEquals(Collections.singletonList(id), mObserver.mDeleted);
+    assertTrue(mObserver.mChanged.isEmpty());
+  }
+
+  @Test
+  public void store_ignoresStaleChanges() throws Exception {
+    final VersionedEntityStore store = mEngine.getStore();
+    final JsonObject fields = new JsonObject();
+    fields.addProperty("username", "bob");
+    assertEquals(Collections.singleton("username"), store.merge(TYPE, "42", 5L, fields));
+    assertNull(store.merge(TYPE, "42", 5L, fields));
+    assertEquals(Collections.<String>emptySet(), store.merge(TYPE, "42", 6L, fields));
+    assertEquals(6L, store.getVersion(TYPE, "42"));
+
+    assertTrue(store.delete(TYPE, "42", 7L));
+    fields.addProperty("username", "robert");
+    assertNull("a late update does not resurrect a tombstone", store.merge(TYPE, "42", 6L, fields));
+    assertTrue(store.isDeleted(TYPE, "42"));
+    assertFalse(store.delete(TYPE, "42", 8L));
+
+    assertEquals(new HashSet<>(Collections.singleton("username")),
+        store.merge(TYPE, "42", 9L, fields));
+    assertEquals("robert", store.get(TYPE, "42").get("username").getAsString());
+  }
+
+  @Test
+  public void apply_keepsNoPartOfAFailedPage() throws Exception {
+    // The second change has no id, which the store's schema refuses
+    final ChangeSet changeSet = new Gson().fromJson("{\"changes\": ["
+        + "{\"type\": \"user\", \"id\": \"42\", \"version\": 1,"
+        + " \"fields\": {\"username\": \"bob\"}},"
+        + "{\"type\": \"user\", \"version\": 2, \"fields\": {\"username\": \"carol\"}}"
+        + "], \"next_token\": \"2\", \"has_more\": false}", ChangeSet.class);
+    try {
+      mEngine.apply(changeSet);
+      fail();
+    } catch (RuntimeException e) {
+      // Expected
+    }
+    assertEquals(-1L, mEngine.getStore().getVersion(TYPE, "42"));
+    assertNull(mEngine.getStore().getSyncToken());
+    assertTrue(mObserver.mChanged.isEmpty());
+  }
+
+  @Test
+  public void store_survivesRestart() throws Exception {
+    mEngine.sync().get();
+    final String token = mEngine.getStore().getSyncToken();
+    mObserver.clear();
+    mServer.getStats().reset();
+
+    final SyncEngine engine = newEngine();
+    assertEquals(token, engine.getStore().getSyncToken());
+    assertEquals(10, engine.getStore().getIds(TYPE).size());
+    assertEquals("user4", engine.getStore().get(TYPE, "5").get("username").getAsString());
+    assertEquals(Integer.valueOf(0), engine.sync().get());
+    assertTrue(mObserver.mChanged.isEmpty());
+    assertEquals(0, mServer.getStats().get(StandInStats.SYNC_CHANGES));
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+
+import com.codepunk.codepunk.R;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.codepunk.codepunk.api.AuthTokenType.AUTH_TOKEN_TYPE_DEFAULT;
+import static com.codepunk.codepunk.app.AppConstants.KEY_EXPIRES_AT;
+import static com.codepunk.codepunk.app.AppConstants.MILLIS_PER_SECOND;
+
+/**
+ * Creates {@link AccountManager} accounts for users of a {@link StandInServer}, signed in with
+ * tokens the server issued, the way the authenticator leaves them after a login; and removes
+ * them again.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TestAccounts {
+
+  /**
+   * The context of the app under test.
+   */
+  private final Context mContext;
+
+  /**
+   * The server that issues the accounts' tokens.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * The account type of the app under test.
+   */
+  private final String mAccountType;
+
+  /**
+   * The account manager.
+   */
+  private final AccountManager mAccountManager;
+
+  /**
+   * The accounts added so far.
+   */
+  private final List<Account> mAccounts = new ArrayList<>();
+
+  /**
+   * Constructor.
+   * @param context The context of the app under test.
+   * @param server A running stand-in server.
+   */
+  public TestAccounts(Context context, StandInServer server) {
+    mContext = context;
+    mServer = server;
+    mAccountType = context.getString(R.string.authenticator_account_type);
+    mAccountManager = AccountManager.get(context);
+  }
+
+  /**
+   * Returns the account type of the app under test.
+   * @return The account type.
+   */
+  public String getAccountType() {
+    return mAccountType;
+  }
+
+  /**
+   * Returns the accounts added so far.
+   * @return The accounts.
+   */
+  public List<Account> getAccounts() {
+    return mAccounts;
+  }
+
+  /**
+   * Adds a user to the server (unless it already has one by that name) and an account for it
+   * with a fresh access token and refresh token and an empty entity store.
+   * @param username The username.
+   * @param password The password, used if the user is added.
+   * @return The account.
+   */
+  @SuppressWarnings({"MissingPermission"})
+  public Account add(String username, String password) {
+    if (mServer.getAccounts().getUser(username) == null) {
+      mServer.getAccounts().addUser(username, password);
+    }
+    final JsonObject tokens = mServer.getAccounts().issueTokens(username);
+    final Account account = new Account(username, mAccountType);
+    final String refreshToken = tokens.get("refresh_token").getAsString();
+    if (!mAccountManager.addAccountExplicitly(account, refreshToken, null)) {
+      mAccountManager.setPassword(account, refreshToken);
+    }
+    mAccountManager.setAuthToken(
+        account,
+        AUTH_TOKEN_TYPE_DEFAULT.getString(),
+        tokens.get("access_token").getAsString());
+    mAccountManager.setUserData(
+        account,
+        KEY_EXPIRES_AT,
+        String.valueOf(System.currentTimeMillis()
+            + tokens.get("expires_in").getAsInt() * MILLIS_PER_SECOND));
+    // A sync token left by an earlier server means nothing to this one
+    mContext.deleteDatabase(SessionManager.getEntityDatabaseName(Environment.STAND_IN, account));
+    mAccounts.add(account);
+    return account;
+  }
+
+  /**
+   * Expires the access token of an account on the client, so that the next auth token request
+   * refreshes it. The token is invalidated as well as marked expired, because the account manager
+   * hands out a cached token without asking the authenticator.
+   * @param account The account.
+   */
+  @SuppressWarnings({"MissingPermission"})
+  public void expire(Account account) {
+    mAccountManager.setUserData(account, KEY_EXPIRES_AT, "0");
+    mAccountManager.invalidateAuthToken(
+        mAccountType,
+        mAccountManager.peekAuthToken(account, AUTH_TOKEN_TYPE_DEFAULT.getString()));
+  }
+
+  /**
+   * Removes every account added so far.
+   */
+  @SuppressWarnings({"deprecation", "MissingPermission"})
+  public void removeAll() {
+    for (Account account : mAccounts) {
+      mAccountManager.removeAccount(account, null, null);
+    }
+    mAccounts.clear();
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+import android.net.SSLSessionCache;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static android.content.Context.MODE_PRIVATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TlsSessionManager}. The stand-in server does not speak TLS, so these cover
+ * how session caches are handed out and reused rather than resumed handshakes themselves.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TlsSessionManagerTest {
+
+  private Context mContext;
+  private TlsSessionManager mManager;
+  private Environment mEnvironment;
+
+  /**
+   * A provider that records the environments it is asked for.
+   */
+  private static class RecordingProvider implements TlsSessionManager.SessionCacheProvider {
+    final List<Environment> mRequests = new ArrayList<>();
+    final SSLSessionCache mCache;
+
+    RecordingProvider(SSLSessionCache cache) {
+      mCache = cache;
+    }
+
+    @Override
+    public synchronized SSLSessionCache getSessionCache(Context context, Environment environment) {
+      mRequests.add(environment);
+      return mCache;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mManager = TlsSessionManager.getInstance(mContext);
+    mEnvironment = SessionManager.getInstance().getEnvironment();
+  }
+
+  @After
+  public void tearDown() {
+    mManager.setSessionCacheProvider(null);
+  }
+
+  private static void createAndClose(SSLSocketFactory socketFactory) throws IOException {
+    final Socket socket = socketFactory.createSocket();
+    try {
+      assertTrue(socket instanceof SSLSocket);
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void socketFactory_reusesOneSessionCachePerEnvironment() throws Exception {
+    final RecordingProvider provider = new RecordingProvider(new SSLSessionCache(mContext));
+    mManager.setSessionCacheProvider(provider);
+
+    final SSLSocketFactory socketFactory = mManager.getSocketFactory();
+    for (int i = 0; i < 3; i++) {
+      createAndClose(socketFactory);
+    }
+    assertSame(socketFactory, mManager.getSocketFactory());
+    assertEquals(1, provider.mRequests.size());
+    assertSame(mEnvironment, provider.mRequests.get(0));
+  }
+
+  @Test
+  public void setSessionCacheProvider_replacesTheCacheOfNewSockets() throws Exception {
+    final RecordingProvider first = new RecordingProvider(new SSLSessionCache(mContext));
+    mManager.setSessionCacheProvider(first);
+    createAndClose(mManager.getSocketFactory());
+
+    final RecordingProvider second = new RecordingProvider(new SSLSessionCache(mContext));
+    mManager.setSessionCacheProvider(second);
+    createAndClose(mManager.getSocketFactory());
+    createAndClose(mManager.getSocketFactory());
+
+    assertEquals(1, first.mRequests.size());
+    assertEquals(1, second.mRequests.size());
+  }
+
+  @Test
+  public void socketFactory_worksWithoutSessionCache() throws Exception {
+    final RecordingProvider provider = new RecordingProvider(null);
+    mManager.setSessionCacheProvider(provider);
+
+    createAndClose(mManager.getSocketFactory());
+    assertEquals(1, provider.mRequests.size());
+  }
+
+  @Test
+  public void defaultProvider_fallsBackWhenSessionDirectoryIsUnusable() throws Exception {
+    final File dir =
+        mContext.getDir(TlsSessionManager.getSessionDirName(mEnvironment), MODE_PRIVATE);
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        assertTrue(file.delete());
+      }
+    }
+    assertTrue(dir.delete());
+    // A plain file where the session directory should be makes the file-backed cache fail
+    assertTrue(dir.createNewFile());
+    try {
+      mManager.setSessionCacheProvider(null);
+      createAndClose(mManager.getSocketFactory());
+    } finally {
+      assertTrue(dir.delete());
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.load;
+
+import android.os.Debug;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * Counts the objects and bytes that an operation allocates on the calling thread, using the
+ * runtime's per-thread allocation counters ({@link Debug#getThreadAllocCount()} and
+ * {@link Debug#getThreadAllocSize()}). Tests run an operation through
+ * {@link #measure(String, Operation)} and assert that the {@link Result} stays within a budget,
+ * so that allocation regressions on hot paths are caught before release.
+ * </p>
+ *
+ * <p>
+ * The operation is first run a number of times without counting, so that one-time work (class
+ * initialization, Gson adapter caches, interned strings) does not count against it, and then
+ * run a number of times while counting. The result is the average per run. Only allocations
+ * made on the calling thread are counted; work handed off to other threads is not.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess", "deprecation"})
+public class AllocationCounter {
+
+  /**
+   * The default number of uncounted runs.
+   */
+  public static final int DEFAULT_WARM_UP_ITERATIONS = 50;
+
+  /**
+   * The default number of counted runs.
+   */
+  public static final int DEFAULT_ITERATIONS = 200;
+
+  /**
+   * An operation whose allocations are counted.
+   */
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  /**
+   * The number of uncounted runs.
+   */
+  private final int mWarmUpIterations;
+
+  /**
+   * The number of counted runs.
+   */
+  private final int mIterations;
+
+  /**
+   * Creates a counter with the default numbers of runs.
+   */
+  public AllocationCounter() {
+    this(DEFAULT_WARM_UP_ITERATIONS, DEFAULT_ITERATIONS);
+  }
+
+  /**
+   * Creates a counter.
+   * @param warmUpIterations The number of uncounted runs.
+   * @param iterations The number of counted runs.
+   */
+  public AllocationCounter(int warmUpIterations, int iterations) {
+    if (warmUpIterations < 0 || iterations <= 0) {
+      throw new IllegalArgumentException("Invalid iteration counts");
+    }
+    mWarmUpIterations = warmUpIterations;
+    mIterations = iterations;
+  }
+
+  /**
+   * Returns whether the runtime counts allocations. Tests should skip their budgets if not.
+   * @return Whether allocations are counted.
+   */
+  public static boolean isSupported() {
+    final Object[] sink = new Object[1];
+    final Result result;
+    try {
+      result = new AllocationCounter(0, 1).measure("probe", new Operation() {
+        @Override
+        public void run() {
+          sink[0] = new byte[64];
+        }
+      });
+    } catch (Exception e) {
+      return false;
+    }
+    return result.getAllocations() > 0L;
+  }
+
+  /**
+   * Runs an operation and counts its allocations.
+   * @param name A name for the operation, used in the result's string form.
+   * @param operation The operation.
+   * @return The allocations per run.
+   * @throws Exception If the operation throws.
+   */
+  public Result measure(String name, Operation operation) throws Exception {
+    for (int i = 0; i < mWarmUpIterations; i++) {
+      operation.run();
+    }
+    Debug.startAllocCounting();
+    try {
+      Debug.resetThreadAllocCount();
+      Debug.resetThreadAllocSize();
+      for (int i = 0; i < mIterations; i++) {
+        operation.run();
+      }
+      final long count = Debug.getThreadAllocCount();
+      final long size = Debug.getThreadAllocSize();
+      return new Result(name, count, size, mIterations);
+    } finally {
+      Debug.stopAllocCounting();
+    }
+  }
+
+  /**
+   * The allocations counted for an operation.
+   */
+  public static class Result {
+
+    /**
+     * The name of the operation.
+     */
+    private final String mName;
+
+    /**
+     * The number of objects allocated over all counted runs.
+     */
+    private final long mTotalAllocations;
+
+    /**
+     * The number of bytes allocated over all counted runs.
+     */
+    private final long mTotalBytes;
+
+    /**
+     * The number of counted runs.
+     */
+    private final int mIterations;
+
+    Result(String name, long totalAllocations, long totalBytes, int iterations) {
+      mName = name;
+      mTotalAllocations = totalAllocations;
+      mTotalBytes = totalBytes;
+      mIterations = iterations;
+    }
+
+    /**
+     * Returns the name of the operation.
+     * @return The name.
+     */
+    public String getName() {
+      return mName;
+    }
+
+    /**
+     * Returns the average number of objects allocated per run.
+     * @return The number of objects, rounded up.
+     */
+    public long getAllocations() {
+      return (mTotalAllocations + mIterations - 1) / mIterations;
+    }
+
+    /**
+     * Returns the average number of bytes allocated per run.
+     * @return The number of bytes, rounded up.
+     */
+    public long getBytes() {
+      return (mTotalBytes + mIterations - 1) / mIterations;
+    }
+
+    /**
+     * Returns whether this result is within a budget.
+     * @param maxAllocations The maximum number of objects per run.
+     * @param maxBytes The maximum number of bytes per run.
+     * @return Whether neither maximum is exceeded.
+     */
+    public boolean isWithin(long maxAllocations, long maxBytes) {
+      return getAllocations() <= maxAllocations && getBytes() <= maxBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s: %d allocations, %d bytes per op (%d ops)",
+          mName,
+          getAllocations(),
+          getBytes(),
+          mIterations);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.load;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe recorder of latency samples that reports nearest-rank percentiles.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LatencyRecorder {
+
+  /**
+   * The recorded samples, in nanoseconds.
+   */
+  private long[] mSamples;
+
+  /**
+   * The number of recorded samples.
+   */
+  private int mCount;
+
+  /**
+   * Creates a recorder.
+   * @param expectedSamples The expected number of samples, used to size the initial buffer.
+   */
+  public LatencyRecorder(int expectedSamples) {
+    mSamples = new long[Math.max(16, expectedSamples)];
+  }
+
+  /**
+   * Records a sample.
+   * @param nanos The latency, in nanoseconds.
+   */
+  public synchronized void record(long nanos) {
+    if (mCount == mSamples.length) {
+      mSamples = Arrays.copyOf(mSamples, mCount * 2);
+    }
+    mSamples[mCount++] = nanos;
+  }
+
+  /**
+   * Returns the number of recorded samples.
+   * @return The sample count.
+   */
+  public synchronized int getCount() {
+    return mCount;
+  }
+
+  /**
+   * Returns an immutable, sorted snapshot of the recorded samples.
+   * @return The snapshot.
+   */
+  public synchronized Snapshot snapshot() {
+    final long[] sorted = Arrays.copyOf(mSamples, mCount);
+    Arrays.sort(sorted);
+    return new Snapshot(sorted);
+  }
+
+  /**
+   * A sorted set of samples.
+   */
+  public static class Snapshot {
+
+    /**
+     * The sorted samples, in nanoseconds.
+     */
+    private final long[] mSorted;
+
+    private Snapshot(long[] sorted) {
+      mSorted = sorted;
+    }
+
+    /**
+     * Returns the nearest-rank percentile.
+     * @param percentile The percentile, between 0 and 100.
+     * @param unit The unit of the returned value.
+     * @return The percentile value, or 0 if there are no samples.
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+      if (mSorted.length == 0) {
+        return 0L;
+      }
+      final int rank = (int) Math.ceil(percentile / 100.0d * mSorted.length);
+      final int index = Math.min(mSorted.length - 1, Math.max(0, rank - 1));
+      return unit.convert(mSorted[index], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the largest sample.
+     * @param unit The unit of the returned value.
+     * @return The maximum, or 0 if there are no samples.
+     */
+    public long getMax(TimeUnit unit) {
+      return mSorted.length == 0 ?
+          0L :
+          unit.convert(mSorted[mSorted.length - 1], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of samples.
+     * @return The sample count.
+     */
+    public int getCount() {
+      return mSorted.length;
+    }
+  }
+}
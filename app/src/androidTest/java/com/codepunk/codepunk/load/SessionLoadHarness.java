@@ -0,0 +1,388 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.load;
+
+import android.accounts.Account;
+import android.content.Context;
+
+import com.codepunk.codepunk.app.AppComponent;
+import com.codepunk.codepunk.app.AppComponents;
+import com.codepunk.codepunk.app.DaggerStandInAppComponent;
+import com.codepunk.codepunk.app.Session;
+import com.codepunk.codepunk.app.SessionManager;
+import com.codepunk.codepunk.app.StandInAppModule;
+import com.codepunk.codepunk.app.TestAccounts;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.codepunk.codepunk.api.Api.DEFAULT_TIMEOUT_DURATION;
+import static com.codepunk.codepunk.api.Api.DEFAULT_TIME_UNIT;
+
+/**
+ * <p>
+ * Drives many simulated sessions concurrently against a running {@link StandInServer}. Each
+ * simulated session is a {@link SessionManager} of its own (as on its own device) that
+ * authenticates an existing account with {@link SessionManager#addAccount(Context, Account)},
+ * which runs the same chain as {@link SessionManager#authenticate(android.app.Activity)} once
+ * the account is known: an auth token from the {@link android.accounts.AccountManager} (which
+ * binds to {@link com.codepunk.codepunk.AccountAuthenticator#getAuthToken}) followed by
+ * {@link com.codepunk.codepunk.api.ApiUserDelegate#getAuthenticatedUser}.
+ * </p>
+ *
+ * <p>
+ * The activity-driven front half of authentication (the account picker) is skipped. Each
+ * session's time-to-AUTHENTICATED is measured from the call to addAccount until its future
+ * completes with the new {@link Session}.
+ * </p>
+ *
+ * <p>
+ * Between rounds the harness can expire every access token on both the client and the server,
+ * so that the following round reproduces a token-expiry thundering herd: every session refreshes
+ * at once.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SessionLoadHarness {
+
+  /**
+   * Prefix of the usernames created by the harness.
+   */
+  private static final String USERNAME_PREFIX = "load";
+
+  /**
+   * Password of the users created by the harness.
+   */
+  private static final String PASSWORD = "load";
+
+  /**
+   * The context used to access the account manager and the api.
+   */
+  private final Context mContext;
+
+  /**
+   * The server the sessions are driven against.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * The harness configuration.
+   */
+  private final Config mConfig;
+
+  /**
+   * The accounts created for the simulated sessions.
+   */
+  private final TestAccounts mAccounts;
+
+  /**
+   * The session manager of each simulated session, in the same order as the accounts.
+   */
+  private final List<SessionManager> mSessionManagers = new ArrayList<>();
+
+  /**
+   * The component that was installed before {@link #setUp()}, restored by {@link #tearDown()}.
+   */
+  private AppComponent mPreviousComponent;
+
+  /**
+   * Creates a harness.
+   * @param context The context of the app under test.
+   * @param server A running stand-in server.
+   * @param config The harness configuration.
+   */
+  public SessionLoadHarness(Context context, StandInServer server, Config config) {
+    mContext = context.getApplicationContext();
+    mServer = server;
+    mConfig = config;
+    mAccounts = new TestAccounts(mContext, server);
+  }
+
+  /**
+   * Points the app at the stand-in server (by installing a stand-in {@link AppComponent}) and
+   * creates one account (with a valid access token and refresh token) and one
+   * {@link SessionManager} per simulated session.
+   */
+  public void setUp() {
+    mPreviousComponent = AppComponents.set(DaggerStandInAppComponent.builder()
+        .standInAppModule(new StandInAppModule(mContext, mServer.getAuthority()))
+        .build());
+    for (int i = 0; i < mConfig.mSessions; i++) {
+      mAccounts.add(USERNAME_PREFIX + i, PASSWORD);
+      mSessionManagers.add(StandInAppModule.newSessionManager());
+    }
+  }
+
+  /**
+   * Removes the accounts created by {@link #setUp()} and restores the app's component.
+   */
+  public void tearDown() {
+    mAccounts.removeAll();
+    mSessionManagers.clear();
+    if (mPreviousComponent != null) {
+      AppComponents.set(mPreviousComponent);
+      mPreviousComponent = null;
+    }
+  }
+
+  /**
+   * Runs the configured number of rounds and returns one report per round.
+   * @return The reports.
+   * @throws InterruptedException If the harness is interrupted.
+   */
+  public List<Report> run() throws InterruptedException {
+    final List<Report> reports = new ArrayList<>(mConfig.mRounds);
+    for (int round = 0; round < mConfig.mRounds; round++) {
+      if (round > 0 && mConfig.mExpireTokensBetweenRounds) {
+        expireAccessTokens();
+      }
+      reports.add(runRound(round));
+    }
+    return reports;
+  }
+
+  /**
+   * Expires every access token on the client and on the server.
+   */
+  private void expireAccessTokens() {
+    mServer.getAccounts().expireAccessTokens();
+    for (Account account : mAccounts.getAccounts()) {
+      mAccounts.expire(account);
+    }
+  }
+
+  /**
+   * Runs one round: every session authenticates once.
+   * @param round The round number.
+   * @return The report for the round.
+   * @throws InterruptedException If the harness is interrupted.
+   */
+  private Report runRound(int round) throws InterruptedException {
+    final StandInStats stats = mServer.getStats();
+    final long refreshesBefore = stats.get(StandInStats.REFRESH_GRANTS);
+    final long rejectedBefore = stats.get(StandInStats.REJECTED_GRANTS);
+    final long requestsBefore = stats.get(StandInStats.REQUESTS);
+
+    final List<Account> accounts = mAccounts.getAccounts();
+    final LatencyRecorder recorder = new LatencyRecorder(accounts.size());
+    final Map<String, Integer> errors = new TreeMap<>();
+    final CountDownLatch done = new CountDownLatch(accounts.size());
+    final ExecutorService executor = Executors.newFixedThreadPool(mConfig.mConcurrency);
+    final long start = System.nanoTime();
+    for (int i = 0; i < accounts.size(); i++) {
+      final Account account = accounts.get(i);
+      final SessionManager sessionManager = mSessionManagers.get(i);
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final long sessionStart = System.nanoTime();
+            final String error = authenticate(sessionManager, account);
+            if (error == null) {
+              recorder.record(System.nanoTime() - sessionStart);
+            } else {
+              synchronized (errors) {
+                final Integer count = errors.get(error);
+                errors.put(error, count == null ? 1 : count + 1);
+              }
+            }
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    done.await();
+    final long elapsedNanos = System.nanoTime() - start;
+    executor.shutdown();
+
+    return new Report(
+        round,
+        accounts.size(),
+        elapsedNanos,
+        recorder.snapshot(),
+        stats.get(StandInStats.REFRESH_GRANTS) - refreshesBefore,
+        stats.get(StandInStats.REJECTED_GRANTS) - rejectedBefore,
+        stats.get(StandInStats.REQUESTS) - requestsBefore,
+        errors);
+  }
+
+  /**
+   * Authenticates one session.
+   * @param sessionManager The session's session manager.
+   * @param account The session's account.
+   * @return null on success, or a short description of the failure.
+   */
+  private String authenticate(SessionManager sessionManager, Account account) {
+    try {
+      final Session session = sessionManager.addAccount(mContext, account)
+          .get(DEFAULT_TIMEOUT_DURATION, DEFAULT_TIME_UNIT);
+      return (session.getUser() == null ? "addAccount:no_user" : null);
+    } catch (Exception e) {
+      return "addAccount:" + describe(e);
+    }
+  }
+
+  /**
+   * Describes an exception by the class of its root cause.
+   * @param e The exception.
+   * @return The description.
+   */
+  private static String describe(Exception e) {
+    Throwable cause = e;
+    if (e instanceof ExecutionException && e.getCause() != null) {
+      cause = e.getCause();
+    }
+    return cause.getClass().getSimpleName();
+  }
+
+  /**
+   * Configuration for a {@link SessionLoadHarness}.
+   */
+  public static class Config {
+    private int mSessions = 1000;
+    private int mConcurrency = 32;
+    private int mRounds = 2;
+    private boolean mExpireTokensBetweenRounds = true;
+
+    public Config setSessions(int sessions) {
+      mSessions = sessions;
+      return this;
+    }
+
+    public Config setConcurrency(int concurrency) {
+      mConcurrency = concurrency;
+      return this;
+    }
+
+    public Config setRounds(int rounds) {
+      mRounds = rounds;
+      return this;
+    }
+
+    public Config setExpireTokensBetweenRounds(boolean expireTokensBetweenRounds) {
+      mExpireTokensBetweenRounds = expireTokensBetweenRounds;
+      return this;
+    }
+  }
+
+  /**
+   * The results of one round.
+   */
+  public static class Report {
+    private final int mRound;
+    private final int mSessions;
+    private final long mElapsedNanos;
+    private final LatencyRecorder.Snapshot mLatencies;
+    private final long mRefreshes;
+    private final long mRejectedGrants;
+    private final long mServerRequests;
+    private final Map<String, Integer> mErrors;
+
+    Report(
+        int round,
+        int sessions,
+        long elapsedNanos,
+        LatencyRecorder.Snapshot latencies,
+        long refreshes,
+        long rejectedGrants,
+        long serverRequests,
+        Map<String, Integer> errors) {
+      mRound = round;
+      mSessions = sessions;
+      mElapsedNanos = elapsedNanos;
+      mLatencies = latencies;
+      mRefreshes = refreshes;
+      mRejectedGrants = rejectedGrants;
+      mServerRequests = serverRequests;
+      mErrors = errors;
+    }
+
+    public int getRound() {
+      return mRound;
+    }
+
+    public int getSessions() {
+      return mSessions;
+    }
+
+    public int getAuthenticated() {
+      return mLatencies.getCount();
+    }
+
+    /**
+     * Returns the number of sessions that reached AUTHENTICATED per second of wall time.
+     * @return The throughput.
+     */
+    public double getThroughput() {
+      return mElapsedNanos == 0L ?
+          0.0d :
+          mLatencies.getCount() / (mElapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public long getPercentileMillis(double percentile) {
+      return mLatencies.getPercentile(percentile, TimeUnit.MILLISECONDS);
+    }
+
+    public long getRefreshes() {
+      return mRefreshes;
+    }
+
+    public long getRejectedGrants() {
+      return mRejectedGrants;
+    }
+
+    public long getServerRequests() {
+      return mServerRequests;
+    }
+
+    public Map<String, Integer> getErrors() {
+      return mErrors;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "round=%d sessions=%d authenticated=%d throughput=%.1f/s "
+              + "p50=%dms p95=%dms p99=%dms max=%dms "
+              + "refreshes=%d rejectedGrants=%d serverRequests=%d errors=%s",
+          mRound,
+          mSessions,
+          getAuthenticated(),
+          getThroughput(),
+          getPercentileMillis(50),
+          getPercentileMillis(95),
+          getPercentileMillis(99),
+          mLatencies.getMax(TimeUnit.MILLISECONDS),
+          mRefreshes,
+          mRejectedGrants,
+          mServerRequests,
+          mErrors);
+    }
+  }
+}
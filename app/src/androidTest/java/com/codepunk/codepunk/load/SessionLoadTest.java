@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.load;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepunk.codepunk.standin.StandInConfig;
+import com.codepunk.codepunk.standin.StandInServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link SessionLoadHarness} at a moderate scale and logs the per-round reports. Increase
+ * the session count locally to explore behavior at scale.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SessionLoadTest {
+
+  private static final String TAG = "SessionLoadTest";
+
+  private static final int SESSIONS = 200;
+
+  private StandInServer mServer;
+
+  private SessionLoadHarness mHarness;
+
+  @Before
+  public void setUp() throws Exception {
+    Context context = InstrumentationRegistry.getTargetContext();
+    mServer = new StandInServer(
+        new StandInConfig.Builder()
+            .setLatency(20, TimeUnit.MILLISECONDS)
+            .setLatencyJitter(30, TimeUnit.MILLISECONDS)
+            .build());
+    mServer.start();
+    mHarness = new SessionLoadHarness(
+        context,
+        mServer,
+        new SessionLoadHarness.Config()
+            .setSessions(SESSIONS)
+            .setConcurrency(16)
+            .setRounds(2)
+            .setExpireTokensBetweenRounds(true));
+    mHarness.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    mHarness.tearDown();
+    mServer.shutdown();
+  }
+
+  @Test
+  public void sessionsAuthenticateThroughTokenExpiry() throws Exception {
+    List<SessionLoadHarness.Report> reports = mHarness.run();
+    for (SessionLoadHarness.Report report : reports) {
+      Log.i(TAG, report.toString());
+    }
+
+    SessionLoadHarness.Report warm = reports.get(0);
+    assertEquals(warm.getErrors().toString(), SESSIONS, warm.getAuthenticated());
+    assertEquals(0, warm.getRefreshes());
+
+    SessionLoadHarness.Report herd = reports.get(1);
+    assertEquals(herd.getErrors().toString(), SESSIONS, herd.getAuthenticated());
+    assertTrue(herd.getRefreshes() >= SESSIONS);
+  }
+}
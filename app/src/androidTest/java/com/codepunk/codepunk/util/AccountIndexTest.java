@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepunk.codepunk.R;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AccountIndex}, using accounts of the app's own type.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AccountIndexTest {
+
+  private static final long TIMEOUT_MILLIS = 5000L;
+
+  private AccountManager mAccountManager;
+  private AccountIndex mIndex;
+  private String mAccountType;
+  private final List<Account> mAccounts = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    final Context context = InstrumentationRegistry.getTargetContext();
+    mAccountManager = AccountManager.get(context);
+    mIndex = AccountIndex.getInstance(context);
+    mAccountType = context.getString(R.string.authenticator_account_type);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (Account account : mAccounts) {
+      removeAccount(account);
+    }
+  }
+
+  @SuppressWarnings({"MissingPermission"})
+  private Account addAccount(String name) {
+    final Account account = new Account(name, mAccountType);
+    assertTrue(mAccountManager.addAccountExplicitly(account, null, null));
+    mAccounts.add(account);
+    return account;
+  }
+
+  @SuppressWarnings({"deprecation", "MissingPermission"})
+  private void removeAccount(Account account) throws Exception {
+    mAccountManager.removeAccount(account, null, null).getResult(5, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Waits for the index to report an account (or its absence) without refreshing it.
+   */
+  private void awaitIndexed(String name, Account expected) {
+    final long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+    while (SystemClock.uptimeMillis() < deadline) {
+      final Account account = mIndex.getAccount(name, mAccountType);
+      if (expected == null ? account == null : expected.equals(account)) {
+        return;
+      }
+      SystemClock.sleep(20);
+    }
+    assertEquals(expected, mIndex.getAccount(name, mAccountType));
+  }
+
+  @Test
+  public void getAccount_findsIndexedAccountsByNameAndType() {
+    final Account account = addAccount("index-lookup");
+
+    assertEquals(account, mIndex.getAccountOrRefresh("index-lookup", mAccountType));
+    assertEquals(account, mIndex.getAccount("index-lookup", mAccountType));
+    assertEquals(account, mIndex.getAccounts(mAccountType).get("index-lookup"));
+    assertNull(mIndex.getAccount("index-lookup", "com.example.other"));
+    assertNull(mIndex.getAccount("index-missing", mAccountType));
+    assertNull(mIndex.getAccount(null, mAccountType));
+  }
+
+  @Test
+  public void getAccountOrRefresh_reloadsOnAMiss() {
+    // Load the type first, so that the new account is a miss until the index catches up
+    mIndex.getAccounts(mAccountType);
+    final Account account = addAccount("index-refresh");
+
+    assertEquals(account, mIndex.getAccountOrRefresh("index-refresh", mAccountType));
+    assertEquals(account, mIndex.getAccount("index-refresh", mAccountType));
+    assertNull(mIndex.getAccountOrRefresh("index-missing", mAccountType));
+  }
+
+  @Test
+  public void accountChanges_rebuildTheIndex() throws Exception {
+    mIndex.getAccounts(mAccountType);
+
+    final Account account = addAccount("index-listener");
+    awaitIndexed("index-listener", account);
+
+    removeAccount(account);
+    mAccounts.remove(account);
+    awaitIndexed("index-listener", null);
+  }
+}
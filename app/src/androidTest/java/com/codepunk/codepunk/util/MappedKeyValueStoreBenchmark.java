@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.codepunk.codepunk.load.LatencyRecorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static android.content.Context.MODE_PRIVATE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link MappedKeyValueStore} against {@link SharedPreferences} on the two operations
+ * SessionManager performs on the main thread: the first read after process start, and writes.
+ * Results are logged under {@link #TAG}; the test only asserts that both return the same values.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MappedKeyValueStoreBenchmark {
+
+  private static final String TAG = "KeyValueBenchmark";
+
+  private static final String PREFS_SEED = "benchmark_seed";
+
+  private static final String KEY = "com.codepunk.codepunk.savedAccountName";
+
+  private static final int ENTRIES = 16;
+
+  private static final int COLD_ITERATIONS = 20;
+
+  private static final int WRITES = 200;
+
+  private Context mContext;
+
+  private File mDir;
+
+  private File mPrefsDir;
+
+  @Before
+  public void setUp() {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mDir = mContext.getDir("benchmark", MODE_PRIVATE);
+    mPrefsDir = new File(mContext.getApplicationInfo().dataDir, "shared_prefs");
+  }
+
+  @After
+  public void tearDown() {
+    deleteContents(mDir);
+    final File[] prefs = mPrefsDir.listFiles();
+    if (prefs != null) {
+      for (File file : prefs) {
+        if (file.getName().startsWith("benchmark_")) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void coldFirstRead() throws IOException {
+    // Seed both formats with the same values
+    final SharedPreferences.Editor editor =
+        mContext.getSharedPreferences(PREFS_SEED, MODE_PRIVATE).edit();
+    final MappedKeyValueStore seed = new MappedKeyValueStore(new File(mDir, "seed.log"), null);
+    for (int i = 0; i < ENTRIES; i++) {
+      editor.putString(KEY + i, "account" + i);
+      seed.putString(KEY + i, "account" + i);
+    }
+    editor.commit();
+
+    final LatencyRecorder prefsLatency = new LatencyRecorder(COLD_ITERATIONS);
+    final LatencyRecorder storeLatency = new LatencyRecorder(COLD_ITERATIONS);
+    for (int i = 0; i < COLD_ITERATIONS; i++) {
+      // SharedPreferences are cached per process by name, so each iteration reads a fresh copy
+      final String name = "benchmark_cold_" + i;
+      copy(new File(mPrefsDir, PREFS_SEED + ".xml"), new File(mPrefsDir, name + ".xml"));
+      long start = System.nanoTime();
+      final String fromPrefs =
+          mContext.getSharedPreferences(name, MODE_PRIVATE).getString(KEY + 0, null);
+      prefsLatency.record(System.nanoTime() - start);
+
+      final File log = new File(mDir, "cold_" + i + ".log");
+      copy(seed.getFile(), log);
+      start = System.nanoTime();
+      final String fromStore = new MappedKeyValueStore(log, null).getString(KEY + 0, null);
+      storeLatency.record(System.nanoTime() - start);
+
+      assertEquals("account0", fromPrefs);
+      assertEquals(fromPrefs, fromStore);
+    }
+    report("cold first read", prefsLatency, storeLatency);
+  }
+
+  @Test
+  public void writes() {
+    final SharedPreferences prefs = mContext.getSharedPreferences("benchmark_writes", MODE_PRIVATE);
+    final MappedKeyValueStore store =
+        new MappedKeyValueStore(new File(mDir, "writes.log"), null);
+    prefs.getAll();
+    store.getAll();
+
+    final LatencyRecorder prefsLatency = new LatencyRecorder(WRITES);
+    final LatencyRecorder storeLatency = new LatencyRecorder(WRITES);
+    for (int i = 0; i < WRITES; i++) {
+      long start = System.nanoTime();
+      prefs.edit().putString(KEY, "account" + i).apply();
+      prefsLatency.record(System.nanoTime() - start);
+
+      start = System.nanoTime();
+      store.putString(KEY, "account" + i);
+      storeLatency.record(System.nanoTime() - start);
+    }
+    report("write", prefsLatency, storeLatency);
+
+    // apply() writes are flushed on the main thread when an activity pauses; commit() is the
+    // closest public equivalent of that stall
+    long start = System.nanoTime();
+    prefs.edit().putString(KEY, "final").commit();
+    final long prefsFlush = System.nanoTime() - start;
+    start = System.nanoTime();
+    store.putString(KEY, "final");
+    final long storeFlush = System.nanoTime() - start;
+    Log.i(TAG, String.format(
+        Locale.US,
+        "flush: SharedPreferences commit=%dus MappedKeyValueStore put=%dus",
+        TimeUnit.NANOSECONDS.toMicros(prefsFlush),
+        TimeUnit.NANOSECONDS.toMicros(storeFlush)));
+
+    assertEquals(
+        prefs.getString(KEY, null),
+        new MappedKeyValueStore(store.getFile(), null).getString(KEY, null));
+  }
+
+  private static void report(String operation, LatencyRecorder prefs, LatencyRecorder store) {
+    final LatencyRecorder.Snapshot prefsSnapshot = prefs.snapshot();
+    final LatencyRecorder.Snapshot storeSnapshot = store.snapshot();
+    Log.i(TAG, String.format(
+        Locale.US,
+        "%s: SharedPreferences p50=%dus p99=%dus, MappedKeyValueStore p50=%dus p99=%dus",
+        operation,
+        prefsSnapshot.getPercentile(50.0d, TimeUnit.MICROSECONDS),
+        prefsSnapshot.getPercentile(99.0d, TimeUnit.MICROSECONDS),
+        storeSnapshot.getPercentile(50.0d, TimeUnit.MICROSECONDS),
+        storeSnapshot.getPercentile(99.0d, TimeUnit.MICROSECONDS)));
+  }
+
+  private static void copy(File from, File to) throws IOException {
+    final InputStream in = new FileInputStream(from);
+    try {
+      final OutputStream out = new FileOutputStream(to);
+      try {
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+          out.write(buffer, 0, count);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void deleteContents(File dir) {
+    final File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.codepunk.codepunk.model.User;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link UserStore}, run against an in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class UserStoreTest {
+
+  private UserStore mStore;
+
+  @Before
+  public void setUp() {
+    mStore = new UserStore(InstrumentationRegistry.getTargetContext(), null, 16);
+  }
+
+  @After
+  public void tearDown() {
+    mStore.close();
+  }
+
+  private static User newUser(int id) {
+    return new User.Builder()
+        .setId(id)
+        .setEnabled(true)
+        .setUsername("User" + id)
+        .setUsernameCanonical("user" + id)
+        .setEmail("User" + id + "@example.com")
+        .setEmailCanonical("user" + id + "@example.com")
+        .build();
+  }
+
+  @Test
+  public void putAll_isVisibleBeforeAndAfterCommit() throws Exception {
+    final List<User> users = new ArrayList<>();
+    for (int i = 1; i <= 100; i++) {
+      users.add(newUser(i));
+    }
+    mStore.putAll(users);
+    assertSame(users.get(41), mStore.getById(42));
+
+    assertEquals(Integer.valueOf(100), mStore.flush().get(5, TimeUnit.SECONDS));
+    mStore.evictAll();
+    final User user = mStore.getById(42);
+    assertNotSame(users.get(41), user);
+    assertEquals("User42", user.getUsername());
+    assertEquals("user42@example.com", user.getEmailCanonical());
+    assertEquals(true, user.isEnabled());
+  }
+
+  @Test
+  public void lookups_returnTheSameInstanceForTheSameUser() throws Exception {
+    mStore.put(newUser(7)).get(5, TimeUnit.SECONDS);
+    mStore.evictAll();
+
+    final User byId = mStore.getById(7);
+    assertSame(byId, mStore.getByUsername("user7"));
+    assertSame(byId, mStore.getByEmail("user7@example.com"));
+    assertNull(mStore.getByUsername("nobody"));
+  }
+
+  @Test
+  public void put_replacesAndDeleteRemoves() throws Exception {
+    mStore.put(newUser(3));
+    final User renamed = newUser(3).buildUpon()
+        .setUsername("Renamed")
+        .setUsernameCanonical("renamed")
+        .build();
+    mStore.put(renamed).get(5, TimeUnit.SECONDS);
+    mStore.evictAll();
+    assertEquals("Renamed", mStore.getByUsername("renamed").getUsername());
+    assertNull(mStore.getByUsername("user3"));
+
+    mStore.delete(3);
+    assertNull(mStore.getById(3));
+    mStore.flush().get(5, TimeUnit.SECONDS);
+    mStore.evictAll();
+    assertNull(mStore.getById(3));
+    assertNull(mStore.getByEmail("user3@example.com"));
+  }
+
+  @Test
+  public void lookupRacingADelete_doesNotBringTheUserBack() throws Exception {
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running.get()) {
+          mStore.getById(5);
+        }
+      }
+    });
+    reader.start();
+    try {
+      for (int i = 0; i < 200; i++) {
+        mStore.put(newUser(5)).get(5, TimeUnit.SECONDS);
+        mStore.evictAll();
+        mStore.delete(5).get(5, TimeUnit.SECONDS);
+        assertNull(mStore.getById(5));
+      }
+    } finally {
+      running.set(false);
+      reader.join();
+    }
+  }
+}
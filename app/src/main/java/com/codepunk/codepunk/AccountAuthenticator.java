@@ -16,6 +16,14 @@
 
 package com.codepunk.codepunk;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import android.accounts.AbstractAccountAuthenticator;
 import android.accounts.Account;
 import android.accounts.AccountAuthenticatorResponse;
@@ -26,21 +34,23 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.text.TextUtils;
 
-import com.android.volley.toolbox.RequestFuture;
 import com.codepunk.codepunk.api.AuthTokenType;
 import com.codepunk.codepunk.api.SymfonyError;
 import com.codepunk.codepunk.app.ApiManager;
 import com.codepunk.codepunk.model.AuthInfo;
 
 import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import static android.accounts.AccountManager.ERROR_CODE_NETWORK_ERROR;
 import static android.accounts.AccountManager.KEY_ACCOUNT_AUTHENTICATOR_RESPONSE;
 import static android.accounts.AccountManager.KEY_ACCOUNT_NAME;
 import static android.accounts.AccountManager.KEY_ACCOUNT_TYPE;
 import static android.accounts.AccountManager.KEY_AUTHTOKEN;
 import static android.accounts.AccountManager.KEY_PASSWORD;
-import static com.codepunk.codepunk.api.Api.DEFAULT_TIMEOUT_DURATION;
-import static com.codepunk.codepunk.api.Api.DEFAULT_TIME_UNIT;
 import static com.codepunk.codepunk.api.AuthTokenType.AUTH_TOKEN_TYPE_DEFAULT;
 import static com.codepunk.codepunk.app.AppConstants.EXTRA_ADDING_NEW_ACCOUNT;
 import static com.codepunk.codepunk.app.AppConstants.KEY_EXPIRES_AT;
@@ -53,6 +63,25 @@ import static com.codepunk.codepunk.app.AppConstants.MILLIS_PER_SECOND;
 @SuppressWarnings("WeakerAccess")
 public class AccountAuthenticator extends AbstractAccountAuthenticator {
 
+  /**
+   * Token refreshes currently in flight, keyed by account. A caller claims the slot before it
+   * sends the refresh request, and every caller that asks for a token while a refresh is in flight
+   * joins that refresh instead of starting another one (which, with single-use refresh tokens,
+   * would fail).
+   */
+  private static final ConcurrentMap<Account, ListenableFuture<AuthInfo>> sRefreshes =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The executor that saves refreshed auth info to the {@link AccountManager} and reports the
+   * outcome of refreshes, so that neither happens on Volley's delivery (main) thread.
+   */
+  private static final ExecutorService sRefreshExecutor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("AccountAuthenticator-refresh")
+          .setDaemon(true)
+          .build());
+
   /**
    * The {@link Context} associated with this authenticator.
    */
@@ -186,6 +215,9 @@ public class AccountAuthenticator extends AbstractAccountAuthenticator {
    * Finally, note that for android:customTokens=false authenticators, tokens are cached
    * indefinitely until some client calls {@link
    * AccountManager#invalidateAuthToken(String,String)}.
+   * <p>
+   * If the auth token has expired and must be refreshed, this method returns {@code null}
+   * immediately and the result is sent through {@code response} once the refresh completes.
    *
    * @param response to send the result back to the AccountManager, will never be null
    * @param account the account whose credentials are to be retrieved, will never be null
@@ -197,8 +229,8 @@ public class AccountAuthenticator extends AbstractAccountAuthenticator {
    */
   @Override
   public Bundle getAuthToken(
-      AccountAuthenticatorResponse response,
-      Account account,
+      final AccountAuthenticatorResponse response,
+      final Account account,
       String authTokenType,
       Bundle options) throws NetworkErrorException {
     final long currentTime = Calendar.getInstance().getTimeInMillis();
@@ -213,44 +245,115 @@ public class AccountAuthenticator extends AbstractAccountAuthenticator {
       }
     }
 
-    String refreshToken = mAccountManager.getPassword(account);
+    final String refreshToken = mAccountManager.getPassword(account);
 
-    if (TextUtils.isEmpty(authToken) && !TextUtils.isEmpty(refreshToken)) {
-      final RequestFuture<AuthInfo> future = RequestFuture.newFuture();
-      mApiManager.getAuthDelegate().refreshToken(refreshToken, future, future);
-      try {
-        AuthInfo authInfo = future.get(DEFAULT_TIMEOUT_DURATION, DEFAULT_TIME_UNIT);
-        authToken = authInfo.getAccessToken();
-        refreshToken = authInfo.getRefreshToken();
+    if (!TextUtils.isEmpty(authToken)) {
+      return newAuthTokenResult(account, authToken, refreshToken);
+    } else if (TextUtils.isEmpty(refreshToken)) {
+      // We are unable to get an auth token. We need the user to explicitly log in again
+      return newLoginResult(response);
+    }
 
-        mAccountManager.setAuthToken(account, AUTH_TOKEN_TYPE_DEFAULT.getString(), authToken);
-        mAccountManager.setPassword(account, refreshToken);
-        mAccountManager.setUserData(
-            account,
-            KEY_EXPIRES_AT,
-            String.valueOf(currentTime + authInfo.getExpiresIn() * MILLIS_PER_SECOND));
-      } catch (Exception e) {
-        Throwable cause = e.getCause();
-        if (!(cause instanceof SymfonyError)) {
-          // If the cause was NOT a SymfonyError, it was likely due to a network error.
-          throw new NetworkErrorException(cause);
-        }
-      }
+    // Refresh the auth token without blocking this binder thread; the result is delivered
+    // through the response when the refresh completes.
+    Futures.addCallback(
+        refreshToken(account, refreshToken),
+        new FutureCallback<AuthInfo>() {
+          @Override
+          public void onSuccess(AuthInfo authInfo) {
+            response.onResult(newAuthTokenResult(
+                account,
+                authInfo.getAccessToken(),
+                authInfo.getRefreshToken()));
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            if (t instanceof SymfonyError) {
+              // The server refused the refresh token. We need the user to explicitly log in again
+              response.onResult(newLoginResult(response));
+            } else {
+              // If the cause was NOT a SymfonyError, it was likely due to a network error.
+              response.onError(ERROR_CODE_NETWORK_ERROR, String.valueOf(t.getMessage()));
+            }
+          }
+        },
+        sRefreshExecutor);
+    return null;
+  }
+
+  /**
+   * Refreshes the auth token of an account and saves the new auth info to the
+   * {@link AccountManager}, or joins the refresh that is already in flight for that account.
+   * @param account The account whose auth token is being refreshed.
+   * @param refreshToken The refresh token to present if a new refresh is started.
+   * @return A future that completes with the new auth info.
+   */
+  private ListenableFuture<AuthInfo> refreshToken(final Account account, String refreshToken) {
+    final SettableFuture<AuthInfo> refresh = SettableFuture.create();
+    final ListenableFuture<AuthInfo> inFlight = sRefreshes.putIfAbsent(account, refresh);
+    if (inFlight != null) {
+      // Another caller claimed the refresh first; its request is the only one sent
+      return inFlight;
     }
+    refresh.addListener(new Runnable() {
+      @Override
+      public void run() {
+        sRefreshes.remove(account, refresh);
+      }
+    }, MoreExecutors.directExecutor());
+
+    final long requestTime = Calendar.getInstance().getTimeInMillis();
+    refresh.setFuture(Futures.transform(
+        mApiManager.getAuthDelegate().refreshToken(refreshToken),
+        new Function<AuthInfo, AuthInfo>() {
+          @Override
+          public AuthInfo apply(AuthInfo authInfo) {
+            mAccountManager.setAuthToken(
+                account,
+                AUTH_TOKEN_TYPE_DEFAULT.getString(),
+                authInfo.getAccessToken());
+            mAccountManager.setPassword(account, authInfo.getRefreshToken());
+            mAccountManager.setUserData(
+                account,
+                KEY_EXPIRES_AT,
+                String.valueOf(requestTime + authInfo.getExpiresIn() * MILLIS_PER_SECOND));
+            return authInfo;
+          }
+        },
+        sRefreshExecutor));
+    return refresh;
+  }
 
+  /**
+   * Builds a result containing an auth token.
+   * @param account The account the auth token belongs to.
+   * @param authToken The auth token.
+   * @param refreshToken The refresh token.
+   * @return The result.
+   */
+  private static Bundle newAuthTokenResult(
+      Account account,
+      String authToken,
+      String refreshToken) {
     final Bundle result = new Bundle();
-    if (TextUtils.isEmpty(authToken)) {
-      // We were unable to get an auth token. We need the user to explicitly log in again
-      final Intent intent = new Intent(mContext, AuthenticatorActivity.class);
-      intent.putExtra(KEY_ACCOUNT_AUTHENTICATOR_RESPONSE, response);
-      result.putParcelable(AccountManager.KEY_INTENT, intent);
-    } else {
-      result.putString(KEY_ACCOUNT_NAME, account.name);
-      result.putString(KEY_ACCOUNT_TYPE, account.type);
-      result.putString(KEY_AUTHTOKEN, authToken);
-      result.putString(KEY_PASSWORD, refreshToken);
-    }
+    result.putString(KEY_ACCOUNT_NAME, account.name);
+    result.putString(KEY_ACCOUNT_TYPE, account.type);
+    result.putString(KEY_AUTHTOKEN, authToken);
+    result.putString(KEY_PASSWORD, refreshToken);
+    return result;
+  }
 
+  /**
+   * Builds a result containing an {@link Intent} that asks the user to log in again.
+   * @param response The response to pass along to the {@link AuthenticatorActivity}.
+   * @return The result.
+   */
+  private Bundle newLoginResult(AccountAuthenticatorResponse response) {
+    final Intent intent = new Intent(mContext, AuthenticatorActivity.class);
+    intent.putExtra(KEY_ACCOUNT_AUTHENTICATOR_RESPONSE, response);
+    final Bundle result = new Bundle();
+    result.putParcelable(AccountManager.KEY_INTENT, intent);
     return result;
   }
 
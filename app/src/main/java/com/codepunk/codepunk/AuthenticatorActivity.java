@@ -31,7 +31,7 @@ import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.codepunk.codepunk.app.ApiManager;
 import com.codepunk.codepunk.model.AuthInfo;
-import com.codepunk.codepunk.util.AccountManagerUtils;
+import com.codepunk.codepunk.util.AccountIndex;
 
 import java.util.Calendar;
 
@@ -138,10 +138,7 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity
         mPasswordEdit.requestFocus();
         return;
       } else if (mAddingNewAccount &&
-          AccountManagerUtils.getAccountByNameAndType(
-              mAccountManager,
-              username,
-              mAccountType) != null) {
+          AccountIndex.getInstance(this).getAccount(username, mAccountType) != null) {
         String text = getString(R.string.authenticator_account_exists, username);
         Toast.makeText(AuthenticatorActivity.this, text, Toast.LENGTH_LONG).show();
         return;
@@ -171,7 +168,9 @@ public class AuthenticatorActivity extends AccountAuthenticatorActivity
                 final String refreshToken = authInfo.getRefreshToken();
 
                 Account account = new Account(username, mAccountType);
-                if (!mAccountManager.addAccountExplicitly(account, refreshToken, null)) {
+                if (mAccountManager.addAccountExplicitly(account, refreshToken, null)) {
+                  AccountIndex.getInstance(AuthenticatorActivity.this).onAccountAdded(account);
+                } else {
                   mAccountManager.setPassword(account, refreshToken);
                 }
 
@@ -18,6 +18,12 @@ package com.codepunk.codepunk;
 
 import android.app.Application;
 
+import com.codepunk.codepunk.app.AppComponents;
+import com.codepunk.codepunk.app.ConnectionPrewarmer;
+import com.codepunk.codepunk.app.SessionManager;
+import com.codepunk.codepunk.app.SessionStore;
+import com.codepunk.codepunk.app.StartupTracer;
+import com.codepunk.codepunk.app.VolleyManager;
 import com.codepunk.codepunklib.util.log.FormattingLogger.Placeholder;
 import com.codepunk.codepunklib.util.log.LogManager;
 
@@ -28,10 +34,27 @@ public class CodepunkApp extends Application {
 
   @Override
   public void onCreate() {
-    super.onCreate();
+    StartupTracer.beginSection("CodepunkApp.onCreate");
+    try {
+      super.onCreate();
 
-    // Initialize LogManager
-    LogManager logManager = LogManager.getInstance();
-    logManager.setTagFormat("CP|%s", Placeholder.SIMPLE_CLASS_NAME);
+      // Build the dependency graph before anything asks for a manager
+      AppComponents.init(this);
+
+      // Initialize LogManager
+      LogManager logManager = LogManager.getInstance();
+      logManager.setTagFormat("CP|%s", Placeholder.SIMPLE_CLASS_NAME);
+
+      // Load the saved session values in the background so the first read doesn't wait for disk
+      SessionStore.getInstance(this).preload(SessionManager.getInstance().getEnvironment());
+
+      // Build the request queue in the background so the first api call doesn't wait for it
+      VolleyManager.getInstance(this).warmUp();
+
+      // Resolve the api host and open a pooled connection to it ahead of the first api call
+      ConnectionPrewarmer.getInstance(this).prewarm(SessionManager.getInstance().getEnvironment());
+    } finally {
+      StartupTracer.endSection();
+    }
   }
 }
@@ -30,6 +30,7 @@ import android.widget.TextView;
 
 import com.codepunk.codepunk.app.SessionManager;
 import com.codepunk.codepunk.app.SessionManager.State;
+import com.codepunk.codepunk.app.StartupTracer;
 
 import static com.codepunk.codepunk.app.AppConstants.ACTION_SESSION_STATE_CHANGED;
 import static com.codepunk.codepunk.app.AppConstants.EXTRA_SESSION_STATE;
@@ -70,12 +71,17 @@ public class MainActivity extends AppCompatActivity
    */
   @Override
   protected void onCreate(Bundle savedInstanceState) {
-    super.onCreate(savedInstanceState);
-    setContentView(R.layout.activity_main);
-    mSessionManager = SessionManager.getInstance();
-    mLocalBroadcastManager = LocalBroadcastManager.getInstance(this);
-    mHelloTextView = (TextView) findViewById(R.id.text_hello);
-    mAuthenticateButton = (Button) findViewById(R.id.button_authenticate);
+    StartupTracer.beginSection("MainActivity.onCreate");
+    try {
+      super.onCreate(savedInstanceState);
+      setContentView(R.layout.activity_main);
+      mSessionManager = SessionManager.getInstance();
+      mLocalBroadcastManager = LocalBroadcastManager.getInstance(this);
+      mHelloTextView = (TextView) findViewById(R.id.text_hello);
+      mAuthenticateButton = (Button) findViewById(R.id.button_authenticate);
+    } finally {
+      StartupTracer.endSection();
+    }
   }
 
   /**
@@ -83,14 +89,19 @@ public class MainActivity extends AppCompatActivity
    */
   @Override
   protected void onStart() {
-    super.onStart();
-    IntentFilter intentFilter = new IntentFilter();
-    intentFilter.addAction(ACTION_SESSION_STATE_CHANGED);
-    mLocalBroadcastManager.registerReceiver(mAuthenticatedUserReceiver, intentFilter);
-    State state = mSessionManager.getState();
-    onStateChanged(state, null);
-    if (state == INITIALIZED) {
-      mSessionManager.authenticate(this);
+    StartupTracer.beginSection("MainActivity.onStart");
+    try {
+      super.onStart();
+      IntentFilter intentFilter = new IntentFilter();
+      intentFilter.addAction(ACTION_SESSION_STATE_CHANGED);
+      mLocalBroadcastManager.registerReceiver(mAuthenticatedUserReceiver, intentFilter);
+      State state = mSessionManager.getState();
+      onStateChanged(state, null);
+      if (state == INITIALIZED) {
+        mSessionManager.authenticate(this);
+      }
+    } finally {
+      StartupTracer.endSection();
     }
   }
 
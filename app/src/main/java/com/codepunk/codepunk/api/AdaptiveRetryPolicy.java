@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.android.volley.RetryPolicy;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+/**
+ * <p>
+ * A Volley {@link RetryPolicy} that takes its timeout from an {@link AdaptiveTimeoutPolicy} and
+ * reports back to it. Like Volley's default policy, a request is retried once; the retry gets
+ * twice the timeout (up to the policy's ceiling) in case the first attempt was merely unlucky.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AdaptiveRetryPolicy implements RetryPolicy {
+
+  /**
+   * The maximum number of retries.
+   */
+  private static final int MAX_RETRIES = 1;
+
+  /**
+   * The factor the timeout grows by on each retry.
+   */
+  private static final int BACKOFF_MULTIPLIER = 2;
+
+  /**
+   * The policy that supplies the timeout and records latencies.
+   */
+  private final AdaptiveTimeoutPolicy mTimeoutPolicy;
+
+  /**
+   * The endpoint being called.
+   */
+  private final String mEndpoint;
+
+  /**
+   * The type of the network the request is made on.
+   */
+  private final String mNetworkType;
+
+  /**
+   * The current timeout, in milliseconds.
+   */
+  private int mCurrentTimeoutMillis;
+
+  /**
+   * The number of retries so far.
+   */
+  private int mCurrentRetryCount;
+
+  /**
+   * Creates a retry policy for a single request.
+   * @param timeoutPolicy The policy that supplies the timeout and records latencies.
+   * @param endpoint The endpoint being called.
+   * @param networkType The type of the network the request is made on.
+   */
+  public AdaptiveRetryPolicy(
+      AdaptiveTimeoutPolicy timeoutPolicy,
+      String endpoint,
+      String networkType) {
+    mTimeoutPolicy = timeoutPolicy;
+    mEndpoint = endpoint;
+    mNetworkType = networkType;
+    mCurrentTimeoutMillis = timeoutPolicy.getTimeoutMillis(endpoint, networkType);
+  }
+
+  @Override
+  public int getCurrentTimeout() {
+    return mCurrentTimeoutMillis;
+  }
+
+  @Override
+  public int getCurrentRetryCount() {
+    return mCurrentRetryCount;
+  }
+
+  @Override
+  public void retry(VolleyError error) throws VolleyError {
+    if (error instanceof TimeoutError) {
+      // Censored: the policy records no more than its current percentile, so a retry's doubled
+      // timeout does not feed back into the next request's timeout
+      mTimeoutPolicy.recordTimeout(mEndpoint, mNetworkType, mCurrentTimeoutMillis);
+    }
+    mCurrentRetryCount++;
+    mCurrentTimeoutMillis = Math.min(
+        mTimeoutPolicy.getCeilingMillis(),
+        mCurrentTimeoutMillis * BACKOFF_MULTIPLIER);
+    if (mCurrentRetryCount > MAX_RETRIES) {
+      throw error;
+    }
+  }
+
+  /**
+   * Records the latency of a response (successful or not) received from the server.
+   * @param networkTimeMillis The time the attempt took on the network, in milliseconds.
+   */
+  public void onNetworkResponse(long networkTimeMillis) {
+    mTimeoutPolicy.recordLatency(mEndpoint, mNetworkType, networkTimeMillis);
+  }
+
+  public String getEndpoint() {
+    return mEndpoint;
+  }
+
+  public String getNetworkType() {
+    return mNetworkType;
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * A timeout policy that adapts to observed latency. Latencies are tracked in a rolling window
+ * per endpoint and per network type (i.e. "wifi" or "mobile:LTE"), and the timeout for a request
+ * is a multiple of the 99th percentile of its window, clamped between a floor and a ceiling.
+ * </p>
+ *
+ * <p>
+ * This lets requests to a fast endpoint fail over quickly when a connection has gone dead,
+ * without cutting off an endpoint that is slow but healthy (such as the token endpoint, which
+ * hashes passwords on the server): each endpoint is only ever compared against itself. Until a
+ * window has collected enough samples, the initial timeout is used.
+ * </p>
+ *
+ * <p>
+ * A timed-out request is a censored sample: its latency was at least the timeout, but how much
+ * longer is unknown, and a dead connection would have taken forever. Recording the timeout itself
+ * would let the next timeout be a multiple of a timeout, so that one or two dead connections
+ * ratchet it up to the ceiling. Instead a timeout is recorded as the current 99th percentile (or
+ * less), which keeps the timeout where it is. A network that has become slower still pushes its
+ * percentile up through the requests that complete, such as retries, which get a longer timeout.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AdaptiveTimeoutPolicy {
+
+  /**
+   * The default number of samples kept per endpoint and network type.
+   */
+  public static final int DEFAULT_WINDOW_SIZE = 100;
+
+  /**
+   * The default number of samples required before the timeout adapts.
+   */
+  public static final int DEFAULT_MIN_SAMPLES = 20;
+
+  /**
+   * The default multiple of the 99th percentile used as the timeout.
+   */
+  public static final float DEFAULT_MULTIPLIER = 3.0f;
+
+  /**
+   * The default lower bound on the timeout, in milliseconds.
+   */
+  public static final int DEFAULT_FLOOR_MILLIS = 2500;
+
+  /**
+   * The default upper bound on the timeout (and the initial timeout), in milliseconds.
+   */
+  public static final int DEFAULT_CEILING_MILLIS =
+      (int) Api.DEFAULT_TIME_UNIT.toMillis(Api.DEFAULT_TIMEOUT_DURATION);
+
+  /**
+   * The percentile the timeout is based on.
+   */
+  private static final float PERCENTILE = 99.0f;
+
+  /**
+   * The number of samples kept per endpoint and network type.
+   */
+  private final int mWindowSize;
+
+  /**
+   * The number of samples required before the timeout adapts.
+   */
+  private final int mMinSamples;
+
+  /**
+   * The multiple of the 99th percentile used as the timeout.
+   */
+  private final float mMultiplier;
+
+  /**
+   * The lower bound on the timeout, in milliseconds.
+   */
+  private final int mFloorMillis;
+
+  /**
+   * The upper bound on the timeout, in milliseconds.
+   */
+  private final int mCeilingMillis;
+
+  /**
+   * The timeout used until enough samples have been collected, in milliseconds.
+   */
+  private final int mInitialMillis;
+
+  /**
+   * The latency windows, keyed by endpoint and network type.
+   */
+  private final ConcurrentMap<String, LatencyWindow> mWindows = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a policy with the default settings.
+   */
+  public AdaptiveTimeoutPolicy() {
+    this(
+        DEFAULT_WINDOW_SIZE,
+        DEFAULT_MIN_SAMPLES,
+        DEFAULT_MULTIPLIER,
+        DEFAULT_FLOOR_MILLIS,
+        DEFAULT_CEILING_MILLIS,
+        DEFAULT_CEILING_MILLIS);
+  }
+
+  /**
+   * Creates a policy.
+   * @param windowSize The number of samples kept per endpoint and network type.
+   * @param minSamples The number of samples required before the timeout adapts.
+   * @param multiplier The multiple of the 99th percentile used as the timeout.
+   * @param floorMillis The lower bound on the timeout, in milliseconds.
+   * @param ceilingMillis The upper bound on the timeout, in milliseconds.
+   * @param initialMillis The timeout used until enough samples have been collected, in
+   *                      milliseconds.
+   */
+  public AdaptiveTimeoutPolicy(
+      int windowSize,
+      int minSamples,
+      float multiplier,
+      int floorMillis,
+      int ceilingMillis,
+      int initialMillis) {
+    if (windowSize < 1 || minSamples < 1 || minSamples > windowSize) {
+      throw new IllegalArgumentException(String.format(
+          Locale.US,
+          "Invalid window size %d or minimum samples %d",
+          windowSize,
+          minSamples));
+    }
+    if (multiplier <= 0.0f || floorMillis < 0 || ceilingMillis < floorMillis) {
+      throw new IllegalArgumentException(String.format(
+          Locale.US,
+          "Invalid multiplier %.2f or bounds [%d, %d]",
+          multiplier,
+          floorMillis,
+          ceilingMillis));
+    }
+    mWindowSize = windowSize;
+    mMinSamples = minSamples;
+    mMultiplier = multiplier;
+    mFloorMillis = floorMillis;
+    mCeilingMillis = ceilingMillis;
+    mInitialMillis = clamp(initialMillis);
+  }
+
+  /**
+   * Returns the timeout for a request.
+   * @param endpoint The endpoint being called.
+   * @param networkType The type of the active network.
+   * @return The timeout, in milliseconds.
+   */
+  public int getTimeoutMillis(String endpoint, String networkType) {
+    final LatencyWindow window = mWindows.get(getKey(endpoint, networkType));
+    if (window == null) {
+      return mInitialMillis;
+    }
+    final long p99 = window.getPercentile(PERCENTILE, mMinSamples);
+    return (p99 < 0 ? mInitialMillis : clamp(Math.round(p99 * (double) mMultiplier)));
+  }
+
+  /**
+   * Returns the largest timeout this policy will ever give.
+   * @return The ceiling, in milliseconds.
+   */
+  public int getCeilingMillis() {
+    return mCeilingMillis;
+  }
+
+  /**
+   * Records the latency of a completed request.
+   * @param endpoint The endpoint that was called.
+   * @param networkType The type of the network the request was made on.
+   * @param latencyMillis The latency, in milliseconds.
+   */
+  public void recordLatency(String endpoint, String networkType, long latencyMillis) {
+    if (latencyMillis >= 0) {
+      getWindow(endpoint, networkType).add(latencyMillis);
+    }
+  }
+
+  /**
+   * Records a request that timed out. The sample recorded is the smaller of the timeout and the
+   * current 99th percentile, so that a timeout never raises the percentile; nothing is recorded
+   * until the timeout has adapted.
+   * @param endpoint The endpoint that was called.
+   * @param networkType The type of the network the request was made on.
+   * @param timeoutMillis The timeout the request was given, in milliseconds.
+   */
+  public void recordTimeout(String endpoint, String networkType, int timeoutMillis) {
+    final LatencyWindow window = mWindows.get(getKey(endpoint, networkType));
+    final long p99 = (window == null ? -1L : window.getPercentile(PERCENTILE, mMinSamples));
+    if (p99 >= 0) {
+      window.add(Math.min(p99, timeoutMillis));
+    }
+  }
+
+  /**
+   * Returns a percentile of the recorded latencies.
+   * @param endpoint The endpoint.
+   * @param networkType The network type.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The percentile in milliseconds, or -1 if no latencies have been recorded.
+   */
+  public long getPercentile(String endpoint, String networkType, float percentile) {
+    final LatencyWindow window = mWindows.get(getKey(endpoint, networkType));
+    return (window == null ? -1L : window.getPercentile(percentile, 1));
+  }
+
+  /**
+   * Returns the number of latencies currently in the window.
+   * @param endpoint The endpoint.
+   * @param networkType The network type.
+   * @return The number of samples.
+   */
+  public int getSampleCount(String endpoint, String networkType) {
+    final LatencyWindow window = mWindows.get(getKey(endpoint, networkType));
+    return (window == null ? 0 : window.size());
+  }
+
+  /**
+   * Discards every recorded latency.
+   */
+  public void reset() {
+    mWindows.clear();
+  }
+
+  /**
+   * Returns the window for an endpoint and network type, creating it if necessary.
+   * @param endpoint The endpoint.
+   * @param networkType The network type.
+   * @return The window.
+   */
+  private LatencyWindow getWindow(String endpoint, String networkType) {
+    final String key = getKey(endpoint, networkType);
+    LatencyWindow window = mWindows.get(key);
+    if (window == null) {
+      final LatencyWindow newWindow = new LatencyWindow(mWindowSize);
+      window = mWindows.putIfAbsent(key, newWindow);
+      if (window == null) {
+        window = newWindow;
+      }
+    }
+    return window;
+  }
+
+  /**
+   * Clamps a timeout between the floor and the ceiling.
+   * @param millis The timeout, in milliseconds.
+   * @return The clamped timeout.
+   */
+  private int clamp(long millis) {
+    return (int) Math.max(mFloorMillis, Math.min(mCeilingMillis, millis));
+  }
+
+  /**
+   * Returns the key of the window for an endpoint and network type.
+   * @param endpoint The endpoint.
+   * @param networkType The network type.
+   * @return The key.
+   */
+  private static String getKey(String endpoint, String networkType) {
+    return endpoint + '@' + networkType;
+  }
+
+  /**
+   * A fixed-size ring buffer of latencies.
+   */
+  private static class LatencyWindow {
+    final long[] mSamples;
+    int mCount;
+    int mNext;
+
+    LatencyWindow(int size) {
+      mSamples = new long[size];
+    }
+
+    synchronized void add(long latencyMillis) {
+      mSamples[mNext] = latencyMillis;
+      mNext = (mNext + 1) % mSamples.length;
+      if (mCount < mSamples.length) {
+        mCount++;
+      }
+    }
+
+    synchronized int size() {
+      return mCount;
+    }
+
+    /**
+     * Returns a percentile using the nearest-rank method.
+     * @param percentile The percentile, between 0 and 100.
+     * @param minSamples The number of samples required.
+     * @return The percentile, or -1 if there are fewer than minSamples samples.
+     */
+    long getPercentile(float percentile, int minSamples) {
+      final long[] sorted;
+      synchronized (this) {
+        if (mCount < minSamples) {
+          return -1L;
+        }
+        sorted = Arrays.copyOf(mSamples, mCount);
+      }
+      Arrays.sort(sorted);
+      final int rank = (int) Math.ceil(percentile / 100.0d * sorted.length);
+      return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+  }
+}
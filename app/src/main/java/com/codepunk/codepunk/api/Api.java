@@ -19,14 +19,16 @@ package com.codepunk.codepunk.api;
 import android.content.Context;
 
 import com.codepunk.codepunk.app.Environment;
+import com.codepunk.codepunk.model.AuthInfo;
 
 import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
  * This class serves as the means by which API calls are made. The concrete classes
- * ({@link ApiProduction}, {@link ApiDevelopment}, {@link ApiLocal} etc.) contain the specifics
- * required to communicate with the appropriate server based on the current {@link Environment}.
+ * ({@link ApiProduction}, {@link ApiDevelopment}, {@link ApiLocal}, {@link ApiStandIn} etc.)
+ * contain the specifics required to communicate with the appropriate server based on the current
+ * {@link Environment}.
  * </p>
  *
  * <p>
@@ -72,6 +74,11 @@ public abstract class Api {
    */
   private Context mContext;
 
+  /**
+   * The policy that sets request timeouts from observed latency.
+   */
+  private final AdaptiveTimeoutPolicy mTimeoutPolicy = new AdaptiveTimeoutPolicy();
+
   /**
    * The {@link ApiDelegate} associated with authorization api calls.
    */
@@ -82,6 +89,16 @@ public abstract class Api {
    */
   private ApiUserDelegate mApiUserDelegate;
 
+  /**
+   * The {@link ApiDelegate} associated with media downloads.
+   */
+  private ApiDownloadDelegate mApiDownloadDelegate;
+
+  /**
+   * The {@link ApiDelegate} associated with media uploads.
+   */
+  private ApiUploadDelegate mApiUploadDelegate;
+
   /**
    * Simple constructor that saves a {@link Context}. Don't create this directly;
    * use the {@link Api#newInstance(Context, Environment)} method instead.
@@ -103,12 +120,22 @@ public abstract class Api {
         return new ApiDevelopment(context);
       case LOCAL:
         return new ApiLocal(context);
+      case STAND_IN:
+        return new ApiStandIn(context);
       case PRODUCTION:
       default:
         return new ApiProduction(context);
     }
   }
 
+  /**
+   * Primes the Gson type adapters for every response type the api delegates deserialize, so
+   * that the first api call of a launch doesn't pay for building them.
+   */
+  public static void warmUp() {
+    GsonRequest.warmUp(AuthInfo.class, ApiUserDelegate.USER_TYPE);
+  }
+
   /**
    * Returns the context the Api instance is running in, through which it can
    * access the current theme, resources, etc.
@@ -119,6 +146,15 @@ public abstract class Api {
     return mContext;
   }
 
+  /**
+   * Returns the policy that sets the timeouts of this Api instance's requests. Latencies are
+   * tracked per Api instance, since each one talks to a different server.
+   * @return The timeout policy.
+   */
+  public AdaptiveTimeoutPolicy getTimeoutPolicy() {
+    return mTimeoutPolicy;
+  }
+
   /**
    * Returns the Api instance's URL scheme.
    *
@@ -164,6 +200,30 @@ public abstract class Api {
     return mApiUserDelegate;
   }
 
+  /**
+   * Returns a reference to an {@link ApiDownloadDelegate} instance, creating a new one if
+   * necessary.
+   * @return An ApiDownloadDelegate instance.
+   */
+  public ApiDownloadDelegate getDownloadDelegate() {
+    if (mApiDownloadDelegate == null) {
+      mApiDownloadDelegate = new ApiDownloadDelegate(this);
+    }
+    return mApiDownloadDelegate;
+  }
+
+  /**
+   * Returns a reference to an {@link ApiUploadDelegate} instance, creating a new one if
+   * necessary.
+   * @return An ApiUploadDelegate instance.
+   */
+  public ApiUploadDelegate getUploadDelegate() {
+    if (mApiUploadDelegate == null) {
+      mApiUploadDelegate = new ApiUploadDelegate(this);
+    }
+    return mApiUploadDelegate;
+  }
+
   /**
    * A concrete Api class that points to the development environment.
    */
@@ -235,4 +295,49 @@ public abstract class Api {
       return "app_local.php";
     }
   }
+
+  /**
+   * A concrete Api class that points to an in-process stand-in server. The authority is not
+   * known until the server is started, so it must be supplied with
+   * {@link ApiStandIn#setAuthority(String)} before any api calls are made.
+   */
+  public static class ApiStandIn extends Api {
+
+    /**
+     * The default authority of the stand-in server.
+     */
+    public static final String DEFAULT_AUTHORITY = "127.0.0.1:8899";
+
+    /**
+     * The authority of the running stand-in server.
+     */
+    private static volatile String sAuthority = DEFAULT_AUTHORITY;
+
+    public ApiStandIn(Context context) {
+      super(context);
+    }
+
+    /**
+     * Sets the authority (host and port) of the running stand-in server.
+     * @param authority The authority, i.e. "127.0.0.1:43210".
+     */
+    public static void setAuthority(String authority) {
+      sAuthority = authority;
+    }
+
+    @Override
+    public String getScheme() {
+      return "http";
+    }
+
+    @Override
+    public String getAuthority() {
+      return sAuthority;
+    }
+
+    @Override
+    public String getPath() {
+      return "";
+    }
+  }
 }
@@ -17,6 +17,7 @@
 package com.codepunk.codepunk.api;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import com.android.volley.Request;
 import com.android.volley.Response.ErrorListener;
@@ -63,8 +64,65 @@ public class ApiAuthDelegate extends ApiDelegate {
       String password,
       final Listener<AuthInfo> listener,
       final ErrorListener errorListener) {
+    mVolleyManager.addToRequestQueue(
+        newAuthTokenRequest(username, password, listener, errorListener));
+  }
+
+  /**
+   * Calls the api endpoint for retrieving an authorization token.
+   * @param username The username used to generate the authorization token.
+   * @param password The password used to generate the authorization token.
+   * @return A {@link ListenableFuture} that completes with the api response. Canceling it
+   * cancels the underlying request.
+   */
+  public ListenableFuture<AuthInfo> getAuthToken(String username, String password) {
+    final VolleyFuture<AuthInfo> future = VolleyFuture.newFuture();
+    mVolleyManager.addToRequestQueue(
+        future.setRequest(newAuthTokenRequest(username, password, future, future)));
+    return future;
+  }
+
+  /**
+   * Calls the api endpoint for refreshing an authorization token.
+   * @param refreshToken The refreshToken used to generate the new authorization token.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   */
+  public void refreshToken(
+      String refreshToken,
+      final Listener<AuthInfo> listener,
+      final ErrorListener errorListener) {
+    mVolleyManager.addToRequestQueue(
+        newRefreshTokenRequest(refreshToken, listener, errorListener));
+  }
+
+  /**
+   * Calls the api endpoint for refreshing an authorization token.
+   * @param refreshToken The refreshToken used to generate the new authorization token.
+   * @return A {@link ListenableFuture} that completes with the api response. Canceling it
+   * cancels the underlying request.
+   */
+  public ListenableFuture<AuthInfo> refreshToken(String refreshToken) {
+    final VolleyFuture<AuthInfo> future = VolleyFuture.newFuture();
+    mVolleyManager.addToRequestQueue(
+        future.setRequest(newRefreshTokenRequest(refreshToken, future, future)));
+    return future;
+  }
+
+  /**
+   * Builds a request for retrieving an authorization token.
+   * @param username The username used to generate the authorization token.
+   * @param password The password used to generate the authorization token.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   * @return The request.
+   */
+  private SymfonyRequest<AuthInfo> newAuthTokenRequest(
+      String username,
+      String password,
+      Listener<AuthInfo> listener,
+      ErrorListener errorListener) {
     final Environment environment = mSessionManager.getEnvironment();
-    final String url = buildUrl(ENDPOINT_GET_AUTH_TOKEN);
     final ImmutableMap<String, String> params = new ImmutableMap.Builder<String, String>()
         .put(QUERY_PARAM_GRANT_TYPE, AuthGrantType.USER_CREDENTIALS.getValue())
         .put(QUERY_PARAM_CLIENT_ID, environment.getClientId())
@@ -72,45 +130,45 @@ public class ApiAuthDelegate extends ApiDelegate {
         .put(QUERY_PARAM_USERNAME, username)
         .put(QUERY_PARAM_PASSWORD, password)
         .build();
-    final SymfonyRequest<AuthInfo> request =
+    return applyTimeoutPolicy(
         new SymfonyRequest<>(
             Request.Method.POST,
-            url,
+            buildUrl(ENDPOINT_GET_AUTH_TOKEN),
             AuthInfo.class,
             null,
             params,
             listener,
-            errorListener);
-    mVolleyManager.addToRequestQueue(request);
+            errorListener),
+        ENDPOINT_GET_AUTH_TOKEN);
   }
 
   /**
-   * Calls the api endpoint for refreshing an authorization token.
+   * Builds a request for refreshing an authorization token.
    * @param refreshToken The refreshToken used to generate the new authorization token.
    * @param listener A {@link Listener} that will wait for a successful api response.
    * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   * @return The request.
    */
-  public void refreshToken(
+  private SymfonyRequest<AuthInfo> newRefreshTokenRequest(
       String refreshToken,
-      final Listener<AuthInfo> listener,
-      final ErrorListener errorListener) {
+      Listener<AuthInfo> listener,
+      ErrorListener errorListener) {
     final Environment environment = mSessionManager.getEnvironment();
-    final String url = buildUrl(ENDPOINT_GET_AUTH_TOKEN);
     final ImmutableMap<String, String> params = new ImmutableMap.Builder<String, String>()
         .put(QUERY_PARAM_GRANT_TYPE, AuthGrantType.REFRESH_TOKEN.getValue())
         .put(QUERY_PARAM_CLIENT_ID, environment.getClientId())
         .put(QUERY_PARAM_CLIENT_SECRET, environment.getClientSecret())
         .put(QUERY_PARAM_REFRESH_TOKEN, refreshToken)
         .build();
-    final SymfonyRequest<AuthInfo> request =
+    return applyTimeoutPolicy(
         new SymfonyRequest<>(
             Request.Method.POST,
-            url,
+            buildUrl(ENDPOINT_GET_AUTH_TOKEN),
             AuthInfo.class,
             null,
             params,
             listener,
-            errorListener);
-    mVolleyManager.addToRequestQueue(request);
+            errorListener),
+        ENDPOINT_GET_AUTH_TOKEN);
   }
 }
@@ -18,8 +18,12 @@ package com.codepunk.codepunk.api;
 
 import android.net.Uri;
 
+import com.android.volley.Request;
+import com.codepunk.codepunk.app.AppComponent;
+import com.codepunk.codepunk.app.AppComponents;
 import com.codepunk.codepunk.app.SessionManager;
 import com.codepunk.codepunk.app.VolleyManager;
+import com.codepunk.codepunk.util.NetworkUtils;
 
 import java.util.Locale;
 import java.util.Map;
@@ -79,8 +83,9 @@ abstract class ApiDelegate {
    */
   ApiDelegate(Api api) {
     mApi = api;
-    mSessionManager = SessionManager.getInstance();
-    mVolleyManager = VolleyManager.getInstance(api.getContext());
+    final AppComponent component = AppComponents.get();
+    mSessionManager = component.sessionManager();
+    mVolleyManager = component.volleyManager();
   }
 
   /**
@@ -108,6 +113,22 @@ abstract class ApiDelegate {
     return builder.build().toString();
   }
 
+  /**
+   * Gives a request an {@link AdaptiveRetryPolicy}, so that its timeout is based on the latency
+   * observed for the same endpoint on the same type of network.
+   * @param request The request.
+   * @param endpoint The endpoint the request calls.
+   * @param <R> The type of the request.
+   * @return The request, for chaining.
+   */
+  <R extends Request<?>> R applyTimeoutPolicy(R request, String endpoint) {
+    request.setRetryPolicy(new AdaptiveRetryPolicy(
+        mApi.getTimeoutPolicy(),
+        endpoint,
+        NetworkUtils.getCurrentNetworkType(mApi.getContext())));
+    return request;
+  }
+
   /**
    * Builds a URL string for an endpoint without query parameters.
    * @param endpoint The base string that represents the endpoint.
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import android.net.Uri;
+
+import com.codepunk.codepunk.app.TlsSessionManager;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * An {@link ApiDelegate} class that downloads media files. Downloads bypass Volley, which
+ * buffers every response body in memory, and stream straight to disk instead; see
+ * {@link DownloadRequest}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ApiDownloadDelegate extends ApiDelegate {
+
+  /**
+   * The base endpoint for media files.
+   */
+  static final String ENDPOINT_MEDIA = "api/v1/media/";
+
+  /**
+   * The maximum number of downloads that run at the same time. Further downloads wait in line.
+   */
+  public static final int MAX_CONCURRENT_DOWNLOADS = 2;
+
+  /**
+   * The executor that runs downloads, shared by all environments.
+   */
+  private static final ExecutorService sExecutor = Executors.newFixedThreadPool(
+      MAX_CONCURRENT_DOWNLOADS,
+      new ThreadFactoryBuilder()
+          .setNameFormat("ApiDownload-%d")
+          .setDaemon(true)
+          .build());
+
+  /**
+   * Constructor that takes an {@link Api} instance.
+   * @param api The {@link Api} instance that controls this delegate.
+   */
+  ApiDownloadDelegate(Api api) {
+    super(api);
+  }
+
+  /**
+   * Downloads a media file. If an earlier download of the same file to the same destination was
+   * interrupted, it is resumed.
+   * @param authToken The authorization token.
+   * @param name The name of the media file.
+   * @param destination The file to save the media file to.
+   * @param expectedLength The expected length of the file, or -1 if it is not known.
+   * @param expectedSha256 The expected hex-encoded SHA-256 checksum of the file, or null if it
+   * should not be verified.
+   * @param listener An optional {@link DownloadRequest.ProgressListener}, which is called on the
+   * main thread.
+   * @return The request, which is also a {@link ListenableFuture} that completes with the
+   * destination file. Canceling it stops the download.
+   */
+  public DownloadRequest download(
+      String authToken,
+      String name,
+      File destination,
+      long expectedLength,
+      String expectedSha256,
+      DownloadRequest.ProgressListener listener) {
+    final DownloadRequest request = newDownloadRequest(authToken, name, destination)
+        .setExpectedLength(expectedLength)
+        .setExpectedSha256(expectedSha256);
+    if (listener != null) {
+      request.setProgressListener(listener, mVolleyManager.getMainThreadExecutor());
+    }
+    return download(request);
+  }
+
+  /**
+   * Queues a download request that was built with
+   * {@link #newDownloadRequest(String, String, File)}.
+   * @param request The request.
+   * @return The request, for chaining.
+   */
+  public DownloadRequest download(DownloadRequest request) {
+    sExecutor.execute(request);
+    return request;
+  }
+
+  /**
+   * Builds a request for downloading a media file, which can be customized before being passed
+   * to {@link #download(DownloadRequest)}.
+   * @param authToken The authorization token.
+   * @param name The name of the media file.
+   * @param destination The file to save the media file to.
+   * @return The request.
+   */
+  public DownloadRequest newDownloadRequest(String authToken, String name, File destination) {
+    return new DownloadRequest(buildUrl(ENDPOINT_MEDIA + Uri.encode(name)), destination)
+        .setHeader(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
+        .setSocketFactory(TlsSessionManager.getInstance(mApi.getContext()).getSocketFactory());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.codepunk.codepunk.app.TlsSessionManager;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * An {@link ApiDelegate} class that uploads media files in resumable chunks. Uploads bypass
+ * Volley, which builds every request body in memory, and stream each chunk from disk instead;
+ * see {@link ChunkedUploader}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ApiUploadDelegate extends ApiDelegate {
+
+  /**
+   * The base endpoint for chunked uploads.
+   */
+  static final String ENDPOINT_UPLOADS = "api/v1/uploads/";
+
+  /**
+   * The executor that runs uploads and their chunks, shared by all environments. Each uploader
+   * bounds its own number of chunks in flight, so the pool itself is unbounded; its idle threads
+   * time out.
+   */
+  private static final ExecutorService sExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("ApiUpload-%d")
+          .setDaemon(true)
+          .build());
+
+  /**
+   * Constructor that takes an {@link Api} instance.
+   * @param api The {@link Api} instance that controls this delegate.
+   */
+  ApiUploadDelegate(Api api) {
+    super(api);
+  }
+
+  /**
+   * Uploads a media file.
+   * @param authToken The authorization token.
+   * @param file The file to upload.
+   * @param name The name the file will be stored under.
+   * @param sessionId The id of an earlier, interrupted upload of the same file, which is resumed
+   * if the server still has it, or null to start a new upload.
+   * @param listener An optional {@link ChunkedUploader.ProgressListener}, which is called on the
+   * main thread.
+   * @return The uploader, which is also a {@link ListenableFuture} that completes with the
+   * completed session. Canceling it stops the upload.
+   */
+  public ChunkedUploader upload(
+      String authToken,
+      File file,
+      String name,
+      String sessionId,
+      ChunkedUploader.ProgressListener listener) {
+    final ChunkedUploader uploader = newUploader(authToken, file, name).setSessionId(sessionId);
+    if (listener != null) {
+      uploader.setProgressListener(listener, mVolleyManager.getMainThreadExecutor());
+    }
+    return upload(uploader);
+  }
+
+  /**
+   * Starts an uploader that was built with {@link #newUploader(String, File, String)}.
+   * @param uploader The uploader.
+   * @return The uploader, for chaining.
+   */
+  public ChunkedUploader upload(ChunkedUploader uploader) {
+    sExecutor.execute(uploader);
+    return uploader;
+  }
+
+  /**
+   * Builds an uploader for a media file, which can be customized before being passed to
+   * {@link #upload(ChunkedUploader)}.
+   * @param authToken The authorization token.
+   * @param file The file to upload.
+   * @param name The name the file will be stored under.
+   * @return The uploader.
+   */
+  public ChunkedUploader newUploader(String authToken, File file, String name) {
+    return new ChunkedUploader(buildUrl(ENDPOINT_UPLOADS), file, name)
+        .setHeader(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
+        .setExecutor(sExecutor)
+        .setSocketFactory(TlsSessionManager.getInstance(mApi.getContext()).getSocketFactory());
+  }
+}
@@ -16,16 +16,27 @@
 
 package com.codepunk.codepunk.api;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.reflect.TypeToken;
 
 import com.android.volley.Request;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
+import com.codepunk.codepunk.app.SyncEngine;
+import com.codepunk.codepunk.app.TlsSessionManager;
+import com.codepunk.codepunk.model.ChangeSet;
 import com.codepunk.codepunk.model.CodepunkResponse;
+import com.codepunk.codepunk.model.Page;
 import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.util.VersionedEntityStore;
 
 import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * <p>
@@ -40,10 +51,48 @@ public class ApiUserDelegate extends ApiDelegate {
   private static final String ENDPOINT_GET_AUTHENTICATED_USER =
       "api/v1/authenticated_user/get.json";
 
+  /**
+   * The base endpoint for the list users api call.
+   */
+  private static final String ENDPOINT_GET_USERS = "api/v1/users/list.json";
+
+  /**
+   * The base endpoint for the get all users api call.
+   */
+  private static final String ENDPOINT_GET_ALL_USERS = "api/v1/users/all.json";
+
+  /**
+   * The base endpoint for the get changes (sync) api call.
+   */
+  private static final String ENDPOINT_GET_CHANGES = "api/v1/sync/changes.json";
+
+  private static final String QUERY_PARAM_CURSOR = "cursor";
+  private static final String QUERY_PARAM_LIMIT = "limit";
+  private static final String QUERY_PARAM_SINCE = "since";
+
   /**
    * The {@link User} type used to delver a User instance back to the caller.
    */
-  private static final Type USER_TYPE = new TypeToken<CodepunkResponse<User>>() {}.getType();
+  static final Type USER_TYPE = new TypeToken<CodepunkResponse<User>>() {}.getType();
+
+  /**
+   * The {@link Page} type used to deliver a page of users back to the caller.
+   */
+  static final Type USER_PAGE_TYPE = new TypeToken<CodepunkResponse<Page<User>>>() {}.getType();
+
+  /**
+   * The {@link ChangeSet} type used to deliver the changes since a sync token back to the caller.
+   */
+  static final Type CHANGE_SET_TYPE = new TypeToken<CodepunkResponse<ChangeSet>>() {}.getType();
+
+  /**
+   * The executor that runs streaming requests, shared by all environments.
+   */
+  private static final ExecutorService sStreamExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("ApiStream-%d")
+          .setDaemon(true)
+          .build());
 
   /**
    * Constructor that takes an {@link Api} instance.
@@ -63,19 +112,331 @@ public class ApiUserDelegate extends ApiDelegate {
       final String authToken,
       final Listener<User> listener,
       final ErrorListener errorListener) {
-        final ImmutableMap<String, String> headers =
-            new ImmutableMap.Builder<String, String>()
-                .put(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
-                .build();
-        final CodepunkRequest<User> request =
-            new CodepunkRequest<>(
-                Request.Method.GET,
-                buildUrl(ENDPOINT_GET_AUTHENTICATED_USER),
-                USER_TYPE,
-                headers,
-                null /* params */,
-                listener,
-                errorListener);
-        mVolleyManager.addToRequestQueue(request);
+    getAuthenticatedUser(authToken, null, listener, errorListener);
+  }
+
+  /**
+   * Calls the api endpoint for retrieving the authenticated user.
+   * @param authToken The authorization token.
+   * @param tag An optional tag for the request, which can be used to cancel it.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   * @see com.codepunk.codepunk.app.VolleyManager#cancelAll(Object)
+   */
+  public void getAuthenticatedUser(
+      final String authToken,
+      final Object tag,
+      final Listener<User> listener,
+      final ErrorListener errorListener) {
+    mVolleyManager.addToRequestQueue(
+        newAuthenticatedUserRequest(authToken, tag, listener, errorListener));
+  }
+
+  /**
+   * Calls the api endpoint for retrieving the authenticated user.
+   * @param authToken The authorization token.
+   * @return A {@link ListenableFuture} that completes with the user. Canceling it cancels the
+   * underlying request.
+   */
+  public ListenableFuture<User> getAuthenticatedUser(String authToken) {
+    return getAuthenticatedUser(authToken, null);
+  }
+
+  /**
+   * Calls the api endpoint for retrieving the authenticated user.
+   * @param authToken The authorization token.
+   * @param tag An optional tag for the request, which can be used to cancel it.
+   * @return A {@link ListenableFuture} that completes with the user. Canceling it cancels the
+   * underlying request.
+   */
+  public ListenableFuture<User> getAuthenticatedUser(String authToken, Object tag) {
+    final VolleyFuture<User> future = VolleyFuture.newFuture();
+    mVolleyManager.addToRequestQueue(
+        future.setRequest(newAuthenticatedUserRequest(authToken, tag, future, future)));
+    return future;
+  }
+
+  /**
+   * Builds a request for retrieving the authenticated user.
+   * @param authToken The authorization token.
+   * @param tag An optional tag for the request.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   * @return The request.
+   */
+  CodepunkRequest<User> newAuthenticatedUserRequest(
+      String authToken,
+      Object tag,
+      Listener<User> listener,
+      ErrorListener errorListener) {
+    final ImmutableMap<String, String> headers =
+        new ImmutableMap.Builder<String, String>()
+            .put(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
+            .build();
+    final CodepunkRequest<User> request =
+        new CodepunkRequest<>(
+            Request.Method.GET,
+            buildUrl(ENDPOINT_GET_AUTHENTICATED_USER),
+            USER_TYPE,
+            headers,
+            null /* params */,
+            listener,
+            errorListener);
+    if (tag != null) {
+      request.setTag(tag);
+    }
+    return applyTimeoutPolicy(request, ENDPOINT_GET_AUTHENTICATED_USER);
+  }
+
+  /**
+   * Calls the api endpoint for retrieving one page of the list of users.
+   * @param authToken The authorization token.
+   * @param cursor The cursor of the page, or null for the first page.
+   * @param limit The maximum number of users to return.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   */
+  public void getUsers(
+      final String authToken,
+      final String cursor,
+      final int limit,
+      final Listener<Page<User>> listener,
+      final ErrorListener errorListener) {
+    mVolleyManager.addToRequestQueue(
+        newUsersRequest(authToken, cursor, limit, listener, errorListener));
+  }
+
+  /**
+   * Calls the api endpoint for retrieving one page of the list of users.
+   * @param authToken The authorization token.
+   * @param cursor The cursor of the page, or null for the first page.
+   * @param limit The maximum number of users to return.
+   * @return A {@link ListenableFuture} that completes with the page. Canceling it cancels the
+   * underlying request.
+   */
+  public ListenableFuture<Page<User>> getUsers(String authToken, String cursor, int limit) {
+    final VolleyFuture<Page<User>> future = VolleyFuture.newFuture();
+    mVolleyManager.addToRequestQueue(
+        future.setRequest(newUsersRequest(authToken, cursor, limit, future, future)));
+    return future;
+  }
+
+  /**
+   * Creates a {@link Pager} over the list of users with the default page size and prefetch
+   * distance. Page loads are delivered on the main thread, so the pager must be used from the
+   * main thread.
+   * @param authToken The authorization token.
+   * @return The pager. Call {@link Pager#start()} to load the first page.
+   */
+  public Pager<User> newUsersPager(String authToken) {
+    return newUsersPager(
+        authToken,
+        Pager.DEFAULT_PAGE_SIZE,
+        Pager.DEFAULT_PREFETCH_DISTANCE,
+        Pager.DEFAULT_MAX_IN_FLIGHT_PAGES);
+  }
+
+  /**
+   * Creates a {@link Pager} over the list of users. Page loads are delivered on the main thread,
+   * so the pager must be used from the main thread.
+   * @param authToken The authorization token.
+   * @param pageSize The number of users requested per page.
+   * @param prefetchDistance How close (in users) to the end of the loaded users the consumer can
+   * get before the next page is requested.
+   * @param maxInFlightPages The maximum number of pages requested at the same time.
+   * @return The pager. Call {@link Pager#start()} to load the first page.
+   */
+  public Pager<User> newUsersPager(
+      final String authToken,
+      int pageSize,
+      int prefetchDistance,
+      int maxInFlightPages) {
+    return new Pager<>(
+        new Pager.PageLoader<User>() {
+          @Override
+          public ListenableFuture<Page<User>> loadPage(String cursor, int limit) {
+            return getUsers(authToken, cursor, limit);
+          }
+        },
+        pageSize,
+        prefetchDistance,
+        maxInFlightPages,
+        mVolleyManager.getMainThreadExecutor());
+  }
+
+  /**
+   * Builds a request for retrieving one page of the list of users.
+   * @param authToken The authorization token.
+   * @param cursor The cursor of the page, or null for the first page.
+   * @param limit The maximum number of users to return.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   * @return The request.
+   */
+  CodepunkRequest<Page<User>> newUsersRequest(
+      String authToken,
+      String cursor,
+      int limit,
+      Listener<Page<User>> listener,
+      ErrorListener errorListener) {
+    final ImmutableMap<String, String> headers =
+        new ImmutableMap.Builder<String, String>()
+            .put(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
+            .build();
+    final ImmutableMap.Builder<String, String> queryParams =
+        new ImmutableMap.Builder<String, String>()
+            .put(QUERY_PARAM_LIMIT, String.valueOf(limit));
+    if (cursor != null) {
+      queryParams.put(QUERY_PARAM_CURSOR, cursor);
+    }
+    final CodepunkRequest<Page<User>> request =
+        new CodepunkRequest<>(
+            Request.Method.GET,
+            buildUrl(ENDPOINT_GET_USERS, queryParams.build()),
+            USER_PAGE_TYPE,
+            headers,
+            null /* params */,
+            listener,
+            errorListener);
+    return applyTimeoutPolicy(request, ENDPOINT_GET_USERS);
+  }
+
+  /**
+   * Calls the api endpoint for retrieving every user, delivering the users to a listener one at
+   * a time as they are decoded rather than as a single list once the whole response has arrived.
+   * @param authToken The authorization token.
+   * @param listener A {@link StreamingArrayRequest.ElementListener} that receives the users on
+   * the main thread.
+   * @return The request, which is also a {@link ListenableFuture} that completes with the number
+   * of users once they have all been delivered. Canceling it closes the connection.
+   */
+  public StreamingArrayRequest<User> streamUsers(
+      String authToken,
+      StreamingArrayRequest.ElementListener<User> listener) {
+    final StreamingArrayRequest<User> request = newStreamUsersRequest(authToken)
+        .setElementListener(listener, mVolleyManager.getMainThreadExecutor());
+    sStreamExecutor.execute(request);
+    return request;
+  }
+
+  /**
+   * Builds a request for retrieving every user, which can be customized (for instance with a
+   * different delivery executor) before being run.
+   * @param authToken The authorization token.
+   * @return The request.
+   */
+  public StreamingArrayRequest<User> newStreamUsersRequest(String authToken) {
+    return new StreamingArrayRequest<>(buildUrl(ENDPOINT_GET_ALL_USERS), User.class)
+        .setGson(GsonRequest.sGson)
+        .setHeader(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
+        .setSocketFactory(TlsSessionManager.getInstance(mApi.getContext()).getSocketFactory());
+  }
+
+  /**
+   * Calls the api endpoint for retrieving the changes to the user's entities since a sync token.
+   * @param authToken The authorization token.
+   * @param syncToken The token returned with the previous changes, or null for every entity.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   */
+  public void getChanges(
+      final String authToken,
+      final String syncToken,
+      final Listener<ChangeSet> listener,
+      final ErrorListener errorListener) {
+    mVolleyManager.addToRequestQueue(
+        newChangesRequest(authToken, syncToken, null, listener, errorListener));
+  }
+
+  /**
+   * Calls the api endpoint for retrieving the changes to the user's entities since a sync token.
+   * @param authToken The authorization token.
+   * @param syncToken The token returned with the previous changes, or null for every entity.
+   * @return A {@link ListenableFuture} that completes with the changes. Canceling it cancels the
+   * underlying request.
+   */
+  public ListenableFuture<ChangeSet> getChanges(String authToken, String syncToken) {
+    return getChanges(authToken, syncToken, null);
+  }
+
+  /**
+   * Calls the api endpoint for retrieving the changes to the user's entities since a sync token.
+   * @param authToken The authorization token.
+   * @param syncToken The token returned with the previous changes, or null for every entity.
+   * @param tag A tag to set on the request so that it can be canceled, or null.
+   * @return A {@link ListenableFuture} that completes with the changes. Canceling it cancels the
+   * underlying request.
+   */
+  public ListenableFuture<ChangeSet> getChanges(String authToken, String syncToken, Object tag) {
+    final VolleyFuture<ChangeSet> future = VolleyFuture.newFuture();
+    mVolleyManager.addToRequestQueue(
+        future.setRequest(newChangesRequest(authToken, syncToken, tag, future, future)));
+    return future;
+  }
+
+  /**
+   * Creates a {@link SyncEngine} that keeps a store of the user's entities current through
+   * {@link #getChanges(String, String, Object)}.
+   * @param authToken Supplies the authorization token. It is asked for the token before each
+   * request, so that one engine can be kept across token refreshes.
+   * @param tag A tag to set on the sync's requests so that they can be canceled, or null.
+   * @param store The store to keep current.
+   * @param executor The executor that changes are merged and observers are called on. Merging
+   * writes to the store's database, so this should not be the main thread.
+   * @return The sync engine. Call {@link SyncEngine#sync()} to refresh the store.
+   */
+  public SyncEngine newSyncEngine(
+      final Supplier<String> authToken,
+      final Object tag,
+      VersionedEntityStore store,
+      Executor executor) {
+    return new SyncEngine(
+        store,
+        new SyncEngine.ChangeSource() {
+          @Override
+          public ListenableFuture<ChangeSet> getChanges(String syncToken) {
+            return ApiUserDelegate.this.getChanges(authToken.get(), syncToken, tag);
+          }
+        },
+        executor);
+  }
+
+  /**
+   * Builds a request for retrieving the changes since a sync token.
+   * @param authToken The authorization token.
+   * @param syncToken The token returned with the previous changes, or null for every entity.
+   * @param tag A tag to set on the request, or null.
+   * @param listener A {@link Listener} that will wait for a successful api response.
+   * @param errorListener A {@link ErrorListener} that will wait for an api response error.
+   * @return The request.
+   */
+  private CodepunkRequest<ChangeSet> newChangesRequest(
+      String authToken,
+      String syncToken,
+      Object tag,
+      Listener<ChangeSet> listener,
+      ErrorListener errorListener) {
+    final ImmutableMap<String, String> headers =
+        new ImmutableMap.Builder<String, String>()
+            .put(HEADER_KEY_AUTHORIZATION, getAuthorizationValue(authToken))
+            .build();
+    final ImmutableMap.Builder<String, String> queryParams =
+        new ImmutableMap.Builder<String, String>();
+    if (syncToken != null) {
+      queryParams.put(QUERY_PARAM_SINCE, syncToken);
+    }
+    final CodepunkRequest<ChangeSet> request =
+        new CodepunkRequest<>(
+            Request.Method.GET,
+            buildUrl(ENDPOINT_GET_CHANGES, queryParams.build()),
+            CHANGE_SET_TYPE,
+            headers,
+            null /* params */,
+            listener,
+            errorListener);
+    if (tag != null) {
+      request.setTag(tag);
+    }
+    return applyTimeoutPolicy(request, ENDPOINT_GET_CHANGES);
   }
 }
@@ -1,66 +0,0 @@
-/*
- * Copyright 2016 Codepunk, LLC
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.codepunk.codepunk.api;
-
-import com.google.gson.annotations.SerializedName;
-
-/**
- * <p>
- * A class representing a Symfony authroization error.
- * </p>
- */
-@SuppressWarnings({"unused", "WeakerAccess"})
-public class AuthError {
-
-  /**
-   * The JSON key representing the type of error.
-   */
-  private static final String JSON_ERROR = "error";
-
-  /**
-   * The JSON key representing the error description.
-   */
-  private static final String JSON_ERROR_DESCRIPTION = "error_description";
-
-  /**
-   * The type of error returned by Symfony.
-   */
-  @SerializedName(JSON_ERROR)
-  private AuthErrorType mErrorType;
-
-  /**
-   * A description of the error returned by Symfony.
-   */
-  @SerializedName(JSON_ERROR_DESCRIPTION)
-  private String mErrorDescription;
-
-  /**
-   * Returns the type of error.
-   * @return The type of error.
-   */
-  public AuthErrorType getType() {
-    return mErrorType;
-  }
-
-  /**
-   * Returns the error description.
-   * @return The error description.
-   */
-  public String getDescription() {
-    return mErrorDescription;
-  }
-}
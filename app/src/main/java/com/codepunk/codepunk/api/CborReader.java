@@ -0,0 +1,642 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A {@link JsonReader} that reads a CBOR (RFC 7049) document instead of JSON text, so that
+ * Gson's {@link com.google.gson.TypeAdapter}s can decode CBOR responses straight into model
+ * objects. There is no intermediate text or {@link com.google.gson.JsonElement} tree: integers,
+ * floats and strings are read directly from their binary encoding, which is where the savings
+ * over JSON text come from.
+ * </p>
+ *
+ * <p>
+ * Maps become JSON objects (integer keys are read as names), arrays become JSON arrays, and
+ * tags are ignored. Byte strings and undefined values are not part of the JSON data model; they
+ * can be skipped but not read. Gson's adapter for {@link java.util.Map} fields reaches into
+ * {@link JsonReader}'s internals and cannot read from this class, so responses with Map fields
+ * must be requested as JSON.
+ * </p>
+ */
+class CborReader extends JsonReader {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_BYTES = 2;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int MAJOR_TAG = 6;
+  private static final int MAJOR_SIMPLE = 7;
+
+  private static final int SIMPLE_FALSE = 20;
+  private static final int SIMPLE_TRUE = 21;
+  private static final int SIMPLE_NULL = 22;
+  private static final int SIMPLE_UNDEFINED = 23;
+  private static final int SIMPLE_HALF = 25;
+  private static final int SIMPLE_FLOAT = 26;
+  private static final int SIMPLE_DOUBLE = 27;
+
+  /**
+   * The additional information that marks an indefinite length.
+   */
+  private static final int INDEFINITE = 31;
+
+  /**
+   * The "break" byte that ends an indefinite-length item.
+   */
+  private static final int BREAK = 0xff;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The document.
+   */
+  private final byte[] mData;
+
+  /**
+   * The offset just past the end of the document.
+   */
+  private final int mEnd;
+
+  /**
+   * The offset of the next byte to read.
+   */
+  private int mPosition;
+
+  /**
+   * The number of items in each open container (twice the number of pairs for a map), or -1 for
+   * an indefinite-length container.
+   */
+  private long[] mLengths = new long[16];
+
+  /**
+   * The number of items read so far from each open container.
+   */
+  private long[] mCounts = new long[16];
+
+  /**
+   * Whether each open container is a map.
+   */
+  private boolean[] mMaps = new boolean[16];
+
+  /**
+   * The number of open containers.
+   */
+  private int mDepth;
+
+  /**
+   * Creates a reader over a whole CBOR document.
+   * @param data The document.
+   */
+  CborReader(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  /**
+   * Creates a reader over a CBOR document.
+   * @param data The buffer holding the document.
+   * @param offset The offset of the document.
+   * @param length The length of the document.
+   */
+  CborReader(byte[] data, int offset, int length) {
+    super(new StringReader(""));
+    mData = data;
+    mPosition = offset;
+    mEnd = offset + length;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    expect(JsonToken.BEGIN_ARRAY);
+    push(false, readLength(MAJOR_ARRAY));
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    expect(JsonToken.END_ARRAY);
+    pop();
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    expect(JsonToken.BEGIN_OBJECT);
+    final long pairs = readLength(MAJOR_MAP);
+    push(true, pairs < 0L ? -1L : pairs * 2L);
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    expect(JsonToken.END_OBJECT);
+    pop();
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    final JsonToken token = peek();
+    return token != JsonToken.END_ARRAY
+        && token != JsonToken.END_OBJECT
+        && token != JsonToken.END_DOCUMENT;
+  }
+
+  @Override
+  public JsonToken peek() throws IOException {
+    if (mDepth > 0) {
+      final int top = mDepth - 1;
+      final boolean end = (mLengths[top] < 0L ?
+          peekByte() == BREAK :
+          mCounts[top] >= mLengths[top]);
+      if (end) {
+        return (mMaps[top] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY);
+      }
+      if (mMaps[top] && mCounts[top] % 2L == 0L) {
+        return JsonToken.NAME;
+      }
+    } else if (mPosition >= mEnd) {
+      return JsonToken.END_DOCUMENT;
+    }
+    return peekValue();
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    expect(JsonToken.NAME);
+    final int major = majorType(peekByte());
+    final String name;
+    if (major == MAJOR_TEXT) {
+      name = readText();
+    } else if (major == MAJOR_UNSIGNED || major == MAJOR_NEGATIVE) {
+      name = String.valueOf(readInteger());
+    } else {
+      throw syntaxError("Unsupported CBOR map key of major type " + major);
+    }
+    return name;
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    final JsonToken token = peek();
+    if (token == JsonToken.STRING) {
+      return readText();
+    } else if (token == JsonToken.NUMBER) {
+      final int info = additionalInfo(peekByte());
+      if (majorType(peekByte()) == MAJOR_SIMPLE) {
+        final double value = readFloat(info);
+        return (value == Math.rint(value) && !Double.isInfinite(value) ?
+            String.valueOf((long) value) :
+            String.valueOf(value));
+      }
+      return String.valueOf(readInteger());
+    }
+    throw unexpected(JsonToken.STRING, token);
+  }
+
+  @Override
+  public boolean nextBoolean() throws IOException {
+    expect(JsonToken.BOOLEAN);
+    return readSimple() == SIMPLE_TRUE;
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    expect(JsonToken.NULL);
+    readSimple();
+  }
+
+  @Override
+  public double nextDouble() throws IOException {
+    final JsonToken token = peek();
+    if (token == JsonToken.STRING) {
+      return Double.parseDouble(readText());
+    } else if (token != JsonToken.NUMBER) {
+      throw unexpected(JsonToken.NUMBER, token);
+    }
+    if (majorType(peekByte()) == MAJOR_SIMPLE) {
+      return readFloat(additionalInfo(peekByte()));
+    }
+    return readInteger();
+  }
+
+  @Override
+  public long nextLong() throws IOException {
+    final JsonToken token = peek();
+    if (token == JsonToken.STRING) {
+      return Long.parseLong(readText());
+    } else if (token != JsonToken.NUMBER) {
+      throw unexpected(JsonToken.NUMBER, token);
+    }
+    if (majorType(peekByte()) == MAJOR_SIMPLE) {
+      final double value = readFloat(additionalInfo(peekByte()));
+      final long result = (long) value;
+      if (result != value) {
+        throw new NumberFormatException("Expected a long but was " + value);
+      }
+      return result;
+    }
+    return readInteger();
+  }
+
+  @Override
+  public int nextInt() throws IOException {
+    final long value = nextLong();
+    final int result = (int) value;
+    if (result != value) {
+      throw new NumberFormatException("Expected an int but was " + value);
+    }
+    return result;
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    final JsonToken token = peek();
+    switch (token) {
+      case BEGIN_ARRAY:
+        beginArray();
+        while (hasNext()) {
+          skipValue();
+        }
+        endArray();
+        break;
+      case BEGIN_OBJECT:
+        beginObject();
+        while (hasNext()) {
+          nextName();
+          skipValue();
+        }
+        endObject();
+        break;
+      case NAME:
+        nextName();
+        break;
+      case END_ARRAY:
+      case END_OBJECT:
+      case END_DOCUMENT:
+        throw unexpected(JsonToken.STRING, token);
+      default:
+        skipScalar();
+        break;
+    }
+  }
+
+  @Override
+  public void close() {
+    mDepth = 0;
+    mPosition = mEnd;
+  }
+
+  @Override
+  public String getPath() {
+    return "$";
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + " at offset " + mPosition;
+  }
+
+  /**
+   * Returns the token of the value at the current position, skipping any tags.
+   * @return The token.
+   * @throws IOException If the document is malformed.
+   */
+  private JsonToken peekValue() throws IOException {
+    int initial = peekByte();
+    while (majorType(initial) == MAJOR_TAG) {
+      mPosition++;
+      readArgument(additionalInfo(initial));
+      initial = peekByte();
+    }
+    switch (majorType(initial)) {
+      case MAJOR_UNSIGNED:
+      case MAJOR_NEGATIVE:
+        return JsonToken.NUMBER;
+      case MAJOR_BYTES:
+      case MAJOR_TEXT:
+        return JsonToken.STRING;
+      case MAJOR_ARRAY:
+        return JsonToken.BEGIN_ARRAY;
+      case MAJOR_MAP:
+        return JsonToken.BEGIN_OBJECT;
+      default:
+        switch (additionalInfo(initial)) {
+          case SIMPLE_FALSE:
+          case SIMPLE_TRUE:
+            return JsonToken.BOOLEAN;
+          case SIMPLE_NULL:
+          case SIMPLE_UNDEFINED:
+            return JsonToken.NULL;
+          case SIMPLE_HALF:
+          case SIMPLE_FLOAT:
+          case SIMPLE_DOUBLE:
+            return JsonToken.NUMBER;
+          default:
+            throw syntaxError("Unexpected CBOR initial byte " + initial);
+        }
+    }
+  }
+
+  /**
+   * Reads a text string. The caller has checked that one is next.
+   * @return The string.
+   * @throws IOException If the document is malformed, or the string is a byte string.
+   */
+  private String readText() throws IOException {
+    final int initial = readByte();
+    if (majorType(initial) != MAJOR_TEXT) {
+      throw syntaxError("CBOR byte strings cannot be read as strings");
+    }
+    final String text;
+    if (additionalInfo(initial) == INDEFINITE) {
+      final StringBuilder builder = new StringBuilder();
+      while (peekByte() != BREAK) {
+        builder.append(readText());
+      }
+      mPosition++;
+      text = builder.toString();
+    } else {
+      final int length = checkLength(readArgument(additionalInfo(initial)));
+      text = new String(mData, mPosition, length, UTF_8);
+      mPosition += length;
+    }
+    consumed();
+    return text;
+  }
+
+  /**
+   * Reads an integer. The caller has checked that one is next.
+   * @return The integer.
+   * @throws IOException If the document is malformed or the integer does not fit in a long.
+   */
+  private long readInteger() throws IOException {
+    final int initial = readByte();
+    final long argument = readArgument(additionalInfo(initial));
+    if (argument < 0L) {
+      throw new NumberFormatException("CBOR integer does not fit in a long");
+    }
+    consumed();
+    return (majorType(initial) == MAJOR_NEGATIVE ? -1L - argument : argument);
+  }
+
+  /**
+   * Reads a floating-point number. The caller has checked that one is next.
+   * @param info The additional information of the number's initial byte.
+   * @return The number.
+   * @throws IOException If the document is malformed.
+   */
+  private double readFloat(int info) throws IOException {
+    mPosition++;
+    final double value;
+    if (info == SIMPLE_HALF) {
+      value = halfToDouble((int) readBytes(2));
+    } else if (info == SIMPLE_FLOAT) {
+      value = Float.intBitsToFloat((int) readBytes(4));
+    } else {
+      value = Double.longBitsToDouble(readBytes(8));
+    }
+    consumed();
+    return value;
+  }
+
+  /**
+   * Reads a simple value (false, true, null or undefined).
+   * @return The simple value.
+   * @throws IOException If the document is malformed.
+   */
+  private int readSimple() throws IOException {
+    final int info = additionalInfo(readByte());
+    consumed();
+    return info;
+  }
+
+  /**
+   * Skips a scalar value of any kind, including byte strings.
+   * @throws IOException If the document is malformed.
+   */
+  private void skipScalar() throws IOException {
+    final int initial = readByte();
+    final int major = majorType(initial);
+    final int info = additionalInfo(initial);
+    if ((major == MAJOR_BYTES || major == MAJOR_TEXT) && info == INDEFINITE) {
+      while (peekByte() != BREAK) {
+        final int chunk = readByte();
+        mPosition += checkLength(readArgument(additionalInfo(chunk)));
+      }
+      mPosition++;
+    } else if (major == MAJOR_BYTES || major == MAJOR_TEXT) {
+      mPosition += checkLength(readArgument(info));
+    } else if (major == MAJOR_SIMPLE) {
+      mPosition += (info == SIMPLE_HALF ? 2 : info == SIMPLE_FLOAT ? 4 : info == SIMPLE_DOUBLE ?
+          8 : info == 24 ? 1 : 0);
+    } else {
+      readArgument(info);
+    }
+    if (mPosition > mEnd) {
+      throw new EOFException("End of CBOR document");
+    }
+    consumed();
+  }
+
+  /**
+   * Reads the length of an array or map header.
+   * @param major The expected major type.
+   * @return The length, or -1 for an indefinite length.
+   * @throws IOException If the document is malformed.
+   */
+  private long readLength(int major) throws IOException {
+    final int initial = readByte();
+    if (majorType(initial) != major) {
+      throw syntaxError("Expected CBOR major type " + major + " at offset " + (mPosition - 1));
+    }
+    final int info = additionalInfo(initial);
+    return (info == INDEFINITE ? -1L : checkLength(readArgument(info)));
+  }
+
+  /**
+   * Reads the argument that follows an initial byte.
+   * @param info The additional information of the initial byte.
+   * @return The argument. Unsigned 64-bit values above {@link Long#MAX_VALUE} come back
+   * negative.
+   * @throws IOException If the document is malformed.
+   */
+  private long readArgument(int info) throws IOException {
+    if (info < 24) {
+      return info;
+    }
+    switch (info) {
+      case 24:
+        return readBytes(1);
+      case 25:
+        return readBytes(2);
+      case 26:
+        return readBytes(4);
+      case 27:
+        return readBytes(8);
+      default:
+        throw syntaxError("Unexpected CBOR additional information " + info);
+    }
+  }
+
+  /**
+   * Reads a big-endian unsigned integer.
+   * @param count The number of bytes.
+   * @return The integer.
+   * @throws EOFException If the document ends first.
+   */
+  private long readBytes(int count) throws EOFException {
+    if (mPosition + count > mEnd) {
+      throw new EOFException("End of CBOR document");
+    }
+    long value = 0L;
+    for (int i = 0; i < count; i++) {
+      value = (value << 8) | (mData[mPosition++] & 0xffL);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the next byte without consuming it.
+   * @return The byte, as an unsigned value.
+   * @throws EOFException If the document has ended.
+   */
+  private int peekByte() throws EOFException {
+    if (mPosition >= mEnd) {
+      throw new EOFException("End of CBOR document");
+    }
+    return mData[mPosition] & 0xff;
+  }
+
+  /**
+   * Consumes the next byte.
+   * @return The byte, as an unsigned value.
+   * @throws EOFException If the document has ended.
+   */
+  private int readByte() throws EOFException {
+    final int value = peekByte();
+    mPosition++;
+    return value;
+  }
+
+  /**
+   * Records that an item of the innermost container has been read.
+   */
+  private void consumed() {
+    if (mDepth > 0) {
+      mCounts[mDepth - 1]++;
+    }
+  }
+
+  /**
+   * Opens a container.
+   * @param map Whether the container is a map.
+   * @param length The number of items, or -1 for an indefinite length.
+   */
+  private void push(boolean map, long length) {
+    // The container counts as one item of its parent
+    consumed();
+    if (mDepth == mLengths.length) {
+      mLengths = Arrays.copyOf(mLengths, mDepth * 2);
+      mCounts = Arrays.copyOf(mCounts, mDepth * 2);
+      mMaps = Arrays.copyOf(mMaps, mDepth * 2);
+    }
+    mLengths[mDepth] = length;
+    mCounts[mDepth] = 0L;
+    mMaps[mDepth] = map;
+    mDepth++;
+  }
+
+  /**
+   * Closes the innermost container, consuming the break byte of an indefinite-length one.
+   */
+  private void pop() {
+    mDepth--;
+    if (mLengths[mDepth] < 0L) {
+      mPosition++;
+    }
+  }
+
+  /**
+   * Throws unless the next token is the expected one.
+   * @param expected The expected token.
+   * @throws IOException If the document is malformed.
+   */
+  private void expect(JsonToken expected) throws IOException {
+    final JsonToken token = peek();
+    if (token != expected) {
+      throw unexpected(expected, token);
+    }
+  }
+
+  /**
+   * Checks that a length fits in the rest of the document.
+   * @param length The length.
+   * @return The length, as an int.
+   * @throws IOException If the length is too large.
+   */
+  private int checkLength(long length) throws IOException {
+    if (length < 0L || length > mEnd - mPosition) {
+      throw new EOFException("CBOR length " + length + " runs past the end of the document");
+    }
+    return (int) length;
+  }
+
+  private IllegalStateException unexpected(JsonToken expected, JsonToken actual) {
+    return new IllegalStateException(
+        "Expected " + expected + " but was " + actual + " at offset " + mPosition);
+  }
+
+  private static MalformedJsonException syntaxError(String message) {
+    return new MalformedJsonException(message);
+  }
+
+  private static int majorType(int initial) {
+    return initial >>> 5;
+  }
+
+  private static int additionalInfo(int initial) {
+    return initial & 0x1f;
+  }
+
+  /**
+   * Converts an IEEE 754 half-precision float to a double.
+   * @param half The bits of the half-precision float.
+   * @return The value.
+   */
+  private static double halfToDouble(int half) {
+    final int exponent = (half >> 10) & 0x1f;
+    final int mantissa = half & 0x3ff;
+    final double value;
+    if (exponent == 0) {
+      value = mantissa * Math.pow(2, -24);
+    } else if (exponent != 31) {
+      value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+    } else {
+      value = (mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN);
+    }
+    return ((half & 0x8000) == 0 ? value : -value);
+  }
+}
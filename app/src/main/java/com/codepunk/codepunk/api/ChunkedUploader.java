@@ -0,0 +1,818 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import com.codepunk.codepunk.model.CodepunkResponse;
+import com.codepunk.codepunk.model.UploadSession;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A resumable, chunked upload of a file. The uploader creates an upload session on the server,
+ * sends the file in chunks of the size the server asks for, and completes the session, at which
+ * point the server verifies the file against its SHA-256 checksum. Each chunk is read from disk
+ * and written to its connection through a {@value #BUFFER_SIZE}-byte buffer, so the file is never
+ * loaded into memory.
+ * </p>
+ *
+ * <p>
+ * Up to {@link #setMaxConcurrentChunks(int)} chunks are sent at the same time. A chunk that fails
+ * with a network error or a 5xx response is retried on its own, with exponential backoff, up to
+ * {@link #setMaxChunkAttempts(int)} times; the other chunks carry on. If the upload still fails,
+ * its session id ({@link #getSessionId()}) can be given to a new uploader with
+ * {@link #setSessionId(String)}, which then sends only the chunks the server is missing.
+ * </p>
+ *
+ * <p>
+ * A ChunkedUploader is also the {@link com.google.common.util.concurrent.ListenableFuture} of
+ * the completed session. Run it on a background thread (typically through
+ * {@link ApiUploadDelegate#upload(ChunkedUploader)}); canceling the future closes all of its
+ * connections.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ChunkedUploader extends HttpConnectionRequest<UploadSession, ChunkedUploader> {
+
+  /**
+   * The chunk size asked for when creating a session. The server may choose another.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+  /**
+   * The default maximum number of chunks sent at the same time.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_CHUNKS = 3;
+
+  /**
+   * The default number of times each chunk is attempted.
+   */
+  public static final int DEFAULT_MAX_CHUNK_ATTEMPTS = 3;
+
+  /**
+   * The default delay before the first retry of a chunk, in milliseconds. The delay doubles with
+   * each further retry.
+   */
+  public static final long DEFAULT_RETRY_DELAY_MILLIS = 500L;
+
+  /**
+   * The size of the buffer used to copy each chunk from the file to its connection.
+   */
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The endpoint, relative to the uploads URL, that creates a session.
+   */
+  private static final String CREATE = "create.json";
+
+  /**
+   * The format of the endpoint, relative to the uploads URL, that returns a session.
+   */
+  private static final String SESSION_FORMAT = "%s.json";
+
+  /**
+   * The format of the endpoint, relative to the uploads URL, that stores a chunk.
+   */
+  private static final String CHUNK_FORMAT = "%s/%d";
+
+  /**
+   * The format of the endpoint, relative to the uploads URL, that completes a session.
+   */
+  private static final String COMPLETE_FORMAT = "%s/complete.json";
+
+  /**
+   * The charset of form parameters and JSON responses.
+   */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The type of the api response that wraps a session.
+   */
+  private static final Type UPLOAD_SESSION_TYPE =
+      new TypeToken<CodepunkResponse<UploadSession>>() {}.getType();
+
+  /**
+   * The Gson instance used to parse sessions.
+   */
+  private static final Gson sGson = new Gson();
+
+  /**
+   * The URL of the uploads endpoint, with a trailing slash.
+   */
+  private final String mUploadsUrl;
+
+  /**
+   * The file to upload.
+   */
+  private final File mFile;
+
+  /**
+   * The name the file will be stored under.
+   */
+  private final String mName;
+
+  /**
+   * The number of bytes the server has received.
+   */
+  private final AtomicLong mBytesUploaded = new AtomicLong();
+
+  /**
+   * The number of times a chunk has been retried.
+   */
+  private final AtomicInteger mChunkRetries = new AtomicInteger();
+
+  /**
+   * The chunk size asked for when creating a session.
+   */
+  private int mChunkSize = DEFAULT_CHUNK_SIZE;
+
+  /**
+   * The maximum number of chunks sent at the same time.
+   */
+  private int mMaxConcurrentChunks = DEFAULT_MAX_CONCURRENT_CHUNKS;
+
+  /**
+   * The number of times each chunk is attempted.
+   */
+  private int mMaxChunkAttempts = DEFAULT_MAX_CHUNK_ATTEMPTS;
+
+  /**
+   * The delay before the first retry of a chunk, in milliseconds.
+   */
+  private long mRetryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+  /**
+   * The executor that chunks are sent on, or null to use a pool owned by the uploader.
+   */
+  private Executor mExecutor;
+
+  /**
+   * The listener that receives progress updates.
+   */
+  private ProgressListener mProgressListener;
+
+  /**
+   * The executor that progress updates are delivered on.
+   */
+  private Executor mProgressExecutor = MoreExecutors.directExecutor();
+
+  /**
+   * The id of the session, once it is known.
+   */
+  private volatile String mSessionId;
+
+  /**
+   * The length of the file, once the upload has started.
+   */
+  private volatile long mTotalBytes = -1L;
+
+  /**
+   * Whether the upload has failed and outstanding chunks should stop.
+   */
+  private volatile boolean mAborted;
+
+  /**
+   * Creates a new uploader.
+   * @param uploadsUrl The URL of the uploads endpoint.
+   * @param file The file to upload.
+   * @param name The name the file will be stored under.
+   */
+  public ChunkedUploader(String uploadsUrl, File file, String name) {
+    mUploadsUrl = (uploadsUrl.endsWith("/") ? uploadsUrl : uploadsUrl + "/");
+    mFile = file;
+    mName = name;
+  }
+
+  /**
+   * Returns the file to upload.
+   * @return The file.
+   */
+  public File getFile() {
+    return mFile;
+  }
+
+  /**
+   * Returns the name the file will be stored under.
+   * @return The name.
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * Sets the chunk size asked for when creating a session. The server may choose another.
+   * @param chunkSize The chunk size.
+   * @return This uploader.
+   */
+  public ChunkedUploader setChunkSize(int chunkSize) {
+    mChunkSize = chunkSize;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of chunks sent at the same time.
+   * @param maxConcurrentChunks The number of chunks.
+   * @return This uploader.
+   */
+  public ChunkedUploader setMaxConcurrentChunks(int maxConcurrentChunks) {
+    if (maxConcurrentChunks < 1) {
+      throw new IllegalArgumentException("maxConcurrentChunks must be at least 1");
+    }
+    mMaxConcurrentChunks = maxConcurrentChunks;
+    return this;
+  }
+
+  /**
+   * Sets the number of times each chunk is attempted before the upload fails.
+   * @param maxChunkAttempts The number of attempts.
+   * @return This uploader.
+   */
+  public ChunkedUploader setMaxChunkAttempts(int maxChunkAttempts) {
+    if (maxChunkAttempts < 1) {
+      throw new IllegalArgumentException("maxChunkAttempts must be at least 1");
+    }
+    mMaxChunkAttempts = maxChunkAttempts;
+    return this;
+  }
+
+  /**
+   * Sets the delay before the first retry of a chunk. The delay doubles with each further retry.
+   * @param retryDelayMillis The delay, in milliseconds.
+   * @return This uploader.
+   */
+  public ChunkedUploader setRetryDelayMillis(long retryDelayMillis) {
+    mRetryDelayMillis = retryDelayMillis;
+    return this;
+  }
+
+  /**
+   * Sets the executor that chunks are sent on. It must be able to run
+   * {@link #setMaxConcurrentChunks(int)} tasks at the same time, in addition to the uploader
+   * itself if it runs on the same executor.
+   * @param executor The executor, or null to use a pool owned by the uploader.
+   * @return This uploader.
+   */
+  public ChunkedUploader setExecutor(Executor executor) {
+    mExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Sets the id of an earlier session of the same file, so that only the chunks the server is
+   * missing are sent. If the session no longer exists, a new one is created.
+   * @param sessionId The session id, or null to start a new session.
+   * @return This uploader.
+   */
+  public ChunkedUploader setSessionId(String sessionId) {
+    mSessionId = sessionId;
+    return this;
+  }
+
+  /**
+   * Returns the id of the session.
+   * @return The session id, or null if it is not (yet) known.
+   */
+  public String getSessionId() {
+    return mSessionId;
+  }
+
+  /**
+   * Sets the listener that receives progress updates, once each time a chunk is received.
+   * @param listener The listener.
+   * @param executor The executor that updates are delivered on.
+   * @return This uploader.
+   */
+  public ChunkedUploader setProgressListener(ProgressListener listener, Executor executor) {
+    mProgressListener = listener;
+    mProgressExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Returns the number of bytes the server has received, including chunks received in an
+   * earlier session.
+   * @return The number of bytes.
+   */
+  public long getBytesUploaded() {
+    return mBytesUploaded.get();
+  }
+
+  /**
+   * Returns the length of the file.
+   * @return The length, or -1 if the upload has not started.
+   */
+  public long getTotalBytes() {
+    return mTotalBytes;
+  }
+
+  /**
+   * Returns the number of times a chunk has been retried.
+   * @return The number of retries.
+   */
+  public int getChunkRetries() {
+    return mChunkRetries.get();
+  }
+
+  /**
+   * Creates or resumes a session, sends the missing chunks and completes the session.
+   * @return The completed session.
+   * @throws IOException If the upload fails.
+   */
+  @Override
+  protected UploadSession execute() throws IOException {
+    final long length = mFile.length();
+    final String sha256 = sha256(mFile);
+    mTotalBytes = length;
+
+    UploadSession session = null;
+    if (mSessionId != null) {
+      session = fetchSession(mSessionId);
+      if (session != null
+          && (session.getLength() != length || !sha256.equalsIgnoreCase(session.getSha256()))) {
+        session = null;
+      }
+    }
+    if (session == null) {
+      session = createSession(length, sha256);
+    }
+    mSessionId = session.getId();
+
+    final int chunkSize = session.getChunkSize();
+    final Set<Integer> received = new HashSet<>(session.getReceived());
+    final List<Integer> pending = new ArrayList<>();
+    long bytesReceived = 0L;
+    for (int index = 0; index < session.getChunkCount(); index++) {
+      if (received.contains(index)) {
+        bytesReceived += getChunkLength(index, chunkSize, length);
+      } else {
+        pending.add(index);
+      }
+    }
+    mBytesUploaded.set(bytesReceived);
+    publishProgress();
+
+    sendChunks(pending, chunkSize, length);
+    checkStopped();
+    return request("POST", String.format(Locale.US, COMPLETE_FORMAT, mSessionId), null);
+  }
+
+  /**
+   * Sends chunks, keeping at most {@link #mMaxConcurrentChunks} in flight.
+   * @param pending The indices of the chunks to send.
+   * @param chunkSize The chunk size.
+   * @param length The length of the file.
+   * @throws IOException If a chunk cannot be sent.
+   */
+  private void sendChunks(List<Integer> pending, int chunkSize, long length) throws IOException {
+    if (pending.isEmpty()) {
+      return;
+    }
+    final ExecutorService ownExecutor = (mExecutor == null ?
+        Executors.newFixedThreadPool(Math.min(mMaxConcurrentChunks, pending.size())) :
+        null);
+    final CompletionService<Void> completionService =
+        new ExecutorCompletionService<>(ownExecutor == null ? mExecutor : ownExecutor);
+    boolean succeeded = false;
+    try {
+      int next = 0;
+      int inFlight = 0;
+      while (next < pending.size() || inFlight > 0) {
+        while (inFlight < mMaxConcurrentChunks && next < pending.size()) {
+          completionService.submit(new ChunkTask(pending.get(next++), chunkSize, length));
+          inFlight++;
+        }
+        final Future<Void> done;
+        try {
+          done = completionService.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Upload interrupted");
+        }
+        inFlight--;
+        try {
+          done.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Upload interrupted");
+        } catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new IOException(cause);
+        }
+      }
+      succeeded = true;
+    } finally {
+      if (!succeeded) {
+        abort();
+      }
+      if (ownExecutor != null) {
+        ownExecutor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Sends a chunk, retrying it on network errors and retryable responses.
+   * @param index The index of the chunk.
+   * @param chunkSize The chunk size.
+   * @param length The length of the file.
+   * @throws IOException If the chunk cannot be sent.
+   */
+  private void sendChunkWithRetries(int index, int chunkSize, long length) throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      checkStopped();
+      try {
+        sendChunk(index, chunkSize, length);
+        return;
+      } catch (UploadError e) {
+        if (!e.isRetryable() || attempt >= mMaxChunkAttempts) {
+          throw e;
+        }
+      } catch (IOException e) {
+        checkStopped();
+        if (attempt >= mMaxChunkAttempts) {
+          throw e;
+        }
+      }
+      mChunkRetries.incrementAndGet();
+      try {
+        Thread.sleep(mRetryDelayMillis << (attempt - 1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Upload interrupted");
+      }
+    }
+  }
+
+  /**
+   * Sends a chunk, streaming it from the file.
+   * @param index The index of the chunk.
+   * @param chunkSize The chunk size.
+   * @param length The length of the file.
+   * @throws IOException If the chunk cannot be sent.
+   */
+  private void sendChunk(int index, int chunkSize, long length) throws IOException {
+    final long offset = (long) index * chunkSize;
+    final int count = getChunkLength(index, chunkSize, length);
+    final HttpURLConnection connection =
+        openConnection("PUT", String.format(Locale.US, CHUNK_FORMAT, mSessionId, index));
+    try {
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(count);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      connection.setRequestProperty(
+          "Content-Range",
+          String.format(Locale.US, "bytes %d-%d/%d", offset, offset + count - 1, length));
+
+      final FileInputStream in = new FileInputStream(mFile);
+      try {
+        final FileChannel channel = in.getChannel();
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.min(BUFFER_SIZE, Math.max(count, 1)));
+        final OutputStream out = connection.getOutputStream();
+        final WritableByteChannel sink = Channels.newChannel(out);
+        long position = offset;
+        final long end = offset + count;
+        while (position < end) {
+          checkStopped();
+          buffer.clear();
+          buffer.limit((int) Math.min(buffer.capacity(), end - position));
+          final int read = channel.read(buffer, position);
+          if (read < 0) {
+            throw new EOFException(mFile + " changed during upload");
+          }
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            sink.write(buffer);
+          }
+          position += read;
+        }
+        out.close();
+      } finally {
+        in.close();
+      }
+
+      final int status = connection.getResponseCode();
+      drain(connection, status);
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new UploadError(
+            status,
+            String.format(Locale.US, "HTTP %d uploading chunk %d of %s", status, index, mName));
+      }
+    } finally {
+      closeConnection(connection);
+    }
+    mBytesUploaded.addAndGet(count);
+    publishProgress();
+  }
+
+  /**
+   * Returns an earlier session.
+   * @param sessionId The session id.
+   * @return The session, or null if it no longer exists.
+   * @throws IOException If the request fails.
+   */
+  private UploadSession fetchSession(String sessionId) throws IOException {
+    try {
+      return request("GET", String.format(Locale.US, SESSION_FORMAT, sessionId), null);
+    } catch (UploadError e) {
+      if (e.getStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a session.
+   * @param length The length of the file.
+   * @param sha256 The hex-encoded SHA-256 checksum of the file.
+   * @return The session.
+   * @throws IOException If the request fails.
+   */
+  private UploadSession createSession(long length, String sha256) throws IOException {
+    final Map<String, String> params = new LinkedHashMap<>();
+    params.put("name", mName);
+    params.put("length", String.valueOf(length));
+    params.put("sha256", sha256);
+    params.put("chunk_size", String.valueOf(mChunkSize));
+    return request("POST", CREATE, params);
+  }
+
+  /**
+   * Makes a request that returns a session.
+   * @param method The request method.
+   * @param endpoint The endpoint, relative to the uploads URL.
+   * @param params Form parameters to post, or null.
+   * @return The session.
+   * @throws IOException If the request fails or the response cannot be parsed.
+   */
+  private UploadSession request(String method, String endpoint, Map<String, String> params)
+      throws IOException {
+    final HttpURLConnection connection = openConnection(method, endpoint);
+    try {
+      if (params != null) {
+        final byte[] body = encodeParams(params);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty(
+            "Content-Type",
+            "application/x-www-form-urlencoded; charset=UTF-8");
+        final OutputStream out = connection.getOutputStream();
+        try {
+          out.write(body);
+        } finally {
+          out.close();
+        }
+      }
+      final int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        drain(connection, status);
+        throw new UploadError(
+            status,
+            String.format(Locale.US, "HTTP %d from %s %s", status, method, endpoint));
+      }
+      final InputStream in = connection.getInputStream();
+      try {
+        final CodepunkResponse<UploadSession> response =
+            sGson.fromJson(new InputStreamReader(in, UTF_8), UPLOAD_SESSION_TYPE);
+        if (response == null || response.getResult() == null) {
+          throw new IOException("No session in response to " + method + " " + endpoint);
+        }
+        return response.getResult();
+      } catch (JsonParseException e) {
+        throw new IOException("Malformed response to " + method + " " + endpoint, e);
+      } finally {
+        in.close();
+      }
+    } finally {
+      closeConnection(connection);
+    }
+  }
+
+  /**
+   * Opens a connection to an endpoint and registers it so that it can be closed on cancel.
+   * @param method The request method.
+   * @param endpoint The endpoint, relative to the uploads URL.
+   * @return The connection.
+   * @throws IOException If the connection cannot be opened or the upload has stopped.
+   */
+  private HttpURLConnection openConnection(String method, String endpoint) throws IOException {
+    final HttpURLConnection connection = openConnection(mUploadsUrl + endpoint);
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  /**
+   * Stops outstanding chunks and closes all open connections.
+   */
+  private void abort() {
+    mAborted = true;
+    disconnectAll();
+  }
+
+  /**
+   * Returns whether the upload has been canceled or has failed.
+   * @return True if the upload has stopped.
+   */
+  @Override
+  protected boolean isStopped() {
+    return mAborted || super.isStopped();
+  }
+
+  /**
+   * Delivers a progress update if the listener is set.
+   */
+  private void publishProgress() {
+    final ProgressListener listener = mProgressListener;
+    if (listener == null) {
+      return;
+    }
+    final long bytesUploaded = mBytesUploaded.get();
+    final long totalBytes = mTotalBytes;
+    mProgressExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.onProgress(ChunkedUploader.this, bytesUploaded, totalBytes);
+      }
+    });
+  }
+
+  /**
+   * Returns the length of a chunk.
+   * @param index The index of the chunk.
+   * @param chunkSize The chunk size.
+   * @param length The length of the file.
+   * @return The length of the chunk.
+   */
+  private static int getChunkLength(int index, int chunkSize, long length) {
+    return (int) Math.min(chunkSize, length - (long) index * chunkSize);
+  }
+
+  /**
+   * Reads and discards a response body so that the connection can be reused.
+   * @param connection The connection.
+   * @param status The HTTP status code of the response.
+   */
+  private static void drain(HttpURLConnection connection, int status) {
+    try {
+      final InputStream in = (status >= HttpURLConnection.HTTP_BAD_REQUEST ?
+          connection.getErrorStream() :
+          connection.getInputStream());
+      if (in == null) {
+        return;
+      }
+      try {
+        final byte[] buffer = new byte[1024];
+        //noinspection StatementWithEmptyBody
+        while (in.read(buffer) >= 0) {
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // The connection will not be reused
+    }
+  }
+
+  /**
+   * Url-encodes form parameters.
+   * @param params The parameters.
+   * @return The encoded body.
+   */
+  private static byte[] encodeParams(Map<String, String> params) {
+    final StringBuilder body = new StringBuilder();
+    try {
+      for (Map.Entry<String, String> param : params.entrySet()) {
+        if (body.length() > 0) {
+          body.append('&');
+        }
+        body.append(URLEncoder.encode(param.getKey(), "UTF-8"))
+            .append('=')
+            .append(URLEncoder.encode(param.getValue(), "UTF-8"));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    return body.toString().getBytes(UTF_8);
+  }
+
+  /**
+   * Computes the hex-encoded SHA-256 checksum of a file.
+   * @param file The file.
+   * @return The checksum.
+   * @throws IOException If the file cannot be read.
+   */
+  private static String sha256(File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    final FileInputStream in = new FileInputStream(file);
+    try {
+      final FileChannel channel = in.getChannel();
+      final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        digest.update(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        buffer.clear();
+      }
+    } finally {
+      in.close();
+    }
+    return DownloadRequest.toHex(digest.digest());
+  }
+
+  /**
+   * Sends one chunk on the chunk executor.
+   */
+  private class ChunkTask implements Callable<Void> {
+    private final int mIndex;
+    private final int mChunkSize;
+    private final long mLength;
+
+    ChunkTask(int index, int chunkSize, long length) {
+      mIndex = index;
+      mChunkSize = chunkSize;
+      mLength = length;
+    }
+
+    @Override
+    public Void call() throws IOException {
+      sendChunkWithRetries(mIndex, mChunkSize, mLength);
+      return null;
+    }
+  }
+
+  /**
+   * Interface for listening to the progress of an upload.
+   */
+  public interface ProgressListener {
+    /**
+     * Called when the upload starts and each time a chunk is received.
+     * @param uploader The uploader.
+     * @param bytesUploaded The number of bytes the server has received.
+     * @param totalBytes The length of the file.
+     */
+    void onProgress(ChunkedUploader uploader, long bytesUploaded, long totalBytes);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import java.io.IOException;
+
+/**
+ * An error that ends a {@link DownloadRequest} for a reason other than a failed connection.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class DownloadError extends IOException {
+
+  /**
+   * The version of the serialized form of this class.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The reasons a download can fail.
+   */
+  public enum Reason {
+    /**
+     * The server answered with a status code other than 200 or 206.
+     */
+    HTTP_STATUS,
+
+    /**
+     * The number of bytes received does not match the expected length.
+     */
+    SIZE_MISMATCH,
+
+    /**
+     * The SHA-256 checksum of the bytes received does not match the expected checksum.
+     */
+    CHECKSUM_MISMATCH
+  }
+
+  /**
+   * The reason for the failure.
+   */
+  private final Reason mReason;
+
+  /**
+   * The HTTP status code of the response, or -1 if there was no response.
+   */
+  private final int mStatusCode;
+
+  /**
+   * Creates a new error.
+   * @param reason The reason for the failure.
+   * @param statusCode The HTTP status code of the response, or -1 if there was no response.
+   * @param message The detail message.
+   */
+  DownloadError(Reason reason, int statusCode, String message) {
+    super(message);
+    mReason = reason;
+    mStatusCode = statusCode;
+  }
+
+  /**
+   * Returns the reason for the failure.
+   * @return The reason.
+   */
+  public Reason getReason() {
+    return mReason;
+  }
+
+  /**
+   * Returns the HTTP status code of the response.
+   * @return The status code, or -1 if there was no response.
+   */
+  public int getStatusCode() {
+    return mStatusCode;
+  }
+}
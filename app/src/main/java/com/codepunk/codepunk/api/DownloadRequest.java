@@ -0,0 +1,669 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A download that streams a response body straight to a file. Volley reads every response body
+ * into memory before handing it to a {@link com.android.volley.Request}, which rules it out for
+ * large payloads, so a DownloadRequest makes its own {@link HttpURLConnection} and copies the
+ * body to a {@link FileChannel} through a single {@value #BUFFER_SIZE}-byte buffer. Memory use is
+ * the same whatever the size of the payload.
+ * </p>
+ *
+ * <p>
+ * The body is written to {@code <destination>.part} and renamed to the destination once it has
+ * been verified against the expected length and SHA-256 checksum, if they were supplied. If a
+ * download fails part way, the partial file and the entity tag of the resource are kept, and the
+ * next request for the same destination resumes with a {@code Range} request guarded by
+ * {@code If-Range}. If the resource has changed in the meantime the server sends all of it and
+ * the partial file is discarded.
+ * </p>
+ *
+ * <p>
+ * A DownloadRequest is also the {@link com.google.common.util.concurrent.ListenableFuture} of
+ * its own result. Run it on a background thread (typically through
+ * {@link ApiDownloadDelegate#download(DownloadRequest)}); canceling the future closes the
+ * connection and leaves the partial file in place for a later resume. Two requests must not
+ * download to the same destination at the same time.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class DownloadRequest extends HttpConnectionRequest<File, DownloadRequest> {
+
+  /**
+   * The size of the buffer used to copy the response body to the file.
+   */
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The minimum interval between two progress updates, in milliseconds.
+   */
+  public static final long PROGRESS_INTERVAL_MILLIS = 100L;
+
+  /**
+   * The suffix of the file that the body is written to while it is downloading.
+   */
+  public static final String PARTIAL_SUFFIX = ".part";
+
+  /**
+   * The suffix of the file that holds the entity tag of a partially downloaded resource.
+   */
+  public static final String VALIDATOR_SUFFIX = ".etag";
+
+  /**
+   * The number of times a download is attempted when the server rejects a resume.
+   */
+  private static final int MAX_ATTEMPTS = 2;
+
+  /**
+   * The charset of the validator file.
+   */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Hex digits used when formatting checksums.
+   */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * The URL to download.
+   */
+  private final String mUrl;
+
+  /**
+   * The file the body is saved to.
+   */
+  private final File mDestination;
+
+  /**
+   * The file the body is written to while it is downloading.
+   */
+  private final File mPartialFile;
+
+  /**
+   * The file that holds the entity tag of the partial file.
+   */
+  private final File mValidatorFile;
+
+  /**
+   * The expected length of the body, or -1 if it is not known.
+   */
+  private long mExpectedLength = -1L;
+
+  /**
+   * The expected hex-encoded SHA-256 checksum of the body, or null if it should not be verified.
+   */
+  private String mExpectedSha256;
+
+  /**
+   * The listener that receives progress updates.
+   */
+  private ProgressListener mProgressListener;
+
+  /**
+   * The executor that progress updates are delivered on.
+   */
+  private Executor mProgressExecutor = MoreExecutors.directExecutor();
+
+  /**
+   * The number of bytes of the body saved so far, including any resumed bytes.
+   */
+  private volatile long mBytesDownloaded;
+
+  /**
+   * The total length of the body, or -1 if it is not known.
+   */
+  private volatile long mTotalBytes = -1L;
+
+  /**
+   * Whether the download resumed from a partial file.
+   */
+  private volatile boolean mResumed;
+
+  /**
+   * The time of the last progress update, in nanoseconds.
+   */
+  private long mLastProgressNanos;
+
+  /**
+   * Creates a new download request.
+   * @param url The URL to download.
+   * @param destination The file the body is saved to.
+   */
+  public DownloadRequest(String url, File destination) {
+    mUrl = url;
+    mDestination = destination;
+    mPartialFile = new File(destination.getPath() + PARTIAL_SUFFIX);
+    mValidatorFile = new File(destination.getPath() + PARTIAL_SUFFIX + VALIDATOR_SUFFIX);
+  }
+
+  /**
+   * Returns the URL to download.
+   * @return The URL.
+   */
+  public String getUrl() {
+    return mUrl;
+  }
+
+  /**
+   * Returns the file the body is saved to.
+   * @return The destination file.
+   */
+  public File getDestination() {
+    return mDestination;
+  }
+
+  /**
+   * Returns the file the body is written to while it is downloading.
+   * @return The partial file.
+   */
+  public File getPartialFile() {
+    return mPartialFile;
+  }
+
+  /**
+   * Sets the expected length of the body. The download fails with
+   * {@link DownloadError.Reason#SIZE_MISMATCH} if a different number of bytes is received.
+   * @param expectedLength The expected length, or -1 if it is not known.
+   * @return This request.
+   */
+  public DownloadRequest setExpectedLength(long expectedLength) {
+    mExpectedLength = expectedLength;
+    return this;
+  }
+
+  /**
+   * Sets the expected SHA-256 checksum of the body. The download fails with
+   * {@link DownloadError.Reason#CHECKSUM_MISMATCH} if the bytes received do not match.
+   * @param expectedSha256 The hex-encoded checksum, or null if it should not be verified.
+   * @return This request.
+   */
+  public DownloadRequest setExpectedSha256(String expectedSha256) {
+    mExpectedSha256 = (expectedSha256 == null ? null : expectedSha256.toLowerCase(Locale.US));
+    return this;
+  }
+
+  /**
+   * Sets the listener that receives progress updates, at most once every
+   * {@value #PROGRESS_INTERVAL_MILLIS} milliseconds and once more when the body is complete.
+   * @param listener The listener.
+   * @param executor The executor that updates are delivered on.
+   * @return This request.
+   */
+  public DownloadRequest setProgressListener(ProgressListener listener, Executor executor) {
+    mProgressListener = listener;
+    mProgressExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Returns the number of bytes of the body saved so far, including any resumed bytes.
+   * @return The number of bytes.
+   */
+  public long getBytesDownloaded() {
+    return mBytesDownloaded;
+  }
+
+  /**
+   * Returns the total length of the body.
+   * @return The total length, or -1 if it is not (yet) known.
+   */
+  public long getTotalBytes() {
+    return mTotalBytes;
+  }
+
+  /**
+   * Returns whether the download resumed from a partial file.
+   * @return True if the download resumed.
+   */
+  public boolean isResumed() {
+    return mResumed;
+  }
+
+  /**
+   * Downloads the body to the partial file, verifies it and moves it to the destination.
+   * @return The destination file.
+   * @throws IOException If the download fails.
+   */
+  @Override
+  protected File execute() throws IOException {
+    final MessageDigest digest = (mExpectedSha256 == null ? null : newSha256());
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    boolean discard = false;
+    final RandomAccessFile file = new RandomAccessFile(mPartialFile, "rw");
+    try {
+      final FileChannel channel = file.getChannel();
+      for (int attempt = 1; ; attempt++) {
+        long offset = channel.size();
+        final String validator = (offset > 0L ? readValidator() : null);
+        if (validator == null) {
+          // A partial file without an entity tag cannot be resumed safely
+          channel.truncate(0L);
+          offset = 0L;
+        }
+        checkStopped();
+        final HttpURLConnection connection = openConnection(offset, validator);
+        try {
+          final int status = connection.getResponseCode();
+          final long total;
+          if (status == HttpURLConnection.HTTP_PARTIAL
+              && offset > 0L
+              && parseRangeStart(connection) == offset) {
+            mResumed = true;
+            total = parseRangeTotal(connection);
+            if (digest != null) {
+              updateDigest(digest, channel, offset, buffer);
+            }
+          } else if (status == HttpURLConnection.HTTP_OK) {
+            channel.truncate(0L);
+            offset = 0L;
+            total = parseContentLength(connection);
+            writeValidator(connection);
+          } else if (offset > 0L && attempt < MAX_ATTEMPTS
+              && (status == HttpURLConnection.HTTP_PARTIAL || status == 416)) {
+            // The server cannot serve the rest of the partial file; start over
+            channel.truncate(0L);
+            deleteValidator();
+            continue;
+          } else {
+            throw new DownloadError(
+                DownloadError.Reason.HTTP_STATUS,
+                status,
+                String.format(Locale.US, "HTTP %d downloading %s", status, mUrl));
+          }
+
+          mTotalBytes = total;
+          if (total >= 0L && mExpectedLength >= 0L && total != mExpectedLength) {
+            discard = true;
+            throw new DownloadError(
+                DownloadError.Reason.SIZE_MISMATCH,
+                status,
+                String.format(
+                    Locale.US,
+                    "Expected %d bytes but the server is sending %d",
+                    mExpectedLength,
+                    total));
+          }
+          final long length = transfer(connection.getInputStream(), channel, offset, digest,
+              buffer);
+          verify(status, length, total, digest);
+          channel.force(false);
+          break;
+        } catch (DownloadError e) {
+          discard = discard || e.getReason() != DownloadError.Reason.HTTP_STATUS;
+          throw e;
+        } finally {
+          closeConnection(connection);
+        }
+      }
+    } finally {
+      file.close();
+      if (discard) {
+        deletePartial();
+      }
+    }
+
+    if (mDestination.exists() && !mDestination.delete()) {
+      throw new IOException("Unable to replace " + mDestination);
+    }
+    if (!mPartialFile.renameTo(mDestination)) {
+      throw new IOException("Unable to rename " + mPartialFile + " to " + mDestination);
+    }
+    deleteValidator();
+    return mDestination;
+  }
+
+  /**
+   * Opens a connection for the body, asking for the bytes after {@code offset} if it is positive.
+   * @param offset The number of bytes already saved.
+   * @param validator The entity tag of the partial file, or null if there is no partial file.
+   * @return The connection.
+   * @throws IOException If the connection cannot be opened.
+   */
+  private HttpURLConnection openConnection(long offset, String validator) throws IOException {
+    final HttpURLConnection connection = openConnection(mUrl);
+    // Ranges and lengths refer to the encoded body, so it must not be transparently gunzipped
+    connection.setRequestProperty("Accept-Encoding", "identity");
+    if (offset > 0L) {
+      connection.setRequestProperty("Range", "bytes=" + offset + "-");
+      connection.setRequestProperty("If-Range", validator);
+    }
+    return connection;
+  }
+
+  /**
+   * Copies the response body to the file.
+   * @param in The response body.
+   * @param channel The file channel.
+   * @param offset The position in the file to start writing at.
+   * @param digest The digest to update with the body, or null.
+   * @param buffer The copy buffer.
+   * @return The length of the file after the copy.
+   * @throws IOException If the body cannot be read or written.
+   */
+  private long transfer(
+      InputStream in,
+      FileChannel channel,
+      long offset,
+      MessageDigest digest,
+      ByteBuffer buffer) throws IOException {
+    final ReadableByteChannel source = Channels.newChannel(in);
+    long position = offset;
+    mBytesDownloaded = position;
+    publishProgress(true);
+    try {
+      while (true) {
+        checkStopped();
+        buffer.clear();
+        final int read = source.read(buffer);
+        if (read < 0) {
+          break;
+        }
+        buffer.flip();
+        if (digest != null) {
+          digest.update(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        }
+        while (buffer.hasRemaining()) {
+          position += channel.write(buffer, position);
+        }
+        mBytesDownloaded = position;
+        publishProgress(false);
+      }
+    } catch (IOException e) {
+      checkStopped();
+      throw e;
+    } finally {
+      source.close();
+    }
+    publishProgress(true);
+    return position;
+  }
+
+  /**
+   * Verifies the length and checksum of a completed body.
+   * @param status The HTTP status code of the response.
+   * @param length The length of the file.
+   * @param total The total length announced by the server, or -1 if it is not known.
+   * @param digest The digest of the file, or null.
+   * @throws IOException If the body is incomplete or does not match.
+   */
+  private void verify(int status, long length, long total, MessageDigest digest)
+      throws IOException {
+    if (total >= 0L && length < total) {
+      // Keep what we have; the next request resumes from here
+      throw new EOFException(String.format(
+          Locale.US,
+          "Connection closed after %d of %d bytes",
+          length,
+          total));
+    }
+    if ((total >= 0L && length != total) || (mExpectedLength >= 0L && length != mExpectedLength)) {
+      throw new DownloadError(
+          DownloadError.Reason.SIZE_MISMATCH,
+          status,
+          String.format(
+              Locale.US,
+              "Received %d bytes; expected %d",
+              length,
+              (mExpectedLength >= 0L ? mExpectedLength : total)));
+    }
+    if (digest != null) {
+      final String sha256 = toHex(digest.digest());
+      if (!sha256.equals(mExpectedSha256)) {
+        throw new DownloadError(
+            DownloadError.Reason.CHECKSUM_MISMATCH,
+            status,
+            String.format(Locale.US, "SHA-256 %s; expected %s", sha256, mExpectedSha256));
+      }
+    }
+  }
+
+  /**
+   * Delivers a progress update if the listener is set and enough time has passed since the last
+   * one.
+   * @param force Whether to deliver the update regardless of the time since the last one.
+   */
+  private void publishProgress(boolean force) {
+    final ProgressListener listener = mProgressListener;
+    if (listener == null) {
+      return;
+    }
+    final long now = System.nanoTime();
+    if (!force
+        && now - mLastProgressNanos < TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MILLIS)) {
+      return;
+    }
+    mLastProgressNanos = now;
+    final long bytesDownloaded = mBytesDownloaded;
+    final long totalBytes = mTotalBytes;
+    mProgressExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.onProgress(DownloadRequest.this, bytesDownloaded, totalBytes);
+      }
+    });
+  }
+
+  /**
+   * Reads the entity tag of the partial file.
+   * @return The entity tag, or null if there is none.
+   */
+  private String readValidator() {
+    if (!mValidatorFile.isFile()) {
+      return null;
+    }
+    try {
+      final InputStream in = new FileInputStream(mValidatorFile);
+      try {
+        final byte[] bytes = new byte[(int) Math.min(mValidatorFile.length(), 1024L)];
+        int offset = 0;
+        int read;
+        while (offset < bytes.length
+            && (read = in.read(bytes, offset, bytes.length - offset)) >= 0) {
+          offset += read;
+        }
+        final String validator = new String(bytes, 0, offset, UTF_8).trim();
+        return (validator.isEmpty() ? null : validator);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Saves the entity tag (or, failing that, the last-modified date) of the resource being
+   * downloaded, so that a partial file can be resumed later.
+   * @param connection The connection.
+   * @throws IOException If the validator file cannot be written.
+   */
+  private void writeValidator(HttpURLConnection connection) throws IOException {
+    String validator = connection.getHeaderField("ETag");
+    if (validator == null || validator.startsWith("W/")) {
+      // Weak entity tags cannot be used with If-Range
+      validator = connection.getHeaderField("Last-Modified");
+    }
+    if (validator == null) {
+      deleteValidator();
+      return;
+    }
+    final OutputStream out = new FileOutputStream(mValidatorFile);
+    try {
+      out.write(validator.getBytes(UTF_8));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Deletes the validator file.
+   */
+  private void deleteValidator() {
+    //noinspection ResultOfMethodCallIgnored
+    mValidatorFile.delete();
+  }
+
+  /**
+   * Deletes the partial file and its validator.
+   */
+  private void deletePartial() {
+    //noinspection ResultOfMethodCallIgnored
+    mPartialFile.delete();
+    deleteValidator();
+  }
+
+  /**
+   * Updates a digest with the first {@code length} bytes of a file.
+   * @param digest The digest.
+   * @param channel The file channel.
+   * @param length The number of bytes to read.
+   * @param buffer The read buffer.
+   * @throws IOException If the file cannot be read.
+   */
+  private static void updateDigest(
+      MessageDigest digest,
+      FileChannel channel,
+      long length,
+      ByteBuffer buffer) throws IOException {
+    long position = 0L;
+    while (position < length) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), length - position));
+      final int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      digest.update(buffer.array(), buffer.arrayOffset(), read);
+      position += read;
+    }
+  }
+
+  /**
+   * Returns the first byte position of a 206 response's {@code Content-Range}.
+   * @param connection The connection.
+   * @return The first byte position, or -1 if the header is missing or malformed.
+   */
+  private static long parseRangeStart(HttpURLConnection connection) {
+    final String contentRange = connection.getHeaderField("Content-Range");
+    if (contentRange == null || !contentRange.startsWith("bytes ")) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(contentRange.substring(6, contentRange.indexOf('-')).trim());
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Returns the complete length of the resource from a 206 response's {@code Content-Range}.
+   * @param connection The connection.
+   * @return The complete length, or -1 if it is unknown.
+   */
+  private static long parseRangeTotal(HttpURLConnection connection) {
+    final String contentRange = connection.getHeaderField("Content-Range");
+    if (contentRange == null) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Returns the length of a response body. {@link HttpURLConnection#getContentLength()} is
+   * limited to 2 GB, so the header is parsed directly.
+   * @param connection The connection.
+   * @return The length, or -1 if it is unknown.
+   */
+  private static long parseContentLength(HttpURLConnection connection) {
+    final String contentLength = connection.getHeaderField("Content-Length");
+    if (contentLength == null) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * Creates a SHA-256 digest.
+   * @return The digest.
+   */
+  private static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Formats bytes as lower-case hex.
+   * @param bytes The bytes.
+   * @return The hex string.
+   */
+  static String toHex(byte[] bytes) {
+    final char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+      hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Interface for listening to the progress of a download.
+   */
+  public interface ProgressListener {
+    /**
+     * Called as the body is saved.
+     * @param request The request.
+     * @param bytesDownloaded The number of bytes saved so far, including any resumed bytes.
+     * @param totalBytes The total length of the body, or -1 if it is not known.
+     */
+    void onProgress(DownloadRequest request, long bytesDownloaded, long totalBytes);
+  }
+}
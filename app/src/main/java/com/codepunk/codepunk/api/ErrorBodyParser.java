@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Extracts the Symfony OAuth error ({@code error} and {@code error_description}) from the body
+ * of an error response as cheaply as possible.
+ * </p>
+ *
+ * <p>
+ * Responses are classified by status code and {@code Content-Type} before any of the body is
+ * read. Symfony only reports OAuth errors with 4xx statuses, so 5xx responses (typically HTML
+ * pages from a proxy or a failing web server during an outage) are never decoded, and neither
+ * are HTML or plain-text bodies. JSON and CBOR bodies are read with a streaming reader that
+ * stops as soon as both fields have been seen, and never reads past the first
+ * {@value #MAX_BODY_BYTES} bytes.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+final class ErrorBodyParser {
+
+  /**
+   * The number of bytes of an error body that will be read at most.
+   */
+  static final int MAX_BODY_BYTES = 16 * 1024;
+
+  /**
+   * The JSON key representing the type of error.
+   */
+  private static final String JSON_ERROR = "error";
+
+  /**
+   * The JSON key representing the error description.
+   */
+  private static final String JSON_ERROR_DESCRIPTION = "error_description";
+
+  /**
+   * The charset of a JSON body whose {@code Content-Type} doesn't name one.
+   */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The kinds of error body, as classified from the status code and {@code Content-Type}.
+   */
+  enum Kind {
+    /**
+     * A JSON body, which was decoded.
+     */
+    JSON,
+
+    /**
+     * A CBOR body, which was decoded.
+     */
+    CBOR,
+
+    /**
+     * An HTML page, which was not read.
+     */
+    HTML,
+
+    /**
+     * Some other body, which was not read.
+     */
+    OTHER,
+
+    /**
+     * An empty body.
+     */
+    EMPTY,
+
+    /**
+     * A body that came with a server error status, which was not read.
+     */
+    SERVER_ERROR
+  }
+
+  /**
+   * The result of parsing an error body.
+   */
+  static final class Result {
+
+    /**
+     * How the body was classified.
+     */
+    private final Kind mKind;
+
+    /**
+     * The {@code error} field, or null if the body had none or was not decoded.
+     */
+    private final String mError;
+
+    /**
+     * The {@code error_description} field, or null if the body had none or was not decoded.
+     */
+    private final String mDescription;
+
+    private Result(Kind kind, String error, String description) {
+      mKind = kind;
+      mError = error;
+      mDescription = description;
+    }
+
+    /**
+     * Returns how the body was classified.
+     * @return The kind of body.
+     */
+    Kind getKind() {
+      return mKind;
+    }
+
+    /**
+     * Returns the {@code error} field.
+     * @return The {@code error} field, or null if the body had none or was not decoded.
+     */
+    String getError() {
+      return mError;
+    }
+
+    /**
+     * Returns the {@code error_description} field.
+     * @return The {@code error_description} field, or null if the body had none or was not
+     * decoded.
+     */
+    String getDescription() {
+      return mDescription;
+    }
+  }
+
+  private ErrorBodyParser() {
+  }
+
+  /**
+   * Parses the body of an error response.
+   * @param statusCode The HTTP status code.
+   * @param contentType The {@code Content-Type} header, or null if the response had none.
+   * @param data The body, or null if there was none.
+   * @return The result. Never null; bodies that can't be decoded produce a result without
+   * fields.
+   */
+  static Result parse(int statusCode, String contentType, byte[] data) {
+    if (data == null || data.length == 0) {
+      return new Result(Kind.EMPTY, null, null);
+    } else if (statusCode >= 500) {
+      return new Result(Kind.SERVER_ERROR, null, null);
+    }
+    final Kind kind = classify(contentType, data);
+    if (kind != Kind.JSON && kind != Kind.CBOR) {
+      return new Result(kind, null, null);
+    }
+    final int length = Math.min(data.length, MAX_BODY_BYTES);
+    final JsonReader reader = (kind == Kind.CBOR ?
+        new CborReader(data, 0, length) :
+        new JsonReader(new InputStreamReader(
+            new ByteArrayInputStream(data, 0, length), charset(contentType))));
+    String error = null;
+    String description = null;
+    try {
+      if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+        reader.beginObject();
+        while ((error == null || description == null) && reader.hasNext()) {
+          final String name = reader.nextName();
+          if (JSON_ERROR.equals(name)) {
+            error = nextStringOrNull(reader);
+          } else if (JSON_ERROR_DESCRIPTION.equals(name)) {
+            description = nextStringOrNull(reader);
+          } else {
+            reader.skipValue();
+          }
+        }
+      }
+    } catch (IOException | IllegalStateException | NumberFormatException e) {
+      // Malformed or truncated; keep whatever was read before the problem
+    }
+    return new Result(kind, error, description);
+  }
+
+  /**
+   * Classifies a body by its {@code Content-Type}, sniffing the first byte when there is none.
+   * @param contentType The {@code Content-Type} header, or null if the response had none.
+   * @param data The body.
+   * @return The kind of body.
+   */
+  private static Kind classify(String contentType, byte[] data) {
+    if (contentType == null) {
+      for (byte b : data) {
+        if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+          return (b == '{' ? Kind.JSON : b == '<' ? Kind.HTML : Kind.OTHER);
+        }
+      }
+      return Kind.EMPTY;
+    }
+    final int index = contentType.indexOf(';');
+    final String mediaType = (index < 0 ? contentType : contentType.substring(0, index))
+        .trim()
+        .toLowerCase(Locale.US);
+    if (mediaType.equals(WireFormat.CBOR.getMediaType())) {
+      return Kind.CBOR;
+    } else if (mediaType.equals(WireFormat.JSON.getMediaType()) || mediaType.endsWith("+json")) {
+      return Kind.JSON;
+    } else if (mediaType.equals("text/html") || mediaType.equals("application/xhtml+xml")) {
+      return Kind.HTML;
+    }
+    return Kind.OTHER;
+  }
+
+  /**
+   * Returns the charset named by a {@code Content-Type} header.
+   * @param contentType The {@code Content-Type} header, or null if the response had none.
+   * @return The charset, or UTF-8 if none is named or the named one is unsupported.
+   */
+  private static Charset charset(String contentType) {
+    if (contentType != null) {
+      for (String parameter : contentType.split(";")) {
+        final String[] pair = parameter.trim().split("=", 2);
+        if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+          try {
+            return Charset.forName(pair[1].trim().replace("\"", ""));
+          } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return UTF_8;
+          }
+        }
+      }
+    }
+    return UTF_8;
+  }
+
+  /**
+   * Reads a string value, skipping values of any other type.
+   * @param reader The reader.
+   * @return The string, or null if the value is not a string.
+   * @throws IOException If the body is malformed.
+   */
+  private static String nextStringOrNull(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.STRING) {
+      return reader.nextString();
+    }
+    reader.skipValue();
+    return null;
+  }
+}
@@ -21,6 +21,8 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 
 import android.util.Log;
 
@@ -32,14 +34,20 @@ import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
 import com.android.volley.toolbox.HttpHeaderParser;
 import com.codepunk.codepunklib.util.CollectionUtils;
 import com.codepunk.codepunklib.util.log.FormattingLogger;
 import com.codepunk.codepunklib.util.log.LogManager;
+import com.codepunk.codepunk.app.AppComponents;
 import com.codepunk.codepunk.app.SessionManager;
+import com.codepunk.codepunk.model.UserTypeAdapterFactory;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -58,6 +66,7 @@ public class GsonRequest<T> extends Request<T> {
       new GsonBuilder()
           .setPrettyPrinting()
           // .registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter())
+          .registerTypeAdapterFactory(new UserTypeAdapterFactory())
           .create();
 
   /**
@@ -66,14 +75,24 @@ public class GsonRequest<T> extends Request<T> {
   protected static final JsonParser sJsonParser = new JsonParser();
 
   /**
-   * Common {@link SessionManager} instance used by all requests.
+   * Common {@link LogManager} instance used by all requests.
    */
-  protected static final SessionManager sSessionManager = SessionManager.getInstance();
+  protected static final LogManager sLogManager = LogManager.getInstance();
 
   /**
-   * Common {@link LogManager} instance used by all requests.
+   * The name of the HTTP header used to negotiate the response's {@link WireFormat}.
    */
-  protected static final LogManager sLogManager = LogManager.getInstance();
+  protected static final String HEADER_ACCEPT = "Accept";
+
+  /**
+   * The name of the HTTP header that names the response's {@link WireFormat}.
+   */
+  protected static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+  /**
+   * The {@link WireFormat} that requests ask for. Servers that can't produce it fall back to JSON.
+   */
+  private static volatile WireFormat sPreferredWireFormat = WireFormat.CBOR;
 
   /**
    * A Map of extra HTTP headers to go along with this request.
@@ -165,7 +184,51 @@ public class GsonRequest<T> extends Request<T> {
   }
 
   /**
-   * Returns a Map of extra HTTP headers to go along with this request. Can
+   * Primes the common {@link Gson} instance with the type adapters for the given types. Gson
+   * builds (and caches) an adapter the first time it sees a type, which involves reflecting over
+   * the type's fields; doing this ahead of time keeps that cost off the first response.
+   * @param types The types that responses will be deserialized into.
+   */
+  public static void warmUp(Type... types) {
+    for (Type type : types) {
+      sGson.getAdapter(TypeToken.get(type));
+    }
+  }
+
+  /**
+   * Decodes a JSON tree that did not arrive in a response, such as an entity kept by a
+   * {@link com.codepunk.codepunk.util.VersionedEntityStore}, with the common {@link Gson}
+   * instance, so that it gets the same type adapters as responses do.
+   * @param json The JSON tree.
+   * @param type The class to decode it into.
+   * @param <X> The type to decode it into.
+   * @return The decoded object.
+   */
+  public static <X> X fromJson(JsonElement json, Class<X> type) {
+    return sGson.fromJson(json, type);
+  }
+
+  /**
+   * Sets the {@link WireFormat} that requests ask for in their {@code Accept} header. Responses
+   * are decoded according to their {@code Content-Type}, so servers that only speak JSON keep
+   * working whatever the preference.
+   * @param wireFormat The preferred WireFormat.
+   */
+  public static void setPreferredWireFormat(WireFormat wireFormat) {
+    sPreferredWireFormat = wireFormat;
+  }
+
+  /**
+   * Returns the {@link WireFormat} that requests ask for in their {@code Accept} header.
+   * @return The preferred WireFormat.
+   */
+  public static WireFormat getPreferredWireFormat() {
+    return sPreferredWireFormat;
+  }
+
+  /**
+   * Returns a Map of extra HTTP headers to go along with this request, including an
+   * {@code Accept} header for the preferred {@link WireFormat} unless one was supplied. Can
    * throw {@link AuthFailureError} as authentication may be required to
    * provide these values.
    * @return A Map of extra HTTP headers to go along with this request.
@@ -173,7 +236,13 @@ public class GsonRequest<T> extends Request<T> {
    */
   @Override
   public Map<String, String> getHeaders() throws AuthFailureError {
-    return mHeaders == null ? super.getHeaders() : mHeaders;
+    final Map<String, String> headers = mHeaders == null ? super.getHeaders() : mHeaders;
+    if (headers.containsKey(HEADER_ACCEPT)) {
+      return headers;
+    }
+    final Map<String, String> result = new HashMap<>(headers);
+    result.put(HEADER_ACCEPT, sPreferredWireFormat.getAcceptHeader());
+    return result;
   }
 
   /**
@@ -219,6 +288,7 @@ public class GsonRequest<T> extends Request<T> {
    */
   @Override
   protected Response<T> parseNetworkResponse(NetworkResponse response) {
+    onNetworkResponse(response);
     try {
       T deserializedResponse = deserializeResponse(response);
       return Response.success(deserializedResponse,
@@ -230,6 +300,30 @@ public class GsonRequest<T> extends Request<T> {
     }
   }
 
+  /**
+   * Parses a network error. Error responses from the server still count towards the latency
+   * observed for the endpoint.
+   * @param volleyError The error retrieved from the network.
+   * @return The error.
+   */
+  @Override
+  protected VolleyError parseNetworkError(VolleyError volleyError) {
+    onNetworkResponse(volleyError.networkResponse);
+    return super.parseNetworkError(volleyError);
+  }
+
+  /**
+   * Reports the network time of a response to this request's {@link AdaptiveRetryPolicy}, if it
+   * has one.
+   * @param response The response, or null if there was none.
+   */
+  protected void onNetworkResponse(NetworkResponse response) {
+    final RetryPolicy retryPolicy = getRetryPolicy();
+    if (response != null && retryPolicy instanceof AdaptiveRetryPolicy) {
+      ((AdaptiveRetryPolicy) retryPolicy).onNetworkResponse(response.networkTimeMs);
+    }
+  }
+
   /**
    * Performs delivery of the parsed response to the listener(s). The given response is guaranteed
    * to be non-null; responses that fail to parse are not delivered.
@@ -245,7 +339,8 @@ public class GsonRequest<T> extends Request<T> {
    * @return The FormattingLogger based on the current environment.
    */
   private static FormattingLogger getLogger() {
-    return sLogManager.get(sSessionManager.getEnvironment().getLoggerLevel());
+    final SessionManager sessionManager = AppComponents.get().sessionManager();
+    return sLogManager.get(sessionManager.getEnvironment().getLoggerLevel());
   }
 
   /**
@@ -258,23 +353,60 @@ public class GsonRequest<T> extends Request<T> {
    */
   private T deserializeResponse (NetworkResponse response)
       throws UnsupportedEncodingException, JsonSyntaxException {
-    String json = new String(
-        response.data,
-        HttpHeaderParser.parseCharset(response.headers));
-    JsonElement jsonElement = sJsonParser.parse(json);
-    FormattingLogger logger = getLogger();
-    if (logger.isLoggable(Log.VERBOSE)) {
-      logger.v("response=\n" + sGson.toJson(jsonElement));
-    }
     if (mResponseClass != null) {
-      return sGson.fromJson(jsonElement, mResponseClass);
+      return decodeBody(response, mResponseClass);
     } else if (mResponseType != null) {
-      return sGson.fromJson(jsonElement, mResponseType);
+      return decodeBody(response, mResponseType);
     } else {
       throw new IllegalStateException();
     }
   }
 
+  /**
+   * Decodes the body of a {@link NetworkResponse} according to its {@link WireFormat}. CBOR
+   * bodies are read straight into Gson's type adapters by a {@link CborReader}; JSON bodies are
+   * parsed as text.
+   * @param response The {@link NetworkResponse} whose body to decode.
+   * @param type The type to decode the body into.
+   * @param <X> The type to decode the body into.
+   * @return The decoded body.
+   * @throws UnsupportedEncodingException If the parsing to a JSON string fails.
+   * @throws JsonSyntaxException If the Gson deserialization fails.
+   */
+  @SuppressWarnings("unchecked")
+  private static <X> X decodeBody(NetworkResponse response, Type type)
+      throws UnsupportedEncodingException, JsonSyntaxException {
+    final X result;
+    final WireFormat wireFormat = (response.headers == null ?
+        WireFormat.JSON :
+        WireFormat.fromContentType(response.headers.get(HEADER_CONTENT_TYPE)));
+    if (wireFormat == WireFormat.CBOR) {
+      final TypeAdapter<X> adapter = (TypeAdapter<X>) sGson.getAdapter(TypeToken.get(type));
+      try {
+        result = adapter.read(new CborReader(response.data));
+      } catch (IOException e) {
+        throw new JsonSyntaxException(e);
+      } catch (IllegalStateException e) {
+        throw new JsonSyntaxException(e);
+      }
+      FormattingLogger logger = getLogger();
+      if (logger.isLoggable(Log.VERBOSE)) {
+        logger.v("response (" + wireFormat.getMediaType() + ")=\n" + sGson.toJson(result));
+      }
+    } else {
+      String json = new String(
+          response.data,
+          HttpHeaderParser.parseCharset(response.headers));
+      JsonElement jsonElement = sJsonParser.parse(json);
+      FormattingLogger logger = getLogger();
+      if (logger.isLoggable(Log.VERBOSE)) {
+        logger.v("response=\n" + sGson.toJson(jsonElement));
+      }
+      result = sGson.fromJson(jsonElement, type);
+    }
+    return result;
+  }
+
   /**
    * Returns the listener interface for successful responses.
    * @return The listener interface for successful responses.
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.AbstractFuture;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * <p>
+ * Base class of the requests that make their own {@link HttpURLConnection} rather than go
+ * through Volley, which reads every response body into memory: {@link DownloadRequest},
+ * {@link ChunkedUploader} and {@link StreamingArrayRequest}. It holds the settings they share
+ * (headers, socket factory, timeouts and tag), opens connections with those settings, and keeps
+ * track of the open connections so that canceling the request closes them.
+ * </p>
+ *
+ * <p>
+ * A request is also the {@link com.google.common.util.concurrent.ListenableFuture} of its own
+ * result. {@link #run()} performs the request on the calling thread through {@link #execute()}
+ * and completes the future with the outcome.
+ * </p>
+ * @param <V> The type of the result.
+ * @param <R> The type of the request, which the setters return for chaining.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class HttpConnectionRequest<V, R extends HttpConnectionRequest<V, R>>
+    extends AbstractFuture<V> implements Runnable {
+
+  /**
+   * The default connect and read timeout, in milliseconds.
+   */
+  public static final int DEFAULT_TIMEOUT_MILLIS =
+      (int) Api.DEFAULT_TIME_UNIT.toMillis(Api.DEFAULT_TIMEOUT_DURATION);
+
+  /**
+   * Additional request headers.
+   */
+  private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+  /**
+   * Connections that are currently open, so that they can be closed when the request stops.
+   */
+  private final Set<HttpURLConnection> mConnections =
+      Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+
+  /**
+   * The socket factory for HTTPS connections, or null to use the platform default.
+   */
+  private SSLSocketFactory mSocketFactory;
+
+  /**
+   * The connect timeout, in milliseconds.
+   */
+  private int mConnectTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+  /**
+   * The read timeout, in milliseconds. Applies to each read rather than the whole body.
+   */
+  private int mReadTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+  /**
+   * An optional tag for the request.
+   */
+  private Object mTag;
+
+  /**
+   * Sets a request header.
+   * @param name The header name.
+   * @param value The header value.
+   * @return This request.
+   */
+  public R setHeader(String name, String value) {
+    mHeaders.put(name, value);
+    return self();
+  }
+
+  /**
+   * Sets the socket factory used for HTTPS connections.
+   * @param socketFactory The socket factory, or null to use the platform default.
+   * @return This request.
+   */
+  public R setSocketFactory(SSLSocketFactory socketFactory) {
+    mSocketFactory = socketFactory;
+    return self();
+  }
+
+  /**
+   * Sets the connect and read timeouts. Both default to {@link #DEFAULT_TIMEOUT_MILLIS}.
+   * @param connectTimeoutMillis The connect timeout, in milliseconds.
+   * @param readTimeoutMillis The read timeout, in milliseconds. Applies to each read rather than
+   * the whole body.
+   * @return This request.
+   */
+  public R setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+    mConnectTimeoutMillis = connectTimeoutMillis;
+    mReadTimeoutMillis = readTimeoutMillis;
+    return self();
+  }
+
+  /**
+   * Sets a tag for the request.
+   * @param tag The tag.
+   * @return This request.
+   */
+  public R setTag(Object tag) {
+    mTag = tag;
+    return self();
+  }
+
+  /**
+   * Returns the tag of the request.
+   * @return The tag, or null if none was set.
+   */
+  public Object getTag() {
+    return mTag;
+  }
+
+  /**
+   * Runs the request on the calling thread and completes this future with its result.
+   */
+  @Override
+  public void run() {
+    if (isDone()) {
+      return;
+    }
+    try {
+      set(execute());
+    } catch (IOException | RuntimeException e) {
+      setException(e);
+    }
+  }
+
+  /**
+   * Cancels the request, closing all of its connections.
+   * @param mayInterruptIfRunning Ignored; the connections are closed in either case.
+   * @return False if the future could not be canceled, typically because it has already
+   * completed.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!super.cancel(mayInterruptIfRunning)) {
+      return false;
+    }
+    disconnectAll();
+    return true;
+  }
+
+  /**
+   * Performs the request. Called by {@link #run()}.
+   * @return The result.
+   * @throws IOException If the request fails.
+   */
+  protected abstract V execute() throws IOException;
+
+  /**
+   * Opens a connection with this request's headers, socket factory and timeouts, and registers
+   * it so that it is closed if the request stops. Responses are never cached. Close the
+   * connection with {@link #closeConnection(HttpURLConnection)} once it is no longer needed.
+   * @param url The URL to connect to.
+   * @return The connection, not yet connected.
+   * @throws IOException If the connection cannot be opened or the request has stopped.
+   */
+  protected HttpURLConnection openConnection(String url) throws IOException {
+    final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    if (mSocketFactory != null && connection instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) connection).setSSLSocketFactory(mSocketFactory);
+    }
+    connection.setConnectTimeout(mConnectTimeoutMillis);
+    connection.setReadTimeout(mReadTimeoutMillis);
+    connection.setUseCaches(false);
+    connection.setDoInput(true);
+    for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+      connection.setRequestProperty(header.getKey(), header.getValue());
+    }
+    mConnections.add(connection);
+    if (isStopped()) {
+      // A cancel that ran before the connection was registered could not close it
+      closeConnection(connection);
+      throw new InterruptedIOException("Request stopped");
+    }
+    return connection;
+  }
+
+  /**
+   * Unregisters and closes a connection.
+   * @param connection The connection.
+   */
+  protected void closeConnection(HttpURLConnection connection) {
+    mConnections.remove(connection);
+    connection.disconnect();
+  }
+
+  /**
+   * Closes every open connection.
+   */
+  protected void disconnectAll() {
+    for (HttpURLConnection connection : mConnections) {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Returns whether the request should stop. Subclasses that can stop for other reasons than
+   * being canceled add their own.
+   * @return True if the request has been canceled.
+   */
+  protected boolean isStopped() {
+    return isCancelled();
+  }
+
+  /**
+   * Throws if the request should stop.
+   * @throws InterruptedIOException If the request has stopped.
+   */
+  protected void checkStopped() throws InterruptedIOException {
+    if (isStopped()) {
+      throw new InterruptedIOException("Request stopped");
+    }
+  }
+
+  /**
+   * Returns this request as its own type.
+   * @return This request.
+   */
+  @SuppressWarnings("unchecked")
+  private R self() {
+    return (R) this;
+  }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import android.content.ComponentCallbacks2;
+
+import com.codepunk.codepunk.model.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Presents a cursor-paginated api collection as a list of positions, loading pages as the
+ * consumer moves through it so that large collections never have to be loaded whole.
+ * </p>
+ *
+ * <p>
+ * Each call to {@link #get(int)} records the position the consumer is looking at. When that
+ * position comes within the prefetch distance of the end of the loaded items, the next page is
+ * requested. No more than the maximum number of in-flight pages are requested at a time;
+ * requests that do not fit are made as earlier ones complete.
+ * </p>
+ *
+ * <p>
+ * Under memory pressure ({@link #trimMemory(int)}, typically forwarded from
+ * {@link ComponentCallbacks2#onTrimMemory(int)}), pages far from the current position are
+ * dropped. Their positions and cursors are kept, so {@link #getCount()} does not change; a
+ * dropped item reads as null until its page has been reloaded, which happens automatically when
+ * the consumer comes back within the prefetch distance of it. Cursors are assumed to be stable;
+ * a reloaded page that has grown or shrunk keeps its original number of positions.
+ * </p>
+ *
+ * <p>
+ * A Pager is not thread-safe. Use it from one thread, and pass an executor that runs on that
+ * thread (i.e. {@link com.codepunk.codepunk.app.VolleyManager#getMainThreadExecutor()}) so that
+ * page loads are delivered there too.
+ * </p>
+ * @param <T> The type of the items in the collection.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Pager<T> {
+
+  /**
+   * The default number of items requested per page.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 50;
+
+  /**
+   * The default prefetch distance, in items.
+   */
+  public static final int DEFAULT_PREFETCH_DISTANCE = 20;
+
+  /**
+   * The default maximum number of pages requested at the same time.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT_PAGES = 2;
+
+  /**
+   * Loads the pages.
+   */
+  private final PageLoader<T> mLoader;
+
+  /**
+   * The number of items requested per page.
+   */
+  private final int mPageSize;
+
+  /**
+   * How close (in items) to the end of the loaded items, or to a dropped page, the consumer can
+   * get before a page is requested.
+   */
+  private final int mPrefetchDistance;
+
+  /**
+   * The maximum number of pages requested at the same time.
+   */
+  private final int mMaxInFlightPages;
+
+  /**
+   * The executor that page loads are delivered on.
+   */
+  private final Executor mCallbackExecutor;
+
+  /**
+   * The pages loaded so far, in order. Dropped pages stay in the list without their items.
+   */
+  private final List<Slot<T>> mSlots = new ArrayList<>();
+
+  /**
+   * The listener that is notified of changes.
+   */
+  private Listener<T> mListener;
+
+  /**
+   * The cursor of the next page to load at the end of the collection.
+   */
+  private String mNextCursor;
+
+  /**
+   * Whether there are pages after the last loaded one.
+   */
+  private boolean mHasMore = true;
+
+  /**
+   * The page being loaded at the end of the collection, if any.
+   */
+  private Slot<T> mForwardSlot;
+
+  /**
+   * The number of pages being loaded.
+   */
+  private int mInFlightPages;
+
+  /**
+   * The number of positions in the loaded (and dropped) pages.
+   */
+  private int mCount;
+
+  /**
+   * The position the consumer last looked at.
+   */
+  private int mLastPosition;
+
+  /**
+   * The error that stopped loading, if any.
+   */
+  private Throwable mError;
+
+  /**
+   * Whether the pager has been closed.
+   */
+  private boolean mClosed;
+
+  /**
+   * Creates a pager with the default page size, prefetch distance and number of in-flight pages.
+   * @param loader Loads the pages.
+   * @param callbackExecutor The executor that page loads are delivered on.
+   */
+  public Pager(PageLoader<T> loader, Executor callbackExecutor) {
+    this(
+        loader,
+        DEFAULT_PAGE_SIZE,
+        DEFAULT_PREFETCH_DISTANCE,
+        DEFAULT_MAX_IN_FLIGHT_PAGES,
+        callbackExecutor);
+  }
+
+  /**
+   * Creates a pager.
+   * @param loader Loads the pages.
+   * @param pageSize The number of items requested per page.
+   * @param prefetchDistance How close (in items) to the end of the loaded items the consumer can
+   * get before the next page is requested.
+   * @param maxInFlightPages The maximum number of pages requested at the same time.
+   * @param callbackExecutor The executor that page loads are delivered on.
+   */
+  public Pager(
+      PageLoader<T> loader,
+      int pageSize,
+      int prefetchDistance,
+      int maxInFlightPages,
+      Executor callbackExecutor) {
+    if (pageSize < 1 || prefetchDistance < 0 || maxInFlightPages < 1) {
+      throw new IllegalArgumentException("Invalid pager configuration");
+    }
+    mLoader = loader;
+    mPageSize = pageSize;
+    mPrefetchDistance = prefetchDistance;
+    mMaxInFlightPages = maxInFlightPages;
+    mCallbackExecutor = callbackExecutor;
+  }
+
+  /**
+   * Sets the listener that is notified of changes.
+   * @param listener The listener.
+   */
+  public void setListener(Listener<T> listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Requests the first page, if it has not been requested yet.
+   */
+  public void start() {
+    loadAround(mLastPosition);
+  }
+
+  /**
+   * Returns the item at a position, and requests any pages the consumer is about to need.
+   * @param position The position.
+   * @return The item, or null if its page has been dropped and is not loaded yet.
+   * @throws IndexOutOfBoundsException If the position is not less than {@link #getCount()}.
+   */
+  public T get(int position) {
+    if (position < 0 || position >= mCount) {
+      throw new IndexOutOfBoundsException("position " + position + ", count " + mCount);
+    }
+    mLastPosition = position;
+    final Slot<T> slot = mSlots.get(findSlotIndex(position));
+    final int offset = position - slot.mStart;
+    final T item = (slot.mItems != null && offset < slot.mItems.size() ?
+        slot.mItems.get(offset) :
+        null);
+    loadAround(position);
+    return item;
+  }
+
+  /**
+   * Returns whether the item at a position is loaded.
+   * @param position The position.
+   * @return True if the item's page is loaded.
+   */
+  public boolean isLoaded(int position) {
+    if (position < 0 || position >= mCount) {
+      return false;
+    }
+    return mSlots.get(findSlotIndex(position)).mItems != null;
+  }
+
+  /**
+   * Returns the number of positions loaded so far, including those of dropped pages.
+   * @return The number of positions.
+   */
+  public int getCount() {
+    return mCount;
+  }
+
+  /**
+   * Returns whether there are pages after the last loaded one.
+   * @return True if there are more pages.
+   */
+  public boolean hasMore() {
+    return mHasMore;
+  }
+
+  /**
+   * Returns the number of pages being loaded.
+   * @return The number of pages.
+   */
+  public int getInFlightPageCount() {
+    return mInFlightPages;
+  }
+
+  /**
+   * Returns the number of pages loaded so far, including dropped pages.
+   * @return The number of pages.
+   */
+  public int getPageCount() {
+    return mSlots.size();
+  }
+
+  /**
+   * Returns the number of pages whose items are held in memory.
+   * @return The number of pages.
+   */
+  public int getResidentPageCount() {
+    int count = 0;
+    for (Slot<T> slot : mSlots) {
+      if (slot.mItems != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the error that stopped loading.
+   * @return The error, or null if loading has not failed.
+   */
+  public Throwable getError() {
+    return mError;
+  }
+
+  /**
+   * Clears an error that stopped loading, and requests the pages the consumer needs again.
+   */
+  public void retry() {
+    mError = null;
+    loadAround(mLastPosition);
+  }
+
+  /**
+   * Drops pages in response to memory pressure. When memory is critically low, only the page at
+   * the current position is kept; otherwise the pages within the prefetch distance are kept too.
+   * @param level The trim level, as passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+   * @return The number of pages dropped.
+   */
+  public int trimMemory(int level) {
+    if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        || level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+      return trim(0);
+    }
+    return trim((mPrefetchDistance + mPageSize - 1) / mPageSize);
+  }
+
+  /**
+   * Drops every page that is more than {@code keepDistance} pages away from the page at the
+   * current position.
+   * @param keepDistance The number of pages on either side of the current page to keep.
+   * @return The number of pages dropped.
+   */
+  public int trim(int keepDistance) {
+    if (mSlots.isEmpty()) {
+      return 0;
+    }
+    final int current = findSlotIndex(Math.min(mLastPosition, mCount - 1));
+    int dropped = 0;
+    for (int i = 0; i < mSlots.size(); i++) {
+      final Slot<T> slot = mSlots.get(i);
+      if (Math.abs(i - current) > keepDistance && slot.mItems != null && slot.mFuture == null) {
+        slot.mItems = null;
+        dropped++;
+      }
+    }
+    return dropped;
+  }
+
+  /**
+   * Cancels any page loads and stops the pager from making new ones.
+   */
+  public void close() {
+    mClosed = true;
+    if (mForwardSlot != null && mForwardSlot.mFuture != null) {
+      mForwardSlot.mFuture.cancel(true);
+    }
+    for (Slot<T> slot : mSlots) {
+      if (slot.mFuture != null) {
+        slot.mFuture.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Requests the pages the consumer needs around a position: dropped pages within the prefetch
+   * distance (nearest first) and, near the end of the loaded items, the next page.
+   * @param position The position.
+   */
+  private void loadAround(int position) {
+    if (mClosed || mError != null) {
+      return;
+    }
+    if (!mSlots.isEmpty()) {
+      final int current = findSlotIndex(Math.min(position, mCount - 1));
+      final int first = findSlotIndex(Math.max(0, position - mPrefetchDistance));
+      final int last = findSlotIndex(Math.min(mCount - 1, position + mPrefetchDistance));
+      for (int distance = 0;
+          distance <= Math.max(current - first, last - current)
+              && mInFlightPages < mMaxInFlightPages;
+          distance++) {
+        if (current + distance <= last) {
+          reload(mSlots.get(current + distance));
+        }
+        if (distance > 0 && current - distance >= first) {
+          reload(mSlots.get(current - distance));
+        }
+      }
+    }
+    if (mHasMore
+        && mForwardSlot == null
+        && mInFlightPages < mMaxInFlightPages
+        && position >= mCount - mPrefetchDistance) {
+      mForwardSlot = new Slot<>(mNextCursor, mCount);
+      load(mForwardSlot, true);
+    }
+  }
+
+  /**
+   * Reloads a page if it has been dropped and there is room for another in-flight page.
+   * @param slot The page.
+   */
+  private void reload(Slot<T> slot) {
+    if (slot.mItems == null && slot.mFuture == null && mInFlightPages < mMaxInFlightPages) {
+      load(slot, false);
+    }
+  }
+
+  /**
+   * Requests a page.
+   * @param slot The page.
+   * @param forward Whether the page is the next page at the end of the collection, as opposed to
+   * a dropped page.
+   */
+  private void load(final Slot<T> slot, final boolean forward) {
+    mInFlightPages++;
+    final ListenableFuture<Page<T>> future = mLoader.loadPage(slot.mCursor, mPageSize);
+    slot.mFuture = future;
+    Futures.addCallback(future, new FutureCallback<Page<T>>() {
+      @Override
+      public void onSuccess(Page<T> page) {
+        onPageLoaded(slot, page, forward);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        onPageFailed(slot, t, forward);
+      }
+    }, mCallbackExecutor);
+  }
+
+  /**
+   * Stores a loaded page and requests any further pages the consumer needs.
+   * @param slot The page.
+   * @param page The loaded contents.
+   * @param forward Whether the page is the next page at the end of the collection.
+   */
+  private void onPageLoaded(Slot<T> slot, Page<T> page, boolean forward) {
+    mInFlightPages--;
+    slot.mFuture = null;
+    if (mClosed) {
+      return;
+    }
+    final List<T> items = page.getItems();
+    slot.mItems = items;
+    if (forward) {
+      mForwardSlot = null;
+      mNextCursor = page.getNextCursor();
+      mHasMore = page.hasMore();
+      slot.mSize = items.size();
+      if (slot.mSize > 0) {
+        mSlots.add(slot);
+        mCount += slot.mSize;
+        if (mListener != null) {
+          mListener.onItemsInserted(this, slot.mStart, slot.mSize);
+        }
+      }
+    } else if (mListener != null) {
+      mListener.onItemsChanged(this, slot.mStart, slot.mSize);
+    }
+    loadAround(mLastPosition);
+  }
+
+  /**
+   * Records a failed page load. Loading stops until {@link #retry()} is called.
+   * @param slot The page.
+   * @param t The failure.
+   * @param forward Whether the page is the next page at the end of the collection.
+   */
+  private void onPageFailed(Slot<T> slot, Throwable t, boolean forward) {
+    mInFlightPages--;
+    slot.mFuture = null;
+    if (forward) {
+      mForwardSlot = null;
+    }
+    if (mClosed || t instanceof CancellationException) {
+      return;
+    }
+    mError = t;
+    if (mListener != null) {
+      mListener.onError(this, t);
+    }
+  }
+
+  /**
+   * Returns the index of the page that contains a position.
+   * @param position The position, which must be less than {@link #mCount}.
+   * @return The index of the page in {@link #mSlots}.
+   */
+  private int findSlotIndex(int position) {
+    int low = 0;
+    int high = mSlots.size() - 1;
+    while (low < high) {
+      final int mid = (low + high + 1) >>> 1;
+      if (mSlots.get(mid).mStart <= position) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * A page of the collection: the cursor that loads it, its positions and, unless it has been
+   * dropped, its items.
+   */
+  private static class Slot<T> {
+    final String mCursor;
+    final int mStart;
+    int mSize;
+    List<T> mItems;
+    ListenableFuture<Page<T>> mFuture;
+
+    Slot(String cursor, int start) {
+      mCursor = cursor;
+      mStart = start;
+    }
+  }
+
+  /**
+   * Interface for loading one page of a collection.
+   * @param <T> The type of the items in the collection.
+   */
+  public interface PageLoader<T> {
+    /**
+     * Requests a page.
+     * @param cursor The cursor of the page, or null for the first page.
+     * @param pageSize The number of items to request.
+     * @return A {@link ListenableFuture} that completes with the page.
+     */
+    ListenableFuture<Page<T>> loadPage(String cursor, int pageSize);
+  }
+
+  /**
+   * Interface for listening to changes in a {@link Pager}. Modeled after the notify methods of
+   * a RecyclerView adapter.
+   * @param <T> The type of the items in the collection.
+   */
+  public interface Listener<T> {
+    /**
+     * Called when a page has been added at the end of the collection.
+     * @param pager The pager.
+     * @param position The position of the first new item.
+     * @param count The number of new items.
+     */
+    void onItemsInserted(Pager<T> pager, int position, int count);
+
+    /**
+     * Called when a dropped page has been reloaded.
+     * @param pager The pager.
+     * @param position The position of the first reloaded item.
+     * @param count The number of reloaded items.
+     */
+    void onItemsChanged(Pager<T> pager, int position, int count);
+
+    /**
+     * Called when a page fails to load. Loading stops until {@link Pager#retry()} is called.
+     * @param pager The pager.
+     * @param error The failure.
+     */
+    void onError(Pager<T> pager, Throwable error);
+  }
+}
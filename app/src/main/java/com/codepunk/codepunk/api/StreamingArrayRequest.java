@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * <p>
+ * A request for a Codepunk response whose {@code result} is a JSON array, which hands the array
+ * elements to an {@link ElementListener} one at a time as they arrive instead of building the
+ * whole list first. A {@link GsonRequest} gets the entire body from Volley, parses it into a
+ * {@link com.google.gson.JsonElement} tree and then converts the tree into a {@code List<T>},
+ * so the first element is not seen until the last byte has arrived and memory use grows with
+ * the size of the array. A StreamingArrayRequest makes its own {@link HttpURLConnection} and
+ * reads the body with a {@link JsonReader}, decoding each element with the element type's
+ * {@link TypeAdapter} as soon as its bytes have been read. Only the element being decoded and
+ * the elements waiting to be delivered are held in memory.
+ * </p>
+ *
+ * <p>
+ * Elements are delivered in order on the executor passed to
+ * {@link #setElementListener(ElementListener, Executor)}. At most
+ * {@link #setMaxPendingElements(int)} elements wait for delivery at any time; once that many are
+ * queued, decoding (and so reading from the network) pauses until the listener catches up.
+ * </p>
+ *
+ * <p>
+ * A StreamingArrayRequest is also the {@link com.google.common.util.concurrent.ListenableFuture}
+ * of the number of elements it delivered. It completes once every element has been delivered,
+ * and fails if the server responds with an error status or an {@code error} object, or if the
+ * body is not valid JSON; elements that arrived before the failure will already have been
+ * delivered. Run it on a background thread (typically through
+ * {@link ApiUserDelegate#streamUsers(String, ElementListener)}); canceling the future closes the
+ * connection and stops delivery.
+ * </p>
+ * @param <T> The type of the array elements.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StreamingArrayRequest<T>
+    extends HttpConnectionRequest<Integer, StreamingArrayRequest<T>> {
+
+  /**
+   * The default maximum number of elements waiting to be delivered.
+   */
+  public static final int DEFAULT_MAX_PENDING_ELEMENTS = 64;
+
+  /**
+   * The charset used when the response does not name one.
+   */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The name of the result member of a Codepunk response.
+   */
+  private static final String NAME_RESULT = "result";
+
+  /**
+   * The name of the error member of a Codepunk response.
+   */
+  private static final String NAME_ERROR = "error";
+
+  /**
+   * The {@link Gson} instance used when none is supplied.
+   */
+  private static final Gson sGson = new Gson();
+
+  /**
+   * The URL to request.
+   */
+  private final String mUrl;
+
+  /**
+   * The type of the array elements.
+   */
+  private final Type mElementType;
+
+  /**
+   * The {@link Gson} instance that supplies the element type's {@link TypeAdapter}.
+   */
+  private Gson mGson = sGson;
+
+  /**
+   * The listener that receives the elements.
+   */
+  private ElementListener<T> mElementListener;
+
+  /**
+   * The executor that elements are delivered on.
+   */
+  private Executor mElementExecutor = MoreExecutors.directExecutor();
+
+  /**
+   * The maximum number of elements waiting to be delivered.
+   */
+  private int mMaxPendingElements = DEFAULT_MAX_PENDING_ELEMENTS;
+
+  /**
+   * The number of elements decoded so far.
+   */
+  private volatile int mElementsDecoded;
+
+  /**
+   * Creates a new request.
+   * @param url The URL to request.
+   * @param elementType The type of the array elements.
+   */
+  public StreamingArrayRequest(String url, Type elementType) {
+    mUrl = url;
+    mElementType = elementType;
+    setHeader("Accept", "application/json");
+  }
+
+  /**
+   * Creates a new request.
+   * @param url The URL to request.
+   * @param elementClass The class of the array elements.
+   */
+  public StreamingArrayRequest(String url, Class<T> elementClass) {
+    this(url, (Type) elementClass);
+  }
+
+  /**
+   * Returns the URL to request.
+   * @return The URL.
+   */
+  public String getUrl() {
+    return mUrl;
+  }
+
+  /**
+   * Sets the {@link Gson} instance whose {@link TypeAdapter} decodes the elements, so that the
+   * elements are decoded the same way as responses to other requests.
+   * @param gson The Gson instance.
+   * @return This request.
+   */
+  public StreamingArrayRequest<T> setGson(Gson gson) {
+    mGson = gson;
+    return this;
+  }
+
+  /**
+   * Sets the listener that receives the elements.
+   * @param listener The listener.
+   * @param executor The executor that elements are delivered on.
+   * @return This request.
+   */
+  public StreamingArrayRequest<T> setElementListener(
+      ElementListener<T> listener,
+      Executor executor) {
+    mElementListener = listener;
+    mElementExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of elements that may wait for delivery. Decoding pauses while that
+   * many are waiting, which bounds memory use when the listener is slower than the network.
+   * @param maxPendingElements The maximum number of elements.
+   * @return This request.
+   */
+  public StreamingArrayRequest<T> setMaxPendingElements(int maxPendingElements) {
+    if (maxPendingElements < 1) {
+      throw new IllegalArgumentException("maxPendingElements must be at least 1");
+    }
+    mMaxPendingElements = maxPendingElements;
+    return this;
+  }
+
+  /**
+   * Returns the number of elements decoded so far. Some of them may not have been delivered yet.
+   * @return The number of elements.
+   */
+  public int getElementsDecoded() {
+    return mElementsDecoded;
+  }
+
+  /**
+   * Opens the connection and decodes the response body.
+   * @return The number of elements delivered.
+   * @throws IOException If the request fails or the server returns an error.
+   */
+  @Override
+  protected Integer execute() throws IOException {
+    final HttpURLConnection connection = openConnection(mUrl);
+    try {
+      final int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException(
+            String.format(Locale.US, "HTTP %d streaming %s", status, mUrl));
+      }
+      final JsonReader reader = new JsonReader(
+          new InputStreamReader(connection.getInputStream(), parseCharset(connection)));
+      try {
+        return decode(reader);
+      } finally {
+        reader.close();
+      }
+    } finally {
+      closeConnection(connection);
+    }
+  }
+
+  /**
+   * Decodes a Codepunk response, delivering the elements of its {@code result} array as they are
+   * read. Other members are skipped without being decoded.
+   * @param reader The reader positioned at the start of the response.
+   * @return The number of elements delivered.
+   * @throws IOException If the body cannot be read or the response holds an error.
+   */
+  int decode(JsonReader reader) throws IOException {
+    @SuppressWarnings("unchecked")
+    final TypeAdapter<T> adapter = (TypeAdapter<T>) mGson.getAdapter(TypeToken.get(mElementType));
+    final Semaphore pending = new Semaphore(mMaxPendingElements);
+    boolean error = false;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      final String name = reader.nextName();
+      final JsonToken token = reader.peek();
+      if (NAME_RESULT.equals(name) && token == JsonToken.BEGIN_ARRAY) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          checkStopped();
+          // Wait for room before decoding, so no element is held while the listener catches up
+          acquire(pending, 1);
+          final T element = adapter.read(reader);
+          mElementsDecoded++;
+          deliver(element, pending);
+        }
+        reader.endArray();
+      } else if (NAME_RESULT.equals(name) && token != JsonToken.NULL) {
+        throw new JsonSyntaxException("Expected an array result but was " + token);
+      } else {
+        error = error || (NAME_ERROR.equals(name) && token != JsonToken.NULL);
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    // Wait for the listener to catch up so that the future completes after the last element
+    acquire(pending, mMaxPendingElements);
+    pending.release(mMaxPendingElements);
+    if (error) {
+      throw new IOException("Error response streaming " + mUrl);
+    }
+    return mElementsDecoded;
+  }
+
+  /**
+   * Hands an element to the listener. The caller must hold a permit for it, which is released
+   * once the element has been delivered.
+   * @param element The element.
+   * @param pending The permits for pending elements.
+   */
+  private void deliver(final T element, final Semaphore pending) {
+    final ElementListener<T> listener = mElementListener;
+    if (listener == null) {
+      pending.release();
+      return;
+    }
+    mElementExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (!isCancelled()) {
+            listener.onElement(element);
+          }
+        } finally {
+          pending.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Acquires permits, converting an interruption into an {@link InterruptedIOException}.
+   * @param semaphore The semaphore.
+   * @param permits The number of permits.
+   * @throws InterruptedIOException If the thread is interrupted while waiting.
+   */
+  private static void acquire(Semaphore semaphore, int permits) throws InterruptedIOException {
+    try {
+      semaphore.acquire(permits);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for element delivery");
+    }
+  }
+
+  /**
+   * Returns the charset named by the response's {@code Content-Type}, or UTF-8 if there is none.
+   * @param connection The connection.
+   * @return The charset.
+   */
+  private static Charset parseCharset(HttpURLConnection connection) {
+    final String contentType = connection.getContentType();
+    if (contentType != null) {
+      for (String param : contentType.split(";")) {
+        final String[] pair = param.trim().split("=", 2);
+        if (pair.length == 2 && "charset".equalsIgnoreCase(pair[0])) {
+          try {
+            return Charset.forName(pair[1].trim());
+          } catch (IllegalArgumentException e) {
+            // Fall back to the JSON default
+          }
+        }
+      }
+    }
+    return UTF_8;
+  }
+
+  /**
+   * Receives the elements of a {@link StreamingArrayRequest}.
+   * @param <T> The type of the elements.
+   */
+  public interface ElementListener<T> {
+
+    /**
+     * Called with each element of the array, in order.
+     * @param element The element.
+     */
+    void onElement(T element);
+  }
+}
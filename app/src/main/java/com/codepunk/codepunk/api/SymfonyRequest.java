@@ -17,13 +17,10 @@
 package com.codepunk.codepunk.api;
 
 import com.android.volley.NetworkResponse;
-import com.android.volley.ParseError;
 import com.android.volley.Response.ErrorListener;
 import com.android.volley.Response.Listener;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.HttpHeaderParser;
 
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Type;
 import java.util.Map;
 
@@ -40,11 +37,6 @@ import java.util.Map;
 @SuppressWarnings({"unused", "WeakerAccess", "StatementWithEmptyBody"})
 public class SymfonyRequest<T> extends GsonRequest<T> {
 
-  /**
-   * Default charset for JSON request
-   */
-  private static final String PROTOCOL_CHARSET = "utf-8";
-
   /**
    * Creates a new request with the given method (one of the values from
    * {@link com.android.volley.Request.Method}), URL, response class, headers, params,
@@ -99,10 +91,10 @@ public class SymfonyRequest<T> extends GsonRequest<T> {
     super(method, url, responseType, headers, params, responseListener, errorListener);
   }
 
-
-
   /**
-   * Parses 'networkError' and returns a more specific error.
+   * Parses 'networkError' and returns a more specific error. The body is only decoded when its
+   * status code and {@code Content-Type} say that it may hold a Symfony OAuth error; see
+   * {@link ErrorBodyParser}.
    * @param volleyError the error retrieved from the network
    * @return an NetworkError augmented with additional information
    */
@@ -112,37 +104,17 @@ public class SymfonyRequest<T> extends GsonRequest<T> {
     if (response == null) {
       return volleyError;
     }
-
-
-
-    // TODO Anything with volleyError.networkResponse.statusCode?
-
-    try {
-      String responseString = new String(response.data,
-          HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
-
-      // TODO isHtml? isJson?
-      boolean isJson = true; // TODO TEMP
-      boolean isHtml = false;
-
-      if (isJson) {
-        AuthError error =
-            sGson.fromJson(responseString, AuthError.class);
-        AuthErrorType errorType = error.getType();
-        if (errorType != null) {
-          return new SymfonyError(errorType, error.getDescription(), volleyError);
-        }
-      } else if (isHtml) {
-        // TODO
-      } else {
-        // TODO If we got here, it's a regular string
-      }
-
-      return volleyError;
-    } catch (UnsupportedEncodingException e) {
-      return new ParseError(e);
-    } catch (IllegalStateException e) {
-      return volleyError;
+    onNetworkResponse(response);
+
+    final ErrorBodyParser.Result result = ErrorBodyParser.parse(
+        response.statusCode,
+        (response.headers == null ? null : response.headers.get(HEADER_CONTENT_TYPE)),
+        response.data);
+    final AuthErrorType errorType =
+        (result.getError() == null ? null : AuthErrorType.fromValue(result.getError()));
+    if (errorType != null) {
+      return new SymfonyError(errorType, result.getDescription(), volleyError);
     }
+    return volleyError;
   }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import java.io.IOException;
+
+/**
+ * An error that ends a {@link ChunkedUploader} because the server refused a request.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class UploadError extends IOException {
+
+  /**
+   * The version of the serialized form of this class.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The 408 Request Timeout status code.
+   */
+  private static final int HTTP_REQUEST_TIMEOUT = 408;
+
+  /**
+   * The 429 Too Many Requests status code.
+   */
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  /**
+   * The HTTP status code of the response.
+   */
+  private final int mStatusCode;
+
+  /**
+   * Creates a new error.
+   * @param statusCode The HTTP status code of the response.
+   * @param message The detail message.
+   */
+  UploadError(int statusCode, String message) {
+    super(message);
+    mStatusCode = statusCode;
+  }
+
+  /**
+   * Returns the HTTP status code of the response.
+   * @return The status code.
+   */
+  public int getStatusCode() {
+    return mStatusCode;
+  }
+
+  /**
+   * Returns whether the request that failed is worth retrying: the server failed or was
+   * overloaded rather than refusing the request itself.
+   * @return True if the request can be retried.
+   */
+  public boolean isRetryable() {
+    return mStatusCode >= 500
+        || mStatusCode == HTTP_REQUEST_TIMEOUT
+        || mStatusCode == HTTP_TOO_MANY_REQUESTS;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.AbstractFuture;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.RequestQueue.RequestFinishedListener;
+import com.android.volley.Response.ErrorListener;
+import com.android.volley.Response.Listener;
+import com.android.volley.VolleyError;
+
+/**
+ * <p>
+ * A {@link com.google.common.util.concurrent.ListenableFuture} that is completed by a Volley
+ * {@link Request}. Pass the future as both the {@link Listener} and the {@link ErrorListener} of
+ * the request, then hand the request to {@link #setRequest(Request)}:
+ * </p>
+ * <pre>
+ * VolleyFuture&lt;AuthInfo&gt; future = VolleyFuture.newFuture();
+ * volleyManager.addToRequestQueue(future.setRequest(newRequest(..., future, future)));
+ * return future;
+ * </pre>
+ *
+ * <p>
+ * Unlike Volley's {@link com.android.volley.toolbox.RequestFuture}, listeners can be attached to
+ * this future instead of blocking on it, and canceling the future also cancels the request, so
+ * that it is dropped from the request queue (or its response is never delivered).
+ * </p>
+ *
+ * <p>
+ * A request that is canceled on its own (for example by {@link RequestQueue#cancelAll(Object)})
+ * delivers neither a response nor an error. Queues that run such requests register
+ * {@link #CANCELLATION_LISTENER}, which cancels the future when its request finishes canceled.
+ * </p>
+ * @param <T> The type of parsed response the request delivers.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VolleyFuture<T> extends AbstractFuture<T> implements Listener<T>, ErrorListener {
+
+  /**
+   * Cancels the VolleyFuture of a request that finished because it was canceled. Register it
+   * with {@link RequestQueue#addRequestFinishedListener(RequestFinishedListener)}.
+   */
+  public static final RequestFinishedListener<Object> CANCELLATION_LISTENER =
+      new RequestFinishedListener<Object>() {
+        @Override
+        public void onRequestFinished(Request<Object> request) {
+          if (request.isCanceled() && request.getErrorListener() instanceof VolleyFuture) {
+            ((VolleyFuture<?>) request.getErrorListener()).cancel(false);
+          }
+        }
+      };
+
+  /**
+   * The request that completes this future.
+   */
+  private volatile Request<?> mRequest;
+
+  /**
+   * Private constructor. Use {@link #newFuture()}.
+   */
+  private VolleyFuture() {
+  }
+
+  /**
+   * Creates a new, incomplete future.
+   * @param <T> The type of parsed response the request delivers.
+   * @return The future.
+   */
+  public static <T> VolleyFuture<T> newFuture() {
+    return new VolleyFuture<>();
+  }
+
+  /**
+   * Associates the request that will complete this future. If the future has already been
+   * canceled, the request is canceled immediately.
+   * @param request The request.
+   * @param <R> The type of the request.
+   * @return The request, for chaining.
+   */
+  public <R extends Request<?>> R setRequest(R request) {
+    mRequest = request;
+    if (isCancelled()) {
+      request.cancel();
+    }
+    return request;
+  }
+
+  /**
+   * Returns the request that completes this future.
+   * @return The request, or null if it has not been set.
+   */
+  public Request<?> getRequest() {
+    return mRequest;
+  }
+
+  @Override
+  public void onResponse(T response) {
+    set(response);
+  }
+
+  @Override
+  public void onErrorResponse(VolleyError error) {
+    setException(error);
+  }
+
+  /**
+   * Cancels the future and the request that completes it.
+   * @param mayInterruptIfRunning Ignored; Volley requests are never interrupted.
+   * @return False if the future could not be canceled, typically because it has already
+   * completed.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!super.cancel(mayInterruptIfRunning)) {
+      return false;
+    }
+    final Request<?> request = mRequest;
+    if (request != null) {
+      request.cancel();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import java.util.Locale;
+
+/**
+ * Enum class representing the wire formats that API responses can be negotiated into through the
+ * {@code Accept} header.
+ */
+public enum WireFormat {
+  /**
+   * JSON text. Every endpoint can produce it, so it is always the fallback.
+   */
+  JSON("application/json"),
+
+  /**
+   * CBOR (RFC 7049), a binary encoding of the JSON data model. It is smaller on the wire and
+   * decodes without any text parsing.
+   */
+  CBOR("application/cbor");
+
+  /**
+   * The media type of this WireFormat.
+   */
+  private final String mMediaType;
+
+  /**
+   * Constructor that takes a media type.
+   * @param mediaType The media type.
+   */
+  WireFormat(String mediaType) {
+    mMediaType = mediaType;
+  }
+
+  /**
+   * Returns the media type of this WireFormat.
+   * @return The media type.
+   */
+  public String getMediaType() {
+    return mMediaType;
+  }
+
+  /**
+   * Returns the value of the {@code Accept} header that asks for this WireFormat, with JSON as a
+   * lower-priority fallback for endpoints that can't produce it.
+   * @return The {@code Accept} header value.
+   */
+  public String getAcceptHeader() {
+    return (this == JSON ? mMediaType : mMediaType + ", " + JSON.mMediaType + ";q=0.9");
+  }
+
+  /**
+   * Returns the WireFormat of a response with the supplied {@code Content-Type} header.
+   * @param contentType The {@code Content-Type} header, or null if the response had none.
+   * @return The WireFormat, or {@link #JSON} if the content type is missing or unrecognized.
+   */
+  public static WireFormat fromContentType(String contentType) {
+    if (contentType != null) {
+      final int index = contentType.indexOf(';');
+      final String mediaType = (index < 0 ? contentType : contentType.substring(0, index))
+          .trim()
+          .toLowerCase(Locale.US);
+      for (WireFormat format : values()) {
+        if (format.mMediaType.equals(mediaType)) {
+          return format;
+        }
+      }
+    }
+    return JSON;
+  }
+}
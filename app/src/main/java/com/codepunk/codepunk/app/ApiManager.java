@@ -16,13 +16,14 @@
 
 package com.codepunk.codepunk.app;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 
 import com.codepunk.codepunklib.support.v1.ObjectsCompat;
 import com.codepunk.codepunklib.util.plugin.PluginManager;
 import com.codepunk.codepunk.api.Api;
 import com.codepunk.codepunk.api.ApiAuthDelegate;
+import com.codepunk.codepunk.api.ApiDownloadDelegate;
+import com.codepunk.codepunk.api.ApiUploadDelegate;
 import com.codepunk.codepunk.api.ApiUserDelegate;
 
 /**
@@ -32,20 +33,9 @@ import com.codepunk.codepunk.api.ApiUserDelegate;
 public class ApiManager extends PluginManager<Api, Environment> {
 
   /**
-   * For singleton creation.
+   * The {@link SessionManager} instance used to get the current {@link Environment}.
    */
-  private static final Object sLock = new Object();
-
-  /**
-   * The singleton instance.
-   */
-  @SuppressLint("StaticFieldLeak")
-  private static ApiManager sInstance;
-
-  /**
-   * The singleton {@link SessionManager} instance.
-   */
-  private static SessionManager sSessionManager = SessionManager.getInstance();
+  private final SessionManager mSessionManager;
 
   /**
    * The application context.
@@ -53,26 +43,24 @@ public class ApiManager extends PluginManager<Api, Environment> {
   private final Context mAppContext;
 
   /**
-   * Constructor that accepts an application context. Use {@link ApiManager#getInstance(Context)}
-   * to get the singleton instance.
+   * Constructor that accepts an application context and a {@link SessionManager}. The singleton
+   * instance is created by {@link AppModule}; use {@link ApiManager#getInstance(Context)} to
+   * get it.
    * @param context The context to use to get the application context.
+   * @param sessionManager The SessionManager used to get the current {@link Environment}.
    */
-  private ApiManager(Context context) {
+  ApiManager(Context context, SessionManager sessionManager) {
     mAppContext = context.getApplicationContext();
+    mSessionManager = sessionManager;
   }
 
   /**
-   * Returns a singleton ApiManager instance associated with a Context.
-   * @param context The context to use to create the ApiManager instance.
+   * Returns the singleton ApiManager instance from the app's {@link AppComponent}.
+   * @param context Unused; the instance is bound to the application context.
    * @return An ApiManager instance.
    */
   public static ApiManager getInstance(Context context) {
-    synchronized (sLock) {
-      if (sInstance == null) {
-        sInstance = new ApiManager(context);
-      }
-      return sInstance;
-    }
+    return AppComponents.get().apiManager();
   }
 
   /**
@@ -102,7 +90,7 @@ public class ApiManager extends PluginManager<Api, Environment> {
    * @return An {@link Api} instance.
    */
   public Api get() {
-    return get(sSessionManager.getEnvironment());
+    return get(mSessionManager.getEnvironment());
   }
 
   /**
@@ -122,4 +110,22 @@ public class ApiManager extends PluginManager<Api, Environment> {
   public ApiUserDelegate getUserDelegate() {
     return get().getUserDelegate();
   }
+
+  /**
+   * Convenience method to get an {@link ApiDownloadDelegate} instance based on the current
+   * {@link Environment}.
+   * @return An {@link ApiDownloadDelegate} instance.
+   */
+  public ApiDownloadDelegate getDownloadDelegate() {
+    return get().getDownloadDelegate();
+  }
+
+  /**
+   * Convenience method to get an {@link ApiUploadDelegate} instance based on the current
+   * {@link Environment}.
+   * @return An {@link ApiUploadDelegate} instance.
+   */
+  public ApiUploadDelegate getUploadDelegate() {
+    return get().getUploadDelegate();
+  }
 }
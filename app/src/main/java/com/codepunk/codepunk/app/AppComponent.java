@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+
+import com.codepunk.codepunk.util.AccountIndex;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+/**
+ * <p>
+ * The app's dependency graph. Dagger generates the implementation ({@code DaggerAppComponent})
+ * at compile time; the app builds it once in {@link com.codepunk.codepunk.CodepunkApp} and
+ * publishes it through {@link AppComponents}.
+ * </p>
+ *
+ * <p>
+ * Tests can publish a different component (for example one whose modules point the app at a
+ * stand-in server) that extends this interface.
+ * </p>
+ */
+@Singleton
+@Component(modules = AppModule.class)
+public interface AppComponent {
+
+  /**
+   * Returns the application context.
+   * @return The application context.
+   */
+  Context context();
+
+  /**
+   * Returns the {@link SessionManager} singleton.
+   * @return The SessionManager.
+   */
+  SessionManager sessionManager();
+
+  /**
+   * Returns the {@link VolleyManager} singleton.
+   * @return The VolleyManager.
+   */
+  VolleyManager volleyManager();
+
+  /**
+   * Returns the {@link ApiManager} singleton.
+   * @return The ApiManager.
+   */
+  ApiManager apiManager();
+
+  /**
+   * Returns the {@link SessionStore} singleton.
+   * @return The SessionStore.
+   */
+  SessionStore sessionStore();
+
+  /**
+   * Returns the {@link TlsSessionManager} singleton.
+   * @return The TlsSessionManager.
+   */
+  TlsSessionManager tlsSessionManager();
+
+  /**
+   * Returns the {@link ConnectionPrewarmer} singleton.
+   * @return The ConnectionPrewarmer.
+   */
+  ConnectionPrewarmer connectionPrewarmer();
+
+  /**
+   * Returns the {@link AccountIndex} singleton.
+   * @return The AccountIndex.
+   */
+  AccountIndex accountIndex();
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+
+/**
+ * <p>
+ * Holds the {@link AppComponent} the app is running with. Reading it is a single volatile read,
+ * and the component's scoped bindings are only synchronized the first time each one is created,
+ * so the <code>getInstance</code> methods that go through it take no lock on the hot path.
+ * </p>
+ *
+ * <p>
+ * The app installs the default component with {@link #init(Context)} at the start of
+ * {@link android.app.Application#onCreate()}. Tests can install their own with
+ * {@link #set(AppComponent)}; managers obtained from the previous component are not affected.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AppComponents {
+
+  /**
+   * The current component.
+   */
+  private static volatile AppComponent sComponent;
+
+  /**
+   * Builds and installs the default component, unless a component is already installed.
+   * @param context The context to use to get the application context.
+   * @return The installed component.
+   */
+  public static AppComponent init(Context context) {
+    synchronized (AppComponents.class) {
+      if (sComponent == null) {
+        sComponent = DaggerAppComponent.builder()
+            .appModule(new AppModule(context))
+            .build();
+      }
+      return sComponent;
+    }
+  }
+
+  /**
+   * Returns the current component.
+   * @return The current component.
+   * @throws IllegalStateException If no component has been installed.
+   */
+  public static AppComponent get() {
+    final AppComponent component = sComponent;
+    if (component == null) {
+      throw new IllegalStateException("AppComponents.init() has not been called");
+    }
+    return component;
+  }
+
+  /**
+   * Installs a component, replacing the current one.
+   * @param component The component.
+   * @return The component that was replaced, or null.
+   */
+  public static AppComponent set(AppComponent component) {
+    synchronized (AppComponents.class) {
+      final AppComponent previous = sComponent;
+      sComponent = component;
+      return previous;
+    }
+  }
+
+  /**
+   * Private constructor.
+   */
+  private AppComponents() {
+  }
+}
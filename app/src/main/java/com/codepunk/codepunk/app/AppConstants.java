@@ -26,6 +26,16 @@ public class AppConstants {
    */
   public static final long MILLIS_PER_SECOND = 1000L;
 
+  /**
+   * The client ID accepted by the stand-in server (see the standin module).
+   */
+  public static final String STAND_IN_CLIENT_ID = "standin_client_id";
+
+  /**
+   * The client secret accepted by the stand-in server (see the standin module).
+   */
+  public static final String STAND_IN_CLIENT_SECRET = "standin_client_secret";
+
   /**
    * A base string for keys to be used in Bundles, SharedPreferences, Accounts, etc.
    */
@@ -41,6 +51,11 @@ public class AppConstants {
    */
   public static final String KEY_EXPIRES_AT = KEY_BASE + ".expiresAt";
 
+  /**
+   * A key string used to store the id of the user an {@link android.accounts.Account} belongs to.
+   */
+  public static final String KEY_USER_ID = KEY_BASE + ".userId";
+
   /**
    * A base string for referencing {@link android.content.Intent} actions.
    */
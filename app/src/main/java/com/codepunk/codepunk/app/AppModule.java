@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+
+import com.codepunk.codepunk.util.AccountIndex;
+
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.Provides;
+
+/**
+ * Dagger module that provides the app-wide managers. Every binding is {@link Singleton}-scoped,
+ * so each manager is created once per {@link AppComponent}.
+ */
+@Module
+public class AppModule {
+
+  /**
+   * The application context.
+   */
+  private final Context mAppContext;
+
+  /**
+   * Constructor that accepts a {@link Context}.
+   * @param context The context to use to get the application context.
+   */
+  public AppModule(Context context) {
+    mAppContext = context.getApplicationContext();
+  }
+
+  @Provides
+  @Singleton
+  Context provideContext() {
+    return mAppContext;
+  }
+
+  @Provides
+  @Singleton
+  SessionManager provideSessionManager() {
+    return new SessionManager();
+  }
+
+  @Provides
+  @Singleton
+  VolleyManager provideVolleyManager(Context context) {
+    return new VolleyManager(context);
+  }
+
+  @Provides
+  @Singleton
+  ApiManager provideApiManager(Context context, SessionManager sessionManager) {
+    return new ApiManager(context, sessionManager);
+  }
+
+  @Provides
+  @Singleton
+  SessionStore provideSessionStore(Context context) {
+    return new SessionStore(context);
+  }
+
+  @Provides
+  @Singleton
+  TlsSessionManager provideTlsSessionManager(Context context) {
+    return new TlsSessionManager(context);
+  }
+
+  @Provides
+  @Singleton
+  ConnectionPrewarmer provideConnectionPrewarmer(Context context, SessionManager sessionManager) {
+    final ConnectionPrewarmer connectionPrewarmer = new ConnectionPrewarmer(context);
+    sessionManager.setConnectionPrewarmer(connectionPrewarmer);
+    return connectionPrewarmer;
+  }
+
+  @Provides
+  @Singleton
+  AccountIndex provideAccountIndex(Context context) {
+    return new AccountIndex(context);
+  }
+}
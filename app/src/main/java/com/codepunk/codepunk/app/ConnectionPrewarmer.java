@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.codepunk.codepunk.api.Api;
+import com.codepunk.codepunklib.util.log.FormattingLogger;
+import com.codepunk.codepunklib.util.log.LogManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * <p>
+ * Class that pre-connects to the host of an {@link Api} so that the first real api call of a
+ * launch (usually <code>oauth/v2/token</code> or <code>authenticated_user</code>) does not pay for
+ * DNS resolution and the TCP and TLS handshakes.
+ * </p>
+ *
+ * <p>
+ * On a background thread, the prewarmer resolves the api's authority and then makes a
+ * <code>HEAD</code> request to the api's base url through {@link HttpURLConnection}, the same
+ * client used by Volley's {@link com.android.volley.toolbox.HurlStack}. Once the (empty) response
+ * has been read, the platform returns the connection to its keep-alive pool, where the next
+ * request to the same host picks it up. HTTPS connections use the {@link TlsSessionManager}
+ * socket factory, like Volley's, so that they land in the same pool (and so that the handshake
+ * itself can resume a persisted session). The connection is not
+ * {@link HttpURLConnection#disconnect() disconnected}, since that would close the socket instead of
+ * pooling it.
+ * </p>
+ *
+ * <p>
+ * Pre-warming is best-effort: failures are logged and otherwise ignored, and a host is not
+ * pre-warmed again while its pooled connection is expected to still be alive.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ConnectionPrewarmer {
+
+  /**
+   * How long a host is considered warm after it was pre-warmed. This is a little less than the
+   * platform's default keep-alive duration for idle pooled connections (5 minutes).
+   */
+  private static final long WARM_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(4);
+
+  /**
+   * Connect and read timeout for the pre-warming request.
+   */
+  private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+
+  /**
+   * The request method used to pre-warm a connection.
+   */
+  private static final String METHOD_HEAD = "HEAD";
+
+  /**
+   * The application context.
+   */
+  private final Context mAppContext;
+
+  /**
+   * The executor that performs pre-warming.
+   */
+  private final ExecutorService mExecutor;
+
+  /**
+   * The time (in {@link SystemClock#elapsedRealtime()} units) at which each authority was last
+   * pre-warmed.
+   */
+  private final ConcurrentMap<String, Long> mWarmedAt;
+
+  /**
+   * Constructor that accepts a {@link Context}. The singleton instance is created by
+   * {@link AppModule}; use {@link #getInstance(Context)} to get it.
+   * @param context The context to use to get the application context.
+   */
+  ConnectionPrewarmer(Context context) {
+    mAppContext = context.getApplicationContext();
+    mExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("ConnectionPrewarmer")
+            .setDaemon(true)
+            .build());
+    mWarmedAt = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the singleton instance from the app's {@link AppComponent}.
+   * @param context Unused; the instance is bound to the application context.
+   * @return The singleton instance.
+   */
+  public static ConnectionPrewarmer getInstance(Context context) {
+    return AppComponents.get().connectionPrewarmer();
+  }
+
+  /**
+   * Asynchronously pre-warms a connection to the host of the given {@link Environment}.
+   * @param environment The environment whose host should be pre-warmed.
+   */
+  public void prewarm(Environment environment) {
+    prewarm(Api.newInstance(mAppContext, environment));
+  }
+
+  /**
+   * Asynchronously pre-warms a connection to the host of the given {@link Api}. Has no effect if
+   * the host was pre-warmed recently.
+   * @param api The api whose host should be pre-warmed.
+   */
+  public void prewarm(Api api) {
+    final String authority = api.getAuthority();
+    final long now = SystemClock.elapsedRealtime();
+    final Long warmedAt = mWarmedAt.get(authority);
+    if (warmedAt != null && now - warmedAt < WARM_DURATION_MILLIS) {
+      return;
+    }
+    if (warmedAt == null ?
+        mWarmedAt.putIfAbsent(authority, now) != null :
+        !mWarmedAt.replace(authority, warmedAt, now)) {
+      // Another caller is already pre-warming this host
+      return;
+    }
+    final String url = new Uri.Builder()
+        .scheme(api.getScheme())
+        .encodedAuthority(authority)
+        .appendEncodedPath(api.getPath())
+        .build()
+        .toString();
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          prewarm(authority, url);
+        } catch (IOException e) {
+          mWarmedAt.remove(authority, now);
+          final FormattingLogger logger = getLogger();
+          if (logger.isLoggable(Log.DEBUG)) {
+            logger.d(String.format(Locale.US, "Could not pre-warm %s: %s", authority, e));
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns whether a connection to the given authority is expected to be waiting in the pool.
+   * @param authority The authority (i.e. "www.codepunk.com").
+   * @return True if the authority was pre-warmed recently.
+   */
+  public boolean isWarm(String authority) {
+    final Long warmedAt = mWarmedAt.get(authority);
+    return warmedAt != null
+        && SystemClock.elapsedRealtime() - warmedAt < WARM_DURATION_MILLIS;
+  }
+
+  /**
+   * Resolves the host and opens a pooled connection to it. Runs on the prewarmer's thread.
+   * @param authority The authority being pre-warmed.
+   * @param url The url to request.
+   * @throws IOException If the host cannot be resolved or the connection fails.
+   */
+  private void prewarm(String authority, String url) throws IOException {
+    final URL target = new URL(url);
+    final long startNanos = System.nanoTime();
+
+    StartupTracer.beginSection("ConnectionPrewarmer.resolve");
+    try {
+      InetAddress.getAllByName(target.getHost());
+    } finally {
+      StartupTracer.endSection();
+    }
+    final long resolvedNanos = System.nanoTime();
+
+    StartupTracer.beginSection("ConnectionPrewarmer.connect");
+    try {
+      final HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+      connection.setRequestMethod(METHOD_HEAD);
+      connection.setConnectTimeout(TIMEOUT_MILLIS);
+      connection.setReadTimeout(TIMEOUT_MILLIS);
+      connection.setUseCaches(false);
+      if (connection instanceof HttpsURLConnection) {
+        // Must match the socket factory used by Volley, or the connection will be pooled
+        // separately from the ones Volley uses
+        ((HttpsURLConnection) connection).setSSLSocketFactory(
+            TlsSessionManager.getInstance(mAppContext).getSocketFactory());
+      }
+      final int responseCode = connection.getResponseCode();
+      drain(responseCode < HttpURLConnection.HTTP_BAD_REQUEST ?
+          connection.getInputStream() :
+          connection.getErrorStream());
+    } finally {
+      StartupTracer.endSection();
+    }
+    final long connectedNanos = System.nanoTime();
+
+    final FormattingLogger logger = getLogger();
+    if (logger.isLoggable(Log.DEBUG)) {
+      logger.d(String.format(
+          Locale.US,
+          "Pre-warmed %s (dns=%dms, connect=%dms)",
+          authority,
+          TimeUnit.NANOSECONDS.toMillis(resolvedNanos - startNanos),
+          TimeUnit.NANOSECONDS.toMillis(connectedNanos - resolvedNanos)));
+    }
+  }
+
+  /**
+   * Reads a response stream to the end and closes it so that its connection is released to the
+   * pool.
+   * @param in The stream, which may be null.
+   * @throws IOException If the stream cannot be read.
+   */
+  private static void drain(InputStream in) throws IOException {
+    if (in == null) {
+      return;
+    }
+    try {
+      final byte[] buffer = new byte[1024];
+      while (in.read(buffer) != -1) {
+        // Discard
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Convenience method for getting the {@link FormattingLogger} based on the current environment.
+   * @return The FormattingLogger based on the current environment.
+   */
+  private static FormattingLogger getLogger() {
+    return LogManager.getInstance().get(
+        SessionManager.getInstance().getEnvironment().getLoggerLevel());
+  }
+}
@@ -24,6 +24,8 @@ import static com.codepunk.codepunk.app.PrivateAppConstants.DEVELOPMENT_CLIENT_I
 import static com.codepunk.codepunk.app.PrivateAppConstants.DEVELOPMENT_CLIENT_SECRET;
 import static com.codepunk.codepunk.app.PrivateAppConstants.LOCAL_CLIENT_ID;
 import static com.codepunk.codepunk.app.PrivateAppConstants.LOCAL_CLIENT_SECRET;
+import static com.codepunk.codepunk.app.AppConstants.STAND_IN_CLIENT_ID;
+import static com.codepunk.codepunk.app.AppConstants.STAND_IN_CLIENT_SECRET;
 
 /**
  * <p>
@@ -51,7 +53,13 @@ public enum Environment {
   /**
    * Enum value representing the local runtime environment.
    */
-  LOCAL(LOCAL_CLIENT_ID, LOCAL_CLIENT_SECRET, VERBOSE);
+  LOCAL(LOCAL_CLIENT_ID, LOCAL_CLIENT_SECRET, VERBOSE),
+
+  /**
+   * Enum value representing an in-process stand-in server, used for tests and benchmarks. Logging
+   * is kept at INFO so that it does not skew timing measurements.
+   */
+  STAND_IN(STAND_IN_CLIENT_ID, STAND_IN_CLIENT_SECRET, INFO);
 
   /**
    * The client ID used for making api calls.
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>
+ * A recording of HTTP exchanges, written by a {@link RecordingNetwork} and served back by a
+ * {@link ReplayNetwork}. Cassettes are saved as JSON files so that recordings of real traffic
+ * can be checked in next to the tests and benchmarks that replay them.
+ * </p>
+ *
+ * <p>
+ * Exchanges are matched by method, URL and a hash of the request body. Identical requests are
+ * answered by their recordings in the order they were recorded; once those run out, the last one
+ * keeps being served, so that polling a resource more often than when recording still works.
+ * Request bodies are only kept as hashes, so that passwords in token requests never end up in a
+ * cassette. Response bodies are kept as they are and may hold access tokens, so cassettes should
+ * only be recorded with test accounts.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class HttpCassette {
+
+  /**
+   * The failure of an exchange that timed out without a response.
+   */
+  public static final String FAILURE_TIMEOUT = "timeout";
+
+  /**
+   * The failure of an exchange that could not connect.
+   */
+  public static final String FAILURE_NO_CONNECTION = "no_connection";
+
+  /**
+   * The failure of an exchange that failed without a response for any other reason.
+   */
+  public static final String FAILURE_NETWORK = "network";
+
+  /**
+   * The version of the cassette file format.
+   */
+  private static final int VERSION = 1;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The Gson instance used to read and write cassette files.
+   */
+  private static final Gson sGson = new GsonBuilder().setPrettyPrinting().create();
+
+  /**
+   * The exchanges, in the order they were recorded. Guarded by this.
+   */
+  private final List<Exchange> mExchanges = new ArrayList<>();
+
+  /**
+   * The number of recordings already played back for each request key. Guarded by this.
+   */
+  private final Map<String, Integer> mPlayed = new HashMap<>();
+
+  /**
+   * Creates an empty cassette.
+   */
+  public HttpCassette() {
+  }
+
+  /**
+   * Reads a cassette from a file written by {@link #save(File)}.
+   * @param file The file.
+   * @return The cassette.
+   * @throws IOException If the file cannot be read or is not a cassette.
+   */
+  public static HttpCassette load(File file) throws IOException {
+    final Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+    try {
+      return read(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads a cassette written by {@link #write(Writer)}.
+   * @param reader The reader, which is not closed.
+   * @return The cassette.
+   * @throws IOException If the cassette cannot be read.
+   */
+  public static HttpCassette read(Reader reader) throws IOException {
+    final Document document;
+    try {
+      document = sGson.fromJson(reader, Document.class);
+    } catch (JsonParseException e) {
+      throw new IOException("Malformed cassette", e);
+    }
+    if (document == null || document.mVersion != VERSION || document.mExchanges == null) {
+      throw new IOException("Unsupported cassette");
+    }
+    final HttpCassette cassette = new HttpCassette();
+    cassette.mExchanges.addAll(document.mExchanges);
+    return cassette;
+  }
+
+  /**
+   * Saves this cassette to a file.
+   * @param file The file.
+   * @throws IOException If the file cannot be written.
+   */
+  public void save(File file) throws IOException {
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+    try {
+      write(writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes this cassette as JSON.
+   * @param writer The writer, which is flushed but not closed.
+   * @throws IOException If the cassette cannot be written.
+   */
+  public void write(Writer writer) throws IOException {
+    final Document document = new Document();
+    document.mVersion = VERSION;
+    document.mExchanges = getExchanges();
+    sGson.toJson(document, writer);
+    writer.flush();
+  }
+
+  /**
+   * Appends an exchange.
+   * @param exchange The exchange.
+   */
+  public synchronized void record(Exchange exchange) {
+    mExchanges.add(exchange);
+  }
+
+  /**
+   * Returns the recording that answers a request: the first recording of an identical request
+   * that has not been played back yet, or the last one if all of them have.
+   * @param method The request method, one of {@link com.android.volley.Request.Method}.
+   * @param url The request URL.
+   * @param requestBody The request body, or null if there is none.
+   * @return The recording, or null if no identical request was recorded.
+   */
+  public synchronized Exchange play(int method, String url, byte[] requestBody) {
+    final String key = key(method, url, hash(requestBody));
+    final int played = (mPlayed.containsKey(key) ? mPlayed.get(key) : 0);
+    Exchange last = null;
+    int index = 0;
+    for (Exchange exchange : mExchanges) {
+      if (key.equals(key(exchange.mMethod, exchange.mUrl, exchange.mRequestBodyHash))) {
+        if (index == played) {
+          mPlayed.put(key, played + 1);
+          return exchange;
+        }
+        last = exchange;
+        index++;
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Rewinds the cassette, so that every recording is played back again from the start.
+   */
+  public synchronized void rewind() {
+    mPlayed.clear();
+  }
+
+  /**
+   * Returns the exchanges, in the order they were recorded.
+   * @return A copy of the exchanges.
+   */
+  public synchronized List<Exchange> getExchanges() {
+    return Collections.unmodifiableList(new ArrayList<>(mExchanges));
+  }
+
+  /**
+   * Returns the number of exchanges.
+   * @return The number of exchanges.
+   */
+  public synchronized int size() {
+    return mExchanges.size();
+  }
+
+  /**
+   * Returns the hash under which a request body is recorded.
+   * @param requestBody The request body, or null if there is none.
+   * @return The hash, or null if there is no body.
+   */
+  static String hash(byte[] requestBody) {
+    return (requestBody == null || requestBody.length == 0 ?
+        null :
+        Hashing.sha256().hashBytes(requestBody).toString());
+  }
+
+  private static String key(int method, String url, String requestBodyHash) {
+    return method + " " + url + " " + requestBodyHash;
+  }
+
+  /**
+   * A recorded request and its outcome: either a response (of any status) or a failure without
+   * a response.
+   */
+  public static final class Exchange {
+
+    /**
+     * The request method, one of {@link com.android.volley.Request.Method}.
+     */
+    @SerializedName("method")
+    private int mMethod;
+
+    /**
+     * The request URL.
+     */
+    @SerializedName("url")
+    private String mUrl;
+
+    /**
+     * The SHA-256 hash of the request body, or null if there was none.
+     */
+    @SerializedName("request_body_sha256")
+    private String mRequestBodyHash;
+
+    /**
+     * The HTTP status code, or 0 for a failure.
+     */
+    @SerializedName("status")
+    private int mStatus;
+
+    /**
+     * The response headers, or null for a failure.
+     */
+    @SerializedName("headers")
+    private Map<String, String> mHeaders;
+
+    /**
+     * The response body, base64-encoded, or null for a failure.
+     */
+    @SerializedName("body")
+    private String mBody;
+
+    /**
+     * The failure ({@link #FAILURE_TIMEOUT}, {@link #FAILURE_NO_CONNECTION} or
+     * {@link #FAILURE_NETWORK}), or null if there was a response.
+     */
+    @SerializedName("failure")
+    private String mFailure;
+
+    /**
+     * The time the whole exchange took, retries included, in milliseconds.
+     */
+    @SerializedName("elapsed_ms")
+    private long mElapsedMillis;
+
+    /**
+     * The network time of the response as reported by Volley, in milliseconds.
+     */
+    @SerializedName("network_time_ms")
+    private long mNetworkTimeMillis;
+
+    private Exchange() {
+    }
+
+    /**
+     * Creates an exchange that got a response.
+     * @param method The request method, one of {@link com.android.volley.Request.Method}.
+     * @param url The request URL.
+     * @param requestBody The request body, or null if there was none.
+     * @param status The HTTP status code.
+     * @param headers The response headers.
+     * @param body The response body.
+     * @param elapsedMillis The time the whole exchange took, in milliseconds.
+     * @param networkTimeMillis The network time of the response, in milliseconds.
+     * @return The exchange.
+     */
+    public static Exchange response(
+        int method,
+        String url,
+        byte[] requestBody,
+        int status,
+        Map<String, String> headers,
+        byte[] body,
+        long elapsedMillis,
+        long networkTimeMillis) {
+      final Exchange exchange = request(method, url, requestBody, elapsedMillis);
+      exchange.mStatus = status;
+      exchange.mHeaders = (headers == null ?
+          new LinkedHashMap<String, String>() :
+          new LinkedHashMap<>(headers));
+      exchange.mBody = BaseEncoding.base64().encode(body == null ? new byte[0] : body);
+      exchange.mNetworkTimeMillis = networkTimeMillis;
+      return exchange;
+    }
+
+    /**
+     * Creates an exchange that failed without a response.
+     * @param method The request method, one of {@link com.android.volley.Request.Method}.
+     * @param url The request URL.
+     * @param requestBody The request body, or null if there was none.
+     * @param failure The failure: {@link #FAILURE_TIMEOUT}, {@link #FAILURE_NO_CONNECTION} or
+     * {@link #FAILURE_NETWORK}.
+     * @param elapsedMillis The time the whole exchange took, in milliseconds.
+     * @return The exchange.
+     */
+    public static Exchange failure(
+        int method,
+        String url,
+        byte[] requestBody,
+        String failure,
+        long elapsedMillis) {
+      final Exchange exchange = request(method, url, requestBody, elapsedMillis);
+      exchange.mFailure = failure;
+      return exchange;
+    }
+
+    private static Exchange request(int method, String url, byte[] requestBody, long elapsed) {
+      final Exchange exchange = new Exchange();
+      exchange.mMethod = method;
+      exchange.mUrl = url;
+      exchange.mRequestBodyHash = hash(requestBody);
+      exchange.mElapsedMillis = elapsed;
+      return exchange;
+    }
+
+    /**
+     * Returns the request method.
+     * @return The request method, one of {@link com.android.volley.Request.Method}.
+     */
+    public int getMethod() {
+      return mMethod;
+    }
+
+    /**
+     * Returns the request URL.
+     * @return The request URL.
+     */
+    public String getUrl() {
+      return mUrl;
+    }
+
+    /**
+     * Returns the HTTP status code.
+     * @return The HTTP status code, or 0 for a failure.
+     */
+    public int getStatus() {
+      return mStatus;
+    }
+
+    /**
+     * Returns the response headers.
+     * @return The response headers, or an empty map for a failure.
+     */
+    public Map<String, String> getHeaders() {
+      return (mHeaders == null ?
+          Collections.<String, String>emptyMap() :
+          Collections.unmodifiableMap(mHeaders));
+    }
+
+    /**
+     * Returns the response body.
+     * @return The decoded response body, or null for a failure.
+     */
+    public byte[] getBody() {
+      return (mBody == null ? null : BaseEncoding.base64().decode(mBody));
+    }
+
+    /**
+     * Returns the failure.
+     * @return The failure, or null if there was a response.
+     */
+    public String getFailure() {
+      return mFailure;
+    }
+
+    /**
+     * Returns whether the exchange failed without a response.
+     * @return Whether the exchange failed.
+     */
+    public boolean isFailure() {
+      return mFailure != null;
+    }
+
+    /**
+     * Returns the time the whole exchange took, retries included.
+     * @return The time, in milliseconds.
+     */
+    public long getElapsedMillis() {
+      return mElapsedMillis;
+    }
+
+    /**
+     * Returns the network time of the response as reported by Volley.
+     * @return The time, in milliseconds.
+     */
+    public long getNetworkTimeMillis() {
+      return mNetworkTimeMillis;
+    }
+
+    /**
+     * Returns how long a replay of this exchange should take.
+     * @param latencyScale The factor to scale the recorded time by: 1 replays the recorded
+     * latency, 0 replays instantly.
+     * @return The delay, in milliseconds.
+     */
+    public long getReplayDelayMillis(float latencyScale) {
+      return Math.max(0L, Math.round(mElapsedMillis * (double) latencyScale));
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d %s -> %s (%d ms)",
+          mMethod,
+          mUrl,
+          mFailure == null ? String.valueOf(mStatus) : mFailure,
+          mElapsedMillis);
+    }
+  }
+
+  /**
+   * The top-level object of a cassette file.
+   */
+  private static final class Document {
+
+    @SerializedName("version")
+    private int mVersion;
+
+    @SerializedName("exchanges")
+    private List<Exchange> mExchanges;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A {@link Network} that records every exchange that passes through it to an
+ * {@link HttpCassette}, including how long it took. It sits on top of the network that actually
+ * performs the requests, so exchanges are recorded as the request queue sees them: after
+ * retries, with the final response or failure.
+ * </p>
+ *
+ * <p>
+ * Use {@link VolleyManager#recordTo(HttpCassette)} to record an app's traffic, then save the
+ * cassette and serve it back with a {@link ReplayNetwork}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class RecordingNetwork implements Network {
+
+  /**
+   * The network that performs the requests.
+   */
+  private final Network mDelegate;
+
+  /**
+   * The cassette that exchanges are recorded to.
+   */
+  private final HttpCassette mCassette;
+
+  /**
+   * Creates a network that records the exchanges performed by another network.
+   * @param delegate The network that performs the requests.
+   * @param cassette The cassette that exchanges are recorded to.
+   */
+  public RecordingNetwork(Network delegate, HttpCassette cassette) {
+    mDelegate = delegate;
+    mCassette = cassette;
+  }
+
+  @Override
+  public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+    final byte[] requestBody = getBody(request);
+    final long startNanos = System.nanoTime();
+    try {
+      final NetworkResponse response = mDelegate.performRequest(request);
+      mCassette.record(newExchange(request, requestBody, response, startNanos));
+      return response;
+    } catch (VolleyError e) {
+      final NetworkResponse response = e.networkResponse;
+      if (response != null) {
+        mCassette.record(newExchange(request, requestBody, response, startNanos));
+      } else {
+        mCassette.record(HttpCassette.Exchange.failure(
+            request.getMethod(),
+            request.getUrl(),
+            requestBody,
+            failureOf(e),
+            elapsedMillis(startNanos)));
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the cassette that exchanges are recorded to.
+   * @return The cassette.
+   */
+  public HttpCassette getCassette() {
+    return mCassette;
+  }
+
+  private static HttpCassette.Exchange newExchange(
+      Request<?> request,
+      byte[] requestBody,
+      NetworkResponse response,
+      long startNanos) {
+    return HttpCassette.Exchange.response(
+        request.getMethod(),
+        request.getUrl(),
+        requestBody,
+        response.statusCode,
+        response.headers,
+        response.data,
+        elapsedMillis(startNanos),
+        response.networkTimeMs);
+  }
+
+  /**
+   * Returns the body of a request, for matching it on replay.
+   * @param request The request.
+   * @return The body, or null if it has none or cannot be built.
+   */
+  static byte[] getBody(Request<?> request) {
+    try {
+      return request.getBody();
+    } catch (AuthFailureError e) {
+      return null;
+    }
+  }
+
+  private static String failureOf(VolleyError error) {
+    if (error instanceof TimeoutError) {
+      return HttpCassette.FAILURE_TIMEOUT;
+    } else if (error instanceof NoConnectionError) {
+      return HttpCassette.FAILURE_NO_CONNECTION;
+    } else {
+      return HttpCassette.FAILURE_NETWORK;
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
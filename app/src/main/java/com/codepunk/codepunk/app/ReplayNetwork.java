@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * A {@link Network} that answers requests from an {@link HttpCassette} instead of the network,
+ * taking as long as the recorded exchange did (or a scaled version of it). Responses and
+ * failures are surfaced exactly as Volley's {@link com.android.volley.toolbox.BasicNetwork}
+ * surfaces them: 401 and 403 as {@link AuthFailureError}, other unsuccessful statuses as
+ * {@link ServerError}, and failures without a response as {@link TimeoutError},
+ * {@link NoConnectionError} or {@link NetworkError}.
+ * </p>
+ *
+ * <p>
+ * Flows that go through the request queue, such as signing in through
+ * {@link SessionManager} or {@code AccountAuthenticator}, can therefore be run deterministically
+ * and without a server, in tests and benchmarks alike. Requests that were not recorded fail
+ * with a {@link NoConnectionError}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ReplayNetwork implements Network {
+
+  /**
+   * The cassette that requests are answered from.
+   */
+  private final HttpCassette mCassette;
+
+  /**
+   * The factor recorded latencies are scaled by.
+   */
+  private final float mLatencyScale;
+
+  /**
+   * Creates a network that replays a cassette with the recorded latency.
+   * @param cassette The cassette that requests are answered from.
+   */
+  public ReplayNetwork(HttpCassette cassette) {
+    this(cassette, 1.0f);
+  }
+
+  /**
+   * Creates a network that replays a cassette with scaled latency.
+   * @param cassette The cassette that requests are answered from.
+   * @param latencyScale The factor recorded latencies are scaled by: 1 replays the recorded
+   * latency, 0 replays instantly.
+   */
+  public ReplayNetwork(HttpCassette cassette, float latencyScale) {
+    if (latencyScale < 0.0f) {
+      throw new IllegalArgumentException("latencyScale must not be negative");
+    }
+    mCassette = cassette;
+    mLatencyScale = latencyScale;
+  }
+
+  @Override
+  public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+    final HttpCassette.Exchange exchange = mCassette.play(
+        request.getMethod(), request.getUrl(), RecordingNetwork.getBody(request));
+    if (exchange == null) {
+      throw new NoConnectionError(
+          new IOException("No recording for " + request.getMethod() + " " + request.getUrl()));
+    }
+
+    final long delayMillis = exchange.getReplayDelayMillis(mLatencyScale);
+    if (delayMillis > 0L) {
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new TimeoutError();
+      }
+    }
+
+    if (exchange.isFailure()) {
+      final String failure = exchange.getFailure();
+      if (HttpCassette.FAILURE_TIMEOUT.equals(failure)) {
+        throw new TimeoutError();
+      } else if (HttpCassette.FAILURE_NO_CONNECTION.equals(failure)) {
+        throw new NoConnectionError(new IOException("Recorded " + failure));
+      } else {
+        throw new NetworkError(new IOException("Recorded " + failure));
+      }
+    }
+
+    // Volley looks headers up case-insensitively
+    final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    headers.putAll(exchange.getHeaders());
+    final int status = exchange.getStatus();
+    final NetworkResponse response = new NetworkResponse(
+        status,
+        exchange.getBody(),
+        headers,
+        status == HttpURLConnection.HTTP_NOT_MODIFIED,
+        Math.round(exchange.getNetworkTimeMillis() * (double) mLatencyScale));
+    if (status == HttpURLConnection.HTTP_UNAUTHORIZED
+        || status == HttpURLConnection.HTTP_FORBIDDEN) {
+      throw new AuthFailureError(response);
+    } else if ((status < 200 || status > 299) && status != HttpURLConnection.HTTP_NOT_MODIFIED) {
+      throw new ServerError(response);
+    }
+    return response;
+  }
+
+  /**
+   * Returns the cassette that requests are answered from.
+   * @return The cassette.
+   */
+  public HttpCassette getCassette() {
+    return mCassette;
+  }
+
+  /**
+   * Returns the factor recorded latencies are scaled by.
+   * @return The latency scale.
+   */
+  public float getLatencyScale() {
+    return mLatencyScale;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.accounts.Account;
+
+import com.codepunk.codepunk.model.User;
+
+/**
+ * <p>
+ * An immutable, live (i.e. authenticated) session for a single {@link Account}: the account, the
+ * auth token it was last authenticated or refreshed with, and the resulting {@link User}. Every
+ * Volley request made on the session's behalf is tagged with {@link #getRequestTag(Account)} so
+ * that those requests can be canceled together.
+ * </p>
+ *
+ * <p>
+ * {@link SessionManager} keeps one Session per authenticated account, which is what allows it to
+ * switch between accounts without going back to the network.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class Session {
+
+  /**
+   * Prefix of request tags.
+   */
+  private static final String REQUEST_TAG_PREFIX = "session:";
+
+  /**
+   * The authenticated account.
+   */
+  private final Account mAccount;
+
+  /**
+   * The auth token the account was last authenticated or refreshed with.
+   */
+  private final String mAuthToken;
+
+  /**
+   * The authenticated user.
+   */
+  private final User mUser;
+
+  /**
+   * Creates a session.
+   * @param account The authenticated account.
+   * @param authToken The auth token the account was authenticated with.
+   * @param user The authenticated user.
+   */
+  public Session(Account account, String authToken, User user) {
+    mAccount = account;
+    mAuthToken = authToken;
+    mUser = user;
+  }
+
+  /**
+   * Returns the tag applied to requests made on behalf of an account.
+   * @param account The account.
+   * @return The request tag.
+   */
+  public static String getRequestTag(Account account) {
+    return REQUEST_TAG_PREFIX + account.type + "/" + account.name;
+  }
+
+  /**
+   * Returns the authenticated account.
+   * @return The account.
+   */
+  public Account getAccount() {
+    return mAccount;
+  }
+
+  /**
+   * Returns the auth token the account was last authenticated or refreshed with. It may have
+   * been invalidated since; {@link SessionManager#refresh(android.content.Context)} replaces it.
+   * @return The auth token.
+   */
+  public String getAuthToken() {
+    return mAuthToken;
+  }
+
+  /**
+   * Returns the authenticated user.
+   * @return The user.
+   */
+  public User getUser() {
+    return mUser;
+  }
+}
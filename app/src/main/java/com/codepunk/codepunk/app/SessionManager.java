@@ -17,40 +17,63 @@
 package com.codepunk.codepunk.app;
 
 import com.google.android.gms.common.AccountPicker;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.accounts.AccountManagerCallback;
-import android.accounts.AccountManagerFuture;
-import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.os.Bundle;
-import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
 import android.support.v4.content.LocalBroadcastManager;
 import android.text.TextUtils;
 
-import com.android.volley.Response.ErrorListener;
-import com.android.volley.Response.Listener;
+import com.android.volley.AuthFailureError;
 import com.android.volley.VolleyError;
 import com.codepunk.codepunk.BuildConfig;
 import com.codepunk.codepunk.R;
+import com.codepunk.codepunk.api.ApiUserDelegate;
+import com.codepunk.codepunk.api.GsonRequest;
 import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.util.AccountIndex;
 import com.codepunk.codepunk.util.AccountManagerUtils;
+import com.codepunk.codepunk.util.UserStore;
+import com.codepunk.codepunk.util.VersionedEntityStore;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static android.accounts.AccountManager.KEY_ACCOUNT_NAME;
-import static android.accounts.AccountManager.KEY_AUTHTOKEN;
 import static android.app.Activity.RESULT_CANCELED;
 import static android.app.Activity.RESULT_OK;
-import static android.content.Context.MODE_PRIVATE;
 import static com.codepunk.codepunk.app.AppConstants.ACTION_SESSION_STATE_CHANGED;
 import static com.codepunk.codepunk.app.AppConstants.EXTRA_EXCEPTION;
 import static com.codepunk.codepunk.app.AppConstants.EXTRA_SESSION_STATE;
 import static com.codepunk.codepunk.app.AppConstants.KEY_SAVED_ACCOUNT_NAME;
+import static com.codepunk.codepunk.app.AppConstants.KEY_USER_ID;
 import static com.codepunk.codepunk.api.AuthTokenType.AUTH_TOKEN_TYPE_DEFAULT;
 
 /**
@@ -98,15 +121,26 @@ import static com.codepunk.codepunk.api.AuthTokenType.AUTH_TOKEN_TYPE_DEFAULT;
  * <code>EXTRA_SESSION_STATE</code>. Interested parties can set up a {@link LocalBroadcastManager}
  * and listen for <code>ACTION_SESSION_STATE_CHANGED</code> in order to react to the changes.
  * </p>
+ *
+ * <p>
+ * SessionManager can keep several accounts authenticated at once. Each authenticated account has
+ * a live {@link Session}; {@link SessionManager#addAccount(Activity)} authenticates another
+ * account and {@link SessionManager#switchSession(Context, String)} makes a live session the
+ * active one without any api calls. {@link SessionManager#addAccount(Context, Account)} does the
+ * same as addAccount(Activity) for an account that is already known, without any UI, and
+ * {@link SessionManager#refresh(Context)} brings the active session's user up to date, replacing
+ * its auth token if the api has stopped accepting it.
+ * </p>
+ *
+ * <p>
+ * Refreshing syncs a {@link VersionedEntityStore} kept for each account through a
+ * {@link SyncEngine}, so that only the entities that changed since the last refresh are
+ * downloaded, and takes the user from the store.
+ * </p>
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class SessionManager {
 
-  /**
-   * For singleton creation.
-   */
-  private static final Object sLock = new Object();
-
   /**
    * Base request code to avoid request code collision.
    */
@@ -118,10 +152,43 @@ public class SessionManager {
   private static final int REQUEST_CODE_CHOOSE_ACCOUNT = CODEPUNK + 1;
 
   /**
-   * The singleton instance.
+   * The states from which {@link #authenticate(Activity)} may begin authentication.
+   */
+  private static final Set<State> AUTHENTICATE_FROM_STATES =
+      EnumSet.of(State.INITIALIZED, State.NOT_AUTHENTICATED, State.ERROR);
+
+  /**
+   * The states from which {@link #addAccount(Activity)} may begin authenticating another account.
+   * Unlike {@link #AUTHENTICATE_FROM_STATES}, this includes {@link State#AUTHENTICATED}.
+   */
+  private static final Set<State> ADD_ACCOUNT_FROM_STATES = EnumSet.of(
+      State.INITIALIZED, State.AUTHENTICATED, State.NOT_AUTHENTICATED, State.ERROR);
+
+  /**
+   * The states from which {@link #switchSession(Context, String)} may switch sessions.
+   */
+  private static final Set<State> SWITCH_FROM_STATES =
+      EnumSet.of(State.AUTHENTICATED, State.NOT_AUTHENTICATED, State.ERROR);
+
+  /**
+   * The prefix of the database file names of the accounts' entity stores.
+   */
+  private static final String ENTITY_DATABASE_PREFIX = "entities_";
+
+  /**
+   * The prefix of the database file names of the user stores.
    */
-  @SuppressLint("StaticFieldLeak")
-  private static SessionManager sInstance;
+  private static final String USER_DATABASE_PREFIX = "users_";
+
+  /**
+   * The executor that syncs merge changes into the entity stores, and looks up users in the user
+   * stores, on.
+   */
+  private static final ExecutorService sStoreExecutor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("SessionManager-store")
+          .setDaemon(true)
+          .build());
 
   /**
    * The current {@link Environment}.
@@ -129,37 +196,69 @@ public class SessionManager {
   private Environment mEnvironment = BuildConfig.DEFAULT_ENVIRONMENT;
 
   /**
-   * The current session state.
+   * The prewarmer to pre-warm the api host of a new environment with, or null if it has not been
+   * created.
    */
-  private State mState = State.INITIALIZED;
+  private volatile ConnectionPrewarmer mConnectionPrewarmer;
 
   /**
-   * The currently-authenticated account.
+   * The session state machine, which holds the current state along with the current account and
+   * user.
    */
-  private Account mAccount;
+  private final SessionStateMachine<Account, User> mStateMachine = new SessionStateMachine<>();
 
   /**
-   * The currently-authenticated user.
+   * Live sessions keyed by account name, ordered from least to most recently active. Guarded by
+   * its own monitor.
    */
-  private User mUser;
+  private final LinkedHashMap<String, Session> mSessions = new LinkedHashMap<>();
 
   /**
    * Any AccountListener that is waiting for a call to
    * {@link SessionManager#onActivityResult(Activity, int, int, Intent)}.
    */
-  private AccountListener mWaitingAccountListener;
+  private final AtomicReference<AccountListener> mWaitingAccountListener =
+      new AtomicReference<>();
+
+  /**
+   * The auth token and user lookup currently in flight, if any, so that
+   * {@link #cancel(Context)} can cancel it.
+   */
+  private final AtomicReference<ListenableFuture<Session>> mPendingSession =
+      new AtomicReference<>();
+
+  /**
+   * The entity stores that have been opened, keyed by database file name. Guarded by its own
+   * monitor.
+   */
+  private final Map<String, VersionedEntityStore> mEntityStores = new HashMap<>();
+
+  /**
+   * The sync engines of the entity stores, keyed by database file name like
+   * {@link #mEntityStores}, so that a sync in progress is joined rather than started again.
+   * Guarded by its own monitor.
+   */
+  private final Map<String, EntitySync> mEntitySyncs = new HashMap<>();
 
   /**
-   * Returns a singleton SessionManager instance.
+   * The user stores that have been opened, keyed by database file name. Guarded by its own
+   * monitor.
+   */
+  private final Map<String, UserStore> mUserStores = new HashMap<>();
+
+  /**
+   * Constructor. The singleton instance is created by {@link AppModule}; use
+   * {@link #getInstance()} to get it.
+   */
+  SessionManager() {
+  }
+
+  /**
+   * Returns the singleton SessionManager instance from the app's {@link AppComponent}.
    * @return A SessionManager instance.
    */
   public static SessionManager getInstance() {
-    synchronized (sLock) {
-      if (sInstance == null) {
-        sInstance = new SessionManager();
-      }
-      return sInstance;
-    }
+    return AppComponents.get().sessionManager();
   }
 
   /**
@@ -171,11 +270,25 @@ public class SessionManager {
   }
 
   /**
-   * Sets the current {@link Environment}.
+   * Sets the current {@link Environment} and pre-warms a connection to its api host.
    * @param environment The current environment.
    */
   public void setEnvironment(Environment environment) {
     mEnvironment = environment;
+    final ConnectionPrewarmer connectionPrewarmer = mConnectionPrewarmer;
+    if (connectionPrewarmer != null) {
+      connectionPrewarmer.prewarm(environment);
+    }
+  }
+
+  /**
+   * Sets the {@link ConnectionPrewarmer} that pre-warms a connection to the api host of each new
+   * {@link Environment}. {@link AppModule} sets it when it creates the prewarmer; until then,
+   * changing the environment pre-warms nothing.
+   * @param connectionPrewarmer The prewarmer.
+   */
+  void setConnectionPrewarmer(ConnectionPrewarmer connectionPrewarmer) {
+    mConnectionPrewarmer = connectionPrewarmer;
   }
 
   /**
@@ -183,35 +296,63 @@ public class SessionManager {
    * @return The current session state.
    */
   public State getState() {
-    return mState;
+    return mStateMachine.getState();
   }
 
   /**
-   * Sets the current session state.
+   * Returns a consistent snapshot of the session state along with the account and user that go
+   * with it.
+   * @return The current snapshot.
+   */
+  public SessionStateMachine.Snapshot<Account, User> getSnapshot() {
+    return mStateMachine.getSnapshot();
+  }
+
+  /**
+   * Announces a session state change that has already been made in the state machine.
    * @param context The {@link Context} to use to send a local broadcast.
-   * @param state The new state.
+   * @param snapshot The snapshot produced by the transition, or null if the transition was
+   *                 rejected (in which case nothing is sent).
    * @param src An optional {@link Intent} with extras that will be sent along with the local
    *            broadcast.
+   * @return True if the transition was made and a broadcast was sent.
    */
-  private void setState(Context context, State state, Intent src) {
-    if (mState != state) {
-      mState = state;
-      Intent intent = new Intent(ACTION_SESSION_STATE_CHANGED);
-      intent.putExtra(EXTRA_SESSION_STATE, state);
-      if (src != null) {
-        intent.putExtras(src);
-      }
-      LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+  private boolean onStateChanged(
+      Context context,
+      SessionStateMachine.Snapshot<Account, User> snapshot,
+      Intent src) {
+    if (snapshot == null) {
+      return false;
+    }
+    final State state = snapshot.getState();
+    Intent intent = new Intent(ACTION_SESSION_STATE_CHANGED);
+    intent.putExtra(EXTRA_SESSION_STATE, state);
+    if (src != null) {
+      intent.putExtras(src);
     }
+    LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    switch (state) {
+      case AUTHENTICATED:
+      case NOT_AUTHENTICATED:
+      case ERROR:
+        StartupTracer.getInstance().finish("SessionManager." + state.name());
+        break;
+      default:
+    }
+    return true;
   }
 
   /**
-   * Sets the current session state.
+   * Announces a session state change that has already been made in the state machine.
    * @param context The {@link Context} to use to send a local broadcast.
-   * @param state The new state.
+   * @param snapshot The snapshot produced by the transition, or null if the transition was
+   *                 rejected (in which case nothing is sent).
+   * @return True if the transition was made and a broadcast was sent.
    */
-  private void setState(Context context, State state) {
-    setState(context, state, null);
+  private boolean onStateChanged(
+      Context context,
+      SessionStateMachine.Snapshot<Account, User> snapshot) {
+    return onStateChanged(context, snapshot, null);
   }
 
   /**
@@ -219,7 +360,7 @@ public class SessionManager {
    * @return The current account.
    */
   public Account getAccount() {
-    return mAccount;
+    return mStateMachine.getSnapshot().getAccount();
   }
 
   /**
@@ -227,7 +368,32 @@ public class SessionManager {
    * @return The currently-authenticated user.
    */
   public User getUser() {
-    return mUser;
+    return mStateMachine.getSnapshot().getUser();
+  }
+
+  /**
+   * Returns the live session of the currently-authenticated account.
+   * @return The current session, or null if the session state is not
+   * {@link State#AUTHENTICATED}.
+   */
+  public Session getSession() {
+    final SessionStateMachine.Snapshot<Account, User> snapshot = mStateMachine.getSnapshot();
+    if (snapshot.getState() != State.AUTHENTICATED) {
+      return null;
+    }
+    synchronized (mSessions) {
+      return mSessions.get(snapshot.getAccount().name);
+    }
+  }
+
+  /**
+   * Returns every live session, ordered from least to most recently active.
+   * @return The live sessions.
+   */
+  public List<Session> getSessions() {
+    synchronized (mSessions) {
+      return new ArrayList<>(mSessions.values());
+    }
   }
 
   /**
@@ -237,80 +403,519 @@ public class SessionManager {
    *                 dialog and/or an authenticator activity.
    */
   public void authenticate(final Activity activity) {
-    if (mState != State.INITIALIZED && mState != State.NOT_AUTHENTICATED) {
+    StartupTracer.beginSection("SessionManager.authenticate");
+    try {
+      if (!onStateChanged(
+          activity,
+          mStateMachine.transition(AUTHENTICATE_FROM_STATES, State.AUTHENTICATING, null, null))) {
+        return;
+      }
+
+      final String accountName = SessionStore.getInstance(activity)
+          .get(mEnvironment)
+          .getString(KEY_SAVED_ACCOUNT_NAME, null);
+      final String accountType = activity.getString(R.string.authenticator_account_type);
+      final Account account =
+          TextUtils.isEmpty(accountName) ?
+              null :
+              AccountIndex.getInstance(activity).getAccount(accountName, accountType);
+      final AccountListener listener = new AccountListener(activity);
+      if (account ==  null) {
+        chooseAccount(activity, listener);
+      } else {
+        listener.onAccount(account);
+      }
+    } finally {
+      StartupTracer.endSection();
+    }
+  }
+
+  /**
+   * Authenticates an additional account while keeping any existing sessions alive. This always
+   * shows the account picker dialog. If the process is canceled, the previously-active session
+   * (if any) becomes active again. Nothing happens if an authentication is already in progress.
+   * @param activity An {@link Activity} that will be used to show an account picker dialog and/or
+   *                 an authenticator activity.
+   */
+  public void addAccount(final Activity activity) {
+    if (!onStateChanged(
+        activity,
+        mStateMachine.transition(ADD_ACCOUNT_FROM_STATES, State.AUTHENTICATING, null, null))) {
       return;
     }
+    chooseAccount(activity, new AccountListener(activity));
+  }
+
+  /**
+   * Authenticates an additional, already-known account while keeping any existing sessions
+   * alive, without showing any UI. If the account needs the user to log in, authentication fails
+   * instead of showing the authenticator activity. The account is only saved as the one to use
+   * the next time the app authenticates once it has authenticated; if authentication fails, the
+   * most recently active live session becomes active again, as if it had been canceled.
+   * @param context The {@link Context} to use to get the auth token and send local broadcasts.
+   * @param account The account to authenticate.
+   * @return A {@link ListenableFuture} that completes with the new session once it is the active
+   * session. It fails with an {@link IllegalStateException} if an authentication is already in
+   * progress, fails with the error encountered if authentication fails, and is canceled if
+   * authentication is canceled or superseded by another one.
+   */
+  public ListenableFuture<Session> addAccount(Context context, Account account) {
+    if (!onStateChanged(
+        context,
+        mStateMachine.transition(ADD_ACCOUNT_FROM_STATES, State.AUTHENTICATING, null, null))) {
+      return Futures.immediateFailedFuture(
+          new IllegalStateException("An authentication is already in progress"));
+    }
+    final SettableFuture<Session> result = SettableFuture.create();
+    new AccountListener(context, null, true, result).onAccount(account);
+    return result;
+  }
+
+  /**
+   * Syncs the active session's {@link #getEntityStore(Context, Account) entity store} and
+   * replaces the session with one holding the user as it now stands in the store. If the store
+   * does not hold the user, it is fetched from the api instead. The session's auth token is used
+   * first; if the api rejects it, it is invalidated, a new one is requested from the
+   * {@link AccountManager} (without showing any UI) and the sync is retried with that instead, so
+   * the replacement session carries the new token. The requests are tagged with the session's
+   * request tag, so {@link #invalidate(Context)} cancels them.
+   * @param context The {@link Context} to use to make api calls and send local broadcasts.
+   * @return A {@link ListenableFuture} that completes with the refreshed session. It fails with an
+   * {@link IllegalStateException} if there is no active session.
+   */
+  public ListenableFuture<Session> refresh(final Context context) {
+    final Session session = getSession();
+    if (session == null) {
+      return Futures.immediateFailedFuture(new IllegalStateException("No session is active"));
+    }
+    final Account account = session.getAccount();
+    final User user = session.getUser();
+    final ListenableFuture<Session> refreshed = Futures.catchingAsync(
+        syncSession(context, account, user, session.getAuthToken()),
+        VolleyError.class,
+        new AsyncFunction<VolleyError, Session>() {
+          @Override
+          public ListenableFuture<Session> apply(VolleyError error) throws VolleyError {
+            if (!isRejectedAuthToken(error)) {
+              throw error;
+            }
+            final AccountManager accountManager = AccountManager.get(context);
+            accountManager.invalidateAuthToken(account.type, session.getAuthToken());
+            final ListenableFuture<String> authTokenFuture =
+                AccountManagerUtils.getAuthTokenFuture(
+                    accountManager,
+                    account,
+                    AUTH_TOKEN_TYPE_DEFAULT.getString(),
+                    null,
+                    null);
+            return Futures.transformAsync(authTokenFuture, new AsyncFunction<String, Session>() {
+              @Override
+              public ListenableFuture<Session> apply(String authToken) {
+                return syncSession(context, account, user, authToken);
+              }
+            });
+          }
+        });
+    return Futures.transform(refreshed, new Function<Session, Session>() {
+      @Override
+      public Session apply(Session replacement) {
+        replaceSession(context, session, replacement);
+        return replacement;
+      }
+    }, VolleyManager.getInstance(context).getMainThreadExecutor());
+  }
+
+  /**
+   * Returns whether an api error means that the auth token it was made with was rejected.
+   * @param error The error.
+   * @return True if the error, or the error it wraps, is an {@link AuthFailureError}.
+   */
+  private static boolean isRejectedAuthToken(VolleyError error) {
+    return error instanceof AuthFailureError || error.getCause() instanceof AuthFailureError;
+  }
+
+  /**
+   * Returns the store of the entities synced for an account in the current {@link Environment},
+   * opening it the first time.
+   * @param context The context to use to open the store's database.
+   * @param account The account.
+   * @return The store.
+   */
+  public VersionedEntityStore getEntityStore(Context context, Account account) {
+    final String name = getEntityDatabaseName(mEnvironment, account);
+    synchronized (mEntityStores) {
+      VersionedEntityStore store = mEntityStores.get(name);
+      if (store == null) {
+        store = new VersionedEntityStore(context, name);
+        mEntityStores.put(name, store);
+      }
+      return store;
+    }
+  }
+
+  /**
+   * Returns the engine that syncs an account's entity store in the current {@link Environment},
+   * creating it the first time, and makes its requests with an auth token from now on.
+   * @param context The context to use to get the {@link ApiManager} and the store.
+   * @param account The account.
+   * @param authToken The auth token.
+   * @return The sync engine.
+   */
+  private SyncEngine getSyncEngine(Context context, Account account, String authToken) {
+    final String name = getEntityDatabaseName(mEnvironment, account);
+    synchronized (mEntitySyncs) {
+      EntitySync sync = mEntitySyncs.get(name);
+      if (sync == null) {
+        sync = new EntitySync(
+            ApiManager.getInstance(context).getUserDelegate(),
+            Session.getRequestTag(account),
+            getEntityStore(context, account));
+        mEntitySyncs.put(name, sync);
+      }
+      sync.mAuthToken = authToken;
+      return sync.mEngine;
+    }
+  }
+
+  /**
+   * Returns the database file name of an account's entity store. The account name is hashed so
+   * that it does not appear in the file system.
+   * @param environment The environment.
+   * @param account The account.
+   * @return The file name.
+   */
+  static String getEntityDatabaseName(Environment environment, Account account) {
+    return ENTITY_DATABASE_PREFIX + environment.name().toLowerCase(Locale.US) + "_"
+        + Hashing.sha256().hashString(account.name, Charsets.UTF_8) + ".db";
+  }
+
+  /**
+   * Returns the store of the users seen in the current {@link Environment}, opening it the first
+   * time. User ids are only unique within an environment, so each one has its own store.
+   * @param context The context to use to open the store's database.
+   * @return The store.
+   */
+  public UserStore getUserStore(Context context) {
+    final String name = getUserDatabaseName(mEnvironment);
+    synchronized (mUserStores) {
+      UserStore store = mUserStores.get(name);
+      if (store == null) {
+        store = new UserStore(context, name);
+        mUserStores.put(name, store);
+      }
+      return store;
+    }
+  }
+
+  /**
+   * Returns the database file name of an environment's user store.
+   * @param environment The environment.
+   * @return The file name.
+   */
+  static String getUserDatabaseName(Environment environment) {
+    return USER_DATABASE_PREFIX + environment.name().toLowerCase(Locale.US) + ".db";
+  }
+
+  /**
+   * Looks up the user an account was last known to belong to in the {@link UserStore} and wraps
+   * it and an auth token in a new {@link Session}. If the account has no saved user id or the
+   * store does not hold the user, the session is made by {@link #fetchSession} instead.
+   * @param context The context to use to get the stores.
+   * @param account The account the auth token belongs to.
+   * @param authToken The auth token.
+   * @return A {@link ListenableFuture} that completes with the session.
+   */
+  private ListenableFuture<Session> lookUpSession(
+      final Context context,
+      final Account account,
+      final String authToken) {
+    final UserStore userStore = getUserStore(context);
+    final AccountManager accountManager = AccountManager.get(context);
+    final ListenableFuture<User> userFuture = MoreExecutors.listeningDecorator(sStoreExecutor)
+        .submit(new Callable<User>() {
+          @Override
+          public User call() {
+            final String userId = accountManager.getUserData(account, KEY_USER_ID);
+            return (userId == null ? null : userStore.getById(Integer.parseInt(userId)));
+          }
+        });
+    return Futures.transformAsync(userFuture, new AsyncFunction<User, Session>() {
+      @Override
+      public ListenableFuture<Session> apply(User user) {
+        if (user == null) {
+          return fetchSession(context, account, authToken);
+        }
+        return Futures.immediateFuture(new Session(account, authToken, user));
+      }
+    });
+  }
+
+  /**
+   * Syncs an account's entity store, or joins the sync already in progress, and wraps the user,
+   * as it now stands in the store, and the auth token in a new {@link Session}. The user is also
+   * saved to the {@link UserStore}. If the store does not hold the user, the session is made by
+   * {@link #fetchSession} instead.
+   * @param context The context to use to get the {@link ApiManager} and the store.
+   * @param account The account the auth token belongs to.
+   * @param user The user the account was last known to belong to.
+   * @param authToken The auth token.
+   * @return A {@link ListenableFuture} that completes with the session.
+   */
+  private ListenableFuture<Session> syncSession(
+      final Context context,
+      final Account account,
+      final User user,
+      final String authToken) {
+    final UserStore userStore = getUserStore(context);
+    final VersionedEntityStore store = getEntityStore(context, account);
+    final SyncEngine engine = getSyncEngine(context, account, authToken);
+    return Futures.transformAsync(engine.sync(), new AsyncFunction<Integer, Session>() {
+      @Override
+      public ListenableFuture<Session> apply(Integer changed) {
+        final JsonObject json = store.get(User.ENTITY_TYPE, String.valueOf(user.getId()));
+        if (json == null) {
+          return fetchSession(context, account, authToken);
+        }
+        final User synced = GsonRequest.fromJson(json, User.class);
+        userStore.put(synced);
+        return Futures.immediateFuture(new Session(account, authToken, synced));
+      }
+    }, sStoreExecutor);
+  }
+
+  /**
+   * Gets the user an auth token belongs to and wraps both in a new {@link Session}. The user is
+   * also saved to the {@link UserStore}, and its id to the account, so that the next session can
+   * be made by {@link #lookUpSession} without calling the api.
+   * @param context The context to use to get the {@link ApiManager} and the store.
+   * @param account The account the auth token belongs to.
+   * @param authToken The auth token.
+   * @return A {@link ListenableFuture} that completes with the session.
+   */
+  private ListenableFuture<Session> fetchSession(
+      Context context,
+      final Account account,
+      final String authToken) {
+    final UserStore userStore = getUserStore(context);
+    final AccountManager accountManager = AccountManager.get(context);
+    final ListenableFuture<User> userFuture = ApiManager.getInstance(context)
+        .getUserDelegate()
+        .getAuthenticatedUser(authToken, Session.getRequestTag(account));
+    return Futures.transform(userFuture, new Function<User, Session>() {
+      @Override
+      public Session apply(User user) {
+        // Queued for the store's writer thread; this does not block
+        userStore.put(user);
+        accountManager.setUserData(account, KEY_USER_ID, String.valueOf(user.getId()));
+        return new Session(account, authToken, user);
+      }
+    });
+  }
+
+  /**
+   * Replaces a live session with a refreshed one, keeping its place in the order, and replaces
+   * the current user if the session is the active one. Nothing happens if the session was
+   * invalidated or replaced in the meantime.
+   * @param context The {@link Context} to use to send a local broadcast.
+   * @param current The session that was refreshed.
+   * @param replacement The refreshed session.
+   */
+  private void replaceSession(Context context, Session current, Session replacement) {
+    final Account account = current.getAccount();
+    synchronized (mSessions) {
+      if (mSessions.get(account.name) != current) {
+        return;
+      }
+      mSessions.put(account.name, replacement);
+    }
+    final SessionStateMachine.Snapshot<Account, User> snapshot = mStateMachine.getSnapshot();
+    if (snapshot.getState() == State.AUTHENTICATED && account.equals(snapshot.getAccount())) {
+      onStateChanged(
+          context,
+          mStateMachine.compareAndSet(
+              snapshot,
+              State.AUTHENTICATED,
+              account,
+              replacement.getUser()));
+    }
+  }
+
+  /**
+   * Switches to the live session of another account. This takes effect immediately and makes no
+   * api calls.
+   * @param context The {@link Context} to use to send a local broadcast.
+   * @param accountName The name of the account to switch to.
+   * @return True if the account had a live session and is now the active session.
+   */
+  public boolean switchSession(Context context, String accountName) {
+    final Session session;
+    synchronized (mSessions) {
+      session = mSessions.get(accountName);
+    }
+    if (session == null) {
+      return false;
+    }
+    if (!onStateChanged(
+        context,
+        mStateMachine.transition(
+            SWITCH_FROM_STATES,
+            State.AUTHENTICATED,
+            session.getAccount(),
+            session.getUser()))) {
+      return false;
+    }
+    markActive(session);
+    saveAccountName(context, accountName);
+    return true;
+  }
 
-    setState(activity, State.AUTHENTICATING);
-    final SharedPreferences sharedPreferences =
-        activity.getSharedPreferences(mEnvironment.name(), MODE_PRIVATE);
-    final String accountName = sharedPreferences.getString(KEY_SAVED_ACCOUNT_NAME, null);
-    final String accountType = activity.getString(R.string.authenticator_account_type);
-    final Account account =
-        TextUtils.isEmpty(accountName) ?
-            null :
-            AccountManagerUtils.getAccountByNameAndType(
-                AccountManager.get(activity),
-                accountName,
-                accountType);
-    final AccountListener listener = new AccountListener(activity);
-    if (account ==  null) {
-      mWaitingAccountListener = listener;
-      Intent intent = AccountPicker.newChooseAccountIntent(
-          null /* selectedAccount */,
-          null /* allowableAccounts */,
-          new String[]{ accountType },
-          true,
-          null /* descriptionOverrideText */,
-          AUTH_TOKEN_TYPE_DEFAULT.getString(),
-          null /* addAccountRequiredFeatures */,
-          null /* addAccountOptions */);
-      activity.startActivityForResult(intent, REQUEST_CODE_CHOOSE_ACCOUNT);
-    } else {
-      listener.onAccount(account);
-    }
-  }
-
-  /**
-   * Invalidates any currently-authenticated account and user and returns the session state
-   * to {@link State#NOT_AUTHENTICATED}.
-   * @param removeSavedAccountName Whether to clear the selected account name from the app's
-   *                               SharedPreferences.
+  /**
+   * Shows the account picker dialog.
+   * @param activity The activity that will receive the result.
+   * @param listener The listener that will be notified of the result.
+   */
+  private void chooseAccount(Activity activity, AccountListener listener) {
+    mWaitingAccountListener.set(listener);
+    Intent intent = AccountPicker.newChooseAccountIntent(
+        null /* selectedAccount */,
+        null /* allowableAccounts */,
+        new String[]{ activity.getString(R.string.authenticator_account_type) },
+        true,
+        null /* descriptionOverrideText */,
+        AUTH_TOKEN_TYPE_DEFAULT.getString(),
+        null /* addAccountRequiredFeatures */,
+        null /* addAccountOptions */);
+    activity.startActivityForResult(intent, REQUEST_CODE_CHOOSE_ACCOUNT);
+  }
+
+  /**
+   * Marks a session as the most recently active one.
+   * @param session The session.
+   */
+  private void markActive(Session session) {
+    synchronized (mSessions) {
+      final String accountName = session.getAccount().name;
+      mSessions.remove(accountName);
+      mSessions.put(accountName, session);
+    }
+  }
+
+  /**
+   * Returns the most recently active live session.
+   * @return The session, or null if there are no live sessions.
+   */
+  private Session getMostRecentSession() {
+    synchronized (mSessions) {
+      Session session = null;
+      for (Session value : mSessions.values()) {
+        session = value;
+      }
+      return session;
+    }
+  }
+
+  /**
+   * Returns to the most recently active live session, or to {@link State#NOT_AUTHENTICATED} if
+   * there is none.
+   * @param context The {@link Context} to use to send a local broadcast.
+   * @param from The state the session must currently be in.
+   * @return True if the transition was made.
+   */
+  private boolean fallBack(Context context, State from) {
+    final Session session = getMostRecentSession();
+    final SessionStateMachine.Snapshot<Account, User> snapshot = (session == null ?
+        mStateMachine.transition(from, State.NOT_AUTHENTICATED, null, null) :
+        mStateMachine.transition(
+            from,
+            State.AUTHENTICATED,
+            session.getAccount(),
+            session.getUser()));
+    if (snapshot != null && session != null) {
+      saveAccountName(context, session.getAccount().name);
+    }
+    return onStateChanged(context, snapshot);
+  }
+
+  /**
+   * Saves the name of the active account so that it is used the next time the app authenticates.
+   * @param context The context to use to get the {@link SessionStore}.
+   * @param accountName The account name, or null to clear it.
+   */
+  private void saveAccountName(Context context, String accountName) {
+    SessionStore.getInstance(context)
+        .get(mEnvironment)
+        .putString(KEY_SAVED_ACCOUNT_NAME, accountName);
+  }
+
+  /**
+   * Invalidates the currently-authenticated account and user and cancels any requests still in
+   * flight on their behalf. If another session is live, it becomes the active session;
+   * otherwise the session state returns to {@link State#NOT_AUTHENTICATED}.
+   * @param removeSavedAccountName Whether to clear the selected account name from the
+   *                               {@link SessionStore} when no other session is live.
    */
   public void invalidate(Context context, boolean removeSavedAccountName) {
-    if (mState != State.AUTHENTICATED) {
+    final SessionStateMachine.Snapshot<Account, User> current = mStateMachine.getSnapshot();
+    if (current.getState() != State.AUTHENTICATED) {
+      return;
+    }
+    final Account account = current.getAccount();
+    Session fallback = null;
+    synchronized (mSessions) {
+      for (Session session : mSessions.values()) {
+        if (!session.getAccount().equals(account)) {
+          fallback = session;
+        }
+      }
+    }
+
+    final SessionStateMachine.Snapshot<Account, User> snapshot = (fallback == null ?
+        mStateMachine.compareAndSet(current, State.NOT_AUTHENTICATED, null, null) :
+        mStateMachine.compareAndSet(
+            current,
+            State.AUTHENTICATED,
+            fallback.getAccount(),
+            fallback.getUser()));
+    if (snapshot == null) {
       return;
     }
 
-    if (removeSavedAccountName) {
-      final SharedPreferences sharedPreferences =
-          context.getSharedPreferences(mEnvironment.name(), MODE_PRIVATE);
-      SharedPreferences.Editor editor = sharedPreferences.edit();
-      editor.remove(KEY_SAVED_ACCOUNT_NAME);
-      editor.apply();
+    synchronized (mSessions) {
+      mSessions.remove(account.name);
+    }
+    VolleyManager.getInstance(context).cancelAll(Session.getRequestTag(account));
+    if (fallback != null) {
+      saveAccountName(context, fallback.getAccount().name);
+    } else if (removeSavedAccountName) {
+      saveAccountName(context, null);
     }
 
-    mAccount = null;
-    mUser = null;
-    setState(context, State.NOT_AUTHENTICATED);
+    onStateChanged(context, snapshot);
   }
 
   /**
-   * Invalidates any currently-authenticated account and user and returns the session state
-   * to {@link State#NOT_AUTHENTICATED}.
+   * Invalidates the currently-authenticated account and user. If another session is live, it
+   * becomes the active session; otherwise the session state returns to
+   * {@link State#NOT_AUTHENTICATED}.
    */
   public void invalidate(Context context) {
     invalidate(context, true);
   }
 
   /**
-   * Cancels any authentication that is currently in process.
+   * Cancels any authentication that is currently in process. Any auth token or user request
+   * that is still in flight is canceled as well.
    */
   public void cancel(Context context) {
-    if (mState != State.AUTHENTICATING) {
+    if (!onStateChanged(
+        context,
+        mStateMachine.transition(State.AUTHENTICATING, State.CANCELING))) {
       return;
     }
-    setState(context, State.CANCELING);
+    final ListenableFuture<Session> pending = mPendingSession.getAndSet(null);
+    if (pending != null) {
+      pending.cancel(true);
+    }
   }
 
   /**
@@ -331,28 +936,27 @@ public class SessionManager {
     switch (requestCode) {
       case REQUEST_CODE_CHOOSE_ACCOUNT:
         switch (resultCode) {
-          case RESULT_CANCELED:
-            if (mWaitingAccountListener != null) {
-              mWaitingAccountListener.onAccountCanceled();
+          case RESULT_CANCELED: {
+            final AccountListener listener = mWaitingAccountListener.getAndSet(null);
+            if (listener != null) {
+              listener.onAccountCanceled();
             }
             break;
+          }
           case RESULT_OK:
           default:
             String accountName = data.getStringExtra(KEY_ACCOUNT_NAME);
-            SharedPreferences sharedPreferences =
-                activity.getSharedPreferences(mEnvironment.name(), MODE_PRIVATE);
-            SharedPreferences.Editor editor = sharedPreferences.edit();
-            editor.putString(KEY_SAVED_ACCOUNT_NAME, accountName);
-            editor.apply();
+            saveAccountName(activity, accountName);
             Account account =
                 TextUtils.isEmpty(accountName) ?
                     null :
-                    AccountManagerUtils.getAccountByNameAndType(
-                        AccountManager.get(activity),
+                    // The picker may have just added this account
+                    AccountIndex.getInstance(activity).getAccountOrRefresh(
                         accountName,
                         activity.getString(R.string.authenticator_account_type));
-            if (mWaitingAccountListener != null) {
-              mWaitingAccountListener.onAccount(account);
+            final AccountListener listener = mWaitingAccountListener.getAndSet(null);
+            if (listener != null) {
+              listener.onAccount(account);
             }
         }
         break;
@@ -370,26 +974,56 @@ public class SessionManager {
     Context mContext;
 
     /**
-     * Constructor that takes a {@link Context}.
+     * A future to complete with the outcome of authentication, or null.
+     */
+    final SettableFuture<Session> mResult;
+
+    /**
+     * Constructor that takes a {@link Context} and a future to complete.
      * @param context The context to use for setting state.
+     * @param result A future to complete with the outcome of authentication, or null.
      */
-    private BaseSessionListener(Context context) {
+    private BaseSessionListener(Context context, SettableFuture<Session> result) {
       mContext = context;
+      mResult = result;
+    }
+
+    /**
+     * Cancels the future to complete, if any, because authentication stopped without a result.
+     */
+    void cancelResult() {
+      if (mResult != null) {
+        mResult.cancel(false);
+      }
     }
 
     /**
-     * Convenience method that clears authenticated information and sets the state to
-     * {@link State#NOT_AUTHENTICATED}.
-     * @return True if the state was {@link State#CANCELING} and false otherwise.
+     * Convenience method that returns to the most recently active live session (or clears
+     * authenticated information and sets the state to {@link State#NOT_AUTHENTICATED} if there
+     * is none) if authentication is being canceled.
+     * @return True if authentication should stop, either because the state was
+     * {@link State#CANCELING} or because the session is no longer authenticating at all (i.e.
+     * another thread has already finished or canceled it), and false otherwise.
      */
     boolean stopIfCanceling() {
-      if (mState == State.CANCELING) {
-        mAccount = null;
-        mUser = null;
-        setState(mContext, State.NOT_AUTHENTICATED);
+      if (fallBack(mContext, State.CANCELING)) {
         return true;
       }
-      return false;
+      return mStateMachine.getState() != State.AUTHENTICATING;
+    }
+
+    /**
+     * Convenience method that sets the state to {@link State#ERROR}, unless authentication is
+     * being canceled.
+     * @param intent An {@link Intent} with extras describing the error.
+     */
+    void onError(Intent intent) {
+      if (!onStateChanged(
+          mContext,
+          mStateMachine.transition(State.AUTHENTICATING, State.ERROR),
+          intent)) {
+        stopIfCanceling();
+      }
     }
   }
 
@@ -401,7 +1035,8 @@ public class SessionManager {
       extends BaseSessionListener {
 
     /**
-     * An activity to use to get the authorization token from {@link AccountManager}.
+     * An activity to use to get the authorization token from {@link AccountManager}, or null to
+     * fail rather than prompt the user for credentials.
      */
     private Activity mActivity;
 
@@ -411,9 +1046,10 @@ public class SessionManager {
     private AccountManager mAccountManager;
 
     /**
-     * {@link SessionAccountManagerCallback} instance.
+     * Whether the account is being added alongside the live sessions by
+     * {@link #addAccount(Context, Account)}.
      */
-    private SessionAccountManagerCallback mAccountManagerCallback;
+    private final boolean mAddingAccount;
 
     /**
      * Simple constructor that accepts an activity.
@@ -421,137 +1057,262 @@ public class SessionManager {
      *                 {@link AccountManager}.
      */
     private AccountListener(Activity activity) {
-      super(activity);
+      this(activity, activity, false, null);
+    }
+
+    /**
+     * Constructor that accepts a context, an optional activity and an optional future.
+     * @param context The context to use for setting state.
+     * @param activity An activity to use to get the authorization token from
+     *                 {@link AccountManager}, or null to fail rather than prompt the user for
+     *                 credentials.
+     * @param addingAccount Whether the account is being added alongside the live sessions.
+     * @param result A future to complete with the outcome of authentication, or null.
+     */
+    private AccountListener(
+        Context context,
+        Activity activity,
+        boolean addingAccount,
+        SettableFuture<Session> result) {
+      super(context, result);
       mActivity = activity;
-      mAccountManager = AccountManager.get(mActivity);
-      mAccountManagerCallback = new SessionAccountManagerCallback(activity);
+      mAddingAccount = addingAccount;
+      mAccountManager = AccountManager.get(context);
     }
 
     /**
-     * Processes a successful {@link Account} request.
+     * Processes a successful {@link Account} request by getting an authorization token for it
+     * and then the user it belongs to. The two calls are chained as futures, and the outcome is
+     * delivered to a {@link SessionCallback} on the main thread.
      * @param account An account to be used to get the authorization token.
      */
-    void onAccount(Account account) {
-      if (stopIfCanceling()) {
-        return;
+    void onAccount(final Account account) {
+      StartupTracer.beginSection("SessionManager.onAccount");
+      try {
+        if (stopIfCanceling()) {
+          cancelResult();
+          return;
+        }
+        if (mStateMachine.transition(State.AUTHENTICATING, State.AUTHENTICATING, account, null)
+            == null) {
+          stopIfCanceling();
+          cancelResult();
+          return;
+        }
+        final ListenableFuture<String> authTokenFuture = AccountManagerUtils.getAuthTokenFuture(
+            mAccountManager,
+            account,
+            AUTH_TOKEN_TYPE_DEFAULT.getString(),
+            mActivity,
+            null);
+        final ListenableFuture<Session> sessionFuture =
+            Futures.transformAsync(authTokenFuture, new SessionFunction(mContext, account));
+        final ListenableFuture<Session> previous = mPendingSession.getAndSet(sessionFuture);
+        if (previous != null) {
+          previous.cancel(true);
+        }
+        Futures.addCallback(
+            sessionFuture,
+            new SessionCallback(mContext, account, mAddingAccount, sessionFuture, mResult),
+            VolleyManager.getInstance(mContext).getMainThreadExecutor());
+      } finally {
+        StartupTracer.endSection();
       }
-      mAccount = account;
-      mAccountManager.getAuthToken(
-          account,
-          AUTH_TOKEN_TYPE_DEFAULT.getString(),
-          null /* options */,
-          mActivity,
-          mAccountManagerCallback,
-          null);
     }
 
     /**
      * Processes the user canceling the account picker dialog.
      */
     void onAccountCanceled() {
-      if (stopIfCanceling()) {
-        return;
+      StartupTracer.beginSection("SessionManager.onAccountCanceled");
+      try {
+        if (stopIfCanceling()) {
+          return;
+        }
+        if (!fallBack(mContext, State.AUTHENTICATING)) {
+          stopIfCanceling();
+        }
+      } finally {
+        StartupTracer.endSection();
       }
-      setState(mActivity, State.NOT_AUTHENTICATED);
     }
   }
 
   /**
-   * A class that processes the result of a call to
-   * {@link AccountManager#getAuthToken(Account, String, Bundle, Activity, AccountManagerCallback,
-   * Handler)}.
+   * An entity store's {@link SyncEngine}, along with the auth token its requests are made with.
+   * The token is replaced whenever a session is refreshed, while the engine is kept.
    */
-  private class SessionAccountManagerCallback
-      extends BaseSessionListener
-      implements AccountManagerCallback<Bundle> {
-    /**
-     * {@link ApiManager} instance.
-     */
-    private final ApiManager mApiManager;
+  private static class EntitySync implements Supplier<String> {
 
     /**
-     * {@link UserListener} instance.
+     * The sync engine.
      */
-    private final UserListener mUserListener;
+    private final SyncEngine mEngine;
 
     /**
-     * {@link UserErrorListener} instance.
+     * The auth token to make the engine's requests with.
      */
-    private final UserErrorListener mUserErrorListener;
+    private volatile String mAuthToken;
 
     /**
-     * Constructor that takes a {@link Context} and initializes listeners.
-     * @param context A
+     * Constructor that creates the sync engine.
+     * @param delegate The delegate to create the engine with.
+     * @param tag The tag to set on the engine's requests.
+     * @param store The store the engine keeps current.
      */
-    private SessionAccountManagerCallback(Context context) {
-      super(context);
-      mApiManager = ApiManager.getInstance(context);
-      mUserListener = new UserListener(context);
-      mUserErrorListener = new UserErrorListener(context);
+    private EntitySync(ApiUserDelegate delegate, Object tag, VersionedEntityStore store) {
+      mEngine = delegate.newSyncEngine(this, tag, store, sStoreExecutor);
     }
 
     @Override
-    public void run(AccountManagerFuture<Bundle> future) {
-      if (stopIfCanceling()) {
-        return;
-      }
-      try {
-        Bundle bundle = future.getResult();
-        String authToken = bundle.getString(KEY_AUTHTOKEN);
-        mApiManager.getUserDelegate()
-            .getAuthenticatedUser(
-                authToken,
-                mUserListener,
-                mUserErrorListener);
-      } catch (Exception e) {
-        Intent intent = new Intent();
-        intent.putExtra(EXTRA_EXCEPTION, e);
-        setState(mContext, State.ERROR, intent);
-      }
+    public String get() {
+      return mAuthToken;
     }
   }
 
   /**
-   * A class that processes a successfully-authenticated user.
+   * An {@link AsyncFunction} that turns an authorization token into a future {@link Session} by
+   * looking up the user it belongs to, first in the {@link UserStore} and then with the api.
    */
-  private class UserListener
-      extends BaseSessionListener
-      implements Listener<User> {
+  private class SessionFunction implements AsyncFunction<String, Session> {
+
+    /**
+     * The context to use to get the {@link ApiManager}.
+     */
+    private final Context mContext;
+
+    /**
+     * The account being authenticated.
+     */
+    private final Account mAccount;
 
-    UserListener(Context context) {
-      super(context);
+    /**
+     * Constructor that takes a {@link Context} and the account being authenticated.
+     * @param context The context to use to get the {@link ApiManager}.
+     * @param account The account being authenticated.
+     */
+    private SessionFunction(Context context, Account account) {
+      mContext = context;
+      mAccount = account;
     }
 
     @Override
-    public void onResponse(User user) {
-      if (stopIfCanceling()) {
-        return;
+    public ListenableFuture<Session> apply(String authToken) {
+      StartupTracer.beginSection("SessionManager.onAuthToken");
+      try {
+        return lookUpSession(mContext, mAccount, authToken);
+      } finally {
+        StartupTracer.endSection();
       }
-      mUser = user;
-      setState(mContext, State.AUTHENTICATED);
     }
   }
 
   /**
-   * A class that processes any error encountered while getting the authenticated user from the
-   * server.
+   * A class that processes the outcome of authenticating an account: either a new
+   * {@link Session}, or the error encountered while getting the authorization token or the
+   * authenticated user.
    */
-  private class UserErrorListener
+  private class SessionCallback
       extends BaseSessionListener
-      implements ErrorListener {
+      implements FutureCallback<Session> {
 
-    UserErrorListener(Context context) {
-      super(context);
+    /**
+     * The account being authenticated.
+     */
+    private final Account mAccount;
+
+    /**
+     * Whether the account is being added alongside the live sessions, in which case a failure
+     * returns to the most recently active one instead of setting the state to
+     * {@link State#ERROR}.
+     */
+    private final boolean mAddingAccount;
+
+    /**
+     * The future this callback is attached to.
+     */
+    private final ListenableFuture<Session> mFuture;
+
+    SessionCallback(
+        Context context,
+        Account account,
+        boolean addingAccount,
+        ListenableFuture<Session> future,
+        SettableFuture<Session> result) {
+      super(context, result);
+      mAccount = account;
+      mAddingAccount = addingAccount;
+      mFuture = future;
     }
 
     @Override
-    public void onErrorResponse(VolleyError error) {
-      if (stopIfCanceling()) {
-        return;
+    public void onSuccess(Session session) {
+      StartupTracer.beginSection("SessionManager.onUser");
+      try {
+        mPendingSession.compareAndSet(mFuture, null);
+        if (stopIfCanceling()) {
+          cancelResult();
+          return;
+        }
+        final SessionStateMachine.Snapshot<Account, User> snapshot = mStateMachine.getSnapshot();
+        if (!mAccount.equals(snapshot.getAccount())) {
+          // A different authentication has started since this one
+          cancelResult();
+          return;
+        }
+        final SessionStateMachine.Snapshot<Account, User> authenticated =
+            mStateMachine.compareAndSet(
+                snapshot,
+                State.AUTHENTICATED,
+                mAccount,
+                session.getUser());
+        if (authenticated == null) {
+          stopIfCanceling();
+          cancelResult();
+          return;
+        }
+        markActive(session);
+        if (mAddingAccount) {
+          saveAccountName(mContext, mAccount.name);
+        }
+        onStateChanged(mContext, authenticated);
+        if (mResult != null) {
+          mResult.set(session);
+        }
+      } finally {
+        StartupTracer.endSection();
+      }
+    }
+
+    @Override
+    public void onFailure(@NonNull Throwable t) {
+      StartupTracer.beginSection("SessionManager.onUserError");
+      try {
+        mPendingSession.compareAndSet(mFuture, null);
+        if (stopIfCanceling() || t instanceof CancellationException) {
+          cancelResult();
+          return;
+        }
+        if (!mAccount.equals(mStateMachine.getSnapshot().getAccount())) {
+          // A different authentication has started since this one
+          cancelResult();
+          return;
+        }
+        if (mAddingAccount) {
+          if (!fallBack(mContext, State.AUTHENTICATING)) {
+            stopIfCanceling();
+          }
+        } else {
+          Intent intent = new Intent();
+          intent.putExtra(EXTRA_EXCEPTION, t);
+          onError(intent);
+        }
+        if (mResult != null) {
+          mResult.setException(t);
+        }
+      } finally {
+        StartupTracer.endSection();
       }
-      Intent intent = new Intent();
-      intent.putExtra(EXTRA_EXCEPTION, error);
-      setState(mContext, State.ERROR, intent);
     }
   }
 
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.codepunk.codepunk.app.SessionManager.State;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codepunk.codepunk.app.SessionManager.State.AUTHENTICATED;
+import static com.codepunk.codepunk.app.SessionManager.State.AUTHENTICATING;
+import static com.codepunk.codepunk.app.SessionManager.State.CANCELING;
+import static com.codepunk.codepunk.app.SessionManager.State.ERROR;
+import static com.codepunk.codepunk.app.SessionManager.State.INITIALIZED;
+import static com.codepunk.codepunk.app.SessionManager.State.NOT_AUTHENTICATED;
+
+/**
+ * <p>
+ * A lock-free state machine for {@link SessionManager}. The session state and the account and
+ * user that go with it are held together in a single immutable {@link Snapshot}, which is
+ * replaced with an atomic compare-and-set. Readers therefore always see a state, account and user
+ * that belong together, and two threads can never both win the same transition (i.e. a cancel
+ * racing with a successful authentication).
+ * </p>
+ *
+ * <p>
+ * Transitions are checked against a fixed transition table; an illegal transition is rejected
+ * (without modifying anything) by returning null. The legal transitions are:
+ * </p>
+ * <pre>
+ * INITIALIZED       -&gt; AUTHENTICATING
+ * AUTHENTICATING    -&gt; AUTHENTICATING (to record the chosen account), AUTHENTICATED,
+ *                      CANCELING, NOT_AUTHENTICATED, ERROR
+ * AUTHENTICATED     -&gt; AUTHENTICATING (to add another account), AUTHENTICATED (to switch
+ *                      accounts), NOT_AUTHENTICATED
+ * CANCELING         -&gt; AUTHENTICATED (back to a live session), NOT_AUTHENTICATED
+ * NOT_AUTHENTICATED -&gt; AUTHENTICATING, AUTHENTICATED (to switch to a live session)
+ * ERROR             -&gt; AUTHENTICATING, AUTHENTICATED (to switch to a live session)
+ * </pre>
+ *
+ * <p>
+ * The account and user types are generic so that the state machine can be exercised without
+ * Android.
+ * </p>
+ * @param <A> The account type.
+ * @param <U> The user type.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SessionStateMachine<A, U> {
+
+  /**
+   * The transition table, mapping each state to the states it may move to.
+   */
+  private static final Map<State, EnumSet<State>> sTransitions = new EnumMap<>(State.class);
+
+  static {
+    sTransitions.put(INITIALIZED, EnumSet.of(AUTHENTICATING));
+    sTransitions.put(
+        AUTHENTICATING,
+        EnumSet.of(AUTHENTICATING, AUTHENTICATED, CANCELING, NOT_AUTHENTICATED, ERROR));
+    sTransitions.put(AUTHENTICATED, EnumSet.of(AUTHENTICATING, AUTHENTICATED, NOT_AUTHENTICATED));
+    sTransitions.put(CANCELING, EnumSet.of(AUTHENTICATED, NOT_AUTHENTICATED));
+    sTransitions.put(NOT_AUTHENTICATED, EnumSet.of(AUTHENTICATING, AUTHENTICATED));
+    sTransitions.put(ERROR, EnumSet.of(AUTHENTICATING, AUTHENTICATED));
+  }
+
+  /**
+   * The current snapshot.
+   */
+  private final AtomicReference<Snapshot<A, U>> mSnapshot;
+
+  /**
+   * Creates a state machine in the {@link State#INITIALIZED} state.
+   */
+  public SessionStateMachine() {
+    mSnapshot = new AtomicReference<>(new Snapshot<A, U>(0L, INITIALIZED, null, null));
+  }
+
+  /**
+   * Returns whether a transition is legal.
+   * @param from The current state.
+   * @param to The new state.
+   * @return True if the transition table allows moving from <code>from</code> to
+   * <code>to</code>.
+   */
+  public static boolean isLegalTransition(State from, State to) {
+    final EnumSet<State> targets = sTransitions.get(from);
+    return targets != null && targets.contains(to);
+  }
+
+  /**
+   * Returns a consistent snapshot of the state, account and user.
+   * @return The current snapshot.
+   */
+  public Snapshot<A, U> getSnapshot() {
+    return mSnapshot.get();
+  }
+
+  /**
+   * Returns the current state.
+   * @return The current state.
+   */
+  public State getState() {
+    return mSnapshot.get().mState;
+  }
+
+  /**
+   * Moves to a new state from whatever the current state is, if the transition is legal.
+   * @param to The new state.
+   * @param account The account that goes with the new state.
+   * @param user The user that goes with the new state.
+   * @return The new snapshot, or null if the transition from the current state is illegal.
+   */
+  public Snapshot<A, U> moveTo(State to, A account, U user) {
+    return update(null, null, to, false, account, user);
+  }
+
+  /**
+   * Moves from one state to another, keeping the current account and user.
+   * @param from The state the session must currently be in.
+   * @param to The new state.
+   * @return The new snapshot, or null if the session is not in <code>from</code> or the
+   * transition is illegal.
+   */
+  public Snapshot<A, U> transition(State from, State to) {
+    return update(null, EnumSet.of(from), to, true, null, null);
+  }
+
+  /**
+   * Moves from one state to another, replacing the account and user.
+   * @param from The state the session must currently be in.
+   * @param to The new state.
+   * @param account The account that goes with the new state.
+   * @param user The user that goes with the new state.
+   * @return The new snapshot, or null if the session is not in <code>from</code> or the
+   * transition is illegal.
+   */
+  public Snapshot<A, U> transition(State from, State to, A account, U user) {
+    return update(null, EnumSet.of(from), to, false, account, user);
+  }
+
+  /**
+   * Moves from any of a set of states to another, replacing the account and user.
+   * @param from The states the session may currently be in.
+   * @param to The new state.
+   * @param account The account that goes with the new state.
+   * @param user The user that goes with the new state.
+   * @return The new snapshot, or null if the session is not in one of the <code>from</code>
+   * states or the transition is illegal.
+   */
+  public Snapshot<A, U> transition(Set<State> from, State to, A account, U user) {
+    return update(null, from, to, false, account, user);
+  }
+
+  /**
+   * Moves from an exact snapshot to a new state. Fails if any other transition has happened
+   * since <code>expected</code> was read.
+   * @param expected The snapshot the session must currently be in.
+   * @param to The new state.
+   * @param account The account that goes with the new state.
+   * @param user The user that goes with the new state.
+   * @return The new snapshot, or null if the snapshot has changed or the transition is illegal.
+   */
+  public Snapshot<A, U> compareAndSet(Snapshot<A, U> expected, State to, A account, U user) {
+    return update(expected, null, to, false, account, user);
+  }
+
+  /**
+   * Replaces the current snapshot with the one that follows it, if the session is in one of the
+   * given states and the transition is legal.
+   * @param expected The snapshot the session must currently be in, or null to read the current
+   * snapshot and try again whenever another thread replaces it first.
+   * @param from The states the session may currently be in, or null to allow any state.
+   * @param to The new state.
+   * @param keep True to keep the current account and user, false to replace them.
+   * @param account The account that goes with the new state, if not kept.
+   * @param user The user that goes with the new state, if not kept.
+   * @return The new snapshot, or null if the session is not in one of the <code>from</code>
+   * states, the transition is illegal, or <code>expected</code> has been replaced.
+   */
+  private Snapshot<A, U> update(
+      Snapshot<A, U> expected, Set<State> from, State to, boolean keep, A account, U user) {
+    while (true) {
+      final Snapshot<A, U> current = (expected == null ? mSnapshot.get() : expected);
+      if ((from != null && !from.contains(current.mState))
+          || !isLegalTransition(current.mState, to)) {
+        return null;
+      }
+      final Snapshot<A, U> next = (keep
+          ? current.next(to, current.mAccount, current.mUser)
+          : current.next(to, account, user));
+      if (mSnapshot.compareAndSet(current, next)) {
+        return next;
+      } else if (expected != null) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * An immutable snapshot of the session.
+   * @param <A> The account type.
+   * @param <U> The user type.
+   */
+  public static final class Snapshot<A, U> {
+
+    /**
+     * The number of transitions that led to this snapshot.
+     */
+    private final long mVersion;
+
+    /**
+     * The session state.
+     */
+    private final State mState;
+
+    /**
+     * The account, if any.
+     */
+    private final A mAccount;
+
+    /**
+     * The user, if any.
+     */
+    private final U mUser;
+
+    private Snapshot(long version, State state, A account, U user) {
+      mVersion = version;
+      mState = state;
+      mAccount = account;
+      mUser = user;
+    }
+
+    /**
+     * Creates the snapshot that follows this one.
+     */
+    private Snapshot<A, U> next(State state, A account, U user) {
+      return new Snapshot<>(mVersion + 1, state, account, user);
+    }
+
+    /**
+     * Returns the number of transitions that led to this snapshot.
+     * @return The version.
+     */
+    public long getVersion() {
+      return mVersion;
+    }
+
+    /**
+     * Returns the session state.
+     * @return The state.
+     */
+    public State getState() {
+      return mState;
+    }
+
+    /**
+     * Returns the account that goes with the state.
+     * @return The account, or null if there is none.
+     */
+    public A getAccount() {
+      return mAccount;
+    }
+
+    /**
+     * Returns the user that goes with the state.
+     * @return The user, or null if there is none.
+     */
+    public U getUser() {
+      return mUser;
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot{version=" + mVersion + ", state=" + mState + ", account=" + mAccount
+          + ", user=" + mUser + "}";
+    }
+  }
+}
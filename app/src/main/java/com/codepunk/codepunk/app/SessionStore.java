@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.codepunk.codepunk.util.MappedKeyValueStore;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static android.content.Context.MODE_PRIVATE;
+
+/**
+ * <p>
+ * Holds the {@link MappedKeyValueStore} of session values (such as
+ * {@link AppConstants#KEY_SAVED_ACCOUNT_NAME}) for each {@link Environment}. These replace the
+ * per-environment {@link SharedPreferences} files that SessionManager used to read on the main
+ * thread; the first time a store is opened, the values of the matching SharedPreferences file
+ * are migrated into it and, once the store has written them, removed from the file.
+ * </p>
+ *
+ * <p>
+ * Call {@link #preload(Environment)} from {@link android.app.Application#onCreate()} so the store
+ * is loaded in the background by the time SessionManager first reads it.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SessionStore {
+
+  /**
+   * The directory the store logs are kept in.
+   */
+  private static final String DIR_NAME = "session";
+
+  /**
+   * The application context.
+   */
+  private final Context mAppContext;
+
+  /**
+   * The stores opened so far. Guarded by itself.
+   */
+  private final Map<Environment, MappedKeyValueStore> mStores = new EnumMap<>(Environment.class);
+
+  /**
+   * Runs store loads on a new background thread.
+   */
+  private final Executor mPreloadExecutor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      new Thread(command, "SessionStore-preload").start();
+    }
+  };
+
+  /**
+   * Constructor that accepts a {@link Context}. The singleton instance is created by
+   * {@link AppModule}; use {@link #getInstance(Context)} to get it.
+   * @param context The context to use to get the application context.
+   */
+  SessionStore(Context context) {
+    mAppContext = context.getApplicationContext();
+  }
+
+  /**
+   * Returns the singleton instance from the app's {@link AppComponent}.
+   * @param context Unused; the instance is bound to the application context.
+   * @return The singleton instance.
+   */
+  public static SessionStore getInstance(Context context) {
+    return AppComponents.get().sessionStore();
+  }
+
+  /**
+   * Returns the store for an environment. The store loads itself on first access if it hasn't
+   * been preloaded.
+   * @param environment The environment.
+   * @return The store.
+   */
+  public MappedKeyValueStore get(final Environment environment) {
+    synchronized (mStores) {
+      MappedKeyValueStore store = mStores.get(environment);
+      if (store == null) {
+        final File dir = mAppContext.getDir(DIR_NAME, MODE_PRIVATE);
+        store = new MappedKeyValueStore(
+            new File(dir, environment.name() + ".log"),
+            new SharedPreferencesMigration(environment.name()));
+        mStores.put(environment, store);
+      }
+      return store;
+    }
+  }
+
+  /**
+   * Starts loading the store for an environment on a background thread.
+   * @param environment The environment.
+   */
+  public void preload(Environment environment) {
+    get(environment).preload(mPreloadExecutor);
+  }
+
+  /**
+   * Copies the values out of a SharedPreferences file, then removes them from it once the store
+   * has written them. Strings are copied as they are and numbers and booleans as their string
+   * representation ({@link String#valueOf(Object)}), which the store has no other way to hold.
+   * String sets have no string representation, so they are left in the file.
+   */
+  private class SharedPreferencesMigration implements MappedKeyValueStore.Migration {
+
+    /**
+     * The name of the SharedPreferences file.
+     */
+    private final String mName;
+
+    SharedPreferencesMigration(String name) {
+      mName = name;
+    }
+
+    @Override
+    public Map<String, String> migrate() {
+      final SharedPreferences sharedPreferences =
+          mAppContext.getSharedPreferences(mName, MODE_PRIVATE);
+      final Map<String, String> values = new HashMap<>();
+      for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+        final Object value = entry.getValue();
+        if (value instanceof String) {
+          values.put(entry.getKey(), (String) value);
+        } else if (value instanceof Number || value instanceof Boolean) {
+          values.put(entry.getKey(), String.valueOf(value));
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public void onMigrated(Map<String, String> values) {
+      if (values.isEmpty()) {
+        return;
+      }
+      final SharedPreferences.Editor editor =
+          mAppContext.getSharedPreferences(mName, MODE_PRIVATE).edit();
+      for (String key : values.keySet()) {
+        editor.remove(key);
+      }
+      editor.apply();
+    }
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <p>
+ * A per-launch startup report built by {@link StartupTracer}. Contains every traced phase (with
+ * its thread and its offset from the start of the launch), the total time spent in top-level
+ * phases on the main thread, and the critical path to the milestone that ended the launch.
+ * </p>
+ *
+ * <p>
+ * The critical path is reconstructed from timing alone: starting at the milestone, it repeatedly
+ * selects the top-level phase that finished last before the current point, then continues from
+ * that phase's start. Gaps between phases on the path are time in which nothing traced was
+ * running (i.e. waiting on the network or on IPC).
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StartupReport {
+
+  /**
+   * Gson instance used to serialize reports.
+   */
+  private static final Gson sGson = new GsonBuilder().setPrettyPrinting().create();
+
+  /**
+   * Number of nanoseconds per millisecond.
+   */
+  private static final double NANOS_PER_MILLI = 1000000.0d;
+
+  /**
+   * The milestone that ended the launch (i.e. "SessionManager.AUTHENTICATED").
+   */
+  @SerializedName("milestone")
+  private final String mMilestone;
+
+  /**
+   * Time from the start of the launch to the milestone, in milliseconds.
+   */
+  @SerializedName("total_ms")
+  private final double mTotalMillis;
+
+  /**
+   * Time spent in top-level phases on the main thread, in milliseconds.
+   */
+  @SerializedName("main_thread_ms")
+  private final double mMainThreadMillis;
+
+  /**
+   * Sum of the durations of the phases on the critical path, in milliseconds.
+   */
+  @SerializedName("critical_path_ms")
+  private final double mCriticalPathMillis;
+
+  /**
+   * The names of the phases on the critical path, in order.
+   */
+  @SerializedName("critical_path")
+  private final List<String> mCriticalPath;
+
+  /**
+   * Every traced phase, in start order.
+   */
+  @SerializedName("phases")
+  private final List<Phase> mPhases;
+
+  /**
+   * Private constructor. Use {@link #build(String, long, long, List)}.
+   */
+  private StartupReport(
+      String milestone,
+      double totalMillis,
+      double mainThreadMillis,
+      double criticalPathMillis,
+      List<String> criticalPath,
+      List<Phase> phases) {
+    mMilestone = milestone;
+    mTotalMillis = totalMillis;
+    mMainThreadMillis = mainThreadMillis;
+    mCriticalPathMillis = criticalPathMillis;
+    mCriticalPath = Collections.unmodifiableList(criticalPath);
+    mPhases = Collections.unmodifiableList(phases);
+  }
+
+  /**
+   * Builds a report from raw phases.
+   * @param milestone The milestone that ended the launch.
+   * @param originNanos The start of the launch, in {@link System#nanoTime()} units.
+   * @param milestoneNanos The time the milestone was reached.
+   * @param phases The traced phases. Their times are in {@link System#nanoTime()} units.
+   * @return The report.
+   */
+  public static StartupReport build(
+      String milestone,
+      long originNanos,
+      long milestoneNanos,
+      List<Phase> phases) {
+    final List<Phase> sorted = new ArrayList<>(phases);
+    Collections.sort(sorted, new Comparator<Phase>() {
+      @Override
+      public int compare(Phase lhs, Phase rhs) {
+        if (lhs.mStartNanos == rhs.mStartNanos) {
+          return 0;
+        }
+        return lhs.mStartNanos < rhs.mStartNanos ? -1 : 1;
+      }
+    });
+
+    long mainThreadNanos = 0L;
+    for (Phase phase : sorted) {
+      phase.setOrigin(originNanos);
+      if (phase.mMainThread && phase.mDepth == 0) {
+        mainThreadNanos += phase.getDurationNanos();
+      }
+    }
+
+    final List<String> criticalPath = new ArrayList<>();
+    long criticalPathNanos = 0L;
+    final boolean[] used = new boolean[sorted.size()];
+    long bound = milestoneNanos;
+    while (true) {
+      int best = -1;
+      for (int i = 0; i < sorted.size(); i++) {
+        final Phase phase = sorted.get(i);
+        if (!used[i] && phase.mDepth == 0 && phase.mEndNanos <= bound
+            && (best < 0 || phase.mEndNanos > sorted.get(best).mEndNanos)) {
+          best = i;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      used[best] = true;
+      final Phase phase = sorted.get(best);
+      criticalPath.add(phase.mName);
+      criticalPathNanos += phase.getDurationNanos();
+      bound = phase.mStartNanos;
+    }
+    Collections.reverse(criticalPath);
+
+    return new StartupReport(
+        milestone,
+        (milestoneNanos - originNanos) / NANOS_PER_MILLI,
+        mainThreadNanos / NANOS_PER_MILLI,
+        criticalPathNanos / NANOS_PER_MILLI,
+        criticalPath,
+        sorted);
+  }
+
+  /**
+   * Returns the milestone that ended the launch.
+   * @return The milestone.
+   */
+  public String getMilestone() {
+    return mMilestone;
+  }
+
+  /**
+   * Returns the time from the start of the launch to the milestone.
+   * @return The total time, in milliseconds.
+   */
+  public double getTotalMillis() {
+    return mTotalMillis;
+  }
+
+  /**
+   * Returns the time spent in top-level phases on the main thread.
+   * @return The main thread time, in milliseconds.
+   */
+  public double getMainThreadMillis() {
+    return mMainThreadMillis;
+  }
+
+  /**
+   * Returns the sum of the durations of the phases on the critical path.
+   * @return The critical path time, in milliseconds.
+   */
+  public double getCriticalPathMillis() {
+    return mCriticalPathMillis;
+  }
+
+  /**
+   * Returns the names of the phases on the critical path, in order.
+   * @return The critical path.
+   */
+  public List<String> getCriticalPath() {
+    return mCriticalPath;
+  }
+
+  /**
+   * Returns every traced phase, in start order.
+   * @return The phases.
+   */
+  public List<Phase> getPhases() {
+    return mPhases;
+  }
+
+  /**
+   * Returns the first phase with the given name.
+   * @param name The name of the phase.
+   * @return The phase, or null if no phase has that name.
+   */
+  public Phase getPhase(String name) {
+    for (Phase phase : mPhases) {
+      if (phase.mName.equals(name)) {
+        return phase;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Serializes this report as JSON.
+   * @return The JSON string.
+   */
+  public String toJson() {
+    return sGson.toJson(this);
+  }
+
+  /**
+   * Returns a one-line summary of this report.
+   * @return The summary.
+   */
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "startup to %s: total=%.1fms mainThread=%.1fms criticalPath=%.1fms %s",
+        mMilestone,
+        mTotalMillis,
+        mMainThreadMillis,
+        mCriticalPathMillis,
+        mCriticalPath);
+  }
+
+  /**
+   * A single traced phase.
+   */
+  public static class Phase {
+
+    /**
+     * The name of the phase.
+     */
+    @SerializedName("name")
+    private final String mName;
+
+    /**
+     * The name of the thread the phase ran on.
+     */
+    @SerializedName("thread")
+    private final String mThread;
+
+    /**
+     * Whether the phase ran on the main thread.
+     */
+    @SerializedName("main_thread")
+    private final boolean mMainThread;
+
+    /**
+     * The nesting depth of the phase on its thread (0 for top-level phases).
+     */
+    @SerializedName("depth")
+    private final int mDepth;
+
+    /**
+     * The start of the phase, in {@link System#nanoTime()} units.
+     */
+    private final transient long mStartNanos;
+
+    /**
+     * The end of the phase, in {@link System#nanoTime()} units.
+     */
+    private final transient long mEndNanos;
+
+    /**
+     * The start of the phase relative to the start of the launch, in milliseconds.
+     */
+    @SerializedName("start_ms")
+    private double mStartMillis;
+
+    /**
+     * The duration of the phase, in milliseconds.
+     */
+    @SerializedName("duration_ms")
+    private final double mDurationMillis;
+
+    /**
+     * Creates a phase.
+     * @param name The name of the phase.
+     * @param thread The name of the thread the phase ran on.
+     * @param mainThread Whether the phase ran on the main thread.
+     * @param depth The nesting depth of the phase on its thread.
+     * @param startNanos The start of the phase, in {@link System#nanoTime()} units.
+     * @param endNanos The end of the phase, in {@link System#nanoTime()} units.
+     */
+    public Phase(
+        String name,
+        String thread,
+        boolean mainThread,
+        int depth,
+        long startNanos,
+        long endNanos) {
+      mName = name;
+      mThread = thread;
+      mMainThread = mainThread;
+      mDepth = depth;
+      mStartNanos = startNanos;
+      mEndNanos = endNanos;
+      mDurationMillis = (endNanos - startNanos) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Computes the start offset relative to the start of the launch.
+     * @param originNanos The start of the launch.
+     */
+    private void setOrigin(long originNanos) {
+      mStartMillis = (mStartNanos - originNanos) / NANOS_PER_MILLI;
+    }
+
+    private long getDurationNanos() {
+      return mEndNanos - mStartNanos;
+    }
+
+    public String getName() {
+      return mName;
+    }
+
+    public String getThread() {
+      return mThread;
+    }
+
+    public boolean isMainThread() {
+      return mMainThread;
+    }
+
+    public int getDepth() {
+      return mDepth;
+    }
+
+    public double getStartMillis() {
+      return mStartMillis;
+    }
+
+    public double getDurationMillis() {
+      return mDurationMillis;
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import com.codepunk.codepunklib.util.log.FormattingLogger;
+import com.codepunk.codepunklib.util.log.LogManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Traces named sections of the app's cold start and collects them into a {@link StartupReport}.
+ * Every section is also emitted through {@link TraceCompat}, so it shows up in systrace and
+ * Perfetto captures alongside the framework's own sections.
+ * </p>
+ *
+ * <p>
+ * Sections are used in the same way as {@link TraceCompat} sections:
+ * <pre>
+ * StartupTracer.beginSection("CodepunkApp.onCreate");
+ * try {
+ *   ...
+ * } finally {
+ *   StartupTracer.endSection();
+ * }
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * The launch starts with the first section and ends when {@link #finish(String)} is called with
+ * a milestone (SessionManager does this the first time the session settles into a terminal
+ * state); sections that are still open on the calling thread at that point are recorded as
+ * ending at the milestone. After that, sections are still forwarded to {@link TraceCompat} but
+ * are no longer recorded, and the report is available from {@link #getReport()}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StartupTracer {
+
+  /**
+   * Upper bound on the number of recorded phases, in case a launch never finishes.
+   */
+  private static final int MAX_PHASES = 256;
+
+  /**
+   * The singleton instance.
+   */
+  private static final StartupTracer sInstance = new StartupTracer();
+
+  /**
+   * The sections currently open on each thread.
+   */
+  private static final ThreadLocal<ArrayDeque<OpenSection>> sOpenSections =
+      new ThreadLocal<ArrayDeque<OpenSection>>() {
+        @Override
+        protected ArrayDeque<OpenSection> initialValue() {
+          return new ArrayDeque<>();
+        }
+      };
+
+  /**
+   * The phases recorded so far.
+   */
+  private final List<StartupReport.Phase> mPhases = new ArrayList<>();
+
+  /**
+   * The start of the launch, in {@link System#nanoTime()} units, or 0 if no section has begun.
+   */
+  private long mOriginNanos;
+
+  /**
+   * The report, once the launch has finished.
+   */
+  private volatile StartupReport mReport;
+
+  /**
+   * Returns the singleton instance.
+   * @return The StartupTracer instance.
+   */
+  public static StartupTracer getInstance() {
+    return sInstance;
+  }
+
+  /**
+   * Begins a named section on the current thread.
+   * @param name The name of the section. Must be 127 characters or fewer.
+   */
+  public static void beginSection(String name) {
+    TraceCompat.beginSection(name);
+    sOpenSections.get().push(new OpenSection(name, sInstance.onSectionBegun()));
+  }
+
+  /**
+   * Ends the most recently begun section on the current thread.
+   */
+  public static void endSection() {
+    final long endNanos = System.nanoTime();
+    final ArrayDeque<OpenSection> openSections = sOpenSections.get();
+    final OpenSection section = openSections.poll();
+    TraceCompat.endSection();
+    if (section != null) {
+      final Thread thread = Thread.currentThread();
+      sInstance.onSectionEnded(new StartupReport.Phase(
+          section.mName,
+          thread.getName(),
+          Looper.myLooper() == Looper.getMainLooper(),
+          openSections.size(),
+          section.mStartNanos,
+          endNanos));
+    }
+  }
+
+  /**
+   * Ends the launch at the given milestone and builds the report. Has no effect if the launch
+   * has already finished or never started.
+   * @param milestone The name of the milestone (i.e. "SessionManager.AUTHENTICATED").
+   */
+  public void finish(String milestone) {
+    final long milestoneNanos = System.nanoTime();
+    final StartupReport report;
+    synchronized (mPhases) {
+      if (mReport != null || mOriginNanos == 0L) {
+        return;
+      }
+      // Sections still open on this thread (i.e. the listener hop that reached the milestone)
+      // are recorded as ending at the milestone.
+      final ArrayDeque<OpenSection> openSections = sOpenSections.get();
+      final Thread thread = Thread.currentThread();
+      final boolean mainThread = Looper.myLooper() == Looper.getMainLooper();
+      int depth = openSections.size();
+      for (OpenSection section : openSections) {
+        mPhases.add(new StartupReport.Phase(
+            section.mName,
+            thread.getName(),
+            mainThread,
+            --depth,
+            section.mStartNanos,
+            milestoneNanos));
+      }
+      report = StartupReport.build(milestone, mOriginNanos, milestoneNanos, mPhases);
+      mReport = report;
+      mPhases.clear();
+    }
+    final Environment environment = SessionManager.getInstance().getEnvironment();
+    final FormattingLogger logger = LogManager.getInstance().get(environment.getLoggerLevel());
+    if (logger.isLoggable(Log.INFO)) {
+      logger.i(report.toString());
+    }
+  }
+
+  /**
+   * Returns whether the launch has finished.
+   * @return True if the launch has finished and a report is available.
+   */
+  public boolean isFinished() {
+    return mReport != null;
+  }
+
+  /**
+   * Returns the report for this launch.
+   * @return The report, or null if the launch has not finished yet.
+   */
+  public StartupReport getReport() {
+    return mReport;
+  }
+
+  /**
+   * Records the start of the launch if this is the first section.
+   * @return The start time of the section.
+   */
+  private long onSectionBegun() {
+    final long startNanos = System.nanoTime();
+    if (mReport == null) {
+      synchronized (mPhases) {
+        if (mOriginNanos == 0L) {
+          mOriginNanos = startNanos;
+        }
+      }
+    }
+    return startNanos;
+  }
+
+  /**
+   * Records a completed phase if the launch is still in progress.
+   * @param phase The completed phase.
+   */
+  private void onSectionEnded(StartupReport.Phase phase) {
+    if (mReport == null) {
+      synchronized (mPhases) {
+        if (mReport == null && mPhases.size() < MAX_PHASES) {
+          mPhases.add(phase);
+        }
+      }
+    }
+  }
+
+  /**
+   * A section that has begun but not yet ended.
+   */
+  private static class OpenSection {
+    final String mName;
+    final long mStartNanos;
+
+    OpenSection(String name, long startNanos) {
+      mName = name;
+      mStartNanos = startNanos;
+    }
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.JsonObject;
+
+import com.codepunk.codepunk.model.ChangeSet;
+import com.codepunk.codepunk.util.VersionedEntityStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * Class that keeps a {@link VersionedEntityStore} current by asking the api only for what has
+ * changed since the last sync, rather than downloading every entity again. Each sync requests
+ * the changes since the store's sync token, merges them into the store and saves the token
+ * that comes back, repeating while the server says more changes are waiting.
+ * </p>
+ *
+ * <p>
+ * Observers register for an entity type and hear about an entity only when a change actually
+ * altered it, along with the names of the fields that changed value; a delta that only repeats
+ * stored values, or that is older than the stored version, is applied silently. Deleted
+ * entities arrive as tombstones, which are kept in the store so that a late update cannot bring
+ * the entity back. Each page of changes is merged in one transaction, and observers are called
+ * once it has been committed. Both happen on the executor passed to the constructor, which should
+ * not be the main thread, since merging writes to the database.
+ * </p>
+ *
+ * <p>
+ * If a sync fails part way, the changes of the pages already applied are kept along with their
+ * token, so the next sync picks up where it stopped. If the server no longer accepts the token,
+ * {@link VersionedEntityStore#clear() clear} the store and sync again.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class SyncEngine {
+
+  /**
+   * Marks a change that deleted an entity while a page is being applied.
+   */
+  private static final Set<String> DELETED = Collections.emptySet();
+
+  /**
+   * The store that is kept current.
+   */
+  private final VersionedEntityStore mStore;
+
+  /**
+   * Where change sets come from.
+   */
+  private final ChangeSource mSource;
+
+  /**
+   * The executor that changes are merged and observers are called on.
+   */
+  private final Executor mExecutor;
+
+  /**
+   * The observers, keyed by entity type.
+   */
+  private final ConcurrentMap<String, List<Observer>> mObservers = new ConcurrentHashMap<>();
+
+  /**
+   * Guards {@link #mSync}.
+   */
+  private final Object mLock = new Object();
+
+  /**
+   * The sync in progress, or null if there is none. Guarded by {@link #mLock}.
+   */
+  private SettableFuture<Integer> mSync;
+
+  /**
+   * Creates a sync engine.
+   * @param store The store to keep current.
+   * @param source Where change sets come from.
+   * @param executor The executor that changes are merged and observers are called on.
+   */
+  public SyncEngine(VersionedEntityStore store, ChangeSource source, Executor executor) {
+    mStore = store;
+    mSource = source;
+    mExecutor = executor;
+  }
+
+  /**
+   * Returns the store that is kept current.
+   * @return The store.
+   */
+  public VersionedEntityStore getStore() {
+    return mStore;
+  }
+
+  /**
+   * Registers an observer for the entities of a type.
+   * @param type The entity type.
+   * @param observer The observer.
+   */
+  public void addObserver(String type, Observer observer) {
+    List<Observer> observers = mObservers.get(type);
+    if (observers == null) {
+      final List<Observer> newObservers = new CopyOnWriteArrayList<>();
+      observers = mObservers.putIfAbsent(type, newObservers);
+      if (observers == null) {
+        observers = newObservers;
+      }
+    }
+    observers.add(observer);
+  }
+
+  /**
+   * Unregisters an observer.
+   * @param type The entity type the observer was registered for.
+   * @param observer The observer.
+   */
+  public void removeObserver(String type, Observer observer) {
+    final List<Observer> observers = mObservers.get(type);
+    if (observers != null) {
+      observers.remove(observer);
+    }
+  }
+
+  /**
+   * Brings the store up to date. If a sync is already in progress, its future is returned
+   * instead of starting another. Nothing is done on the calling thread: even the store's sync
+   * token is read on the executor, so this can be called from the main thread.
+   * @return A {@link ListenableFuture} that completes with the number of entities that were
+   * changed or deleted. Canceling it stops the sync after the page being applied.
+   */
+  public ListenableFuture<Integer> sync() {
+    final SettableFuture<Integer> result;
+    synchronized (mLock) {
+      if (mSync != null) {
+        return mSync;
+      }
+      result = SettableFuture.create();
+      mSync = result;
+    }
+    try {
+      mExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          requestChanges(result, 0);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      finish(result, 0, e);
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether a sync is in progress.
+   * @return True if a sync is in progress.
+   */
+  public boolean isSyncing() {
+    synchronized (mLock) {
+      return mSync != null;
+    }
+  }
+
+  /**
+   * Requests the changes since the store's sync token. Called on the executor.
+   * @param result The future of the sync.
+   * @param changed The number of entities changed by the pages applied so far.
+   */
+  private void requestChanges(final SettableFuture<Integer> result, final int changed) {
+    final ListenableFuture<ChangeSet> future;
+    try {
+      future = mSource.getChanges(mStore.getSyncToken());
+    } catch (RuntimeException e) {
+      finish(result, changed, e);
+      return;
+    }
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          future.cancel(true);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    Futures.addCallback(future, new FutureCallback<ChangeSet>() {
+      @Override
+      public void onSuccess(ChangeSet changeSet) {
+        final int total;
+        try {
+          total = changed + apply(changeSet);
+        } catch (RuntimeException e) {
+          finish(result, changed, e);
+          return;
+        }
+        if (changeSet.hasMore() && !result.isCancelled()) {
+          requestChanges(result, total);
+        } else {
+          finish(result, total, null);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        finish(result, changed, t);
+      }
+    }, mExecutor);
+  }
+
+  /**
+   * Merges a change set into the store and saves the change set's token in one transaction, then
+   * notifies observers of what changed. If the merge fails, none of the page is kept, so the
+   * next sync requests it again.
+   * @param changeSet The change set.
+   * @return The number of entities that were changed or deleted.
+   */
+  int apply(ChangeSet changeSet) {
+    final List<ChangeSet.Change> changes = changeSet.getChanges();
+    final List<Set<String>> changedFields = new ArrayList<>(changes.size());
+    mStore.beginTransaction();
+    try {
+      for (ChangeSet.Change change : changes) {
+        if (change.isDeleted()) {
+          changedFields.add(
+              mStore.delete(change.getType(), change.getId(), change.getVersion())
+                  ? DELETED
+                  : null);
+        } else {
+          final Set<String> fields = mStore.merge(
+              change.getType(), change.getId(), change.getVersion(), change.getFields());
+          changedFields.add(fields == null || fields.isEmpty() ? null : fields);
+        }
+      }
+      if (changeSet.getNextToken() != null) {
+        mStore.setSyncToken(changeSet.getNextToken());
+      }
+      mStore.setTransactionSuccessful();
+    } finally {
+      mStore.endTransaction();
+    }
+
+    int count = 0;
+    for (int i = 0; i < changes.size(); i++) {
+      final Set<String> fields = changedFields.get(i);
+      if (fields == DELETED) {
+        count++;
+        notifyDeleted(changes.get(i).getType(), changes.get(i).getId());
+      } else if (fields != null) {
+        count++;
+        notifyChanged(changes.get(i).getType(), changes.get(i).getId(), fields);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Notifies the observers of a type that an entity changed.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @param changedFields The names of the fields whose value changed.
+   */
+  private void notifyChanged(String type, String id, Set<String> changedFields) {
+    final List<Observer> observers = mObservers.get(type);
+    if (observers == null || observers.isEmpty()) {
+      return;
+    }
+    final JsonObject entity = mStore.get(type, id);
+    for (Observer observer : observers) {
+      observer.onEntityChanged(this, type, id, entity, changedFields);
+    }
+  }
+
+  /**
+   * Notifies the observers of a type that an entity was deleted.
+   * @param type The entity type.
+   * @param id The entity id.
+   */
+  private void notifyDeleted(String type, String id) {
+    final List<Observer> observers = mObservers.get(type);
+    if (observers == null) {
+      return;
+    }
+    for (Observer observer : observers) {
+      observer.onEntityDeleted(this, type, id);
+    }
+  }
+
+  /**
+   * Completes a sync and allows the next one to start.
+   * @param result The future of the sync.
+   * @param changed The number of entities changed.
+   * @param t The failure, or null if the sync succeeded.
+   */
+  private void finish(SettableFuture<Integer> result, int changed, Throwable t) {
+    synchronized (mLock) {
+      if (mSync == result) {
+        mSync = null;
+      }
+    }
+    if (t == null) {
+      result.set(changed);
+    } else {
+      result.setException(t);
+    }
+  }
+
+  /**
+   * Supplies change sets, typically by calling the api.
+   */
+  public interface ChangeSource {
+
+    /**
+     * Requests the changes since a sync token.
+     * @param syncToken The token, or null for every entity.
+     * @return A {@link ListenableFuture} that completes with the changes.
+     */
+    ListenableFuture<ChangeSet> getChanges(String syncToken);
+  }
+
+  /**
+   * Hears about changes to the entities of a type.
+   */
+  public interface Observer {
+
+    /**
+     * Called when a sync created an entity or changed the value of some of its fields.
+     * @param engine The sync engine.
+     * @param type The entity type.
+     * @param id The entity id.
+     * @param entity A copy of the entity's fields after the change.
+     * @param changedFields The names of the fields whose value changed. For a new entity, every
+     * field.
+     */
+    void onEntityChanged(
+        SyncEngine engine,
+        String type,
+        String id,
+        JsonObject entity,
+        Set<String> changedFields);
+
+    /**
+     * Called when a sync deleted an entity.
+     * @param engine The sync engine.
+     * @param type The entity type.
+     * @param id The entity id.
+     */
+    void onEntityDeleted(SyncEngine engine, String type, String id);
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.util.Log;
+
+import com.codepunk.codepunk.api.Api;
+import com.codepunk.codepunklib.util.log.FormattingLogger;
+import com.codepunk.codepunklib.util.log.LogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static android.content.Context.MODE_PRIVATE;
+
+/**
+ * <p>
+ * Class that manages persistent TLS session caches so that the first HTTPS request after a cold
+ * start can resume a previous session (saving a round trip and the key exchange) instead of
+ * negotiating a full handshake.
+ * </p>
+ *
+ * <p>
+ * Each {@link Environment} gets its own {@link SSLSessionCache}, supplied by a pluggable
+ * {@link SessionCacheProvider}. The default provider stores sessions in a private app directory
+ * named <code>ssl_sessions_&lt;environment&gt;</code>, which survives process restarts. The
+ * platform's file-backed cache keeps a bounded number of sessions per directory and evicts the
+ * oldest ones when it is full.
+ * </p>
+ *
+ * <p>
+ * {@link #getSocketFactory()} returns a single {@link SSLSocketFactory} that delegates to the
+ * socket factory of the current environment. Because it is a single instance, connections made
+ * through it share one keep-alive pool (the pool is keyed by socket factory), so it should be used
+ * both by Volley's {@link com.android.volley.toolbox.HurlStack} and by
+ * {@link ConnectionPrewarmer}. Every handshake made through it is counted, along with whether it
+ * resumed an existing session; see {@link #getHandshakeCount()} and
+ * {@link #getResumptionRate()}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class TlsSessionManager {
+
+  /**
+   * Prefix of the directory that holds the sessions of each environment.
+   */
+  private static final String SESSION_DIR_PREFIX = "ssl_sessions_";
+
+  /**
+   * Handshake timeout for sockets created by the per-environment socket factories.
+   */
+  private static final int HANDSHAKE_TIMEOUT_MILLIS =
+      (int) Api.DEFAULT_TIME_UNIT.toMillis(Api.DEFAULT_TIMEOUT_DURATION);
+
+  /**
+   * The application context.
+   */
+  private final Context mAppContext;
+
+  /**
+   * The {@link SSLSocketFactory} that delegates to the factory of the current environment.
+   */
+  private final SSLSocketFactory mSocketFactory;
+
+  /**
+   * The socket factory of each environment, created on demand.
+   */
+  private final Map<Environment, SSLSocketFactory> mSocketFactories;
+
+  /**
+   * The provider of per-environment session caches.
+   */
+  private SessionCacheProvider mSessionCacheProvider;
+
+  /**
+   * The number of completed handshakes.
+   */
+  private final AtomicLong mHandshakeCount;
+
+  /**
+   * The number of completed handshakes that resumed an existing session.
+   */
+  private final AtomicLong mResumedCount;
+
+  /**
+   * Constructor that accepts a {@link Context}. The singleton instance is created by
+   * {@link AppModule}; use {@link #getInstance(Context)} to get it.
+   * @param context The context to use to get the application context.
+   */
+  TlsSessionManager(Context context) {
+    mAppContext = context.getApplicationContext();
+    mSocketFactory = new EnvironmentSocketFactory();
+    mSocketFactories = new EnumMap<>(Environment.class);
+    mSessionCacheProvider = new FileSessionCacheProvider();
+    mHandshakeCount = new AtomicLong();
+    mResumedCount = new AtomicLong();
+  }
+
+  /**
+   * Returns the singleton instance from the app's {@link AppComponent}.
+   * @param context Unused; the instance is bound to the application context.
+   * @return The singleton instance.
+   */
+  public static TlsSessionManager getInstance(Context context) {
+    return AppComponents.get().tlsSessionManager();
+  }
+
+  /**
+   * Returns the {@link SSLSocketFactory} that should be used for all api connections.
+   * @return The socket factory.
+   */
+  public SSLSocketFactory getSocketFactory() {
+    return mSocketFactory;
+  }
+
+  /**
+   * Replaces the {@link SessionCacheProvider}. Socket factories that were already created keep
+   * the session cache they were created with.
+   * @param provider The new provider, or null for the default provider, which persists sessions
+   *                 in a private directory per environment.
+   */
+  public void setSessionCacheProvider(SessionCacheProvider provider) {
+    synchronized (mSocketFactories) {
+      mSessionCacheProvider = (provider == null ? new FileSessionCacheProvider() : provider);
+      mSocketFactories.clear();
+    }
+  }
+
+  /**
+   * Returns the number of TLS handshakes completed through {@link #getSocketFactory()}.
+   * @return The number of handshakes.
+   */
+  public long getHandshakeCount() {
+    return mHandshakeCount.get();
+  }
+
+  /**
+   * Returns the number of TLS handshakes that resumed an existing session.
+   * @return The number of resumed handshakes.
+   */
+  public long getResumedCount() {
+    return mResumedCount.get();
+  }
+
+  /**
+   * Returns the fraction of TLS handshakes that resumed an existing session.
+   * @return The resumption rate between 0 and 1, or 0 if there have been no handshakes.
+   */
+  public double getResumptionRate() {
+    final long handshakes = mHandshakeCount.get();
+    return (handshakes == 0L ? 0.0d : (double) mResumedCount.get() / handshakes);
+  }
+
+  /**
+   * Resets the handshake counters.
+   */
+  public void resetStats() {
+    mHandshakeCount.set(0L);
+    mResumedCount.set(0L);
+  }
+
+  /**
+   * Returns the socket factory for the given environment, creating it if necessary.
+   * @param environment The environment.
+   * @return The socket factory.
+   */
+  private SSLSocketFactory getSocketFactory(Environment environment) {
+    synchronized (mSocketFactories) {
+      SSLSocketFactory socketFactory = mSocketFactories.get(environment);
+      if (socketFactory == null) {
+        socketFactory = SSLCertificateSocketFactory.getDefault(
+            HANDSHAKE_TIMEOUT_MILLIS,
+            mSessionCacheProvider.getSessionCache(mAppContext, environment));
+        mSocketFactories.put(environment, socketFactory);
+      }
+      return socketFactory;
+    }
+  }
+
+  /**
+   * Returns the socket factory for the current environment.
+   * @return The socket factory.
+   */
+  private SSLSocketFactory getCurrentSocketFactory() {
+    return getSocketFactory(SessionManager.getInstance().getEnvironment());
+  }
+
+  /**
+   * Adds a {@link HandshakeListener} to a newly-created socket.
+   * @param socket The socket.
+   * @return The socket.
+   */
+  private Socket listen(Socket socket) {
+    if (socket instanceof SSLSocket) {
+      ((SSLSocket) socket).addHandshakeCompletedListener(
+          new HandshakeListener(System.currentTimeMillis()));
+    }
+    return socket;
+  }
+
+  /**
+   * Returns the name of the private directory the default provider keeps the sessions of an
+   * environment in.
+   * @param environment The environment.
+   * @return The directory name, as passed to {@link Context#getDir(String, int)}.
+   */
+  static String getSessionDirName(Environment environment) {
+    return SESSION_DIR_PREFIX + environment.name().toLowerCase(Locale.US);
+  }
+
+  /**
+   * Convenience method for getting the {@link FormattingLogger} based on the current environment.
+   * @return The FormattingLogger based on the current environment.
+   */
+  private static FormattingLogger getLogger() {
+    return LogManager.getInstance().get(
+        SessionManager.getInstance().getEnvironment().getLoggerLevel());
+  }
+
+  /**
+   * Interface that supplies the {@link SSLSessionCache} for an {@link Environment}.
+   */
+  public interface SessionCacheProvider {
+    SSLSessionCache getSessionCache(Context context, Environment environment);
+  }
+
+  /**
+   * The default {@link SessionCacheProvider}, which persists sessions in a private directory per
+   * environment.
+   */
+  private static class FileSessionCacheProvider implements SessionCacheProvider {
+    @Override
+    public SSLSessionCache getSessionCache(Context context, Environment environment) {
+      final File dir = context.getDir(getSessionDirName(environment), MODE_PRIVATE);
+      try {
+        return new SSLSessionCache(dir);
+      } catch (IOException e) {
+        // Fall back to the platform's in-memory cache
+        final FormattingLogger logger = getLogger();
+        if (logger.isLoggable(Log.WARN)) {
+          logger.w(String.format(Locale.US, "Could not open TLS session cache %s: %s", dir, e));
+        }
+        return null;
+      }
+    }
+  }
+
+  /**
+   * A {@link HandshakeCompletedListener} that counts handshakes and session resumptions. A
+   * resumed session keeps the creation time of the handshake that originally negotiated it, so
+   * a session that is older than its socket was resumed.
+   */
+  private class HandshakeListener implements HandshakeCompletedListener {
+
+    /**
+     * The time the socket was created, in {@link System#currentTimeMillis()} units.
+     */
+    private final long mSocketCreatedAt;
+
+    HandshakeListener(long socketCreatedAt) {
+      mSocketCreatedAt = socketCreatedAt;
+    }
+
+    @Override
+    public void handshakeCompleted(HandshakeCompletedEvent event) {
+      final boolean resumed = event.getSession().getCreationTime() < mSocketCreatedAt;
+      mHandshakeCount.incrementAndGet();
+      if (resumed) {
+        mResumedCount.incrementAndGet();
+      }
+      event.getSocket().removeHandshakeCompletedListener(this);
+      final FormattingLogger logger = getLogger();
+      if (logger.isLoggable(Log.VERBOSE)) {
+        logger.v(String.format(
+            Locale.US,
+            "TLS handshake with %s: resumed=%b (%d/%d resumed)",
+            event.getSession().getPeerHost(),
+            resumed,
+            mResumedCount.get(),
+            mHandshakeCount.get()));
+      }
+    }
+  }
+
+  /**
+   * An {@link SSLSocketFactory} that delegates to the socket factory of the current environment
+   * and listens to the handshakes of the sockets it creates.
+   */
+  private class EnvironmentSocketFactory extends SSLSocketFactory {
+    @Override
+    public String[] getDefaultCipherSuites() {
+      return getCurrentSocketFactory().getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+      return getCurrentSocketFactory().getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+      return listen(getCurrentSocketFactory().createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+        throws IOException {
+      return listen(getCurrentSocketFactory().createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+      return listen(getCurrentSocketFactory().createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+        throws IOException {
+      return listen(getCurrentSocketFactory().createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+      return listen(getCurrentSocketFactory().createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(
+        InetAddress address,
+        int port,
+        InetAddress localAddress,
+        int localPort) throws IOException {
+      return listen(
+          getCurrentSocketFactory().createSocket(address, port, localAddress, localPort));
+    }
+  }
+}
@@ -16,21 +16,37 @@
 
 package com.codepunk.codepunk.app;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
-import android.support.v4.os.AsyncTaskCompat;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.v4.util.LruCache;
 
+import com.android.volley.Cache;
+import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
 import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.HttpStack;
+import com.android.volley.toolbox.HurlStack;
 import com.android.volley.toolbox.ImageLoader;
 import com.android.volley.toolbox.ImageLoader.ImageCache;
+import com.android.volley.toolbox.NoCache;
 import com.android.volley.toolbox.Volley;
+import com.codepunk.codepunk.api.Api;
+import com.codepunk.codepunk.api.VolleyFuture;
 
+import java.io.File;
 import java.net.HttpURLConnection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Class that manages all Volley api calls.
@@ -39,15 +55,14 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class VolleyManager {
 
   /**
-   * For singleton creation.
+   * Name of the thread that builds the {@link RequestQueue}.
    */
-  private static final Object sLock = new Object();
+  private static final String WARM_UP_THREAD_NAME = "VolleyManager-warmUp";
 
   /**
-   * The singleton instance.
+   * Name of Volley's cache directory, as used by {@link Volley#newRequestQueue(Context)}.
    */
-  @SuppressWarnings("StaticFieldLeak")
-  private static VolleyManager sInstance;
+  private static final String DEFAULT_CACHE_DIR = "volley";
 
   /**
    * The application context associated with this VolleyManager.
@@ -55,9 +70,20 @@ public class VolleyManager {
   private final Context mAppContext;
 
   /**
-   * The {@link RequestQueue} associated with this VolleyManager.
+   * The {@link RequestQueue} associated with this VolleyManager, once it has been built.
+   */
+  private final SettableFuture<RequestQueue> mRequestQueueFuture;
+
+  /**
+   * Whether building the {@link RequestQueue} has been started.
    */
-  private RequestQueue mRequestQueue;
+  private final AtomicBoolean mRequestQueueStarted;
+
+  /**
+   * {@link Executor} that delivers {@link OnRequestQueueReadyListener} callbacks (and any other
+   * callbacks that must run on the main thread) on the main thread.
+   */
+  private final Executor mMainThreadExecutor;
 
   /**
    * The {@link ImageLoader} associated with this VolleyManager.
@@ -65,58 +91,138 @@ public class VolleyManager {
   private ImageLoader mImageLoader;
 
   /**
-   * Queue of {@link OnRequestQueueReadyListener} that are awaiting the contruction of
-   * a {@link RequestQueue}.
+   * The cassette that traffic is recorded to or replayed from, or null to use the network as is.
+   * Guarded by this.
+   */
+  private HttpCassette mCassette;
+
+  /**
+   * Whether {@link #mCassette} is replayed rather than recorded to. Guarded by this.
+   */
+  private boolean mReplay;
+
+  /**
+   * The factor recorded latencies are scaled by when replaying. Guarded by this.
    */
-  private final ConcurrentLinkedQueue<OnRequestQueueReadyListener>
-      mPendingOnRequestQueueReadyListeners;
+  private float mReplayLatencyScale;
 
   /**
-   * Constructor that accepts a {@link Context}.
+   * Constructor that accepts a {@link Context}. The singleton instance is created by
+   * {@link AppModule}; use {@link #getInstance(Context)} to get it.
    * @param context The context to use to get the application context to associate with this
    *                VolleyManager.
    */
-  private VolleyManager(Context context) {
+  VolleyManager(Context context) {
     mAppContext = context.getApplicationContext();
-    mPendingOnRequestQueueReadyListeners = new ConcurrentLinkedQueue<>();
+    mRequestQueueFuture = SettableFuture.create();
+    mRequestQueueStarted = new AtomicBoolean(false);
+    final Handler mainHandler = new Handler(Looper.getMainLooper());
+    mMainThreadExecutor = new Executor() {
+      @Override
+      public void execute(@NonNull Runnable command) {
+        mainHandler.post(command);
+      }
+    };
     HttpURLConnection.setFollowRedirects(true);
   }
 
   /**
-   * Returns the singleton instance.
-   * @param context The {@link Context} to use to create the instance.
+   * Returns the singleton instance from the app's {@link AppComponent}.
+   * @param context Unused; the instance is bound to the application context.
    * @return The singleton instance.
    */
   public static VolleyManager getInstance(Context context) {
-    synchronized (sLock) {
-      if (sInstance == null) {
-        // getApplicationContext() is key, it keeps you from leaking the
-        // Activity or BroadcastReceiver if someone passes one in.
-        sInstance = new VolleyManager(context);
-      }
-      return sInstance;
-    }
+    return AppComponents.get().volleyManager();
+  }
+
+  /**
+   * Starts building the {@link RequestQueue} on a background thread without waiting for a caller
+   * to ask for it. Starting the queue also starts Volley's cache dispatcher, which initializes the
+   * {@link DiskBasedCache} on its own thread, and once the queue is available the Gson adapters
+   * used by the api are primed on the same background thread. Calling this more than once (or
+   * after the queue has been requested) has no effect. Meant to be called from
+   * {@link android.app.Application#onCreate()}.
+   */
+  public void warmUp() {
+    startRequestQueue();
+  }
+
+  /**
+   * Records all traffic of the {@link RequestQueue} to a cassette, to be saved and later served
+   * back by {@link #replayFrom(HttpCassette, float)}, and starts building the queue. Must be
+   * called before the queue is started. The queue does not cache responses, so that every
+   * request reaches the network and is recorded.
+   * @param cassette The cassette that exchanges are recorded to.
+   * @throws IllegalStateException If the queue has already been started.
+   * @see RecordingNetwork
+   */
+  public void recordTo(HttpCassette cassette) {
+    setCassette(cassette, false, 1.0f);
+  }
+
+  /**
+   * Answers all requests of the {@link RequestQueue} from a cassette instead of the network, and
+   * starts building the queue. Must be called before the queue is started. The queue does not
+   * cache responses, so that replays neither read nor write the app's disk cache.
+   * @param cassette The cassette that requests are answered from.
+   * @param latencyScale The factor recorded latencies are scaled by: 1 replays the recorded
+   * latency, 0 replays instantly.
+   * @throws IllegalStateException If the queue has already been started.
+   * @see ReplayNetwork
+   */
+  public void replayFrom(HttpCassette cassette, float latencyScale) {
+    setCassette(cassette, true, latencyScale);
+  }
+
+  /**
+   * Returns an {@link Executor} that runs commands on the main thread. Useful for attaching
+   * callbacks to the futures returned by the api delegates.
+   * @return The main thread executor.
+   */
+  public Executor getMainThreadExecutor() {
+    return mMainThreadExecutor;
+  }
+
+  /**
+   * Returns a future that completes with this VolleyManager's {@link RequestQueue}, starting
+   * to build the queue if necessary.
+   * @return The future {@link RequestQueue}.
+   */
+  public ListenableFuture<RequestQueue> getRequestQueueFuture() {
+    startRequestQueue();
+    return mRequestQueueFuture;
   }
 
   /**
    * Asynchronously returns an instance of {@link RequestQueue}. The reason this is done
    * asynchronously is due to Volley's {@link DiskBasedCache}. The more files in the cache, the
-   * longer DiskBasedCache takes to go through every entry in the cache as it initializes.
+   * longer DiskBasedCache takes to go through every entry in the cache as it initializes. If the
+   * queue is already available, the listener is called immediately; otherwise it is called on the
+   * main thread once the queue (possibly started by {@link #warmUp()}) is ready.
    * @param listener Listener that awaits a successfully-created RequestQueue.
    * @see <a href=
    * "http://stackoverflow.com/questions/20916478/performance-issue-with-volleys-diskbasedcache">
    * http://stackoverflow.com/questions/20916478/performance-issue-with-volleys-diskbasedcache</a>
    */
-  public synchronized void getRequestQueue(final OnRequestQueueReadyListener listener) {
-    synchronized (mPendingOnRequestQueueReadyListeners) {
-      if (mRequestQueue == null) {
-        mPendingOnRequestQueueReadyListeners.add(listener);
-        if (mPendingOnRequestQueueReadyListeners.size() == 1) {
-          asyncNewRequestQueue();
+  public void getRequestQueue(final OnRequestQueueReadyListener listener) {
+    startRequestQueue();
+    if (listener == null) {
+      return;
+    }
+    if (mRequestQueueFuture.isDone()) {
+      listener.onRequestQueueReady(Futures.getUnchecked(mRequestQueueFuture));
+    } else {
+      mRequestQueueFuture.addListener(new Runnable() {
+        @Override
+        public void run() {
+          StartupTracer.beginSection("VolleyManager.onRequestQueueReady");
+          try {
+            listener.onRequestQueueReady(Futures.getUnchecked(mRequestQueueFuture));
+          } finally {
+            StartupTracer.endSection();
+          }
         }
-      } else if (listener != null) {
-        listener.onRequestQueueReady(mRequestQueue);
-      }
+      }, mMainThreadExecutor);
     }
   }
 
@@ -147,44 +253,163 @@ public class VolleyManager {
 
   /**
    * Convenience method for adding requests to the request queue, even if the queue has not
-   * yet finished initializing.
+   * yet finished initializing. Requests made before the queue is ready join the warm-up: they
+   * are added from the thread that builds the queue as soon as it is available, without a
+   * round trip through the main thread.
    * @param request The request to add
+   * @param <T> The type of parsed response the request expects.
    */
-  public void addToRequestQueue(final Request request) {
-    getRequestQueue(new OnRequestQueueReadyListener() {
-      @Override
-      public void onRequestQueueReady(RequestQueue requestQueue) {
-        requestQueue.add(request);
-      }
-    });
+  public <T> void addToRequestQueue(final Request<T> request) {
+    startRequestQueue();
+    if (mRequestQueueFuture.isDone()) {
+      Futures.getUnchecked(mRequestQueueFuture).add(request);
+    } else {
+      mRequestQueueFuture.addListener(new Runnable() {
+        @Override
+        public void run() {
+          Futures.getUnchecked(mRequestQueueFuture).add(request);
+        }
+      }, MoreExecutors.directExecutor());
+    }
+  }
+
+  /**
+   * Cancels all requests with the given tag, including requests that are still waiting for the
+   * {@link RequestQueue} to be ready.
+   * @param tag The tag of the requests to cancel.
+   * @see Request#setTag(Object)
+   */
+  public void cancelAll(final Object tag) {
+    startRequestQueue();
+    if (mRequestQueueFuture.isDone()) {
+      Futures.getUnchecked(mRequestQueueFuture).cancelAll(tag);
+    } else {
+      mRequestQueueFuture.addListener(new Runnable() {
+        @Override
+        public void run() {
+          Futures.getUnchecked(mRequestQueueFuture).cancelAll(tag);
+        }
+      }, MoreExecutors.directExecutor());
+    }
   }
 
   /**
-   * Asynchronously get this VolleyManager's {@link RequestQueue} instance. This instance is
-   * delivered asynchronously because Volley's RequestQueue implementation may have a lengthy
-   * initialization time due to its {@link DiskBasedCache} implementation.
+   * Builds this VolleyManager's {@link RequestQueue} on a background thread if that has not
+   * already been started. This instance is delivered asynchronously because Volley's
+   * RequestQueue implementation may have a lengthy initialization time due to its
+   * {@link DiskBasedCache} implementation.
    * @see <a href=
    * "http://stackoverflow.com/questions/20916478/performance-issue-with-volleys-diskbasedcache">
    * http://stackoverflow.com/questions/20916478/performance-issue-with-volleys-diskbasedcache</a>
    */
-  private void asyncNewRequestQueue() {
-    AsyncTaskCompat.executeParallel(new AsyncTask<Void, Void, RequestQueue>() {
-      @Override
-      protected RequestQueue doInBackground(Void... params) {
-        return Volley.newRequestQueue(mAppContext);
-      }
+  private void startRequestQueue() {
+    if (mRequestQueueStarted.compareAndSet(false, true)) {
+      buildRequestQueue();
+    }
+  }
 
+  /**
+   * Builds this VolleyManager's {@link RequestQueue} on a background thread. Only called by the
+   * caller that started the queue.
+   */
+  private void buildRequestQueue() {
+    new Thread(new Runnable() {
       @Override
-      protected void onPostExecute(RequestQueue requestQueue) {
-        mRequestQueue = requestQueue;
-        synchronized (mPendingOnRequestQueueReadyListeners) {
-          while (!mPendingOnRequestQueueReadyListeners.isEmpty()) {
-            OnRequestQueueReadyListener listener = mPendingOnRequestQueueReadyListeners.poll();
-            listener.onRequestQueueReady(requestQueue);
-          }
+      public void run() {
+        RequestQueue requestQueue = null;
+        RuntimeException failure = null;
+        StartupTracer.beginSection("VolleyManager.newRequestQueue");
+        try {
+          requestQueue = newRequestQueue();
+        } catch (RuntimeException e) {
+          failure = e;
+        } finally {
+          StartupTracer.endSection();
+        }
+
+        // Completing the future adds the requests that were waiting for the queue on this
+        // thread, so it happens outside the section to keep their dispatch out of its time
+        if (failure != null) {
+          mRequestQueueFuture.setException(failure);
+          return;
+        }
+        mRequestQueueFuture.set(requestQueue);
+
+        StartupTracer.beginSection("Api.warmUp");
+        try {
+          Api.warmUp();
+        } finally {
+          StartupTracer.endSection();
         }
       }
-    });
+    }, WARM_UP_THREAD_NAME).start();
+  }
+
+  /**
+   * Creates and starts a new {@link RequestQueue}. This is equivalent to
+   * {@link Volley#newRequestQueue(Context)} on API 9 and above, except that a queue that records
+   * to or replays a cassette does not cache responses.
+   * @return The started RequestQueue.
+   */
+  private RequestQueue newRequestQueue() {
+    final Network network;
+    final Cache cache;
+    synchronized (this) {
+      network = newNetwork();
+      cache = (mCassette == null
+          ? new DiskBasedCache(new File(mAppContext.getCacheDir(), DEFAULT_CACHE_DIR))
+          : new NoCache());
+    }
+    final RequestQueue requestQueue = new RequestQueue(cache, network);
+    requestQueue.addRequestFinishedListener(VolleyFuture.CANCELLATION_LISTENER);
+    requestQueue.start();
+    return requestQueue;
+  }
+
+  /**
+   * Creates the {@link Network} used by the {@link RequestQueue}: the real network, the real
+   * network recorded to a cassette, or a cassette replayed in place of the network. Must be called
+   * while holding this.
+   * @return The Network.
+   */
+  private Network newNetwork() {
+    if (mCassette != null && mReplay) {
+      return new ReplayNetwork(mCassette, mReplayLatencyScale);
+    }
+    final Network network = new BasicNetwork(newHttpStack());
+    return (mCassette == null ? network : new RecordingNetwork(network, mCassette));
+  }
+
+  /**
+   * Sets the cassette that traffic is recorded to or replayed from and starts building the
+   * {@link RequestQueue}. The check that the queue has not been started and the start itself are
+   * one step, so no caller can start the queue with the network the cassette replaces.
+   * @param cassette The cassette.
+   * @param replay Whether the cassette is replayed rather than recorded to.
+   * @param latencyScale The factor recorded latencies are scaled by when replaying.
+   * @throws IllegalStateException If the queue has already been started.
+   */
+  private void setCassette(HttpCassette cassette, boolean replay, float latencyScale) {
+    if (!mRequestQueueStarted.compareAndSet(false, true)) {
+      throw new IllegalStateException("The request queue has already been started");
+    }
+    synchronized (this) {
+      mCassette = cassette;
+      mReplay = replay;
+      mReplayLatencyScale = latencyScale;
+    }
+    buildRequestQueue();
+  }
+
+  /**
+   * Creates the {@link HttpStack} used by the {@link RequestQueue}. HTTPS connections use the
+   * {@link TlsSessionManager} socket factory so that TLS sessions are resumed across launches.
+   * @return The HttpStack.
+   */
+  private HttpStack newHttpStack() {
+    return new HurlStack(
+        null /* urlRewriter */,
+        TlsSessionManager.getInstance(mAppContext).getSocketFactory());
   }
 
   /**
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.model;
+
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class that represents the changes to user-scoped entities since a sync token. A change set is
+ * delivered as the result of a {@link CodepunkResponse}:
+ * <pre>
+ * {"result": {"changes": [...], "next_token": "...", "has_more": false}}
+ * </pre>
+ * Tokens are opaque; pass {@link #getNextToken()} back to get the changes that follow. If
+ * {@link #hasMore()} is true, more changes are already waiting.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class ChangeSet {
+
+  /**
+   * The changes, at most one per entity.
+   */
+  @SerializedName("changes")
+  private List<Change> mChanges;
+
+  /**
+   * The token to request the following changes with.
+   */
+  @SerializedName("next_token")
+  private String mNextToken;
+
+  /**
+   * Whether more changes are waiting after this set.
+   */
+  @SerializedName("has_more")
+  private boolean mHasMore;
+
+  /**
+   * Private constructor.
+   */
+  private ChangeSet() {
+  }
+
+  /**
+   * Constructor that takes the contents of a change set.
+   * @param changes The changes.
+   * @param nextToken The token to request the following changes with.
+   * @param hasMore Whether more changes are waiting after this set.
+   */
+  public ChangeSet(List<Change> changes, String nextToken, boolean hasMore) {
+    mChanges = changes;
+    mNextToken = nextToken;
+    mHasMore = hasMore;
+  }
+
+  /**
+   * Returns the changes, at most one per entity.
+   * @return The changes.
+   */
+  public List<Change> getChanges() {
+    return (mChanges == null ? Collections.<Change>emptyList() : mChanges);
+  }
+
+  /**
+   * Returns the token to request the following changes with.
+   * @return The token.
+   */
+  public String getNextToken() {
+    return mNextToken;
+  }
+
+  /**
+   * Returns whether more changes are waiting after this set.
+   * @return True if there are more changes.
+   */
+  public boolean hasMore() {
+    return mHasMore;
+  }
+
+  /**
+   * A class that represents the change to one entity: either the fields written since the
+   * token, or a tombstone if the entity was deleted.
+   */
+  public static class Change {
+
+    /**
+     * The entity type, for instance {@code "user"}.
+     */
+    @SerializedName("type")
+    private String mType;
+
+    /**
+     * The entity id.
+     */
+    @SerializedName("id")
+    private String mId;
+
+    /**
+     * The version of the entity after the change. Versions only increase.
+     */
+    @SerializedName("version")
+    private long mVersion;
+
+    /**
+     * Whether the entity was deleted.
+     */
+    @SerializedName("deleted")
+    private boolean mDeleted;
+
+    /**
+     * The fields written since the token. Empty for a deletion.
+     */
+    @SerializedName("fields")
+    private JsonObject mFields;
+
+    /**
+     * Private constructor.
+     */
+    private Change() {
+    }
+
+    /**
+     * Constructor that takes the contents of a change.
+     * @param type The entity type.
+     * @param id The entity id.
+     * @param version The version of the entity after the change.
+     * @param deleted Whether the entity was deleted.
+     * @param fields The fields written, or null for a deletion.
+     */
+    public Change(String type, String id, long version, boolean deleted, JsonObject fields) {
+      mType = type;
+      mId = id;
+      mVersion = version;
+      mDeleted = deleted;
+      mFields = fields;
+    }
+
+    /**
+     * Returns the entity type.
+     * @return The type.
+     */
+    public String getType() {
+      return mType;
+    }
+
+    /**
+     * Returns the entity id.
+     * @return The id.
+     */
+    public String getId() {
+      return mId;
+    }
+
+    /**
+     * Returns the version of the entity after the change.
+     * @return The version.
+     */
+    public long getVersion() {
+      return mVersion;
+    }
+
+    /**
+     * Returns whether the entity was deleted.
+     * @return True if the change is a tombstone.
+     */
+    public boolean isDeleted() {
+      return mDeleted;
+    }
+
+    /**
+     * Returns the fields written since the token.
+     * @return The fields. Empty for a deletion.
+     */
+    public JsonObject getFields() {
+      return (mFields == null ? new JsonObject() : mFields);
+    }
+  }
+}
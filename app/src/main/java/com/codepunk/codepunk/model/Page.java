@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.model;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class that represents one page of a cursor-paginated Codepunk api collection. A page is
+ * delivered as the result of a {@link CodepunkResponse}:
+ * <pre>
+ * {"result": {"items": [...], "next_cursor": "..."}}
+ * </pre>
+ * Cursors are opaque; pass {@link #getNextCursor()} back to the same endpoint to get the next
+ * page.
+ * @param <T> The type of the items in the page.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class Page<T> {
+
+  /**
+   * The items in this page.
+   */
+  @SerializedName("items")
+  private List<T> mItems;
+
+  /**
+   * The cursor of the next page, or null if this is the last page.
+   */
+  @SerializedName("next_cursor")
+  private String mNextCursor;
+
+  /**
+   * Private constructor.
+   */
+  private Page() {
+  }
+
+  /**
+   * Constructor that takes the contents of a page.
+   * @param items The items in the page.
+   * @param nextCursor The cursor of the next page, or null if this is the last page.
+   */
+  public Page(List<T> items, String nextCursor) {
+    mItems = items;
+    mNextCursor = nextCursor;
+  }
+
+  /**
+   * Returns the items in this page.
+   * @return The items.
+   */
+  public List<T> getItems() {
+    return (mItems == null ? Collections.<T>emptyList() : mItems);
+  }
+
+  /**
+   * Returns the cursor of the next page.
+   * @return The cursor, or null if this is the last page.
+   */
+  public String getNextCursor() {
+    return mNextCursor;
+  }
+
+  /**
+   * Returns whether there is a page after this one.
+   * @return True if there are more pages.
+   */
+  public boolean hasMore() {
+    return mNextCursor != null;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.model;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class representing a chunked upload session on the Codepunk api.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class UploadSession {
+
+  /**
+   * The id of the session.
+   */
+  @SerializedName("id")
+  private String mId;
+
+  /**
+   * The name the file will be stored under.
+   */
+  @SerializedName("name")
+  private String mName;
+
+  /**
+   * The length of the file.
+   */
+  @SerializedName("length")
+  private long mLength;
+
+  /**
+   * The hex-encoded SHA-256 checksum of the file.
+   */
+  @SerializedName("sha256")
+  private String mSha256;
+
+  /**
+   * The size of every chunk but the last.
+   */
+  @SerializedName("chunk_size")
+  private int mChunkSize;
+
+  /**
+   * The indices of the chunks the server has received.
+   */
+  @SerializedName("received")
+  private List<Integer> mReceived;
+
+  /**
+   * Whether the file has been assembled and stored.
+   */
+  @SerializedName("complete")
+  private boolean mComplete;
+
+  /**
+   * Private constructor.
+   */
+  private UploadSession() {
+  }
+
+  /**
+   * Returns the id of the session.
+   * @return The id.
+   */
+  public String getId() {
+    return mId;
+  }
+
+  /**
+   * Returns the name the file will be stored under.
+   * @return The name.
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * Returns the length of the file.
+   * @return The length.
+   */
+  public long getLength() {
+    return mLength;
+  }
+
+  /**
+   * Returns the hex-encoded SHA-256 checksum of the file.
+   * @return The checksum.
+   */
+  public String getSha256() {
+    return mSha256;
+  }
+
+  /**
+   * Returns the size of every chunk but the last.
+   * @return The chunk size.
+   */
+  public int getChunkSize() {
+    return mChunkSize;
+  }
+
+  /**
+   * Returns the number of chunks the file is split into.
+   * @return The number of chunks.
+   */
+  public int getChunkCount() {
+    return (mChunkSize <= 0 ? 0 : (int) ((mLength + mChunkSize - 1) / mChunkSize));
+  }
+
+  /**
+   * Returns the indices of the chunks the server has received.
+   * @return The indices.
+   */
+  public List<Integer> getReceived() {
+    return (mReceived == null ? Collections.<Integer>emptyList() : mReceived);
+  }
+
+  /**
+   * Returns whether the file has been assembled and stored.
+   * @return True if the upload is complete.
+   */
+  public boolean isComplete() {
+    return mComplete;
+  }
+}
@@ -18,8 +18,9 @@ package com.codepunk.codepunk.model;
 
 import com.google.gson.annotations.SerializedName;
 
+import com.codepunk.codepunk.util.StringPool;
+
 // TODO Make Parcelable?
-// TODO Make a Builder?
 
 /**
  * A class which represents a user.
@@ -27,6 +28,11 @@ import com.google.gson.annotations.SerializedName;
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class User {
 
+  /**
+   * The entity type of users in a {@link ChangeSet}.
+   */
+  public static final String ENTITY_TYPE = "user";
+
   /**
    * The user's numeric ID.
    */
@@ -93,6 +99,67 @@ public class User {
   private User() {
   }
 
+  /**
+   * Constructor that copies the values of a {@link Builder}.
+   * @param builder The builder.
+   */
+  private User(Builder builder) {
+    mId = builder.mId;
+    mCredentialsExpired = builder.mCredentialsExpired;
+    mEmail = builder.mEmail;
+    mEmailCanonical = builder.mEmailCanonical;
+    mEnabled = builder.mEnabled;
+    mExpired = builder.mExpired;
+    mLastLogin = builder.mLastLogin;
+    mLocked = builder.mLocked;
+    mUsername = builder.mUsername;
+    mUsernameCanonical = builder.mUsernameCanonical;
+    shareCanonicalValues();
+  }
+
+  /**
+   * Deduplicates this user's strings after decoding: the username and email (and their
+   * canonical forms, when they differ from them) are replaced by the instances in a
+   * {@link StringPool}, and canonical forms equal to their originals share their instance.
+   * @param pool The pool.
+   * @return This user.
+   * @see UserTypeAdapterFactory
+   */
+  User deduplicate(StringPool pool) {
+    shareCanonicalValues();
+    if (mUsernameCanonical != mUsername) {
+      mUsernameCanonical = pool.intern(mUsernameCanonical);
+    }
+    if (mEmailCanonical != mEmail) {
+      mEmailCanonical = pool.intern(mEmailCanonical);
+    }
+    mUsername = pool.intern(mUsername);
+    mEmail = pool.intern(mEmail);
+    shareCanonicalValues();
+    return this;
+  }
+
+  /**
+   * Makes canonical values that are equal to their originals (the usual case) share the
+   * original's instance.
+   */
+  private void shareCanonicalValues() {
+    if (mUsername != null && mUsername.equals(mUsernameCanonical)) {
+      mUsernameCanonical = mUsername;
+    }
+    if (mEmail != null && mEmail.equals(mEmailCanonical)) {
+      mEmailCanonical = mEmail;
+    }
+  }
+
+  /**
+   * Returns a builder pre-populated with this user's values.
+   * @return A new {@link Builder}.
+   */
+  public Builder buildUpon() {
+    return new Builder(this);
+  }
+
   /**
    * Returns the user's numeric ID.
    * @return The user's ID.
@@ -173,4 +240,153 @@ public class User {
   public String getUsernameCanonical() {
     return mUsernameCanonical;
   }
+
+  /**
+   * Builder class for {@link User}, for creating users that did not come from the api (for
+   * instance when reading them back from a local store).
+   */
+  public static class Builder {
+    private int mId;
+    private boolean mCredentialsExpired;
+    private String mEmail;
+    private String mEmailCanonical;
+    private boolean mEnabled;
+    private boolean mExpired;
+    private String mLastLogin;
+    private boolean mLocked;
+    private String mUsername;
+    private String mUsernameCanonical;
+
+    /**
+     * Creates a builder with default values.
+     */
+    public Builder() {
+    }
+
+    /**
+     * Creates a builder pre-populated with the values of an existing user.
+     * @param user The user to copy.
+     */
+    private Builder(User user) {
+      mId = user.mId;
+      mCredentialsExpired = user.mCredentialsExpired;
+      mEmail = user.mEmail;
+      mEmailCanonical = user.mEmailCanonical;
+      mEnabled = user.mEnabled;
+      mExpired = user.mExpired;
+      mLastLogin = user.mLastLogin;
+      mLocked = user.mLocked;
+      mUsername = user.mUsername;
+      mUsernameCanonical = user.mUsernameCanonical;
+    }
+
+    /**
+     * Sets the user's numeric ID.
+     * @param id The ID.
+     * @return This builder.
+     */
+    public Builder setId(int id) {
+      mId = id;
+      return this;
+    }
+
+    /**
+     * Sets whether the user's credentials have expired.
+     * @param credentialsExpired Whether the credentials have expired.
+     * @return This builder.
+     */
+    public Builder setCredentialsExpired(boolean credentialsExpired) {
+      mCredentialsExpired = credentialsExpired;
+      return this;
+    }
+
+    /**
+     * Sets the user's email.
+     * @param email The email.
+     * @return This builder.
+     */
+    public Builder setEmail(String email) {
+      mEmail = email;
+      return this;
+    }
+
+    /**
+     * Sets the canonical representation of the user's email.
+     * @param emailCanonical The canonical email.
+     * @return This builder.
+     */
+    public Builder setEmailCanonical(String emailCanonical) {
+      mEmailCanonical = emailCanonical;
+      return this;
+    }
+
+    /**
+     * Sets whether the user's account is enabled.
+     * @param enabled Whether the account is enabled.
+     * @return This builder.
+     */
+    public Builder setEnabled(boolean enabled) {
+      mEnabled = enabled;
+      return this;
+    }
+
+    /**
+     * Sets whether the user's account is expired.
+     * @param expired Whether the account is expired.
+     * @return This builder.
+     */
+    public Builder setExpired(boolean expired) {
+      mExpired = expired;
+      return this;
+    }
+
+    /**
+     * Sets the date of the user's last login.
+     * @param lastLogin The date of the last login.
+     * @return This builder.
+     */
+    public Builder setLastLogin(String lastLogin) {
+      mLastLogin = lastLogin;
+      return this;
+    }
+
+    /**
+     * Sets whether the user's account is locked.
+     * @param locked Whether the account is locked.
+     * @return This builder.
+     */
+    public Builder setLocked(boolean locked) {
+      mLocked = locked;
+      return this;
+    }
+
+    /**
+     * Sets the user's username.
+     * @param username The username.
+     * @return This builder.
+     */
+    public Builder setUsername(String username) {
+      mUsername = username;
+      return this;
+    }
+
+    /**
+     * Sets the canonical representation of the user's username.
+     * @param usernameCanonical The canonical username.
+     * @return This builder.
+     */
+    public Builder setUsernameCanonical(String usernameCanonical) {
+      mUsernameCanonical = usernameCanonical;
+      return this;
+    }
+
+    /**
+     * Creates a user from the values set on this builder. The builder can be reused afterwards;
+     * later changes do not affect users that have already been built.
+     * @return The new user.
+     */
+    public User build() {
+      return new User(this);
+    }
+  }
 }
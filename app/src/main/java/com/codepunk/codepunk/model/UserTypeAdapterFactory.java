@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.model;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import com.codepunk.codepunk.util.StringPool;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * A {@link TypeAdapterFactory} that deduplicates the strings of every {@link User} as it is
+ * decoded. Canonical usernames and emails that equal the originals (the usual case) share their
+ * instance, and usernames and emails are shared through a bounded {@link StringPool} with the
+ * users decoded before, so a user decoded again (a reloaded page, a sync delta, a streamed list)
+ * does not retain new copies of them. Users in lists, pages and responses are covered too, since
+ * Gson uses this factory for every {@link User} it meets.
+ * </p>
+ *
+ * <p>
+ * Register it with {@link com.google.gson.GsonBuilder#registerTypeAdapterFactory}. Encoding is
+ * unchanged.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class UserTypeAdapterFactory implements TypeAdapterFactory {
+
+  /**
+   * The pool that decoded strings are shared through.
+   */
+  private final StringPool mPool;
+
+  /**
+   * Creates a factory with a pool of {@link StringPool#DEFAULT_CAPACITY} strings.
+   */
+  public UserTypeAdapterFactory() {
+    this(new StringPool());
+  }
+
+  /**
+   * Creates a factory.
+   * @param pool The pool that decoded strings are shared through.
+   */
+  public UserTypeAdapterFactory(StringPool pool) {
+    mPool = pool;
+  }
+
+  /**
+   * Returns the pool that decoded strings are shared through.
+   * @return The pool.
+   */
+  public StringPool getPool() {
+    return mPool;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+    if (type.getRawType() != User.class) {
+      return null;
+    }
+    final TypeAdapter<User> delegate =
+        gson.getDelegateAdapter(this, (TypeToken<User>) type);
+    return (TypeAdapter<T>) new TypeAdapter<User>() {
+      @Override
+      public void write(JsonWriter out, User value) throws IOException {
+        delegate.write(out, value);
+      }
+
+      @Override
+      public User read(JsonReader in) throws IOException {
+        final User user = delegate.read(in);
+        return (user == null ? null : user.deduplicate(mPool));
+      }
+    };
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import com.google.common.collect.ImmutableMap;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.content.Context;
+
+import com.codepunk.codepunk.app.AppComponents;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * An in-memory index of accounts by type and name. Each account type is loaded with a single
+ * {@link AccountManager#getAccountsByType(String)} call the first time it is looked up; after
+ * that, lookups are a map lookup with no IPC. The index is kept current through an
+ * {@link OnAccountsUpdateListener}, which receives every account whenever any of them changes.
+ * </p>
+ *
+ * <p>
+ * The listener is called asynchronously, so an account added by another process may not be in
+ * the index for a moment. Callers that have reason to believe an account was just added (i.e.
+ * after the account picker returns) should use {@link #getAccountOrRefresh(String, String)},
+ * which falls back to the {@link AccountManager} on a miss. Accounts added by this app should be
+ * reported through {@link #onAccountAdded(Account)}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AccountIndex {
+
+  /**
+   * {@link AccountManager} instance.
+   */
+  private final AccountManager mAccountManager;
+
+  /**
+   * Accounts by name, keyed by account type. Each map is immutable and is replaced as a whole.
+   */
+  private final ConcurrentMap<String, ImmutableMap<String, Account>> mIndex =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Rebuilds the index whenever the accounts on the device change.
+   */
+  private final OnAccountsUpdateListener mListener = new OnAccountsUpdateListener() {
+    @Override
+    public void onAccountsUpdated(Account[] accounts) {
+      rebuild(accounts);
+    }
+  };
+
+  /**
+   * Constructor that accepts a {@link Context} and starts listening for account changes. The
+   * singleton instance is created by {@link com.codepunk.codepunk.app.AppModule}; use
+   * {@link #getInstance(Context)} to get it.
+   * @param context The context to use to get the {@link AccountManager}.
+   */
+  @SuppressWarnings({"MissingPermission"})
+  public AccountIndex(Context context) {
+    mAccountManager = AccountManager.get(context.getApplicationContext());
+    // Regarding GET_ACCOUNTS permission: According to the documentation,
+    // 'Note: Beginning with Android 6.0 (API level 23), if an app shares the signature of the
+    // authenticator that manages an account, it does not need "GET_ACCOUNTS" permission to read
+    // information about that account. On Android 5.1 and lower, all apps need "GET_ACCOUNTS"
+    // permission to read information about any account.'
+    // We should never need to check for this permission, because it is required for all versions
+    // < API 23 as per the manifest, and for any version >= API 23 (in which the user can turn
+    // individual runtime permissions on/off), it is no longer required. The same applies to
+    // getAccountsByType below.
+    mAccountManager.addOnAccountsUpdatedListener(mListener, null, false);
+  }
+
+  /**
+   * Returns the singleton instance from the app's {@link com.codepunk.codepunk.app.AppComponent}.
+   * @param context Unused; the instance is bound to the application context.
+   * @return The singleton instance.
+   */
+  public static AccountIndex getInstance(Context context) {
+    return AppComponents.get().accountIndex();
+  }
+
+  /**
+   * Returns the account with the given name and type from the index.
+   * @param accountName The name of the account.
+   * @param accountType The type of the account.
+   * @return The account, or null if the index has no such account.
+   */
+  public Account getAccount(String accountName, String accountType) {
+    if (accountName == null || accountType == null) {
+      return null;
+    }
+    return getAccounts(accountType).get(accountName);
+  }
+
+  /**
+   * Returns the account with the given name and type, reloading the accounts of that type from
+   * the {@link AccountManager} if the index has no such account.
+   * @param accountName The name of the account.
+   * @param accountType The type of the account.
+   * @return The account, or null if there is no such account.
+   */
+  public Account getAccountOrRefresh(String accountName, String accountType) {
+    final Account account = getAccount(accountName, accountType);
+    if (account != null || accountName == null || accountType == null) {
+      return account;
+    }
+    return refresh(accountType).get(accountName);
+  }
+
+  /**
+   * Returns every indexed account of a type, keyed by name.
+   * @param accountType The type of the accounts.
+   * @return The accounts.
+   */
+  public Map<String, Account> getAccounts(String accountType) {
+    final ImmutableMap<String, Account> accounts = mIndex.get(accountType);
+    if (accounts != null) {
+      return accounts;
+    }
+    final ImmutableMap<String, Account> loaded = load(accountType);
+    final ImmutableMap<String, Account> existing = mIndex.putIfAbsent(accountType, loaded);
+    return (existing == null ? loaded : existing);
+  }
+
+  /**
+   * Adds an account to the index ahead of the account change notification.
+   * @param account The account that was added.
+   */
+  public void onAccountAdded(Account account) {
+    final Map<String, Account> accounts = new HashMap<>(getAccounts(account.type));
+    accounts.put(account.name, account);
+    mIndex.put(account.type, ImmutableMap.copyOf(accounts));
+  }
+
+  /**
+   * Reloads the accounts of a type from the {@link AccountManager}.
+   * @param accountType The type of the accounts.
+   * @return The accounts.
+   */
+  private ImmutableMap<String, Account> refresh(String accountType) {
+    final ImmutableMap<String, Account> loaded = load(accountType);
+    mIndex.put(accountType, loaded);
+    return loaded;
+  }
+
+  /**
+   * Loads the accounts of a type from the {@link AccountManager}.
+   * @param accountType The type of the accounts.
+   * @return The accounts.
+   */
+  @SuppressWarnings({"MissingPermission"})
+  private ImmutableMap<String, Account> load(String accountType) {
+    return index(mAccountManager.getAccountsByType(accountType), accountType);
+  }
+
+  /**
+   * Rebuilds the index from the complete list of accounts on the device, in a single pass over
+   * the accounts. Only the account types that have been looked up are indexed; the accounts of
+   * other types are skipped.
+   * @param accounts Every account on the device.
+   */
+  private void rebuild(Account[] accounts) {
+    final Map<String, Map<String, Account>> index = new HashMap<>();
+    for (String type : mIndex.keySet()) {
+      index.put(type, new HashMap<String, Account>());
+    }
+    if (accounts != null) {
+      for (Account account : accounts) {
+        final Map<String, Account> accountsOfType = index.get(account.type);
+        if (accountsOfType != null) {
+          accountsOfType.put(account.name, account);
+        }
+      }
+    }
+    for (Map.Entry<String, Map<String, Account>> entry : index.entrySet()) {
+      mIndex.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue()));
+    }
+  }
+
+  /**
+   * Indexes the accounts of a type by name.
+   * @param accounts The accounts, which may include accounts of other types.
+   * @param accountType The type of the accounts to index.
+   * @return The accounts of the given type, keyed by name.
+   */
+  private static ImmutableMap<String, Account> index(Account[] accounts, String accountType) {
+    final Map<String, Account> index = new HashMap<>();
+    if (accounts != null) {
+      for (Account account : accounts) {
+        if (accountType.equals(account.type)) {
+          index.put(account.name, account);
+        }
+      }
+    }
+    return ImmutableMap.copyOf(index);
+  }
+}
@@ -18,9 +18,18 @@ package com.codepunk.codepunk.util;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.accounts.AccountManagerCallback;
+import android.accounts.AccountManagerFuture;
+import android.accounts.AuthenticatorException;
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
 import android.text.TextUtils;
 
 import java.util.Arrays;
@@ -53,29 +62,64 @@ public class AccountManagerUtils {
   }
 
   /**
-   * Returns the {@link Account} that matches the supplied name and account type.
+   * Gets an auth token of the specified type for a particular account as a
+   * {@link ListenableFuture}, prompting the user for credentials through the supplied activity
+   * if necessary. The future completes with the token (or fails with the exception reported by
+   * the {@link AccountManager}) on the supplied handler's thread, or on the main thread if the
+   * handler is null. Canceling the future cancels the underlying {@link AccountManagerFuture}.
+   * If no token is returned (for example because the user needs to log in and there is no
+   * activity to show the login screen with), the future fails with an
+   * {@link AuthenticatorException}.
    * @param accountManager An {@link AccountManager} instance.
-   * @param accountName The name of the {@link Account} you are searching for.
-   * @param accountType The account type of the {@link Account} you are searching for.
-   * @return The {@link Account} that matches the supplied name and account type, or null if
-   * no account matched the supplied name and account type.
+   * @param account The account to fetch an auth token for.
+   * @param authTokenType The auth token type.
+   * @param activity The {@link Activity} used to prompt the user for credentials, or null.
+   * @param handler The {@link Handler} to complete the future on, or null for the main thread.
+   * @return A {@link ListenableFuture} that completes with the auth token.
    */
-  @SuppressWarnings({"MissingPermission"})
-  public static Account getAccountByNameAndType(
+  public static ListenableFuture<String> getAuthTokenFuture(
       AccountManager accountManager,
-      String accountName,
-      String accountType) {
-    // Regarding GET_ACCOUNTS permission: According to the documentation,
-    // 'Note: Beginning with Android 6.0 (API level 23), if an app shares the signature of the
-    // authenticator that manages an account, it does not need "GET_ACCOUNTS" permission to read
-    // information about that account. On Android 5.1 and lower, all apps need "GET_ACCOUNTS"
-    // permission to read information about any account.'
-    // We should never need to check for this permission, because it is required for all versions
-    // < API 23 as per the manifest, and for any version >= API 23 (in which the user can turn
-    // individual runtime permissions on/off), it is no longer required.
-    return findAccountByName(
-        accountManager.getAccountsByType(accountType),
-        accountName);
+      Account account,
+      String authTokenType,
+      Activity activity,
+      Handler handler) {
+    final SettableFuture<String> future = SettableFuture.create();
+    final AccountManagerCallback<Bundle> callback = new AccountManagerCallback<Bundle>() {
+      @Override
+      public void run(AccountManagerFuture<Bundle> accountManagerFuture) {
+        try {
+          final Bundle result = accountManagerFuture.getResult();
+          final String authToken = result.getString(AccountManager.KEY_AUTHTOKEN);
+          if (TextUtils.isEmpty(authToken)) {
+            // Without an activity, a login that is required comes back as an intent instead
+            future.setException(new AuthenticatorException(
+                result.containsKey(AccountManager.KEY_INTENT) ?
+                    "The account requires the user to log in" :
+                    "No auth token was returned"));
+          } else {
+            future.set(authToken);
+          }
+        } catch (Exception e) {
+          future.setException(e);
+        }
+      }
+    };
+    final AccountManagerFuture<Bundle> accountManagerFuture = accountManager.getAuthToken(
+        account,
+        authTokenType,
+        null,
+        activity,
+        callback,
+        handler);
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (future.isCancelled()) {
+          accountManagerFuture.cancel(true);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
   }
 
   /**
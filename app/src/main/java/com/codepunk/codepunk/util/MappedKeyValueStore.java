@@ -0,0 +1,596 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A small string key-value store backed by a memory-mapped, append-only log. It is meant for the
+ * handful of values (such as the saved account name) that are read on the main thread during
+ * startup, where {@link android.content.SharedPreferences} blocks on parsing its XML file the
+ * first time it is accessed and queues {@code apply()} writes that are flushed, on the main
+ * thread, when an activity pauses.
+ * </p>
+ *
+ * <p>
+ * The log is loaded lazily: either on a background thread through {@link #preload(Executor)},
+ * or on the first read if it hasn't been preloaded. A read that arrives while a preload is in
+ * progress waits for it rather than loading the log twice. After that, reads come from memory.
+ * If the log can't be loaded, reads fall back to the values written since (or to their
+ * defaults), writes are kept in memory, and the next access tries to load the log again; once it
+ * loads, the writes kept in memory are written to it.
+ * </p>
+ *
+ * <p>
+ * A write appends one record to the mapped log, which is a plain memory write; the kernel
+ * writes the dirty pages back on its own, so they survive the process dying (though not the
+ * device losing power; use {@link #flush()} for that). When the mapped region fills up, the log
+ * is compacted down to the live values into a new file, which replaces the old one.
+ * </p>
+ *
+ * <p>
+ * Each record is <code>[key length][value length][key][value][CRC32]</code>, with a value length
+ * of -1 marking a removal. Replay stops at the first record that is empty, truncated or fails
+ * its checksum, so a write torn by a crash loses only itself.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class MappedKeyValueStore {
+
+  /**
+   * Supplies the initial values of a store whose log doesn't exist yet.
+   */
+  public interface Migration {
+
+    /**
+     * Returns the values to seed a new store with (i.e. the values in the
+     * {@link android.content.SharedPreferences} file the store replaces). This is called again
+     * if the new log can't be written, so it must not remove the values from their old home.
+     * @return The values. May be empty, but not null.
+     */
+    Map<String, String> migrate();
+
+    /**
+     * Called once the migrated values have been durably written to the new log; this is the
+     * time to remove them from their old home.
+     * @param values The values {@link #migrate()} returned.
+     */
+    void onMigrated(Map<String, String> values);
+  }
+
+  /**
+   * The default size of the mapped region, in bytes.
+   */
+  public static final int DEFAULT_INITIAL_CAPACITY = 16 * 1024;
+
+  /**
+   * Marks the start of a log file ("CPKV").
+   */
+  private static final int MAGIC = 0x43504B56;
+
+  /**
+   * The version of the log format.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * The size of the file header (magic and version).
+   */
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * The size of the fixed part of a record (key length, value length and checksum).
+   */
+  private static final int RECORD_OVERHEAD = 12;
+
+  /**
+   * The value length that marks a removal.
+   */
+  private static final int REMOVED = -1;
+
+  /**
+   * The charset keys and values are encoded in.
+   */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The log file.
+   */
+  private final File mFile;
+
+  /**
+   * The migration to run if the log file doesn't exist, or null.
+   */
+  private final Migration mMigration;
+
+  /**
+   * The smallest size of the mapped region, in bytes.
+   */
+  private final int mInitialCapacity;
+
+  /**
+   * The live values. Replaced when the log is loaded; otherwise only modified while holding this
+   * store's monitor.
+   */
+  private volatile Map<String, String> mValues = new ConcurrentHashMap<>();
+
+  /**
+   * Loads the log. Replaced by a new task if a load fails, so that the next access tries again.
+   */
+  private final AtomicReference<FutureTask<Void>> mLoadTask = new AtomicReference<>();
+
+  /**
+   * Whether the log has been loaded.
+   */
+  private volatile boolean mLoaded;
+
+  /**
+   * Writes made while the log couldn't be loaded, which are written to it once it loads. A null
+   * value is a removal. Guarded by this.
+   */
+  private final Map<String, String> mUnsaved = new HashMap<>();
+
+  /**
+   * The mapped log. Guarded by this.
+   */
+  private MappedByteBuffer mBuffer;
+
+  /**
+   * The offset at which the next record will be written. Guarded by this.
+   */
+  private int mPosition;
+
+  /**
+   * Creates a store. Nothing is read until the store is preloaded or first accessed.
+   * @param file The log file.
+   * @param migration The migration to run if the log file doesn't exist, or null.
+   */
+  public MappedKeyValueStore(File file, Migration migration) {
+    this(file, migration, DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * Creates a store. Nothing is read until the store is preloaded or first accessed.
+   * @param file The log file.
+   * @param migration The migration to run if the log file doesn't exist, or null.
+   * @param initialCapacity The smallest size of the mapped region, in bytes.
+   */
+  public MappedKeyValueStore(File file, Migration migration, int initialCapacity) {
+    mFile = file;
+    mMigration = migration;
+    mInitialCapacity = Math.max(HEADER_SIZE + RECORD_OVERHEAD + 4, initialCapacity);
+    mLoadTask.set(newLoadTask());
+  }
+
+  /**
+   * Starts loading the log on the given executor, if it hasn't been loaded already.
+   * @param executor The executor to load the log on.
+   */
+  public void preload(Executor executor) {
+    if (!mLoaded) {
+      executor.execute(getLoadTask());
+    }
+  }
+
+  /**
+   * Returns whether the log has been loaded.
+   * @return True if the log has been loaded.
+   */
+  public boolean isLoaded() {
+    return mLoaded;
+  }
+
+  /**
+   * Returns a value.
+   * @param key The key.
+   * @param defaultValue The value to return if there is no value for the key.
+   * @return The value, or defaultValue.
+   */
+  public String getString(String key, String defaultValue) {
+    awaitLoaded();
+    final String value = mValues.get(key);
+    return (value == null ? defaultValue : value);
+  }
+
+  /**
+   * Returns whether the store has a value for a key.
+   * @param key The key.
+   * @return True if there is a value for the key.
+   */
+  public boolean contains(String key) {
+    awaitLoaded();
+    return mValues.containsKey(key);
+  }
+
+  /**
+   * Returns every value.
+   * @return An unmodifiable copy of the values.
+   */
+  public Map<String, String> getAll() {
+    awaitLoaded();
+    return Collections.unmodifiableMap(new HashMap<>(mValues));
+  }
+
+  /**
+   * Sets a value.
+   * @param key The key.
+   * @param value The value, or null to remove the key.
+   */
+  public void putString(String key, String value) {
+    awaitLoaded();
+    synchronized (this) {
+      if (!mLoaded) {
+        // The log may hold a value this write replaces, so it is kept even if it looks redundant
+        mUnsaved.put(key, value);
+      } else {
+        final String current = mValues.get(key);
+        if (value == null ? current == null : value.equals(current)) {
+          return;
+        }
+        append(key, value);
+      }
+      if (value == null) {
+        mValues.remove(key);
+      } else {
+        mValues.put(key, value);
+      }
+    }
+  }
+
+  /**
+   * Removes a value.
+   * @param key The key.
+   */
+  public void remove(String key) {
+    putString(key, null);
+  }
+
+  /**
+   * Forces the log to storage. Writes survive the process dying without this; it is only
+   * needed to survive the device losing power. Nothing happens if the log can't be loaded.
+   */
+  public void flush() {
+    if (!awaitLoaded()) {
+      return;
+    }
+    synchronized (this) {
+      mBuffer.force();
+    }
+  }
+
+  /**
+   * Returns the number of bytes the log currently occupies, including its header.
+   * @return The size of the log, or 0 if it can't be loaded.
+   */
+  public int getLogSize() {
+    if (!awaitLoaded()) {
+      return 0;
+    }
+    synchronized (this) {
+      return mPosition;
+    }
+  }
+
+  /**
+   * Returns the log file.
+   * @return The log file.
+   */
+  public File getFile() {
+    return mFile;
+  }
+
+  /**
+   * Creates a task that loads the log.
+   * @return The task.
+   */
+  private FutureTask<Void> newLoadTask() {
+    return new FutureTask<>(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        load();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Returns the task that loads the log, replacing it first if it has failed.
+   * @return The task.
+   */
+  private FutureTask<Void> getLoadTask() {
+    while (true) {
+      final FutureTask<Void> task = mLoadTask.get();
+      if (!task.isDone() || mLoaded || mLoadTask.compareAndSet(task, newLoadTask())) {
+        return mLoadTask.get();
+      }
+    }
+  }
+
+  /**
+   * Waits for the log to be loaded, loading it on the calling thread if nobody else is. If the
+   * last load failed, it is tried again. Must not be called while holding this store's monitor,
+   * which the load needs.
+   * @return True if the log is loaded, or false if it can't be loaded.
+   */
+  private boolean awaitLoaded() {
+    if (mLoaded) {
+      return true;
+    }
+    final FutureTask<Void> task = getLoadTask();
+    task.run();
+    try {
+      Uninterruptibles.getUninterruptibly(task);
+      return true;
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Loads the log, or creates it (running the migration) if it doesn't exist. Writes made
+   * while the log couldn't be loaded are applied on top. Nothing changes if this fails.
+   * @throws IOException If the log can't be read or created.
+   */
+  private synchronized void load() throws IOException {
+    final Map<String, String> values = new HashMap<>();
+    Map<String, String> migrated = null;
+    MappedByteBuffer buffer = null;
+    if (!mFile.exists() || mFile.length() < HEADER_SIZE) {
+      migrated = (mMigration == null ? null : mMigration.migrate());
+      if (migrated != null) {
+        for (Map.Entry<String, String> entry : migrated.entrySet()) {
+          if (entry.getKey() != null && entry.getValue() != null) {
+            values.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    } else {
+      buffer = map(mFile, (int) mFile.length());
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+        // Not a log we can read; start over
+        buffer = null;
+      }
+    }
+
+    if (buffer != null) {
+      final int position = replay(buffer, values);
+      if (mUnsaved.isEmpty()) {
+        mBuffer = buffer;
+        mPosition = position;
+      }
+    }
+    for (Map.Entry<String, String> entry : mUnsaved.entrySet()) {
+      if (entry.getValue() == null) {
+        values.remove(entry.getKey());
+      } else {
+        values.put(entry.getKey(), entry.getValue());
+      }
+    }
+    if (buffer == null || !mUnsaved.isEmpty()) {
+      rewrite(values);
+    }
+
+    mValues = new ConcurrentHashMap<>(values);
+    mUnsaved.clear();
+    mLoaded = true;
+    if (migrated != null) {
+      mMigration.onMigrated(migrated);
+    }
+  }
+
+  /**
+   * Replays the records in a log.
+   * @param buffer The mapped log.
+   * @param values The map to apply the records to.
+   * @return The offset just past the last valid record.
+   */
+  private static int replay(MappedByteBuffer buffer, Map<String, String> values) {
+    final int limit = buffer.capacity();
+    final CRC32 crc = new CRC32();
+    int position = HEADER_SIZE;
+    while (position + RECORD_OVERHEAD <= limit) {
+      final int keyLength = buffer.getInt(position);
+      final int valueLength = buffer.getInt(position + 4);
+      if (keyLength <= 0 || valueLength < REMOVED) {
+        break;
+      }
+      final int dataLength = keyLength + Math.max(0, valueLength);
+      if (dataLength < 0 || position + RECORD_OVERHEAD + dataLength > limit) {
+        break;
+      }
+      final byte[] record = new byte[8 + dataLength];
+      buffer.position(position);
+      buffer.get(record);
+      crc.reset();
+      crc.update(record, 0, record.length);
+      if (buffer.getInt(position + record.length) != (int) crc.getValue()) {
+        break;
+      }
+      final String key = new String(record, 8, keyLength, UTF_8);
+      if (valueLength == REMOVED) {
+        values.remove(key);
+      } else {
+        values.put(key, new String(record, 8 + keyLength, valueLength, UTF_8));
+      }
+      position += record.length + 4;
+    }
+    return position;
+  }
+
+  /**
+   * Appends a record to the log, compacting it first if the record doesn't fit.
+   * @param key The key.
+   * @param value The value, or null for a removal.
+   */
+  private void append(String key, String value) {
+    final byte[] record = encode(key, value);
+    try {
+      if (mPosition + record.length + 4 > mBuffer.capacity()) {
+        // Compact the live values along with this change into a new log
+        final Map<String, String> values = new HashMap<>(mValues);
+        if (value == null) {
+          values.remove(key);
+        } else {
+          values.put(key, value);
+        }
+        rewrite(values);
+        return;
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to compact " + mFile, e);
+    }
+    mBuffer.position(mPosition);
+    mBuffer.put(record);
+    mPosition += record.length;
+    if (mPosition + 4 <= mBuffer.capacity()) {
+      // Terminate the log, in case a torn record from an earlier run lies beyond this one
+      mBuffer.putInt(mPosition, 0);
+    }
+  }
+
+  /**
+   * Writes values to a new log that replaces the existing one, then maps the new log. The
+   * current log stays in use if this fails.
+   * @param values The values.
+   * @throws IOException If the log can't be written.
+   */
+  private void rewrite(Map<String, String> values) throws IOException {
+    final ByteArrayBuilder builder = new ByteArrayBuilder();
+    builder.putInt(MAGIC);
+    builder.putInt(VERSION);
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      builder.put(encode(entry.getKey(), entry.getValue()));
+    }
+    final byte[] log = builder.toByteArray();
+    int capacity = mInitialCapacity;
+    while (capacity < log.length * 2 + 4) {
+      capacity *= 2;
+    }
+
+    final File parent = mFile.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    final File temp = new File(mFile.getPath() + ".tmp");
+    final RandomAccessFile file = new RandomAccessFile(temp, "rw");
+    try {
+      file.setLength(capacity);
+      file.write(log);
+      file.getFD().sync();
+    } finally {
+      file.close();
+    }
+    if (!temp.renameTo(mFile)) {
+      throw new IOException("Unable to replace " + mFile);
+    }
+    mBuffer = map(mFile, capacity);
+    mPosition = log.length;
+  }
+
+  /**
+   * Maps a file for reading and writing. The mapping stays valid after the file is closed.
+   * @param file The file.
+   * @param size The number of bytes to map.
+   * @return The mapped file.
+   * @throws IOException If the file can't be mapped.
+   */
+  private static MappedByteBuffer map(File file, int size) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Encodes a record.
+   * @param key The key.
+   * @param value The value, or null for a removal.
+   * @return The record.
+   */
+  private static byte[] encode(String key, String value) {
+    final byte[] keyBytes = key.getBytes(UTF_8);
+    final byte[] valueBytes = (value == null ? null : value.getBytes(UTF_8));
+    final ByteArrayBuilder builder = new ByteArrayBuilder();
+    builder.putInt(keyBytes.length);
+    builder.putInt(valueBytes == null ? REMOVED : valueBytes.length);
+    builder.put(keyBytes);
+    if (valueBytes != null) {
+      builder.put(valueBytes);
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(builder.toByteArray());
+    builder.putInt((int) crc.getValue());
+    return builder.toByteArray();
+  }
+
+  /**
+   * A minimal growable byte array that writes ints in big-endian order, matching
+   * {@link java.nio.ByteBuffer}'s default.
+   */
+  private static class ByteArrayBuilder {
+    byte[] mBytes = new byte[64];
+    int mLength;
+
+    void putInt(int value) {
+      ensureCapacity(4);
+      mBytes[mLength++] = (byte) (value >>> 24);
+      mBytes[mLength++] = (byte) (value >>> 16);
+      mBytes[mLength++] = (byte) (value >>> 8);
+      mBytes[mLength++] = (byte) value;
+    }
+
+    void put(byte[] bytes) {
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, mBytes, mLength, bytes.length);
+      mLength += bytes.length;
+    }
+
+    byte[] toByteArray() {
+      final byte[] bytes = new byte[mLength];
+      System.arraycopy(mBytes, 0, bytes, 0, mLength);
+      return bytes;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (mLength + extra > mBytes.length) {
+        final byte[] bytes = new byte[Math.max(mBytes.length * 2, mLength + extra)];
+        System.arraycopy(mBytes, 0, bytes, 0, mLength);
+        mBytes = bytes;
+      }
+    }
+  }
+}
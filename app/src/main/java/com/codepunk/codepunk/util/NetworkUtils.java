@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.text.TextUtils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Utility class that provides useful network-related methods.
+ */
+@SuppressWarnings("WeakerAccess")
+public class NetworkUtils {
+
+  /**
+   * The network type reported when there is no active network.
+   */
+  public static final String NETWORK_TYPE_NONE = "none";
+
+  /**
+   * The type of the active network as of the last connectivity change, or null until
+   * {@link #getCurrentNetworkType(Context)} is first called.
+   */
+  private static volatile String sCurrentNetworkType;
+
+  /**
+   * Whether the receiver that keeps {@link #sCurrentNetworkType} up to date has been registered.
+   */
+  private static final AtomicBoolean sReceiverRegistered = new AtomicBoolean();
+
+  /**
+   * Returns the type of the active network like {@link #getNetworkType(Context)}, but without a
+   * call to the {@link ConnectivityManager} each time: the type is cached and refreshed by a
+   * receiver of {@link ConnectivityManager#CONNECTIVITY_ACTION} broadcasts, which is registered
+   * on the application context the first time this is called.
+   * @param context The context to use to register the receiver.
+   * @return The network type, or {@link #NETWORK_TYPE_NONE} if there is no active network.
+   */
+  public static String getCurrentNetworkType(Context context) {
+    final String networkType = sCurrentNetworkType;
+    if (networkType != null) {
+      return networkType;
+    }
+    final Context appContext = context.getApplicationContext();
+    if (sReceiverRegistered.compareAndSet(false, true)) {
+      // The sticky broadcast is delivered right after registering, so a change that races with
+      // the read below is overwritten by the receiver
+      appContext.registerReceiver(new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+          sCurrentNetworkType = getNetworkType(context);
+        }
+      }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+    final String currentNetworkType = getNetworkType(appContext);
+    sCurrentNetworkType = currentNetworkType;
+    return currentNetworkType;
+  }
+
+  /**
+   * Returns a short description of the type of the active network, such as "wifi" or
+   * "mobile:LTE". Networks with very different latency characteristics have different types.
+   * @param context The context to use to get the {@link ConnectivityManager}.
+   * @return The network type, or {@link #NETWORK_TYPE_NONE} if there is no active network.
+   */
+  public static String getNetworkType(Context context) {
+    final ConnectivityManager connectivityManager =
+        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    final NetworkInfo networkInfo =
+        (connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo());
+    if (networkInfo == null) {
+      return NETWORK_TYPE_NONE;
+    }
+    final String typeName = networkInfo.getTypeName().toLowerCase(Locale.US);
+    final String subtypeName = networkInfo.getSubtypeName();
+    return TextUtils.isEmpty(subtypeName) ? typeName : typeName + ':' + subtypeName;
+  }
+
+  /**
+   * Private constructor.
+   */
+  private NetworkUtils() {
+  }
+}
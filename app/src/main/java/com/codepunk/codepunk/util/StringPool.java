@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+/**
+ * <p>
+ * A bounded pool of canonical {@link String} instances, used to share equal strings between
+ * decoded objects. Decoding the same entity again (a page reloaded, a sync delta, a streamed
+ * list) produces new but equal strings; running them through a pool lets every copy point at
+ * one instance, so the duplicates become garbage immediately instead of being retained.
+ * </p>
+ *
+ * <p>
+ * Unlike {@link String#intern()}, the pool never grows: it is a table of {@code capacity} slots
+ * grouped in buckets of two, and a string whose bucket is full evicts the older of the two.
+ * Lookups don't lock. Concurrent callers may occasionally miss a sharing opportunity, but
+ * always get a string equal to the one they passed in.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StringPool {
+
+  /**
+   * The default number of slots.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The slots. Slots {@code 2n} and {@code 2n + 1} form a bucket, holding the newest and the
+   * older of the last two strings that hashed to it.
+   */
+  private final String[] mSlots;
+
+  /**
+   * The shift that turns a mixed hash code into a bucket number.
+   */
+  private final int mShift;
+
+  /**
+   * Creates a pool with {@link #DEFAULT_CAPACITY} slots.
+   */
+  public StringPool() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a pool.
+   * @param capacity The maximum number of strings held, rounded up to a power of two (and at
+   * least 2).
+   */
+  public StringPool(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    int slots = 2;
+    while (slots < capacity) {
+      slots <<= 1;
+    }
+    mSlots = new String[slots];
+    mShift = Integer.numberOfLeadingZeros(slots / 2) + 1;
+  }
+
+  /**
+   * Returns the pooled instance equal to a string, pooling the string if there is none.
+   * @param string The string, or null.
+   * @return The pooled instance, or null if the string is null.
+   */
+  public String intern(String string) {
+    if (string == null) {
+      return null;
+    }
+    final int index = (mShift == 32 ? 0 : mix(string.hashCode()) >>> mShift) << 1;
+    final String newest = mSlots[index];
+    if (newest != null && (newest == string || newest.equals(string))) {
+      return newest;
+    }
+    final String older = mSlots[index + 1];
+    if (older != null && (older == string || older.equals(string))) {
+      return older;
+    }
+    mSlots[index + 1] = newest;
+    mSlots[index] = string;
+    return string;
+  }
+
+  /**
+   * Spreads a hash code over all 32 bits, so that similar strings (user1, user2...) land in
+   * different buckets. This is the MurmurHash3 finalizer.
+   * @param hash The hash code.
+   * @return The mixed hash code.
+   */
+  private static int mix(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    hash *= 0xC2B2AE35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  /**
+   * Returns the maximum number of strings held.
+   * @return The capacity.
+   */
+  public int getCapacity() {
+    return mSlots.length;
+  }
+
+  /**
+   * Returns the number of strings currently held.
+   * @return The size.
+   */
+  public int size() {
+    int size = 0;
+    for (String slot : mSlots) {
+      if (slot != null) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Removes all strings from the pool.
+   */
+  public void clear() {
+    for (int i = 0; i < mSlots.length; i++) {
+      mSlots[i] = null;
+    }
+  }
+}
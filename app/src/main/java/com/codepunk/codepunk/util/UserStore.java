@@ -0,0 +1,591 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.codepunk.codepunk.model.User;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * A local store of {@link User}s, backed by an SQLite table with indexes on {@code id} (the
+ * primary key), {@code username_canonical} and {@code email_canonical}, so that users the app has
+ * already seen can be looked up without calling the api.
+ * </p>
+ *
+ * <p>
+ * An identity map of up to {@link #DEFAULT_IDENTITY_MAP_SIZE} recently used users sits in front
+ * of the table: a user that is in it is returned without touching the database, and a lookup
+ * always returns the same instance for the same id while that instance stays in the map. Users
+ * are immutable, so sharing instances is safe.
+ * </p>
+ *
+ * <p>
+ * Writes never block the caller. {@link #put(User)}, {@link #putAll(Collection)} and
+ * {@link #delete(int)} update the identity map immediately and queue the write for a single
+ * writer thread, which commits everything queued so far in one transaction using insert and
+ * delete statements that are compiled once and reused. Lookups see queued writes before they
+ * reach the database. Lookups that miss the identity map query the database on the calling
+ * thread, so they should not be made on the main thread; the queries use bound arguments, so
+ * SQLite reuses their compiled statements from its per-connection statement cache.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class UserStore {
+
+  /**
+   * The maximum number of users kept in the identity map.
+   */
+  public static final int DEFAULT_IDENTITY_MAP_SIZE = 256;
+
+  /**
+   * The database schema version.
+   */
+  private static final int DATABASE_VERSION = 1;
+
+  private static final String TABLE_USERS = "users";
+  private static final String COLUMN_ID = "id";
+  private static final String COLUMN_CREDENTIALS_EXPIRED = "credentials_expired";
+  private static final String COLUMN_EMAIL = "email";
+  private static final String COLUMN_EMAIL_CANONICAL = "email_canonical";
+  private static final String COLUMN_ENABLED = "enabled";
+  private static final String COLUMN_EXPIRED = "expired";
+  private static final String COLUMN_LAST_LOGIN = "last_login";
+  private static final String COLUMN_LOCKED = "locked";
+  private static final String COLUMN_USERNAME = "username";
+  private static final String COLUMN_USERNAME_CANONICAL = "username_canonical";
+
+  /**
+   * The columns of the users table, in the order they are bound and read.
+   */
+  private static final String[] COLUMNS = {
+      COLUMN_ID,
+      COLUMN_CREDENTIALS_EXPIRED,
+      COLUMN_EMAIL,
+      COLUMN_EMAIL_CANONICAL,
+      COLUMN_ENABLED,
+      COLUMN_EXPIRED,
+      COLUMN_LAST_LOGIN,
+      COLUMN_LOCKED,
+      COLUMN_USERNAME,
+      COLUMN_USERNAME_CANONICAL
+  };
+
+  private static final String SQL_CREATE_TABLE = "CREATE TABLE " + TABLE_USERS + " ("
+      + COLUMN_ID + " INTEGER PRIMARY KEY, "
+      + COLUMN_CREDENTIALS_EXPIRED + " INTEGER NOT NULL, "
+      + COLUMN_EMAIL + " TEXT, "
+      + COLUMN_EMAIL_CANONICAL + " TEXT, "
+      + COLUMN_ENABLED + " INTEGER NOT NULL, "
+      + COLUMN_EXPIRED + " INTEGER NOT NULL, "
+      + COLUMN_LAST_LOGIN + " TEXT, "
+      + COLUMN_LOCKED + " INTEGER NOT NULL, "
+      + COLUMN_USERNAME + " TEXT, "
+      + COLUMN_USERNAME_CANONICAL + " TEXT)";
+
+  private static final String SQL_CREATE_USERNAME_INDEX = "CREATE INDEX "
+      + TABLE_USERS + "_" + COLUMN_USERNAME_CANONICAL + " ON "
+      + TABLE_USERS + " (" + COLUMN_USERNAME_CANONICAL + ")";
+
+  private static final String SQL_CREATE_EMAIL_INDEX = "CREATE INDEX "
+      + TABLE_USERS + "_" + COLUMN_EMAIL_CANONICAL + " ON "
+      + TABLE_USERS + " (" + COLUMN_EMAIL_CANONICAL + ")";
+
+  private static final String SQL_UPSERT = "INSERT OR REPLACE INTO " + TABLE_USERS + " ("
+      + COLUMN_ID + ", "
+      + COLUMN_CREDENTIALS_EXPIRED + ", "
+      + COLUMN_EMAIL + ", "
+      + COLUMN_EMAIL_CANONICAL + ", "
+      + COLUMN_ENABLED + ", "
+      + COLUMN_EXPIRED + ", "
+      + COLUMN_LAST_LOGIN + ", "
+      + COLUMN_LOCKED + ", "
+      + COLUMN_USERNAME + ", "
+      + COLUMN_USERNAME_CANONICAL + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  private static final String SQL_DELETE =
+      "DELETE FROM " + TABLE_USERS + " WHERE " + COLUMN_ID + " = ?";
+
+  /**
+   * The number of times a lookup queries the database before it gives up on adding the row it
+   * read to the identity map.
+   */
+  private static final int MAX_QUERY_ATTEMPTS = 3;
+
+  /**
+   * The executor that writes to the database, shared by all stores so that there is only ever
+   * one writer thread.
+   */
+  private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("UserStore-write")
+          .setDaemon(true)
+          .build());
+
+  /**
+   * The database helper.
+   */
+  private final OpenHelper mHelper;
+
+  /**
+   * The identity map of recently used users, keyed by id.
+   */
+  private final Cache<Integer, User> mUsersById;
+
+  /**
+   * The ids of recently used users, keyed by canonical username.
+   */
+  private final Cache<String, Integer> mIdsByUsername;
+
+  /**
+   * The ids of recently used users, keyed by canonical email.
+   */
+  private final Cache<String, Integer> mIdsByEmail;
+
+  /**
+   * Guards the queued writes.
+   */
+  private final Object mLock = new Object();
+
+  /**
+   * Writes that have not been started yet, keyed by id. A null user is a deletion. Guarded by
+   * {@link #mLock}.
+   */
+  private Map<Integer, User> mQueuedWrites = new LinkedHashMap<>();
+
+  /**
+   * Writes that are being committed. Guarded by {@link #mLock}.
+   */
+  private Map<Integer, User> mCommittingWrites = Collections.emptyMap();
+
+  /**
+   * The number of batches that have finished committing. Guarded by {@link #mLock}.
+   */
+  private long mCommitGeneration;
+
+  /**
+   * The future of the next batch, or null if no batch is scheduled. Guarded by {@link #mLock}.
+   */
+  private SettableFuture<Integer> mNextBatch;
+
+  /**
+   * The compiled insert statement. Only used on the writer thread.
+   */
+  private SQLiteStatement mUpsertStatement;
+
+  /**
+   * The compiled delete statement. Only used on the writer thread.
+   */
+  private SQLiteStatement mDeleteStatement;
+
+  /**
+   * Commits the queued writes.
+   */
+  private final Runnable mWriteTask = new Runnable() {
+    @Override
+    public void run() {
+      final SettableFuture<Integer> batch;
+      final Map<Integer, User> writes;
+      synchronized (mLock) {
+        batch = mNextBatch;
+        writes = mQueuedWrites;
+        mNextBatch = null;
+        mQueuedWrites = new LinkedHashMap<>();
+        mCommittingWrites = writes;
+      }
+      try {
+        commit(writes);
+        batch.set(writes.size());
+      } catch (RuntimeException e) {
+        batch.setException(e);
+      } finally {
+        synchronized (mLock) {
+          mCommittingWrites = Collections.emptyMap();
+          mCommitGeneration++;
+        }
+      }
+    }
+  };
+
+  /**
+   * Creates a store with an identity map of {@link #DEFAULT_IDENTITY_MAP_SIZE} users.
+   * @param context The context to use to open the database.
+   * @param name The database file name, or null for an in-memory database.
+   */
+  public UserStore(Context context, String name) {
+    this(context, name, DEFAULT_IDENTITY_MAP_SIZE);
+  }
+
+  /**
+   * Creates a store.
+   * @param context The context to use to open the database.
+   * @param name The database file name, or null for an in-memory database.
+   * @param identityMapSize The maximum number of users kept in the identity map.
+   */
+  public UserStore(Context context, String name, int identityMapSize) {
+    mHelper = new OpenHelper(context.getApplicationContext(), name);
+    mUsersById = CacheBuilder.newBuilder().maximumSize(identityMapSize).build();
+    mIdsByUsername = CacheBuilder.newBuilder().maximumSize(identityMapSize).build();
+    mIdsByEmail = CacheBuilder.newBuilder().maximumSize(identityMapSize).build();
+  }
+
+  /**
+   * Returns a user by id.
+   * @param id The user's id.
+   * @return The user, or null if the store has no such user.
+   */
+  public User getById(int id) {
+    final User cached = mUsersById.getIfPresent(id);
+    if (cached != null) {
+      return cached;
+    }
+    synchronized (mLock) {
+      if (mQueuedWrites.containsKey(id)) {
+        return mQueuedWrites.get(id);
+      } else if (mCommittingWrites.containsKey(id)) {
+        return mCommittingWrites.get(id);
+      }
+    }
+    return query(COLUMN_ID, String.valueOf(id));
+  }
+
+  /**
+   * Returns a user by canonical username.
+   * @param usernameCanonical The canonical username.
+   * @return The user, or null if the store has no such user.
+   */
+  public User getByUsername(String usernameCanonical) {
+    final Integer id = mIdsByUsername.getIfPresent(usernameCanonical);
+    if (id != null) {
+      final User user = getById(id);
+      if (user != null && usernameCanonical.equals(user.getUsernameCanonical())) {
+        return user;
+      }
+    }
+    return query(COLUMN_USERNAME_CANONICAL, usernameCanonical);
+  }
+
+  /**
+   * Returns a user by canonical email.
+   * @param emailCanonical The canonical email.
+   * @return The user, or null if the store has no such user.
+   */
+  public User getByEmail(String emailCanonical) {
+    final Integer id = mIdsByEmail.getIfPresent(emailCanonical);
+    if (id != null) {
+      final User user = getById(id);
+      if (user != null && emailCanonical.equals(user.getEmailCanonical())) {
+        return user;
+      }
+    }
+    return query(COLUMN_EMAIL_CANONICAL, emailCanonical);
+  }
+
+  /**
+   * Adds or replaces a user.
+   * @param user The user.
+   * @return A {@link ListenableFuture} that completes when the write has been committed.
+   */
+  public ListenableFuture<Integer> put(User user) {
+    return putAll(Collections.singleton(user));
+  }
+
+  /**
+   * Adds or replaces users. They are committed in the same transaction.
+   * @param users The users.
+   * @return A {@link ListenableFuture} that completes when the writes have been committed.
+   */
+  public ListenableFuture<Integer> putAll(Collection<User> users) {
+    synchronized (mLock) {
+      for (User user : users) {
+        remember(user, true);
+        mQueuedWrites.put(user.getId(), user);
+      }
+      return scheduleBatch();
+    }
+  }
+
+  /**
+   * Removes a user.
+   * @param id The user's id.
+   * @return A {@link ListenableFuture} that completes when the deletion has been committed.
+   */
+  public ListenableFuture<Integer> delete(int id) {
+    synchronized (mLock) {
+      mUsersById.invalidate(id);
+      mQueuedWrites.put(id, null);
+      return scheduleBatch();
+    }
+  }
+
+  /**
+   * Returns a future that completes once every write queued so far has been committed.
+   * @return The future.
+   */
+  public ListenableFuture<Integer> flush() {
+    synchronized (mLock) {
+      return scheduleBatch();
+    }
+  }
+
+  /**
+   * Empties the identity map. The database is untouched.
+   */
+  public void evictAll() {
+    mUsersById.invalidateAll();
+    mIdsByUsername.invalidateAll();
+    mIdsByEmail.invalidateAll();
+  }
+
+  /**
+   * Closes the database. Queued writes are committed first.
+   */
+  public void close() {
+    sWriteExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (mUpsertStatement != null) {
+          mUpsertStatement.close();
+          mDeleteStatement.close();
+          mUpsertStatement = null;
+          mDeleteStatement = null;
+        }
+        mHelper.close();
+      }
+    });
+  }
+
+  /**
+   * Returns the future of the next batch, scheduling one if necessary. Must be called while
+   * holding {@link #mLock}.
+   * @return The future.
+   */
+  private SettableFuture<Integer> scheduleBatch() {
+    if (mNextBatch == null) {
+      mNextBatch = SettableFuture.create();
+      sWriteExecutor.execute(mWriteTask);
+    }
+    return mNextBatch;
+  }
+
+  /**
+   * Commits a batch of writes in one transaction.
+   * @param writes The writes, keyed by id. A null user is a deletion.
+   */
+  private void commit(Map<Integer, User> writes) {
+    if (writes.isEmpty()) {
+      return;
+    }
+    final SQLiteDatabase db = mHelper.getWritableDatabase();
+    if (mUpsertStatement == null) {
+      mUpsertStatement = db.compileStatement(SQL_UPSERT);
+      mDeleteStatement = db.compileStatement(SQL_DELETE);
+    }
+    db.beginTransaction();
+    try {
+      for (Map.Entry<Integer, User> write : writes.entrySet()) {
+        final User user = write.getValue();
+        if (user == null) {
+          mDeleteStatement.bindLong(1, write.getKey());
+          mDeleteStatement.execute();
+        } else {
+          bind(mUpsertStatement, user);
+          mUpsertStatement.executeInsert();
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Looks a user up in the database. A row read while a batch finished committing may already
+   * have been replaced or deleted, so in that case the query is repeated rather than adding the
+   * row to the identity map; after {@link #MAX_QUERY_ATTEMPTS} such attempts the last row read is
+   * returned without being added to it.
+   * @param column The indexed column to match.
+   * @param value The value to match.
+   * @return The user, or null if there is no such user or it has a queued deletion.
+   */
+  private User query(String column, String value) {
+    User user = null;
+    for (int attempt = 0; attempt < MAX_QUERY_ATTEMPTS; attempt++) {
+      final long generation;
+      synchronized (mLock) {
+        generation = mCommitGeneration;
+      }
+      user = queryRow(column, value);
+      if (user == null) {
+        return null;
+      }
+      synchronized (mLock) {
+        // A write may have been queued while the query ran
+        if (mQueuedWrites.containsKey(user.getId())) {
+          return mQueuedWrites.get(user.getId());
+        } else if (mCommittingWrites.containsKey(user.getId())) {
+          return mCommittingWrites.get(user.getId());
+        } else if (generation == mCommitGeneration) {
+          return remember(user, false);
+        }
+      }
+    }
+    return user;
+  }
+
+  /**
+   * Reads the first row that matches a column from the database.
+   * @param column The indexed column to match.
+   * @param value The value to match.
+   * @return The user, or null if no row matches.
+   */
+  private User queryRow(String column, String value) {
+    final Cursor cursor = mHelper.getReadableDatabase().query(
+        TABLE_USERS,
+        COLUMNS,
+        column + " = ?",
+        new String[] {value},
+        null /* groupBy */,
+        null /* having */,
+        null /* orderBy */,
+        "1");
+    try {
+      return (cursor.moveToFirst() ? read(cursor) : null);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Adds a user to the identity map.
+   * @param user The user.
+   * @param replace Whether to replace an instance that is already in the map, as opposed to
+   * returning it.
+   * @return The instance in the map.
+   */
+  private User remember(User user, boolean replace) {
+    User result = user;
+    if (replace) {
+      mUsersById.put(user.getId(), user);
+    } else {
+      final User existing = mUsersById.asMap().putIfAbsent(user.getId(), user);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    if (result.getUsernameCanonical() != null) {
+      mIdsByUsername.put(result.getUsernameCanonical(), result.getId());
+    }
+    if (result.getEmailCanonical() != null) {
+      mIdsByEmail.put(result.getEmailCanonical(), result.getId());
+    }
+    return result;
+  }
+
+  /**
+   * Binds a user to the insert statement.
+   * @param statement The statement.
+   * @param user The user.
+   */
+  private static void bind(SQLiteStatement statement, User user) {
+    statement.bindLong(1, user.getId());
+    statement.bindLong(2, user.isCredentialsExpired() ? 1L : 0L);
+    bindString(statement, 3, user.getEmail());
+    bindString(statement, 4, user.getEmailCanonical());
+    statement.bindLong(5, user.isEnabled() ? 1L : 0L);
+    statement.bindLong(6, user.isExpired() ? 1L : 0L);
+    bindString(statement, 7, user.getLastLogin());
+    statement.bindLong(8, user.isLocked() ? 1L : 0L);
+    bindString(statement, 9, user.getUsername());
+    bindString(statement, 10, user.getUsernameCanonical());
+  }
+
+  /**
+   * Binds a string that may be null.
+   * @param statement The statement.
+   * @param index The 1-based index of the argument.
+   * @param value The value.
+   */
+  private static void bindString(SQLiteStatement statement, int index, String value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else {
+      statement.bindString(index, value);
+    }
+  }
+
+  /**
+   * Reads a user from the current row of a cursor over {@link #COLUMNS}.
+   * @param cursor The cursor.
+   * @return The user.
+   */
+  private static User read(Cursor cursor) {
+    return new User.Builder()
+        .setId(cursor.getInt(0))
+        .setCredentialsExpired(cursor.getInt(1) != 0)
+        .setEmail(cursor.getString(2))
+        .setEmailCanonical(cursor.getString(3))
+        .setEnabled(cursor.getInt(4) != 0)
+        .setExpired(cursor.getInt(5) != 0)
+        .setLastLogin(cursor.getString(6))
+        .setLocked(cursor.getInt(7) != 0)
+        .setUsername(cursor.getString(8))
+        .setUsernameCanonical(cursor.getString(9))
+        .build();
+  }
+
+  /**
+   * Creates the users table and its indexes.
+   */
+  private static class OpenHelper extends SQLiteOpenHelper {
+
+    OpenHelper(Context context, String name) {
+      super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL(SQL_CREATE_TABLE);
+      db.execSQL(SQL_CREATE_USERNAME_INDEX);
+      db.execSQL(SQL_CREATE_EMAIL_INDEX);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      // The table is a cache of api data, so it is simply rebuilt
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
+      onCreate(db);
+    }
+  }
+}
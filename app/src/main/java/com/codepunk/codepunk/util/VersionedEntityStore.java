@@ -0,0 +1,450 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * A local store of versioned entities, kept current by merging the deltas of a sync engine
+ * (see {@link com.codepunk.codepunk.app.SyncEngine}) and persisted in an SQLite database. Each
+ * entity is identified by a type and an id and holds a JSON object of fields and the version of
+ * the last change applied to it.
+ * </p>
+ *
+ * <p>
+ * A delta only carries the fields that changed, so {@link #merge(String, String, long,
+ * JsonObject)} writes those fields over the stored ones and reports which of them actually
+ * changed value. A deletion leaves a tombstone holding the version at which the entity was
+ * deleted, so that a stale update that arrives afterwards cannot bring it back. Changes whose
+ * version is not newer than the stored version are ignored, which makes applying the same delta
+ * twice harmless.
+ * </p>
+ *
+ * <p>
+ * Entities are kept in an {@code entities} table of versions and tombstones, and their fields in
+ * a {@code fields} table with one row per field, so a merge reads the one entity it applies to
+ * and writes only the fields whose value changed. Nothing is held in memory. Every method runs
+ * in its own transaction; wrap several in {@link #beginTransaction()} and
+ * {@link #endTransaction()} to commit them together. The queries use bound arguments, so SQLite
+ * reuses their compiled statements. All methods are thread-safe, but they touch the database, so
+ * they should not be called on the main thread.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VersionedEntityStore {
+
+  /**
+   * The database schema version.
+   */
+  private static final int DATABASE_VERSION = 1;
+
+  private static final String TABLE_ENTITIES = "entities";
+  private static final String TABLE_FIELDS = "fields";
+  private static final String TABLE_METADATA = "metadata";
+  private static final String COLUMN_TYPE = "type";
+  private static final String COLUMN_ID = "id";
+  private static final String COLUMN_VERSION = "version";
+  private static final String COLUMN_DELETED = "deleted";
+  private static final String COLUMN_NAME = "name";
+  private static final String COLUMN_VALUE = "value";
+
+  /**
+   * The metadata key of the sync token.
+   */
+  private static final String KEY_SYNC_TOKEN = "sync_token";
+
+  private static final String SQL_CREATE_ENTITIES = "CREATE TABLE " + TABLE_ENTITIES + " ("
+      + COLUMN_TYPE + " TEXT NOT NULL, "
+      + COLUMN_ID + " TEXT NOT NULL, "
+      + COLUMN_VERSION + " INTEGER NOT NULL, "
+      + COLUMN_DELETED + " INTEGER NOT NULL, "
+      + "PRIMARY KEY (" + COLUMN_TYPE + ", " + COLUMN_ID + "))";
+
+  private static final String SQL_CREATE_FIELDS = "CREATE TABLE " + TABLE_FIELDS + " ("
+      + COLUMN_TYPE + " TEXT NOT NULL, "
+      + COLUMN_ID + " TEXT NOT NULL, "
+      + COLUMN_NAME + " TEXT NOT NULL, "
+      + COLUMN_VALUE + " TEXT NOT NULL, "
+      + "PRIMARY KEY (" + COLUMN_TYPE + ", " + COLUMN_ID + ", " + COLUMN_NAME + "))";
+
+  private static final String SQL_CREATE_METADATA = "CREATE TABLE " + TABLE_METADATA + " ("
+      + COLUMN_NAME + " TEXT PRIMARY KEY, "
+      + COLUMN_VALUE + " TEXT)";
+
+  private static final String SQL_UPSERT_ENTITY = "INSERT OR REPLACE INTO " + TABLE_ENTITIES
+      + " (" + COLUMN_TYPE + ", " + COLUMN_ID + ", " + COLUMN_VERSION + ", " + COLUMN_DELETED
+      + ") VALUES (?, ?, ?, ?)";
+
+  private static final String SQL_UPSERT_FIELD = "INSERT OR REPLACE INTO " + TABLE_FIELDS
+      + " (" + COLUMN_TYPE + ", " + COLUMN_ID + ", " + COLUMN_NAME + ", " + COLUMN_VALUE
+      + ") VALUES (?, ?, ?, ?)";
+
+  private static final String SQL_DELETE_FIELDS = "DELETE FROM " + TABLE_FIELDS
+      + " WHERE " + COLUMN_TYPE + " = ? AND " + COLUMN_ID + " = ?";
+
+  private static final String SQL_UPSERT_METADATA = "INSERT OR REPLACE INTO " + TABLE_METADATA
+      + " (" + COLUMN_NAME + ", " + COLUMN_VALUE + ") VALUES (?, ?)";
+
+  private static final String SELECTION_ENTITY = COLUMN_TYPE + " = ? AND " + COLUMN_ID + " = ?";
+
+  /**
+   * Parser for stored field values.
+   */
+  private static final JsonParser sJsonParser = new JsonParser();
+
+  /**
+   * The database helper.
+   */
+  private final OpenHelper mHelper;
+
+  /**
+   * Creates a store.
+   * @param context The context to use to open the database.
+   * @param name The database file name, or null for an in-memory database.
+   */
+  public VersionedEntityStore(Context context, String name) {
+    mHelper = new OpenHelper(context.getApplicationContext(), name);
+  }
+
+  /**
+   * Returns the sync token that the stored entities are current as of.
+   * @return The token, or null if the store has never been synced.
+   */
+  public String getSyncToken() {
+    final Cursor cursor = mHelper.getReadableDatabase().query(
+        TABLE_METADATA,
+        new String[] {COLUMN_VALUE},
+        COLUMN_NAME + " = ?",
+        new String[] {KEY_SYNC_TOKEN},
+        null /* groupBy */,
+        null /* having */,
+        null /* orderBy */);
+    try {
+      return (cursor.moveToFirst() ? cursor.getString(0) : null);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Sets the sync token that the stored entities are current as of.
+   * @param syncToken The token, or null to clear it.
+   */
+  public void setSyncToken(String syncToken) {
+    final SQLiteDatabase db = mHelper.getWritableDatabase();
+    if (syncToken == null) {
+      db.delete(TABLE_METADATA, COLUMN_NAME + " = ?", new String[] {KEY_SYNC_TOKEN});
+    } else {
+      db.execSQL(SQL_UPSERT_METADATA, new Object[] {KEY_SYNC_TOKEN, syncToken});
+    }
+  }
+
+  /**
+   * Returns the fields of an entity.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @return A copy of the fields, or null if the entity is unknown or deleted.
+   */
+  public JsonObject get(String type, String id) {
+    final SQLiteDatabase db = mHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      final Entity entity = queryEntity(db, type, id);
+      final JsonObject fields;
+      if (entity == null || entity.mDeleted) {
+        fields = null;
+      } else {
+        fields = new JsonObject();
+        for (Map.Entry<String, String> field : queryFields(db, type, id).entrySet()) {
+          fields.add(field.getKey(), sJsonParser.parse(field.getValue()));
+        }
+      }
+      db.setTransactionSuccessful();
+      return fields;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Returns the version of the last change applied to an entity, including a deletion.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @return The version, or -1 if the entity is unknown.
+   */
+  public long getVersion(String type, String id) {
+    final Entity entity = queryEntity(mHelper.getReadableDatabase(), type, id);
+    return (entity == null ? -1L : entity.mVersion);
+  }
+
+  /**
+   * Returns whether an entity has been deleted.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @return True if there is a tombstone for the entity.
+   */
+  public boolean isDeleted(String type, String id) {
+    final Entity entity = queryEntity(mHelper.getReadableDatabase(), type, id);
+    return (entity != null && entity.mDeleted);
+  }
+
+  /**
+   * Returns the ids of the entities of a type that have not been deleted.
+   * @param type The entity type.
+   * @return The ids.
+   */
+  public Set<String> getIds(String type) {
+    final Cursor cursor = mHelper.getReadableDatabase().query(
+        TABLE_ENTITIES,
+        new String[] {COLUMN_ID},
+        COLUMN_TYPE + " = ? AND " + COLUMN_DELETED + " = 0",
+        new String[] {type},
+        null /* groupBy */,
+        null /* having */,
+        null /* orderBy */);
+    try {
+      final Set<String> ids = new LinkedHashSet<>(cursor.getCount());
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getString(0));
+      }
+      return ids;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Writes the fields of a delta over an entity, creating the entity (or replacing its
+   * tombstone) if necessary.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @param version The version of the entity after the change.
+   * @param fields The fields written by the change.
+   * @return The names of the fields whose value changed (empty if none did, but the entity's
+   * version was still advanced), or null if the change is not newer than the stored version
+   * and was ignored.
+   */
+  public Set<String> merge(String type, String id, long version, JsonObject fields) {
+    final SQLiteDatabase db = mHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      final Entity entity = queryEntity(db, type, id);
+      final Set<String> changed;
+      if (entity != null && version <= entity.mVersion) {
+        changed = null;
+      } else {
+        // A tombstone has no field rows, so a resurrected entity starts out empty
+        final Map<String, String> stored = (entity == null
+            ? Collections.<String, String>emptyMap()
+            : queryFields(db, type, id));
+        changed = new LinkedHashSet<>();
+        for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+          final String value = stored.get(field.getKey());
+          if (value == null || !field.getValue().equals(sJsonParser.parse(value))) {
+            db.execSQL(SQL_UPSERT_FIELD,
+                new Object[] {type, id, field.getKey(), field.getValue().toString()});
+            changed.add(field.getKey());
+          }
+        }
+        db.execSQL(SQL_UPSERT_ENTITY, new Object[] {type, id, version, 0});
+      }
+      db.setTransactionSuccessful();
+      return (changed == null ? null : Collections.unmodifiableSet(changed));
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Replaces an entity with a tombstone.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @param version The version at which the entity was deleted.
+   * @return True if a live entity was deleted; false if it was unknown, already deleted, or the
+   * deletion is not newer than the stored version.
+   */
+  public boolean delete(String type, String id, long version) {
+    final SQLiteDatabase db = mHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      final Entity entity = queryEntity(db, type, id);
+      final boolean deleted;
+      if (entity != null && version <= entity.mVersion) {
+        deleted = false;
+      } else {
+        deleted = (entity != null && !entity.mDeleted);
+        db.execSQL(SQL_DELETE_FIELDS, new Object[] {type, id});
+        db.execSQL(SQL_UPSERT_ENTITY, new Object[] {type, id, version, 1});
+      }
+      db.setTransactionSuccessful();
+      return deleted;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Removes every entity, tombstone and the sync token, so that the next sync starts over.
+   */
+  public void clear() {
+    final SQLiteDatabase db = mHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      db.delete(TABLE_FIELDS, null, null);
+      db.delete(TABLE_ENTITIES, null, null);
+      db.delete(TABLE_METADATA, null, null);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Begins a transaction on the calling thread. The changes made by this thread until the
+   * matching {@link #endTransaction()} are committed together, and other threads wait for them.
+   * Transactions may be nested.
+   */
+  public void beginTransaction() {
+    mHelper.getWritableDatabase().beginTransaction();
+  }
+
+  /**
+   * Marks the calling thread's transaction as successful, so that {@link #endTransaction()}
+   * commits it. Make no further changes before ending it.
+   */
+  public void setTransactionSuccessful() {
+    mHelper.getWritableDatabase().setTransactionSuccessful();
+  }
+
+  /**
+   * Ends the calling thread's transaction, committing it if it was marked successful and rolling
+   * it back otherwise.
+   */
+  public void endTransaction() {
+    mHelper.getWritableDatabase().endTransaction();
+  }
+
+  /**
+   * Closes the database.
+   */
+  public void close() {
+    mHelper.close();
+  }
+
+  /**
+   * Reads the version and tombstone flag of an entity.
+   * @param db The database.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @return The entity, or null if it is unknown.
+   */
+  private static Entity queryEntity(SQLiteDatabase db, String type, String id) {
+    final Cursor cursor = db.query(
+        TABLE_ENTITIES,
+        new String[] {COLUMN_VERSION, COLUMN_DELETED},
+        SELECTION_ENTITY,
+        new String[] {type, id},
+        null /* groupBy */,
+        null /* having */,
+        null /* orderBy */);
+    try {
+      return (cursor.moveToFirst() ? new Entity(cursor.getLong(0), cursor.getInt(1) != 0) : null);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Reads the stored fields of an entity.
+   * @param db The database.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @return The JSON encoded values, keyed by field name.
+   */
+  private static Map<String, String> queryFields(SQLiteDatabase db, String type, String id) {
+    final Cursor cursor = db.query(
+        TABLE_FIELDS,
+        new String[] {COLUMN_NAME, COLUMN_VALUE},
+        SELECTION_ENTITY,
+        new String[] {type, id},
+        null /* groupBy */,
+        null /* having */,
+        null /* orderBy */);
+    try {
+      final Map<String, String> fields = new HashMap<>(cursor.getCount());
+      while (cursor.moveToNext()) {
+        fields.put(cursor.getString(0), cursor.getString(1));
+      }
+      return fields;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * The version and tombstone flag of a stored entity.
+   */
+  private static class Entity {
+    final long mVersion;
+    final boolean mDeleted;
+
+    Entity(long version, boolean deleted) {
+      mVersion = version;
+      mDeleted = deleted;
+    }
+  }
+
+  /**
+   * Creates the entity, field and metadata tables.
+   */
+  private static class OpenHelper extends SQLiteOpenHelper {
+
+    OpenHelper(Context context, String name) {
+      super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL(SQL_CREATE_ENTITIES);
+      db.execSQL(SQL_CREATE_FIELDS);
+      db.execSQL(SQL_CREATE_METADATA);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      // The tables are a cache of api data, so they are simply rebuilt and synced again
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_FIELDS);
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_ENTITIES);
+      db.execSQL("DROP TABLE IF EXISTS " + TABLE_METADATA);
+      onCreate(db);
+    }
+  }
+}
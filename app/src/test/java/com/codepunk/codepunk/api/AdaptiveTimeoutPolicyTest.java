@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link AdaptiveTimeoutPolicy}.
+ */
+public class AdaptiveTimeoutPolicyTest {
+
+  private static final String TOKEN = "oauth/v2/token";
+  private static final String USER = "api/v1/authenticated_user/get.json";
+  private static final String WIFI = "wifi";
+  private static final String LTE = "mobile:LTE";
+
+  /**
+   * Window of 100, 10 samples to adapt, 3x p99, bounded to [1s, 30s], 20s before adapting.
+   */
+  private static AdaptiveTimeoutPolicy newPolicy() {
+    return new AdaptiveTimeoutPolicy(100, 10, 3.0f, 1000, 30000, 20000);
+  }
+
+  private static void record(AdaptiveTimeoutPolicy policy, String endpoint, String network,
+      long latencyMillis, int times) {
+    for (int i = 0; i < times; i++) {
+      policy.recordLatency(endpoint, network, latencyMillis);
+    }
+  }
+
+  @Test
+  public void getTimeoutMillis_usesInitialTimeoutUntilEnoughSamples() {
+    final AdaptiveTimeoutPolicy policy = newPolicy();
+    assertEquals(20000, policy.getTimeoutMillis(USER, WIFI));
+    record(policy, USER, WIFI, 100L, 9);
+    assertEquals(20000, policy.getTimeoutMillis(USER, WIFI));
+    record(policy, USER, WIFI, 100L, 1);
+    assertEquals(1000, policy.getTimeoutMillis(USER, WIFI));
+  }
+
+  @Test
+  public void getTimeoutMillis_isMultipleOfP99WithinBounds() {
+    final AdaptiveTimeoutPolicy policy = newPolicy();
+    // 99 fast samples and one slow one: the nearest-rank p99 of 100 samples is the 99th
+    record(policy, USER, WIFI, 400L, 99);
+    record(policy, USER, WIFI, 5000L, 1);
+    assertEquals(400L, policy.getPercentile(USER, WIFI, 99.0f));
+    assertEquals(1200, policy.getTimeoutMillis(USER, WIFI));
+
+    // A slow but healthy endpoint is only compared against itself, and is capped at the ceiling
+    record(policy, TOKEN, WIFI, 4000L, 50);
+    assertEquals(12000, policy.getTimeoutMillis(TOKEN, WIFI));
+    record(policy, TOKEN, WIFI, 15000L, 50);
+    assertEquals(30000, policy.getTimeoutMillis(TOKEN, WIFI));
+  }
+
+  @Test
+  public void getTimeoutMillis_isTrackedPerNetworkType() {
+    final AdaptiveTimeoutPolicy policy = newPolicy();
+    record(policy, USER, WIFI, 100L, 20);
+    record(policy, USER, LTE, 900L, 20);
+    assertEquals(1000, policy.getTimeoutMillis(USER, WIFI));
+    assertEquals(2700, policy.getTimeoutMillis(USER, LTE));
+    assertEquals(20, policy.getSampleCount(USER, LTE));
+    assertEquals(0, policy.getSampleCount(USER, "none"));
+  }
+
+  @Test
+  public void recordLatency_rollsOldSamplesOutOfTheWindow() {
+    final AdaptiveTimeoutPolicy policy = new AdaptiveTimeoutPolicy(10, 5, 2.0f, 0, 30000, 30000);
+    record(policy, USER, WIFI, 5000L, 10);
+    assertEquals(10000, policy.getTimeoutMillis(USER, WIFI));
+    record(policy, USER, WIFI, 300L, 10);
+    assertEquals(10, policy.getSampleCount(USER, WIFI));
+    assertEquals(600, policy.getTimeoutMillis(USER, WIFI));
+  }
+
+  @Test
+  public void recordTimeout_keepsTheTimeoutBoundedOnDeadConnections() {
+    final AdaptiveTimeoutPolicy policy = newPolicy();
+    record(policy, USER, WIFI, 500L, 10);
+    assertEquals(1500, policy.getTimeoutMillis(USER, WIFI));
+    for (int i = 0; i < 200; i++) {
+      // Each first attempt and its retry, at twice the timeout, hit a dead connection
+      final int timeoutMillis = policy.getTimeoutMillis(USER, WIFI);
+      policy.recordTimeout(USER, WIFI, timeoutMillis);
+      policy.recordTimeout(USER, WIFI, timeoutMillis * 2);
+      assertEquals(1500, policy.getTimeoutMillis(USER, WIFI));
+    }
+  }
+
+  @Test
+  public void recordTimeout_recordsNothingUntilTheTimeoutAdapts() {
+    final AdaptiveTimeoutPolicy policy = newPolicy();
+    policy.recordTimeout(USER, WIFI, 20000);
+    assertEquals(0, policy.getSampleCount(USER, WIFI));
+    record(policy, USER, WIFI, 500L, 9);
+    policy.recordTimeout(USER, WIFI, 20000);
+    assertEquals(9, policy.getSampleCount(USER, WIFI));
+    assertEquals(20000, policy.getTimeoutMillis(USER, WIFI));
+  }
+
+  @Test
+  public void recordLatency_raisesTheTimeoutOfASlowerNetwork() {
+    final AdaptiveTimeoutPolicy policy = new AdaptiveTimeoutPolicy(10, 5, 2.0f, 0, 30000, 30000);
+    record(policy, USER, WIFI, 500L, 10);
+    assertEquals(1000, policy.getTimeoutMillis(USER, WIFI));
+    // The first attempt times out; the retry, at twice the timeout, completes
+    policy.recordTimeout(USER, WIFI, 1000);
+    policy.recordLatency(USER, WIFI, 1800L);
+    assertEquals(3600, policy.getTimeoutMillis(USER, WIFI));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_rejectsInvertedBounds() {
+    new AdaptiveTimeoutPolicy(100, 10, 3.0f, 5000, 1000, 1000);
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import com.codepunk.codepunk.model.ChangeSet;
+import com.codepunk.codepunk.model.CodepunkResponse;
+import com.codepunk.codepunk.model.Page;
+import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.standin.StandInCbor;
+import com.codepunk.codepunk.standin.StandInResponse;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link CborReader}, fed by the CBOR responses of a {@link StandInServer}.
+ */
+public class CborReaderTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final Type USER_PAGE_TYPE =
+      new TypeToken<CodepunkResponse<Page<User>>>(){}.getType();
+
+  private static final Type CHANGE_SET_TYPE =
+      new TypeToken<CodepunkResponse<ChangeSet>>(){}.getType();
+
+  private final Gson mGson = new Gson();
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule().setUserCount(50);
+
+  private StandInServer mServer;
+  private String mAccessToken;
+
+  @Before
+  public void setUp() throws Exception {
+    mServer = mStandIn.getServer();
+    mAccessToken = mStandIn.getAccessToken();
+  }
+
+  @Test
+  public void read_jsonTreeRoundTrips() throws Exception {
+    final JsonArray json = new JsonArray();
+    json.add(new JsonPrimitive(0));
+    json.add(new JsonPrimitive(23));
+    json.add(new JsonPrimitive(24));
+    json.add(new JsonPrimitive(-1));
+    json.add(new JsonPrimitive(-1000000));
+    json.add(new JsonPrimitive(Long.MAX_VALUE));
+    json.add(new JsonPrimitive(Long.MIN_VALUE));
+    json.add(new JsonPrimitive(1.5));
+    json.add(new JsonPrimitive(0.1));
+    json.add(new JsonPrimitive(true));
+    json.add(new JsonPrimitive(false));
+    json.add(new JsonPrimitive(""));
+    json.add(new JsonPrimitive("h\u00e9llo \u2603 \ud83d\ude00"));
+    json.add(new JsonParser().parse("null"));
+    final JsonObject object = new JsonObject();
+    object.add("empty", new JsonArray());
+    object.add("nested", new JsonObject());
+    object.addProperty("text", "value");
+    json.add(object);
+
+    final JsonElement decoded = readJsonElement(StandInCbor.encode(json));
+
+    assertEquals(json.size(), decoded.getAsJsonArray().size());
+    for (int i = 0; i < json.size(); i++) {
+      final JsonElement expected = json.get(i);
+      final JsonElement actual = decoded.getAsJsonArray().get(i);
+      if (expected.isJsonPrimitive() && expected.getAsJsonPrimitive().isNumber()) {
+        assertEquals(expected.getAsString(), expected.getAsDouble(), actual.getAsDouble(), 0.0);
+        if (expected.getAsString().indexOf('.') < 0) {
+          assertEquals(expected.getAsLong(), actual.getAsLong());
+        }
+      } else {
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void read_indefiniteLengthsTagsAndHalfFloats() throws Exception {
+    // {_ "a": [_ 1, 1.5 (half)], "b": 1(1363896240), "c": h'0102', (_ "d", "e"): "f"}
+    final byte[] cbor = bytes(
+        0xbf,
+        0x61, 'a', 0x9f, 0x01, 0xf9, 0x3e, 0x00, 0xff,
+        0x61, 'b', 0xc1, 0x1a, 0x51, 0x4b, 0x67, 0xb0,
+        0x61, 'c', 0x42, 0x01, 0x02,
+        0x7f, 0x61, 'd', 0x61, 'e', 0xff, 0x61, 'f',
+        0xff);
+    final JsonReader reader = new CborReader(cbor);
+
+    reader.beginObject();
+    assertEquals("a", reader.nextName());
+    reader.beginArray();
+    assertEquals(1, reader.nextInt());
+    assertEquals(1.5, reader.nextDouble(), 0.0);
+    assertFalse(reader.hasNext());
+    reader.endArray();
+    assertEquals("b", reader.nextName());
+    assertEquals(1363896240L, reader.nextLong());
+    assertEquals("c", reader.nextName());
+    reader.skipValue();
+    assertEquals("de", reader.nextName());
+    assertEquals("f", reader.nextString());
+    assertEquals(JsonToken.END_OBJECT, reader.peek());
+    reader.endObject();
+    assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+  }
+
+  @Test
+  public void read_skipsUnknownFields() throws Exception {
+    final JsonObject json = mGson.toJsonTree(newUser()).getAsJsonObject();
+    final JsonObject extra = new JsonObject();
+    extra.add("list", new JsonParser().parse("[1, [2, {\"x\": 3.25}], null]"));
+    json.add("unknown", extra);
+
+    final User user = read(StandInCbor.encode(json), User.class);
+
+    assertEquals(mGson.toJson(newUser()), mGson.toJson(user));
+  }
+
+  @Test
+  public void standIn_servesCborWhenAccepted() throws Exception {
+    final String url = mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_USERS + "?limit=50";
+
+    final HttpURLConnection jsonConnection = open(url, null);
+    final byte[] json = readBody(jsonConnection);
+    final HttpURLConnection cborConnection = open(url, WireFormat.CBOR.getAcceptHeader());
+    final byte[] cbor = readBody(cborConnection);
+
+    assertEquals(WireFormat.JSON,
+        WireFormat.fromContentType(jsonConnection.getHeaderField("Content-Type")));
+    assertEquals(WireFormat.CBOR,
+        WireFormat.fromContentType(cborConnection.getHeaderField("Content-Type")));
+    assertEquals("Accept", cborConnection.getHeaderField("Vary"));
+    assertEquals(1L, mServer.getStats().get(StandInStats.CBOR_RESPONSES));
+    assertTrue(cbor.length + " >= " + json.length, cbor.length < json.length);
+
+    final CodepunkResponse<Page<User>> fromJson =
+        mGson.fromJson(new String(json, UTF_8), USER_PAGE_TYPE);
+    final CodepunkResponse<Page<User>> fromCbor = read(cbor, USER_PAGE_TYPE);
+    assertEquals(mGson.toJson(fromJson), mGson.toJson(fromCbor));
+  }
+
+  @Test
+  public void standIn_servesChangeSetsAsCbor() throws Exception {
+    final JsonObject fields = new JsonObject();
+    fields.addProperty("email", "alice@example.com");
+    fields.addProperty("enabled", false);
+    mServer.getAccounts().updateUser("alice", fields);
+    mServer.getAccounts().removeUser("user7");
+    final String url = mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_CHANGES;
+
+    final byte[] json = readBody(open(url, null));
+    final byte[] cbor = readBody(open(url, WireFormat.CBOR.getAcceptHeader()));
+
+    final CodepunkResponse<ChangeSet> fromJson =
+        mGson.fromJson(new String(json, UTF_8), CHANGE_SET_TYPE);
+    final CodepunkResponse<ChangeSet> fromCbor = read(cbor, CHANGE_SET_TYPE);
+    assertEquals(mGson.toJson(fromJson), mGson.toJson(fromCbor));
+  }
+
+  @Test
+  public void standIn_fallsBackToJson() throws Exception {
+    final String url = mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_USERS;
+
+    final HttpURLConnection connection = open(url, "application/json, application/cbor;q=0");
+    readBody(connection);
+
+    assertEquals(StandInResponse.CONTENT_TYPE_JSON, connection.getHeaderField("Content-Type"));
+    assertEquals(0L, mServer.getStats().get(StandInStats.CBOR_RESPONSES));
+  }
+
+  @Test
+  public void standIn_negotiatesErrorBodies() throws Exception {
+    final HttpURLConnection connection = (HttpURLConnection) new URL(
+        mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_USERS).openConnection();
+    connection.setRequestProperty("Authorization", "Bearer invalid");
+    connection.setRequestProperty("Accept", WireFormat.CBOR.getAcceptHeader());
+
+    assertEquals(401, connection.getResponseCode());
+    assertEquals(WireFormat.CBOR,
+        WireFormat.fromContentType(connection.getHeaderField("Content-Type")));
+    final JsonElement error = readJsonElement(readFully(connection.getErrorStream()));
+    assertEquals("invalid_grant", error.getAsJsonObject().get("error").getAsString());
+  }
+
+  @Test
+  public void wireFormat_fromContentType() {
+    assertEquals(WireFormat.CBOR, WireFormat.fromContentType("Application/CBOR; foo=bar"));
+    assertEquals(WireFormat.JSON, WireFormat.fromContentType("application/json; charset=utf-8"));
+    assertEquals(WireFormat.JSON, WireFormat.fromContentType("text/html"));
+    assertEquals(WireFormat.JSON, WireFormat.fromContentType(null));
+  }
+
+  private HttpURLConnection open(String url, String accept) throws Exception {
+    final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("Authorization", "Bearer " + mAccessToken);
+    if (accept != null) {
+      connection.setRequestProperty("Accept", accept);
+    }
+    assertEquals(200, connection.getResponseCode());
+    return connection;
+  }
+
+  private static byte[] readBody(HttpURLConnection connection) throws Exception {
+    return readFully(connection.getInputStream());
+  }
+
+  private static byte[] readFully(InputStream in) throws Exception {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[4096];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T read(byte[] cbor, Type type) throws Exception {
+    final TypeAdapter<T> adapter = (TypeAdapter<T>) mGson.getAdapter(TypeToken.get(type));
+    final JsonReader reader = new CborReader(cbor);
+    final T result = adapter.read(reader);
+    assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+    return result;
+  }
+
+  private JsonElement readJsonElement(byte[] cbor) throws Exception {
+    return read(cbor, JsonElement.class);
+  }
+
+  private static User newUser() {
+    return new User.Builder()
+        .setId(42)
+        .setUsername("alice")
+        .setUsernameCanonical("alice")
+        .setEmail("alice@example.com")
+        .setEmailCanonical("alice@example.com")
+        .setEnabled(true)
+        .setLastLogin("2016-12-01T10:00:00+0000")
+        .build();
+  }
+
+  private static byte[] bytes(int... values) {
+    final byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.codepunk.codepunk.model.UploadSession;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ChunkedUploader}, run against a {@link StandInServer}.
+ */
+public class ChunkedUploaderTest {
+
+  private static final String NAME = "video.bin";
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int LENGTH = 16 * CHUNK_SIZE + 123;
+  private static final int CHUNK_COUNT = 17;
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule();
+
+  private StandInServer mServer;
+  private String mAccessToken;
+  private byte[] mContents;
+  private File mFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mServer = mStandIn.getServer();
+    mAccessToken = mStandIn.getAccessToken();
+
+    mContents = new byte[LENGTH];
+    new Random(7L).nextBytes(mContents);
+    mFile = mStandIn.newFile("upload", ".bin");
+    final FileOutputStream out = new FileOutputStream(mFile);
+    try {
+      out.write(mContents);
+    } finally {
+      out.close();
+    }
+  }
+
+  private ChunkedUploader newUploader() {
+    return new ChunkedUploader(mServer.getBaseUrl() + StandInServer.ENDPOINT_UPLOADS, mFile, NAME)
+        .setHeader("Authorization", "Bearer " + mAccessToken)
+        .setChunkSize(CHUNK_SIZE)
+        .setRetryDelayMillis(10L);
+  }
+
+  @Test
+  public void run_sendsChunksWithBoundedConcurrency() throws Exception {
+    mServer.getUploads().setChunkDelayMillis(50L);
+    final AtomicLong lastProgress = new AtomicLong();
+    final ChunkedUploader uploader = newUploader()
+        .setMaxConcurrentChunks(3)
+        .setProgressListener(new ChunkedUploader.ProgressListener() {
+          @Override
+          public void onProgress(ChunkedUploader uploader, long bytesUploaded, long totalBytes) {
+            assertEquals(LENGTH, totalBytes);
+            lastProgress.set(Math.max(lastProgress.get(), bytesUploaded));
+          }
+        }, MoreExecutors.directExecutor());
+    uploader.run();
+
+    final UploadSession session = uploader.get();
+    assertTrue(session.isComplete());
+    assertEquals(CHUNK_SIZE, session.getChunkSize());
+    assertArrayEquals(mContents, mServer.getMedia().get(NAME));
+    assertEquals(CHUNK_COUNT, mServer.getStats().get(StandInStats.UPLOAD_CHUNKS));
+    assertEquals(LENGTH, lastProgress.get());
+    final int maxConcurrent = mServer.getUploads().getMaxConcurrentChunks();
+    assertTrue("max concurrent chunks " + maxConcurrent, maxConcurrent > 1 && maxConcurrent <= 3);
+  }
+
+  @Test
+  public void run_retriesFailedChunks() throws Exception {
+    mServer.getUploads().failNextChunks(2);
+    final ChunkedUploader uploader = newUploader();
+    uploader.run();
+
+    assertTrue(uploader.get().isComplete());
+    assertEquals(2, uploader.getChunkRetries());
+    assertArrayEquals(mContents, mServer.getMedia().get(NAME));
+    assertEquals(CHUNK_COUNT, mServer.getStats().get(StandInStats.UPLOAD_CHUNKS));
+  }
+
+  @Test
+  public void run_resumesSessionAfterFailure() throws Exception {
+    final AtomicInteger chunks = new AtomicInteger();
+    final ChunkedUploader first = newUploader()
+        .setMaxConcurrentChunks(1)
+        .setMaxChunkAttempts(2)
+        .setProgressListener(new ChunkedUploader.ProgressListener() {
+          @Override
+          public void onProgress(ChunkedUploader uploader, long bytesUploaded, long totalBytes) {
+            if (bytesUploaded > 0L && chunks.incrementAndGet() == 3) {
+              mServer.getUploads().failNextChunks(Integer.MAX_VALUE);
+            }
+          }
+        }, MoreExecutors.directExecutor());
+    first.run();
+
+    try {
+      first.get();
+      fail("Expected the upload to fail");
+    } catch (ExecutionException e) {
+      assertEquals(503, ((UploadError) e.getCause()).getStatusCode());
+    }
+    assertNotNull(first.getSessionId());
+    assertEquals(3, mServer.getStats().get(StandInStats.UPLOAD_CHUNKS));
+
+    mServer.getUploads().failNextChunks(0);
+    final AtomicLong firstProgress = new AtomicLong(-1L);
+    final ChunkedUploader second = newUploader()
+        .setSessionId(first.getSessionId())
+        .setProgressListener(new ChunkedUploader.ProgressListener() {
+          @Override
+          public void onProgress(ChunkedUploader uploader, long bytesUploaded, long totalBytes) {
+            firstProgress.compareAndSet(-1L, bytesUploaded);
+          }
+        }, MoreExecutors.directExecutor());
+    second.run();
+
+    assertTrue(second.get().isComplete());
+    assertEquals(first.getSessionId(), second.getSessionId());
+    assertEquals(3L * CHUNK_SIZE, firstProgress.get());
+    assertEquals(CHUNK_COUNT, mServer.getStats().get(StandInStats.UPLOAD_CHUNKS));
+    assertArrayEquals(mContents, mServer.getMedia().get(NAME));
+  }
+
+  @Test
+  public void run_startsNewSessionWhenOldOneIsGone() throws Exception {
+    final ChunkedUploader uploader = newUploader().setSessionId("expired");
+    uploader.run();
+
+    assertTrue(uploader.get().isComplete());
+    assertArrayEquals(mContents, mServer.getMedia().get(NAME));
+  }
+
+  @Test
+  public void run_failsWithoutRetryOnClientError() throws IOException, InterruptedException {
+    final ChunkedUploader uploader =
+        new ChunkedUploader(mServer.getBaseUrl() + StandInServer.ENDPOINT_UPLOADS, mFile, NAME);
+    uploader.run();
+
+    try {
+      uploader.get();
+      fail("Expected an HTTP error");
+    } catch (ExecutionException e) {
+      assertEquals(401, ((UploadError) e.getCause()).getStatusCode());
+    }
+    assertEquals(0, uploader.getChunkRetries());
+  }
+}
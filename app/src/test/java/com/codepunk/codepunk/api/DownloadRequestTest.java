@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.codepunk.codepunk.standin.StandInConfig;
+import com.codepunk.codepunk.standin.StandInMedia;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link DownloadRequest}, run against a {@link StandInServer}.
+ */
+public class DownloadRequestTest {
+
+  private static final String NAME = "avatar.bin";
+  private static final int LENGTH = 300 * 1024 + 17;
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule();
+
+  private StandInServer mServer;
+  private String mAccessToken;
+  private byte[] mContents;
+  private File mDestination;
+
+  @Before
+  public void setUp() throws Exception {
+    mServer = mStandIn.getServer();
+    mAccessToken = mStandIn.getAccessToken();
+    mContents = mServer.getMedia().putRandom(NAME, LENGTH, 42L);
+
+    mDestination = new File(mStandIn.newFolder("download"), NAME);
+  }
+
+  private DownloadRequest newRequest() {
+    return new DownloadRequest(mServer.getBaseUrl() + StandInServer.ENDPOINT_MEDIA + NAME,
+        mDestination)
+        .setHeader("Authorization", "Bearer " + mAccessToken)
+        .setExpectedLength(LENGTH)
+        .setExpectedSha256(StandInMedia.sha256(mContents));
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    final RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      final byte[] bytes = new byte[(int) in.length()];
+      in.readFully(bytes);
+      return bytes;
+    } finally {
+      in.close();
+    }
+  }
+
+  private void writePartial(int length, String etag) throws IOException {
+    final FileOutputStream out = new FileOutputStream(mDestination.getPath() + ".part");
+    try {
+      out.write(mContents, 0, length);
+    } finally {
+      out.close();
+    }
+    final FileOutputStream validator = new FileOutputStream(mDestination.getPath() + ".part.etag");
+    try {
+      validator.write(etag.getBytes(Charset.forName("UTF-8")));
+    } finally {
+      validator.close();
+    }
+  }
+
+  @Test
+  public void run_streamsBodyToDestination() throws Exception {
+    final AtomicLong lastProgress = new AtomicLong();
+    final DownloadRequest request = newRequest()
+        .setProgressListener(new DownloadRequest.ProgressListener() {
+          @Override
+          public void onProgress(DownloadRequest request, long bytesDownloaded, long totalBytes) {
+            assertEquals(LENGTH, totalBytes);
+            assertTrue(bytesDownloaded >= lastProgress.get());
+            lastProgress.set(bytesDownloaded);
+          }
+        }, MoreExecutors.directExecutor());
+    request.run();
+
+    assertEquals(mDestination, request.get());
+    assertArrayEquals(mContents, readFile(mDestination));
+    assertEquals(LENGTH, lastProgress.get());
+    assertFalse(request.isResumed());
+    assertFalse(request.getPartialFile().exists());
+    assertEquals(0L, mServer.getStats().get(StandInStats.RANGE_REQUESTS));
+  }
+
+  @Test
+  public void run_resumesPartialFileWithRangeRequest() throws Exception {
+    writePartial(100000, "\"" + StandInMedia.sha256(mContents) + "\"");
+    final DownloadRequest request = newRequest();
+    request.run();
+
+    assertEquals(mDestination, request.get());
+    assertTrue(request.isResumed());
+    assertArrayEquals(mContents, readFile(mDestination));
+    assertEquals(1L, mServer.getStats().get(StandInStats.RANGE_REQUESTS));
+  }
+
+  @Test
+  public void run_restartsWhenResourceHasChanged() throws Exception {
+    writePartial(100000, "\"stale\"");
+    final DownloadRequest request = newRequest();
+    request.run();
+
+    assertEquals(mDestination, request.get());
+    assertFalse(request.isResumed());
+    assertArrayEquals(mContents, readFile(mDestination));
+    assertEquals(0L, mServer.getStats().get(StandInStats.RANGE_REQUESTS));
+  }
+
+  @Test
+  public void run_checksumMismatchDiscardsPartialFile() throws Exception {
+    final byte[] other = Arrays.copyOf(mContents, LENGTH);
+    other[LENGTH / 2] ^= 1;
+    final DownloadRequest request = newRequest().setExpectedSha256(StandInMedia.sha256(other));
+    request.run();
+
+    try {
+      request.get();
+      fail("Expected a checksum mismatch");
+    } catch (ExecutionException e) {
+      assertEquals(DownloadError.Reason.CHECKSUM_MISMATCH,
+          ((DownloadError) e.getCause()).getReason());
+    }
+    assertFalse(mDestination.exists());
+    assertFalse(request.getPartialFile().exists());
+  }
+
+  @Test
+  public void run_failsOnUnexpectedStatus() throws Exception {
+    final DownloadRequest request = new DownloadRequest(
+        mServer.getBaseUrl() + StandInServer.ENDPOINT_MEDIA + NAME, mDestination);
+    request.run();
+
+    try {
+      request.get();
+      fail("Expected an HTTP error");
+    } catch (ExecutionException e) {
+      final DownloadError error = (DownloadError) e.getCause();
+      assertEquals(DownloadError.Reason.HTTP_STATUS, error.getReason());
+      assertEquals(401, error.getStatusCode());
+    }
+    assertFalse(mDestination.exists());
+  }
+
+  @Test
+  public void cancel_keepsPartialFileForResume() throws Exception {
+    mServer.setConfig(StandInConfig.defaults().buildUpon().setBandwidth(400 * 1024).build());
+    final CountDownLatch started = new CountDownLatch(1);
+    final DownloadRequest first = newRequest()
+        .setProgressListener(new DownloadRequest.ProgressListener() {
+          @Override
+          public void onProgress(DownloadRequest request, long bytesDownloaded, long totalBytes) {
+            if (bytesDownloaded > 0L) {
+              started.countDown();
+            }
+          }
+        }, MoreExecutors.directExecutor());
+    final Thread thread = new Thread(first);
+    thread.start();
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    assertTrue(first.cancel(true));
+    thread.join(10000L);
+
+    final long saved = first.getPartialFile().length();
+    assertTrue(saved > 0L && saved < LENGTH);
+    assertFalse(mDestination.exists());
+
+    mServer.setConfig(StandInConfig.defaults());
+    final DownloadRequest second = newRequest();
+    second.run();
+    assertEquals(mDestination, second.get());
+    assertTrue(second.isResumed());
+    assertArrayEquals(mContents, readFile(mDestination));
+  }
+}
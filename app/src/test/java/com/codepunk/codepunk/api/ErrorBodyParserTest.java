@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.gson.JsonObject;
+
+import com.codepunk.codepunk.standin.StandInCbor;
+import com.codepunk.codepunk.standin.StandInResponse;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link ErrorBodyParser}.
+ */
+public class ErrorBodyParserTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String INVALID_GRANT =
+      "{\"error\":\"invalid_grant\",\"error_description\":\"Invalid username and password\"}";
+
+  @Test
+  public void parse_readsJsonOAuthError() {
+    final ErrorBodyParser.Result result =
+        ErrorBodyParser.parse(400, "application/json", INVALID_GRANT.getBytes(UTF_8));
+
+    assertEquals(ErrorBodyParser.Kind.JSON, result.getKind());
+    assertEquals("invalid_grant", result.getError());
+    assertEquals("Invalid username and password", result.getDescription());
+  }
+
+  @Test
+  public void parse_stopsAfterBothFields() {
+    // Everything after the two fields is malformed, so reading any further would fail
+    final String body = "{\"error_description\":\"Expired\",\"ignored\":[1,{\"a\":null}],"
+        + "\"error\":\"invalid_grant\", !!! not json !!!";
+
+    final ErrorBodyParser.Result result =
+        ErrorBodyParser.parse(401, "application/json; charset=UTF-8", body.getBytes(UTF_8));
+
+    assertEquals("invalid_grant", result.getError());
+    assertEquals("Expired", result.getDescription());
+  }
+
+  @Test
+  public void parse_readsAtMostMaxBodyBytes() {
+    final StringBuilder padding = new StringBuilder();
+    while (padding.length() < ErrorBodyParser.MAX_BODY_BYTES) {
+      padding.append("0123456789");
+    }
+    final String early = "{\"error\":\"invalid_request\",\"padding\":\"" + padding + "\","
+        + "\"error_description\":\"Too late\"}";
+    final String late = "{\"padding\":\"" + padding + "\",\"error\":\"invalid_request\"}";
+
+    final ErrorBodyParser.Result earlyResult =
+        ErrorBodyParser.parse(400, "application/json", early.getBytes(UTF_8));
+    final ErrorBodyParser.Result lateResult =
+        ErrorBodyParser.parse(400, "application/json", late.getBytes(UTF_8));
+
+    assertEquals("invalid_request", earlyResult.getError());
+    assertNull(earlyResult.getDescription());
+    assertEquals(ErrorBodyParser.Kind.JSON, lateResult.getKind());
+    assertNull(lateResult.getError());
+  }
+
+  @Test
+  public void parse_readsCborOAuthError() {
+    final JsonObject json = new JsonObject();
+    json.addProperty("error", "invalid_grant");
+    json.addProperty("error_description", "The access token provided is invalid.");
+
+    final ErrorBodyParser.Result result = ErrorBodyParser.parse(
+        401, StandInResponse.CONTENT_TYPE_CBOR, StandInCbor.encode(json));
+
+    assertEquals(ErrorBodyParser.Kind.CBOR, result.getKind());
+    assertEquals("invalid_grant", result.getError());
+    assertEquals("The access token provided is invalid.", result.getDescription());
+  }
+
+  @Test
+  public void parse_skipsServerErrors() {
+    final ErrorBodyParser.Result html = ErrorBodyParser.parse(
+        503, StandInResponse.CONTENT_TYPE_HTML, "<html>Unavailable</html>".getBytes(UTF_8));
+    final ErrorBodyParser.Result json =
+        ErrorBodyParser.parse(500, "application/json", INVALID_GRANT.getBytes(UTF_8));
+
+    assertEquals(ErrorBodyParser.Kind.SERVER_ERROR, html.getKind());
+    assertEquals(ErrorBodyParser.Kind.SERVER_ERROR, json.getKind());
+    assertNull(json.getError());
+  }
+
+  @Test
+  public void parse_skipsNonJsonBodies() {
+    final ErrorBodyParser.Result html = ErrorBodyParser.parse(
+        404, StandInResponse.CONTENT_TYPE_HTML, "<html>Not Found</html>".getBytes(UTF_8));
+    final ErrorBodyParser.Result text =
+        ErrorBodyParser.parse(403, "text/plain", INVALID_GRANT.getBytes(UTF_8));
+    final ErrorBodyParser.Result empty = ErrorBodyParser.parse(401, "application/json", null);
+
+    assertEquals(ErrorBodyParser.Kind.HTML, html.getKind());
+    assertEquals(ErrorBodyParser.Kind.OTHER, text.getKind());
+    assertNull(text.getError());
+    assertEquals(ErrorBodyParser.Kind.EMPTY, empty.getKind());
+  }
+
+  @Test
+  public void parse_sniffsMissingContentType() {
+    final ErrorBodyParser.Result json =
+        ErrorBodyParser.parse(400, null, (" \n" + INVALID_GRANT).getBytes(UTF_8));
+    final ErrorBodyParser.Result html =
+        ErrorBodyParser.parse(400, null, "<!DOCTYPE html>".getBytes(UTF_8));
+
+    assertEquals(ErrorBodyParser.Kind.JSON, json.getKind());
+    assertEquals("invalid_grant", json.getError());
+    assertEquals(ErrorBodyParser.Kind.HTML, html.getKind());
+  }
+
+  @Test
+  public void parse_honorsCharsetAndIgnoresOddValues() {
+    final String body = "{\"error\":42,\"error_description\":\"Mot de passe erron\u00e9\"}";
+
+    final ErrorBodyParser.Result result = ErrorBodyParser.parse(
+        400, "application/json; charset=ISO-8859-1", body.getBytes(Charset.forName("ISO-8859-1")));
+
+    assertNull(result.getError());
+    assertEquals("Mot de passe erron\u00e9", result.getDescription());
+  }
+
+  @Test
+  public void parse_toleratesMalformedBodies() {
+    final ErrorBodyParser.Result array =
+        ErrorBodyParser.parse(400, "application/json", "[1,2]".getBytes(UTF_8));
+    final ErrorBodyParser.Result truncated =
+        ErrorBodyParser.parse(400, "application/json", "{\"error\":\"inv".getBytes(UTF_8));
+    final ErrorBodyParser.Result cbor =
+        ErrorBodyParser.parse(400, StandInResponse.CONTENT_TYPE_CBOR, new byte[] {(byte) 0xa1});
+
+    assertNull(array.getError());
+    assertNull(truncated.getError());
+    assertNull(cbor.getError());
+  }
+}
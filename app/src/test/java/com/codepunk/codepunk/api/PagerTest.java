@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import android.content.ComponentCallbacks2;
+
+import com.codepunk.codepunk.model.Page;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link Pager}.
+ */
+public class PagerTest {
+
+  private static final int PAGE_SIZE = 10;
+  private static final int PREFETCH_DISTANCE = 5;
+  private static final int TOTAL = 95;
+
+  /**
+   * A loader over the integers [0, TOTAL) whose cursors are start positions. Requests are held
+   * until {@link #completeAll()} is called; {@code mCursors} records every request made.
+   */
+  private static class FakeLoader implements Pager.PageLoader<Integer> {
+    final List<String> mCursors = new ArrayList<>();
+    final List<String> mPendingCursors = new ArrayList<>();
+    final List<SettableFuture<Page<Integer>>> mPending = new ArrayList<>();
+
+    @Override
+    public ListenableFuture<Page<Integer>> loadPage(String cursor, int pageSize) {
+      mCursors.add(cursor);
+      mPendingCursors.add(cursor);
+      final SettableFuture<Page<Integer>> future = SettableFuture.create();
+      mPending.add(future);
+      return future;
+    }
+
+    void completeAll() {
+      final List<String> cursors = new ArrayList<>(mPendingCursors);
+      final List<SettableFuture<Page<Integer>>> pending = new ArrayList<>(mPending);
+      mPendingCursors.clear();
+      mPending.clear();
+      for (int i = 0; i < pending.size(); i++) {
+        final String cursor = cursors.get(i);
+        final int start = (cursor == null ? 0 : Integer.parseInt(cursor));
+        final List<Integer> items = new ArrayList<>();
+        for (int position = start; position < Math.min(TOTAL, start + PAGE_SIZE); position++) {
+          items.add(position);
+        }
+        final int next = start + items.size();
+        pending.get(i).set(new Page<>(items, next < TOTAL ? String.valueOf(next) : null));
+      }
+    }
+  }
+
+  private FakeLoader mLoader;
+  private Pager<Integer> mPager;
+
+  @Before
+  public void setUp() {
+    mLoader = new FakeLoader();
+    mPager = new Pager<>(mLoader, PAGE_SIZE, PREFETCH_DISTANCE, 2,
+        MoreExecutors.directExecutor());
+  }
+
+  private void scrollTo(int position) {
+    for (int i = 0; i <= position; i++) {
+      while (i >= mPager.getCount()) {
+        mLoader.completeAll();
+      }
+      mPager.get(i);
+    }
+  }
+
+  @Test
+  public void start_loadsFirstPageOnce() {
+    mPager.start();
+    mPager.start();
+    assertEquals(1, mLoader.mCursors.size());
+    assertNull(mLoader.mCursors.get(0));
+    mLoader.completeAll();
+    assertEquals(PAGE_SIZE, mPager.getCount());
+    assertEquals(Integer.valueOf(3), mPager.get(3));
+  }
+
+  @Test
+  public void get_prefetchesNextPageWithinDistanceOfEnd() {
+    mPager.start();
+    mLoader.completeAll();
+    mPager.get(PAGE_SIZE - PREFETCH_DISTANCE - 1);
+    assertEquals(1, mLoader.mCursors.size());
+    mPager.get(PAGE_SIZE - PREFETCH_DISTANCE);
+    assertEquals(2, mLoader.mCursors.size());
+    assertEquals(String.valueOf(PAGE_SIZE), mLoader.mCursors.get(1));
+    mPager.get(PAGE_SIZE - 1);
+    assertEquals("only one forward page at a time", 2, mLoader.mCursors.size());
+  }
+
+  @Test
+  public void get_stopsAtLastPage() {
+    mPager.start();
+    scrollTo(TOTAL - 1);
+    mLoader.completeAll();
+    assertEquals(TOTAL, mPager.getCount());
+    assertFalse(mPager.hasMore());
+    final int requests = mLoader.mCursors.size();
+    mPager.get(TOTAL - 1);
+    assertEquals(requests, mLoader.mCursors.size());
+  }
+
+  @Test
+  public void trimMemory_dropsDistantPagesAndReloadsThemOnReturn() {
+    mPager.start();
+    scrollTo(59);
+    mLoader.completeAll();
+    assertEquals(7, mPager.getPageCount());
+
+    assertEquals(6, mPager.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+    assertEquals(1, mPager.getResidentPageCount());
+    assertEquals(70, mPager.getCount());
+    assertFalse(mPager.isLoaded(12));
+
+    // Coming back to a dropped page reloads it and its neighbor within the prefetch distance,
+    // but no more than two at a time
+    final int requests = mLoader.mCursors.size();
+    assertNull(mPager.get(12));
+    assertEquals(requests + 2, mLoader.mCursors.size());
+    assertEquals("10", mLoader.mCursors.get(requests));
+    assertNull("the first page is loaded without a cursor", mLoader.mCursors.get(requests + 1));
+    assertEquals(2, mPager.getInFlightPageCount());
+    mLoader.completeAll();
+    assertEquals(Integer.valueOf(12), mPager.get(12));
+    assertEquals(Integer.valueOf(5), mPager.get(5));
+  }
+
+  @Test
+  public void trimMemory_keepsPrefetchWindowUnderModeratePressure() {
+    mPager.start();
+    scrollTo(45);
+    mLoader.completeAll();
+    mPager.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+    assertTrue(mPager.isLoaded(35));
+    assertTrue(mPager.isLoaded(55));
+    assertFalse(mPager.isLoaded(25));
+  }
+
+  @Test
+  public void error_stopsLoadingUntilRetry() {
+    final List<Throwable> errors = new ArrayList<>();
+    mPager.setListener(new Pager.Listener<Integer>() {
+      @Override
+      public void onItemsInserted(Pager<Integer> pager, int position, int count) {
+      }
+
+      @Override
+      public void onItemsChanged(Pager<Integer> pager, int position, int count) {
+      }
+
+      @Override
+      public void onError(Pager<Integer> pager, Throwable error) {
+        errors.add(error);
+      }
+    });
+    mPager.start();
+    final IOException failure = new IOException("offline");
+    mLoader.mPendingCursors.remove(0);
+    mLoader.mPending.remove(0).setException(failure);
+    assertEquals(1, errors.size());
+    assertSame(failure, mPager.getError());
+
+    mPager.start();
+    assertEquals(1, mLoader.mCursors.size());
+    mPager.retry();
+    assertEquals(2, mLoader.mCursors.size());
+    mLoader.completeAll();
+    assertEquals(PAGE_SIZE, mPager.getCount());
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.api;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.codepunk.codepunk.model.User;
+import com.codepunk.codepunk.standin.StandInServer;
+import com.codepunk.codepunk.standin.StandInServerRule;
+import com.codepunk.codepunk.standin.StandInStats;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link StreamingArrayRequest}, run against a {@link StandInServer}.
+ */
+public class StreamingArrayRequestTest {
+
+  private static final int USER_COUNT = 500;
+
+  @Rule
+  public final StandInServerRule mStandIn = new StandInServerRule().setUserCount(USER_COUNT);
+
+  private StandInServer mServer;
+  private String mAccessToken;
+
+  @Before
+  public void setUp() throws Exception {
+    mServer = mStandIn.getServer();
+    mAccessToken = mStandIn.getAccessToken();
+  }
+
+  private StreamingArrayRequest<User> newRequest(String accessToken) {
+    return new StreamingArrayRequest<>(
+        mServer.getBaseUrl() + StandInServer.ENDPOINT_GET_ALL_USERS,
+        User.class)
+        .setHeader("Authorization", "Bearer " + accessToken);
+  }
+
+  @Test
+  public void run_deliversEveryElementInOrder() throws Exception {
+    final List<User> users = new ArrayList<>();
+    final StreamingArrayRequest<User> request = newRequest(mAccessToken)
+        .setElementListener(new StreamingArrayRequest.ElementListener<User>() {
+          @Override
+          public void onElement(User user) {
+            users.add(user);
+          }
+        }, MoreExecutors.directExecutor());
+    request.run();
+
+    assertEquals(Integer.valueOf(USER_COUNT), request.get());
+    assertEquals(USER_COUNT, users.size());
+    assertEquals("alice", users.get(0).getUsername());
+    for (int i = 1; i < USER_COUNT; i++) {
+      assertEquals("user" + i, users.get(i).getUsername());
+    }
+    assertEquals(1, mServer.getStats().get(StandInStats.ALL_USERS_REQUESTS));
+  }
+
+  @Test
+  public void run_deliversFirstElementBeforeBodyHasArrived() throws Exception {
+    mServer.setConfig(mServer.getConfig().buildUpon().setBandwidth(64 * 1024).build());
+    final long start = System.nanoTime();
+    final long[] firstElementNanos = new long[1];
+    final StreamingArrayRequest<User> request = newRequest(mAccessToken)
+        .setElementListener(new StreamingArrayRequest.ElementListener<User>() {
+          @Override
+          public void onElement(User user) {
+            if (firstElementNanos[0] == 0L) {
+              firstElementNanos[0] = System.nanoTime();
+            }
+          }
+        }, MoreExecutors.directExecutor());
+    request.run();
+    final long totalNanos = System.nanoTime() - start;
+
+    assertEquals(Integer.valueOf(USER_COUNT), request.get());
+    assertTrue(
+        "first element after " + (firstElementNanos[0] - start) + "ns of " + totalNanos + "ns",
+        firstElementNanos[0] - start < totalNanos / 4);
+  }
+
+  @Test
+  public void run_pausesDecodingWhileTooManyElementsArePending() throws Exception {
+    final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    final List<User> users = new ArrayList<>();
+    final StreamingArrayRequest<User> request = newRequest(mAccessToken)
+        .setMaxPendingElements(4)
+        .setElementListener(new StreamingArrayRequest.ElementListener<User>() {
+          @Override
+          public void onElement(User user) {
+            users.add(user);
+          }
+        }, new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            queue.add(command);
+          }
+        });
+    final Thread thread = new Thread(request);
+    thread.start();
+
+    // Nothing is delivered until the queue is drained, so decoding stops after four elements
+    final long deadline = System.currentTimeMillis() + 5000L;
+    while (queue.size() < 4 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    Thread.sleep(200L);
+    assertEquals(4, queue.size());
+    assertEquals(4, request.getElementsDecoded());
+    assertFalse(request.isDone());
+
+    while (!request.isDone()) {
+      final Runnable command = queue.poll(5L, TimeUnit.SECONDS);
+      if (command != null) {
+        command.run();
+      }
+    }
+    thread.join();
+    assertEquals(Integer.valueOf(USER_COUNT), request.get());
+    assertEquals(USER_COUNT, users.size());
+  }
+
+  @Test
+  public void run_failsOnErrorStatus() throws Exception {
+    final StreamingArrayRequest<User> request = newRequest("bogus");
+    request.run();
+    try {
+      request.get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+      assertTrue(e.getCause().getMessage().contains("401"));
+    }
+  }
+
+  @Test
+  public void cancel_stopsDelivery() throws Exception {
+    final List<User> users = new ArrayList<>();
+    final StreamingArrayRequest<User> request = newRequest(mAccessToken);
+    request.setElementListener(new StreamingArrayRequest.ElementListener<User>() {
+      @Override
+      public void onElement(User user) {
+        users.add(user);
+        if (users.size() == 10) {
+          request.cancel(true);
+        }
+      }
+    }, MoreExecutors.directExecutor());
+    request.run();
+
+    assertTrue(request.isCancelled());
+    assertEquals(10, users.size());
+    try {
+      request.get();
+      fail("Expected a CancellationException");
+    } catch (CancellationException e) {
+      // Expected
+    }
+  }
+}
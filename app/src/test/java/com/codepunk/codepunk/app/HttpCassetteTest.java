@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link HttpCassette}. Recording and replaying real traffic through
+ * {@link RecordingNetwork} and {@link ReplayNetwork} is covered by the instrumented
+ * HttpCassetteReplayTest, since Volley requests need the Android framework.
+ */
+public class HttpCassetteTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // Values of com.android.volley.Request.Method
+  private static final int GET = 0;
+  private static final int POST = 1;
+
+  private static final String URL = "https://example.com/api/v1/users/me.json";
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws Exception {
+    mFile = File.createTempFile("cassette", ".json");
+  }
+
+  @After
+  public void tearDown() {
+    //noinspection ResultOfMethodCallIgnored
+    mFile.delete();
+  }
+
+  @Test
+  public void play_answersIdenticalRequestsInRecordedOrder() {
+    final HttpCassette cassette = new HttpCassette();
+    final HttpCassette.Exchange first = response(GET, URL, null, 200, "first");
+    final HttpCassette.Exchange other = response(GET, URL + "?page=2", null, 200, "other");
+    final HttpCassette.Exchange second = response(GET, URL, null, 200, "second");
+    cassette.record(first);
+    cassette.record(other);
+    cassette.record(second);
+
+    assertSame(first, cassette.play(GET, URL, null));
+    assertSame(second, cassette.play(GET, URL, null));
+    assertSame(second, cassette.play(GET, URL, null));
+    assertSame(other, cassette.play(GET, URL + "?page=2", null));
+    assertNull(cassette.play(POST, URL, null));
+    assertNull(cassette.play(GET, URL + "?page=3", null));
+
+    cassette.rewind();
+    assertSame(first, cassette.play(GET, URL, null));
+  }
+
+  @Test
+  public void play_matchesRequestBodies() {
+    final HttpCassette cassette = new HttpCassette();
+    final HttpCassette.Exchange alice =
+        response(POST, URL, "username=alice".getBytes(UTF_8), 200, "alice");
+    final HttpCassette.Exchange bob =
+        response(POST, URL, "username=bob".getBytes(UTF_8), 400, "bob");
+    cassette.record(alice);
+    cassette.record(bob);
+
+    assertSame(bob, cassette.play(POST, URL, "username=bob".getBytes(UTF_8)));
+    assertSame(alice, cassette.play(POST, URL, "username=alice".getBytes(UTF_8)));
+    assertNull(cassette.play(POST, URL, "username=carol".getBytes(UTF_8)));
+    assertNull(cassette.play(POST, URL, null));
+  }
+
+  @Test
+  public void save_roundTripsExchanges() throws Exception {
+    final byte[] binary = new byte[256];
+    for (int i = 0; i < binary.length; i++) {
+      binary[i] = (byte) i;
+    }
+    final Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "application/cbor");
+    headers.put("Vary", "Accept");
+    final HttpCassette cassette = new HttpCassette();
+    cassette.record(HttpCassette.Exchange.response(GET, URL, null, 200, headers, binary, 85L, 80L));
+    cassette.record(HttpCassette.Exchange.failure(
+        POST, URL, "a=b".getBytes(UTF_8), HttpCassette.FAILURE_TIMEOUT, 2500L));
+
+    cassette.save(mFile);
+    final HttpCassette loaded = HttpCassette.load(mFile);
+
+    final List<HttpCassette.Exchange> exchanges = loaded.getExchanges();
+    assertEquals(2, exchanges.size());
+    final HttpCassette.Exchange response = loaded.play(GET, URL, null);
+    assertEquals(200, response.getStatus());
+    assertEquals(headers, response.getHeaders());
+    assertArrayEquals(binary, response.getBody());
+    assertEquals(85L, response.getElapsedMillis());
+    assertEquals(80L, response.getNetworkTimeMillis());
+    assertFalse(response.isFailure());
+    final HttpCassette.Exchange failure = loaded.play(POST, URL, "a=b".getBytes(UTF_8));
+    assertTrue(failure.isFailure());
+    assertEquals(HttpCassette.FAILURE_TIMEOUT, failure.getFailure());
+    assertNull(failure.getBody());
+    assertEquals(2500L, failure.getElapsedMillis());
+  }
+
+  @Test
+  public void read_rejectsOtherFiles() {
+    for (String json : new String[] {"", "[]", "{\"version\":2,\"exchanges\":[]}", "{"}) {
+      try {
+        HttpCassette.read(new StringReader(json));
+        fail("Expected an IOException for " + json);
+      } catch (IOException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void getReplayDelayMillis_scalesElapsedTime() {
+    final HttpCassette.Exchange exchange = HttpCassette.Exchange.response(
+        GET, URL, null, 200, null, null, 120L, 100L);
+
+    assertEquals(120L, exchange.getReplayDelayMillis(1.0f));
+    assertEquals(30L, exchange.getReplayDelayMillis(0.25f));
+    assertEquals(0L, exchange.getReplayDelayMillis(0.0f));
+    assertEquals(240L, exchange.getReplayDelayMillis(2.0f));
+  }
+
+  private static HttpCassette.Exchange response(
+      int method, String url, byte[] requestBody, int status, String body) {
+    return HttpCassette.Exchange.response(
+        method, url, requestBody, status, null, body.getBytes(UTF_8), 10L, 10L);
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.codepunk.codepunk.app.SessionManager.State;
+import com.codepunk.codepunk.app.SessionStateMachine.Snapshot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SessionStateMachine}.
+ */
+public class SessionStateMachineTest {
+
+  private static final int THREADS = 8;
+
+  private static final int OPERATIONS_PER_THREAD = 20000;
+
+  private static final EnumSet<State> AUTHENTICATE_FROM_STATES =
+      EnumSet.of(State.INITIALIZED, State.NOT_AUTHENTICATED, State.ERROR);
+
+  private static final EnumSet<State> SWITCH_FROM_STATES =
+      EnumSet.of(State.AUTHENTICATED, State.NOT_AUTHENTICATED, State.ERROR);
+
+  @Test
+  public void transitionTable_rejectsIllegalTransitions() {
+    assertTrue(SessionStateMachine.isLegalTransition(State.INITIALIZED, State.AUTHENTICATING));
+    assertTrue(SessionStateMachine.isLegalTransition(State.ERROR, State.AUTHENTICATING));
+    assertFalse(SessionStateMachine.isLegalTransition(State.INITIALIZED, State.AUTHENTICATED));
+    assertFalse(SessionStateMachine.isLegalTransition(State.CANCELING, State.AUTHENTICATING));
+    assertFalse(SessionStateMachine.isLegalTransition(State.INITIALIZED, State.NOT_AUTHENTICATED));
+
+    // Multiple sessions: adding an account, switching and falling back to a live session
+    assertTrue(SessionStateMachine.isLegalTransition(State.AUTHENTICATED, State.AUTHENTICATING));
+    assertTrue(SessionStateMachine.isLegalTransition(State.AUTHENTICATED, State.AUTHENTICATED));
+    assertTrue(SessionStateMachine.isLegalTransition(State.CANCELING, State.AUTHENTICATED));
+
+    final SessionStateMachine<String, String> machine = new SessionStateMachine<>();
+    assertNull(machine.transition(State.INITIALIZED, State.AUTHENTICATED, "account", "user"));
+    assertNull(machine.transition(State.AUTHENTICATING, State.CANCELING));
+    assertEquals(State.INITIALIZED, machine.getState());
+    assertEquals(0L, machine.getSnapshot().getVersion());
+  }
+
+  @Test
+  public void transitions_carryAccountAndUser() {
+    final SessionStateMachine<String, String> machine = new SessionStateMachine<>();
+    assertNotNull(machine.moveTo(State.AUTHENTICATING, null, null));
+    assertNotNull(
+        machine.transition(State.AUTHENTICATING, State.AUTHENTICATING, "account", null));
+    final Snapshot<String, String> authenticating = machine.getSnapshot();
+    assertNotNull(
+        machine.compareAndSet(authenticating, State.AUTHENTICATED, "account", "user"));
+
+    // A stale snapshot must not win
+    assertNull(machine.compareAndSet(authenticating, State.ERROR, "account", null));
+
+    final Snapshot<String, String> authenticated = machine.getSnapshot();
+    assertEquals(State.AUTHENTICATED, authenticated.getState());
+    assertEquals("account", authenticated.getAccount());
+    assertEquals("user", authenticated.getUser());
+    assertEquals(3L, authenticated.getVersion());
+  }
+
+  /**
+   * Hammers one state machine with concurrent authenticate, add account, switch, cancel,
+   * invalidate, success and failure operations (mirroring what SessionManager does from UI
+   * clicks, AccountManager callbacks and Volley delivery), then checks that the successful
+   * transitions form a single legal history and that no snapshot ever paired a state with the
+   * wrong account or user.
+   */
+  @Test
+  public void concurrentTransitions_formLegalHistory() throws Exception {
+    final SessionStateMachine<String, String> machine = new SessionStateMachine<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<List<Snapshot<String, String>>>> futures = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      final int seed = i;
+      futures.add(executor.submit(new Callable<List<Snapshot<String, String>>>() {
+        @Override
+        public List<Snapshot<String, String>> call() throws Exception {
+          final Random random = new Random(seed);
+          final List<Snapshot<String, String>> made = new ArrayList<>();
+          start.await();
+          for (int op = 0; op < OPERATIONS_PER_THREAD; op++) {
+            final Snapshot<String, String> result = perform(machine, random.nextInt(9), seed);
+            if (result != null) {
+              made.add(result);
+            }
+            checkConsistent(machine.getSnapshot());
+          }
+          return made;
+        }
+      }));
+    }
+    start.countDown();
+
+    final List<Snapshot<String, String>> history = new ArrayList<>();
+    for (Future<List<Snapshot<String, String>>> future : futures) {
+      history.addAll(future.get(60, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+
+    Collections.sort(history, new Comparator<Snapshot<String, String>>() {
+      @Override
+      public int compare(Snapshot<String, String> lhs, Snapshot<String, String> rhs) {
+        return Long.valueOf(lhs.getVersion()).compareTo(rhs.getVersion());
+      }
+    });
+
+    // Every successful compare-and-set produced exactly one new version, with no gaps
+    assertFalse(history.isEmpty());
+    assertEquals(machine.getSnapshot().getVersion(), history.size());
+    State previous = State.INITIALIZED;
+    for (int i = 0; i < history.size(); i++) {
+      final Snapshot<String, String> snapshot = history.get(i);
+      assertEquals(i + 1, snapshot.getVersion());
+      if (!SessionStateMachine.isLegalTransition(previous, snapshot.getState())) {
+        fail("Illegal transition " + previous + " -> " + snapshot);
+      }
+      checkConsistent(snapshot);
+      previous = snapshot.getState();
+    }
+    assertEquals(previous, machine.getState());
+  }
+
+  /**
+   * Performs one operation the way SessionManager does.
+   */
+  private static Snapshot<String, String> perform(
+      SessionStateMachine<String, String> machine,
+      int operation,
+      int thread) {
+    switch (operation) {
+      case 0:
+        // authenticate
+        return machine.transition(AUTHENTICATE_FROM_STATES, State.AUTHENTICATING, null, null);
+      case 7:
+        // addAccount
+        return machine.moveTo(State.AUTHENTICATING, null, null);
+      case 8:
+        // switchSession
+        return machine.transition(
+            SWITCH_FROM_STATES, State.AUTHENTICATED, "account" + thread, "user:account" + thread);
+      case 1:
+        // account chosen
+        return machine.transition(
+            State.AUTHENTICATING, State.AUTHENTICATING, "account" + thread, null);
+      case 2: {
+        // user received
+        final Snapshot<String, String> snapshot = machine.getSnapshot();
+        if (snapshot.getAccount() == null) {
+          return null;
+        }
+        return machine.compareAndSet(
+            snapshot, State.AUTHENTICATED, snapshot.getAccount(), "user:" + snapshot.getAccount());
+      }
+      case 3:
+        // cancel
+        return machine.transition(State.AUTHENTICATING, State.CANCELING);
+      case 4:
+        // stopIfCanceling, falling back to a live session half of the time
+        return (thread % 2 == 0 ?
+            machine.transition(State.CANCELING, State.NOT_AUTHENTICATED, null, null) :
+            machine.transition(
+                State.CANCELING, State.AUTHENTICATED, "account" + thread, "user:account" + thread));
+      case 5:
+        // invalidate
+        return machine.transition(State.AUTHENTICATED, State.NOT_AUTHENTICATED, null, null);
+      default:
+        // error
+        return machine.transition(State.AUTHENTICATING, State.ERROR);
+    }
+  }
+
+  /**
+   * Checks that a snapshot's account and user belong with its state.
+   */
+  private static void checkConsistent(Snapshot<String, String> snapshot) {
+    switch (snapshot.getState()) {
+      case AUTHENTICATED:
+        assertNotNull(snapshot.toString(), snapshot.getAccount());
+        assertEquals(snapshot.toString(), "user:" + snapshot.getAccount(), snapshot.getUser());
+        break;
+      case INITIALIZED:
+      case NOT_AUTHENTICATED:
+        assertNull(snapshot.toString(), snapshot.getAccount());
+        assertNull(snapshot.toString(), snapshot.getUser());
+        break;
+      default:
+        assertNull(snapshot.toString(), snapshot.getUser());
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.app;
+
+import com.codepunk.codepunk.app.StartupReport.Phase;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link StartupReport}.
+ */
+public class StartupReportTest {
+
+  private static final long MS = 1000000L;
+
+  /**
+   * A typical cold start: the app and activity run on the main thread while the request queue
+   * is built in the background, then the session hops through its listeners.
+   */
+  private static List<Phase> coldStart() {
+    return Arrays.asList(
+        new Phase("MainActivity.onCreate", "main", true, 0, 12 * MS, 40 * MS),
+        new Phase("CodepunkApp.onCreate", "main", true, 0, 0, 10 * MS),
+        new Phase("MainActivity.onStart", "main", true, 0, 42 * MS, 50 * MS),
+        new Phase("SessionManager.authenticate", "main", true, 1, 44 * MS, 49 * MS),
+        new Phase("VolleyManager.newRequestQueue", "AsyncTask #1", false, 0, 45 * MS, 80 * MS),
+        new Phase("SessionManager.onAuthToken", "main", true, 0, 70 * MS, 72 * MS),
+        new Phase("VolleyManager.onRequestQueueReady", "main", true, 0, 81 * MS, 82 * MS),
+        new Phase("SessionManager.onUser", "main", true, 0, 150 * MS, 155 * MS));
+  }
+
+  @Test
+  public void build_sortsPhasesAndOffsetsFromOrigin() {
+    final StartupReport report =
+        StartupReport.build("SessionManager.AUTHENTICATED", 0, 155 * MS, coldStart());
+    final List<Phase> phases = report.getPhases();
+    assertEquals(8, phases.size());
+    assertEquals("CodepunkApp.onCreate", phases.get(0).getName());
+    assertEquals("SessionManager.onUser", phases.get(7).getName());
+    assertEquals(155.0d, report.getTotalMillis(), 0.001d);
+
+    final Phase onStart = report.getPhase("MainActivity.onStart");
+    assertNotNull(onStart);
+    assertEquals(42.0d, onStart.getStartMillis(), 0.001d);
+    assertEquals(8.0d, onStart.getDurationMillis(), 0.001d);
+    assertNull(report.getPhase("missing"));
+  }
+
+  @Test
+  public void build_countsOnlyTopLevelMainThreadPhases() {
+    final StartupReport report =
+        StartupReport.build("SessionManager.AUTHENTICATED", 0, 155 * MS, coldStart());
+    // 10 + 28 + 8 + 2 + 1 + 5; the nested authenticate section and the background queue are
+    // excluded.
+    assertEquals(54.0d, report.getMainThreadMillis(), 0.001d);
+  }
+
+  @Test
+  public void build_walksCriticalPathBackFromMilestone() {
+    final StartupReport report =
+        StartupReport.build("SessionManager.AUTHENTICATED", 0, 155 * MS, coldStart());
+    // The user request could not be sent until the request queue was ready, so the background
+    // queue construction is on the critical path and onStart is not.
+    assertEquals(
+        Arrays.asList(
+            "CodepunkApp.onCreate",
+            "MainActivity.onCreate",
+            "VolleyManager.newRequestQueue",
+            "VolleyManager.onRequestQueueReady",
+            "SessionManager.onUser"),
+        report.getCriticalPath());
+    assertEquals(79.0d, report.getCriticalPathMillis(), 0.001d);
+  }
+
+  @Test
+  public void build_ignoresPhasesAfterMilestone() {
+    final StartupReport report =
+        StartupReport.build("SessionManager.ERROR", 0, 60 * MS, coldStart());
+    assertEquals(
+        Arrays.asList("CodepunkApp.onCreate", "MainActivity.onCreate", "MainActivity.onStart"),
+        report.getCriticalPath());
+  }
+
+  @Test
+  public void toJson_containsSummaryAndPhases() {
+    final StartupReport report =
+        StartupReport.build("SessionManager.AUTHENTICATED", 0, 155 * MS, coldStart());
+    final JsonObject json = new JsonParser().parse(report.toJson()).getAsJsonObject();
+    assertEquals("SessionManager.AUTHENTICATED", json.get("milestone").getAsString());
+    assertEquals(155.0d, json.get("total_ms").getAsDouble(), 0.001d);
+    assertEquals(5, json.getAsJsonArray("critical_path").size());
+    final JsonObject first = json.getAsJsonArray("phases").get(0).getAsJsonObject();
+    assertEquals("CodepunkApp.onCreate", first.get("name").getAsString());
+    assertEquals("main", first.get("thread").getAsString());
+    assertEquals(10.0d, first.get("duration_ms").getAsDouble(), 0.001d);
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+import com.codepunk.codepunk.util.StringPool;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link UserTypeAdapterFactory} and the {@link StringPool} it shares strings through,
+ * including the footprint of the strings retained by large user lists.
+ */
+public class UserTypeAdapterFactoryTest {
+
+  private static final int USER_COUNT = 2000;
+
+  private static final Type USER_LIST_TYPE = new TypeToken<List<User>>(){}.getType();
+
+  private static final Type USER_PAGE_TYPE =
+      new TypeToken<CodepunkResponse<Page<User>>>(){}.getType();
+
+  private final Gson mPlainGson = new Gson();
+
+  private static Gson newGson(StringPool pool) {
+    return new GsonBuilder().registerTypeAdapterFactory(new UserTypeAdapterFactory(pool)).create();
+  }
+
+  private static JsonObject newUserJson(int id, String username, String email) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("id", id);
+    json.addProperty("username", username);
+    json.addProperty("username_canonical", username.toLowerCase());
+    json.addProperty("email", email);
+    json.addProperty("email_canonical", email.toLowerCase());
+    json.addProperty("enabled", true);
+    return json;
+  }
+
+  private static String newUserListJson(int count) {
+    final JsonArray array = new JsonArray();
+    for (int i = 0; i < count; i++) {
+      array.add(newUserJson(i, "user" + i, "user" + i + "@example.com"));
+    }
+    return array.toString();
+  }
+
+  /**
+   * Estimates the heap retained by the distinct username and email strings of some users: a
+   * String object and its character array, with two bytes per character.
+   */
+  private static long retainedIdentityStringBytes(List<List<User>> lists) {
+    final Set<String> strings = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+    for (List<User> users : lists) {
+      for (User user : users) {
+        strings.add(user.getUsername());
+        strings.add(user.getUsernameCanonical());
+        strings.add(user.getEmail());
+        strings.add(user.getEmailCanonical());
+      }
+    }
+    long bytes = 0L;
+    for (String string : strings) {
+      bytes += 40L + 2L * string.length();
+    }
+    return bytes;
+  }
+
+  private static List<List<User>> decode(Gson gson, String json, int times) {
+    final List<List<User>> lists = new ArrayList<>();
+    for (int i = 0; i < times; i++) {
+      lists.add(gson.<List<User>>fromJson(json, USER_LIST_TYPE));
+    }
+    return lists;
+  }
+
+  @Test
+  public void read_sharesCanonicalValuesEqualToOriginals() {
+    final Gson gson = newGson(new StringPool());
+
+    final User user = gson.fromJson(
+        newUserJson(1, "alice", "alice@example.com").toString(), User.class);
+
+    assertSame(user.getUsername(), user.getUsernameCanonical());
+    assertSame(user.getEmail(), user.getEmailCanonical());
+  }
+
+  @Test
+  public void read_sharesStringsAcrossDecodes() {
+    final Gson gson = newGson(new StringPool());
+    final String json = newUserJson(1, "Alice", "Alice@Example.com").toString();
+
+    final User first = gson.fromJson(json, User.class);
+    final User second = gson.fromJson(json, User.class);
+
+    assertNotSame(first, second);
+    assertEquals("alice", second.getUsernameCanonical());
+    assertSame(first.getUsername(), second.getUsername());
+    assertSame(first.getUsernameCanonical(), second.getUsernameCanonical());
+    assertSame(first.getEmail(), second.getEmail());
+    assertSame(first.getEmailCanonical(), second.getEmailCanonical());
+  }
+
+  @Test
+  public void read_appliesToUsersInsideResponses() {
+    final Gson gson = newGson(new StringPool());
+    final JsonArray items = new JsonArray();
+    items.add(newUserJson(1, "alice", "alice@example.com"));
+    items.add(newUserJson(2, "bob", "bob@example.com"));
+    final JsonObject page = new JsonObject();
+    page.add("items", items);
+    final JsonObject response = new JsonObject();
+    response.add("result", page);
+
+    final CodepunkResponse<Page<User>> first = gson.fromJson(response, USER_PAGE_TYPE);
+    final CodepunkResponse<Page<User>> second = gson.fromJson(response, USER_PAGE_TYPE);
+
+    final User user = second.getResult().getItems().get(1);
+    assertSame(user.getEmail(), user.getEmailCanonical());
+    assertSame(first.getResult().getItems().get(1).getUsername(), user.getUsername());
+    assertEquals(mPlainGson.toJson(first), mPlainGson.toJson(second));
+  }
+
+  @Test
+  public void read_handlesNullValues() {
+    final Gson gson = newGson(new StringPool());
+
+    final User user = gson.fromJson("{\"id\":3,\"username\":\"carol\"}", User.class);
+
+    assertEquals("carol", user.getUsername());
+    assertNull(user.getUsernameCanonical());
+    assertNull(user.getEmail());
+    assertNull(gson.fromJson("null", User.class));
+  }
+
+  @Test
+  public void builder_sharesCanonicalValuesEqualToOriginals() {
+    final User user = new User.Builder()
+        .setUsername("dave")
+        .setUsernameCanonical(new String("dave"))
+        .setEmail("Dave@example.com")
+        .setEmailCanonical("dave@example.com")
+        .build();
+
+    assertSame(user.getUsername(), user.getUsernameCanonical());
+    assertNotSame(user.getEmail(), user.getEmailCanonical());
+  }
+
+  @Test
+  public void stringPool_isBounded() {
+    final StringPool pool = new StringPool(100);
+
+    for (int i = 0; i < 10000; i++) {
+      assertEquals("value" + i, pool.intern("value" + i));
+    }
+
+    assertEquals(128, pool.getCapacity());
+    assertTrue(pool.size() <= pool.getCapacity());
+    final String pooled = pool.intern("value");
+    assertSame(pooled, pool.intern(new String("value")));
+    pool.clear();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void footprint_canonicalSharingHalvesIdentityStrings() {
+    final String json = newUserListJson(USER_COUNT);
+
+    final long plain = retainedIdentityStringBytes(decode(mPlainGson, json, 1));
+    final long deduplicated =
+        retainedIdentityStringBytes(decode(newGson(new StringPool()), json, 1));
+
+    assertTrue(deduplicated + " > " + plain + " / 2", deduplicated * 2 <= plain);
+  }
+
+  @Test
+  public void footprint_poolSharesStringsOfUsersDecodedAgain() {
+    final String json = newUserListJson(USER_COUNT);
+
+    final long plain = retainedIdentityStringBytes(decode(mPlainGson, json, 3));
+    final long deduplicated =
+        retainedIdentityStringBytes(decode(newGson(new StringPool(8 * USER_COUNT)), json, 3));
+
+    // Three decodes retain three copies of four strings per user without deduplication, and
+    // ideally one copy of two strings with it; the pool is lossy, so allow for a few evictions
+    assertTrue(deduplicated + " > " + plain + " / 5", deduplicated * 5 <= plain);
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MappedKeyValueStore}.
+ */
+public class MappedKeyValueStoreTest {
+
+  private File mDir;
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException {
+    mDir = File.createTempFile("session", "");
+    assertTrue(mDir.delete());
+    assertTrue(mDir.mkdirs());
+    mFile = new File(mDir, "session.log");
+  }
+
+  @After
+  public void tearDown() {
+    final File[] files = mDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    mDir.delete();
+  }
+
+  @Test
+  public void putString_survivesReopening() {
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, null);
+    store.putString("savedAccountName", "alice");
+    store.putString("other", "x");
+    store.putString("other", "y");
+    store.remove("missing");
+
+    final MappedKeyValueStore reopened = new MappedKeyValueStore(mFile, null);
+    assertEquals("alice", reopened.getString("savedAccountName", null));
+    assertEquals("y", reopened.getString("other", null));
+    assertEquals(2, reopened.getAll().size());
+  }
+
+  @Test
+  public void remove_isReplayed() {
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, null);
+    store.putString("savedAccountName", "alice");
+    store.remove("savedAccountName");
+    assertFalse(store.contains("savedAccountName"));
+    assertNull(new MappedKeyValueStore(mFile, null).getString("savedAccountName", null));
+  }
+
+  @Test
+  public void migration_runsOnlyWhenTheLogIsNew() {
+    final AtomicInteger migrations = new AtomicInteger();
+    final MappedKeyValueStore.Migration migration = new MappedKeyValueStore.Migration() {
+      @Override
+      public Map<String, String> migrate() {
+        migrations.incrementAndGet();
+        return Collections.singletonMap("savedAccountName", "bob");
+      }
+
+      @Override
+      public void onMigrated(Map<String, String> values) {
+      }
+    };
+    assertEquals(
+        "bob",
+        new MappedKeyValueStore(mFile, migration).getString("savedAccountName", null));
+    assertEquals(
+        "bob",
+        new MappedKeyValueStore(mFile, migration).getString("savedAccountName", null));
+    assertEquals(1, migrations.get());
+  }
+
+  @Test
+  public void append_compactsWhenTheMappedRegionIsFull() {
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, null, 256);
+    for (int i = 0; i < 500; i++) {
+      store.putString("savedAccountName", "account" + i);
+      store.putString("key" + (i % 3), "value" + i);
+    }
+    assertTrue(store.getLogSize() < 256);
+
+    final MappedKeyValueStore reopened = new MappedKeyValueStore(mFile, null, 256);
+    assertEquals("account499", reopened.getString("savedAccountName", null));
+    assertEquals("value497", reopened.getString("key2", null));
+    assertEquals(4, reopened.getAll().size());
+  }
+
+  @Test
+  public void replay_stopsAtATornRecord() throws IOException {
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, null);
+    store.putString("a", "1");
+    final int end = store.getLogSize();
+    store.putString("b", "2");
+
+    // Corrupt the checksum of the second record, as if the process died while writing it
+    final RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+    try {
+      final long offset = store.getLogSize() - 1;
+      file.seek(offset);
+      final int last = file.read();
+      file.seek(offset);
+      file.write(last ^ 0xFF);
+    } finally {
+      file.close();
+    }
+
+    final MappedKeyValueStore reopened = new MappedKeyValueStore(mFile, null);
+    assertEquals("1", reopened.getString("a", null));
+    assertFalse(reopened.contains("b"));
+    assertEquals(end, reopened.getLogSize());
+    reopened.putString("c", "3");
+    assertEquals("3", new MappedKeyValueStore(mFile, null).getString("c", null));
+  }
+
+  @Test
+  public void preload_loadsOnceWhileReadsWait() throws InterruptedException {
+    final MappedKeyValueStore seed = new MappedKeyValueStore(mFile, null);
+    seed.putString("savedAccountName", "carol");
+
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, null);
+    final CountDownLatch started = new CountDownLatch(1);
+    final Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        final Thread thread = new Thread(command, "preload");
+        thread.start();
+        started.countDown();
+      }
+    };
+    store.preload(executor);
+    started.await();
+    assertEquals("carol", store.getString("savedAccountName", null));
+    assertTrue(store.isLoaded());
+  }
+
+  /**
+   * Makes the store's directory unusable by replacing it with a plain file.
+   */
+  private void blockDirectory() throws IOException {
+    tearDown();
+    assertTrue(mDir.createNewFile());
+  }
+
+  /**
+   * Undoes {@link #blockDirectory()}.
+   */
+  private void unblockDirectory() {
+    assertTrue(mDir.delete());
+    assertTrue(mDir.mkdirs());
+  }
+
+  @Test
+  public void migration_isCompletedOnlyOnceTheLogIsWritten() throws IOException {
+    final AtomicInteger migrations = new AtomicInteger();
+    final List<Map<String, String>> completed = new ArrayList<>();
+    final MappedKeyValueStore.Migration migration = new MappedKeyValueStore.Migration() {
+      @Override
+      public Map<String, String> migrate() {
+        migrations.incrementAndGet();
+        return Collections.singletonMap("savedAccountName", "dave");
+      }
+
+      @Override
+      public void onMigrated(Map<String, String> values) {
+        assertTrue(mFile.exists());
+        completed.add(values);
+      }
+    };
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, migration);
+
+    blockDirectory();
+    assertNull(store.getString("savedAccountName", null));
+    assertFalse(store.isLoaded());
+    assertTrue(completed.isEmpty());
+
+    unblockDirectory();
+    assertEquals("dave", store.getString("savedAccountName", null));
+    assertTrue(store.isLoaded());
+    assertEquals(2, migrations.get());
+    assertEquals(
+        Collections.singletonList(Collections.singletonMap("savedAccountName", "dave")),
+        completed);
+  }
+
+  @Test
+  public void failedLoad_fallsBackToDefaultsAndIsRetried() throws IOException {
+    final MappedKeyValueStore store = new MappedKeyValueStore(mFile, null);
+
+    blockDirectory();
+    assertEquals("default", store.getString("a", "default"));
+    store.putString("b", "2");
+    store.remove("a");
+    assertEquals("2", store.getString("b", null));
+    assertEquals(0, store.getLogSize());
+    assertFalse(store.isLoaded());
+
+    unblockDirectory();
+    final MappedKeyValueStore other = new MappedKeyValueStore(mFile, null);
+    other.putString("a", "1");
+    other.putString("c", "3");
+    assertEquals("3", store.getString("c", null));
+    assertTrue(store.isLoaded());
+    assertNull(store.getString("a", null));
+    assertEquals("2", store.getString("b", null));
+
+    // The writes made while the log couldn't be loaded were written to it, over the log's values
+    final MappedKeyValueStore reopened = new MappedKeyValueStore(mFile, null);
+    assertFalse(reopened.contains("a"));
+    assertEquals("2", reopened.getString("b", null));
+    assertEquals("3", reopened.getString("c", null));
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Serves {@code api/v1/users/all.json}, as called by {@code ApiUserDelegate.streamUsers}. Every
+ * user is returned in one {@code result} array, in the order they were added, which makes it a
+ * convenient large payload for exercising streaming decoders (especially with a bandwidth cap).
+ */
+class AllUsersHandler implements StandInHandler {
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  AllUsersHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) {
+    if (mServer.getAccounts().authenticate(request.getBearerToken()) == null) {
+      mServer.getStats().increment(StandInStats.UNAUTHORIZED);
+      return StandInResponse.authError(
+          401,
+          "invalid_grant",
+          "The access token provided is invalid.");
+    }
+
+    final JsonArray users = new JsonArray();
+    for (JsonObject user : mServer.getAccounts().listUsers(0, Integer.MAX_VALUE)) {
+      users.add(user);
+    }
+    mServer.getStats().increment(StandInStats.ALL_USERS_REQUESTS);
+    return StandInResponse.result(users);
+  }
+}
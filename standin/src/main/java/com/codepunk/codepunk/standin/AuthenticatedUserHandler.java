@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Serves {@code api/v1/authenticated_user/get.json}, as called by
+ * {@code ApiUserDelegate.getAuthenticatedUser}.
+ */
+class AuthenticatedUserHandler implements StandInHandler {
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  AuthenticatedUserHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) {
+    final JsonObject user = mServer.getAccounts().authenticate(request.getBearerToken());
+    if (user == null) {
+      mServer.getStats().increment(StandInStats.UNAUTHORIZED);
+      return StandInResponse.authError(
+          401,
+          "invalid_grant",
+          "The access token provided is invalid.")
+          .setHeader("WWW-Authenticate", "Bearer realm=\"Service\", error=\"invalid_grant\"");
+    }
+    mServer.getStats().increment(StandInStats.USER_REQUESTS);
+    return StandInResponse.result(user);
+  }
+}
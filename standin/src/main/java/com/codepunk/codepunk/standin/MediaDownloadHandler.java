@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <p>
+ * Serves {@code api/v1/media/<name>}, as called by {@code ApiDownloadDelegate.download}.
+ * </p>
+ *
+ * <p>
+ * The entity tag of each file is its SHA-256 checksum. Single byte ranges
+ * ({@code Range: bytes=<first>-[<last>]}) are answered with 206 Partial Content, unless an
+ * {@code If-Range} header names a different entity tag, in which case the whole file is sent.
+ * </p>
+ */
+class MediaDownloadHandler implements StandInHandler {
+
+  /**
+   * The content type of media files.
+   */
+  private static final String CONTENT_TYPE_OCTET_STREAM = "application/octet-stream";
+
+  /**
+   * The prefix of a byte range header value.
+   */
+  private static final String BYTES_PREFIX = "bytes=";
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  MediaDownloadHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) {
+    if (mServer.getAccounts().authenticate(request.getBearerToken()) == null) {
+      mServer.getStats().increment(StandInStats.UNAUTHORIZED);
+      return StandInResponse.authError(
+          401,
+          "invalid_grant",
+          "The access token provided is invalid.");
+    }
+
+    String name = request.getPath();
+    name = name.substring(name.indexOf(StandInServer.ENDPOINT_MEDIA)
+        + StandInServer.ENDPOINT_MEDIA.length());
+    final byte[] contents = mServer.getMedia().get(name);
+    if (contents == null) {
+      mServer.getStats().increment(StandInStats.NOT_FOUND);
+      return StandInResponse.htmlError(404, "Not Found");
+    }
+    final String etag = "\"" + mServer.getMedia().getSha256(name) + "\"";
+    mServer.getStats().increment(StandInStats.DOWNLOADS);
+
+    final String range = request.getHeader("Range");
+    final String ifRange = request.getHeader("If-Range");
+    if (range == null || !range.startsWith(BYTES_PREFIX)
+        || (ifRange != null && !ifRange.equals(etag))) {
+      return newMediaResponse(200, contents, etag);
+    }
+
+    final long length = contents.length;
+    final long first;
+    long last;
+    try {
+      final String spec = range.substring(BYTES_PREFIX.length()).trim();
+      final int dash = spec.indexOf('-');
+      first = Long.parseLong(spec.substring(0, dash));
+      last = (dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1)));
+    } catch (IndexOutOfBoundsException | NumberFormatException e) {
+      // Multiple or suffix ranges; ignore the header as RFC 7233 allows
+      return newMediaResponse(200, contents, etag);
+    }
+    if (first >= length || last < first) {
+      return new StandInResponse(416, null, null)
+          .setHeader("Content-Range", "bytes */" + length);
+    }
+    last = Math.min(last, length - 1);
+    mServer.getStats().increment(StandInStats.RANGE_REQUESTS);
+    return newMediaResponse(
+        206,
+        Arrays.copyOfRange(contents, (int) first, (int) last + 1),
+        etag)
+        .setHeader(
+            "Content-Range",
+            String.format(Locale.US, "bytes %d-%d/%d", first, last, length));
+  }
+
+  /**
+   * Creates a response carrying (part of) a media file.
+   * @param status The HTTP status code.
+   * @param body The bytes to send.
+   * @param etag The quoted entity tag of the file.
+   * @return The response.
+   */
+  private static StandInResponse newMediaResponse(int status, byte[] body, String etag) {
+    return new StandInResponse(status, CONTENT_TYPE_OCTET_STREAM, body)
+        .setHeader("ETag", etag)
+        .setHeader("Accept-Ranges", "bytes");
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonObject;
+
+import java.io.InterruptedIOException;
+
+/**
+ * <p>
+ * Serves the chunked upload endpoints under {@code api/v1/uploads/}, as called by
+ * {@code ChunkedUploader}:
+ * </p>
+ * <ul>
+ * <li>{@code POST create.json} with form parameters {@code name}, {@code length},
+ * {@code sha256} and optionally {@code chunk_size} creates a session.</li>
+ * <li>{@code GET <id>.json} returns a session, including the indices of the chunks received so
+ * far.</li>
+ * <li>{@code PUT <id>/<index>} stores a chunk.</li>
+ * <li>{@code POST <id>/complete.json} assembles and verifies the file.</li>
+ * </ul>
+ * <p>
+ * See {@link StandInUploads} for the status codes.
+ * </p>
+ */
+class MediaUploadHandler implements StandInHandler {
+
+  /**
+   * The suffix of JSON endpoints.
+   */
+  private static final String JSON_SUFFIX = ".json";
+
+  /**
+   * The endpoint, relative to {@link StandInServer#ENDPOINT_UPLOADS}, that creates a session.
+   */
+  private static final String CREATE = "create" + JSON_SUFFIX;
+
+  /**
+   * The endpoint, relative to a session, that completes it.
+   */
+  private static final String COMPLETE = "complete" + JSON_SUFFIX;
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  MediaUploadHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) throws InterruptedIOException {
+    if (mServer.getAccounts().authenticate(request.getBearerToken()) == null) {
+      mServer.getStats().increment(StandInStats.UNAUTHORIZED);
+      return StandInResponse.authError(
+          401,
+          "invalid_grant",
+          "The access token provided is invalid.");
+    }
+
+    final String path = request.getPath();
+    final String endpoint = path.substring(path.indexOf(StandInServer.ENDPOINT_UPLOADS)
+        + StandInServer.ENDPOINT_UPLOADS.length());
+    final String method = request.getMethod();
+    final StandInUploads uploads = mServer.getUploads();
+    final int slash = endpoint.indexOf('/');
+
+    if (slash < 0) {
+      if ("POST".equals(method) && CREATE.equals(endpoint)) {
+        return create(request);
+      } else if ("GET".equals(method) && endpoint.endsWith(JSON_SUFFIX)) {
+        final JsonObject session =
+            uploads.get(endpoint.substring(0, endpoint.length() - JSON_SUFFIX.length()));
+        return (session == null ? error(404) : StandInResponse.result(session));
+      }
+      return error(404);
+    }
+
+    final String id = endpoint.substring(0, slash);
+    final String action = endpoint.substring(slash + 1);
+    if ("POST".equals(method) && COMPLETE.equals(action)) {
+      final JsonObject session = uploads.get(id);
+      final int status = uploads.complete(id);
+      if (status != 200) {
+        return error(status);
+      }
+      mServer.getStats().increment(StandInStats.UPLOADS_COMPLETED);
+      session.addProperty("complete", true);
+      return StandInResponse.result(session);
+    } else if ("PUT".equals(method)) {
+      final int index;
+      try {
+        index = Integer.parseInt(action);
+      } catch (NumberFormatException e) {
+        return error(404);
+      }
+      final int status;
+      try {
+        status = uploads.putChunk(id, index, request.getBody());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      if (status != 200) {
+        return error(status);
+      }
+      mServer.getStats().increment(StandInStats.UPLOAD_CHUNKS);
+      return StandInResponse.result(uploads.get(id));
+    }
+    return error(404);
+  }
+
+  /**
+   * Creates a session.
+   * @param request The request.
+   * @return The response.
+   */
+  private StandInResponse create(StandInRequest request) {
+    final String name = request.getFormParam("name");
+    final String sha256 = request.getFormParam("sha256");
+    final long length;
+    final int chunkSize;
+    try {
+      length = Long.parseLong(request.getFormParam("length"));
+      final String chunkSizeParam = request.getFormParam("chunk_size");
+      chunkSize = (chunkSizeParam == null ? 0 : Integer.parseInt(chunkSizeParam));
+    } catch (NumberFormatException e) {
+      return error(400);
+    }
+    if (name == null || name.isEmpty() || sha256 == null || length < 0L) {
+      return error(400);
+    }
+    return StandInResponse.result(mServer.getUploads().create(name, length, sha256, chunkSize));
+  }
+
+  /**
+   * Creates an error response.
+   * @param status The HTTP status code.
+   * @return The response.
+   */
+  private static StandInResponse error(int status) {
+    return StandInResponse.htmlError(status, StandInServer.getReasonPhrase(status));
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * The user and token database of a {@link StandInServer}. Mimics the behavior of Symfony's
+ * FOSUserBundle and FOSOAuthServerBundle closely enough for the app's auth flows.
+ * </p>
+ *
+ * <p>
+ * Access tokens expire after {@link StandInConfig#getTokenLifetimeSeconds()}. When
+ * {@link StandInConfig#isRotateRefreshTokens()} is set, refresh tokens are single-use: each
+ * refresh invalidates the refresh token that was presented and issues a new one.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInAccounts {
+
+  /**
+   * The entity type that users are recorded under in the change log.
+   */
+  public static final String TYPE_USER = "user";
+
+  /**
+   * The server that owns this database.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Source of user IDs.
+   */
+  private final AtomicInteger mNextUserId = new AtomicInteger(1);
+
+  /**
+   * Registered users, keyed by canonical username.
+   */
+  private final ConcurrentMap<String, StandInUser> mUsers = new ConcurrentHashMap<>();
+
+  /**
+   * Issued access tokens.
+   */
+  private final ConcurrentMap<String, AccessGrant> mAccessTokens = new ConcurrentHashMap<>();
+
+  /**
+   * Issued refresh tokens, mapped to the canonical username they were issued to.
+   */
+  private final ConcurrentMap<String, String> mRefreshTokens = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new, empty database.
+   * @param server The server that owns this database.
+   */
+  StandInAccounts(StandInServer server) {
+    mServer = server;
+  }
+
+  /**
+   * Registers a user.
+   * @param username The username.
+   * @param password The password.
+   * @return The JSON representation of the new user.
+   */
+  public JsonObject addUser(String username, String password) {
+    final String canonical = canonicalize(username);
+    final JsonObject json = new JsonObject();
+    json.addProperty("id", mNextUserId.getAndIncrement());
+    json.addProperty("credentials_expired", false);
+    json.addProperty("email", username + "@example.com");
+    json.addProperty("email_canonical", canonical + "@example.com");
+    json.addProperty("enabled", true);
+    json.addProperty("expired", false);
+    json.addProperty("last_login", "2016-12-01T00:00:00+0000");
+    json.addProperty("locked", false);
+    json.addProperty("username", username);
+    json.addProperty("username_canonical", canonical);
+    mUsers.put(canonical, new StandInUser(password, json));
+    mServer.getChangeLog().recordUpdate(TYPE_USER, json.get("id").getAsString(), json);
+    return json;
+  }
+
+  /**
+   * Changes some fields of a registered user, and records the change in the server's
+   * {@link StandInChangeLog}.
+   * @param username The username.
+   * @param fields The fields to change.
+   * @return The JSON representation of the user, or null if no such user is registered.
+   */
+  public JsonObject updateUser(String username, JsonObject fields) {
+    final StandInUser user = mUsers.get(canonicalize(username));
+    if (user == null) {
+      return null;
+    }
+    synchronized (user) {
+      for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+        user.mJson.add(field.getKey(), field.getValue());
+      }
+    }
+    mServer.getChangeLog().recordUpdate(TYPE_USER, user.mJson.get("id").getAsString(), fields);
+    return user.mJson;
+  }
+
+  /**
+   * Removes a registered user, and records the deletion in the server's
+   * {@link StandInChangeLog}. Tokens issued to the user stop working.
+   * @param username The username.
+   * @return True if the user was registered.
+   */
+  public boolean removeUser(String username) {
+    final StandInUser user = mUsers.remove(canonicalize(username));
+    if (user == null) {
+      return false;
+    }
+    mServer.getChangeLog().recordDeletion(TYPE_USER, user.mJson.get("id").getAsString());
+    return true;
+  }
+
+  /**
+   * Returns the JSON representation of a registered user.
+   * @param username The username.
+   * @return The user, or null if no such user is registered.
+   */
+  public JsonObject getUser(String username) {
+    final StandInUser user = mUsers.get(canonicalize(username));
+    return (user == null ? null : user.mJson);
+  }
+
+  /**
+   * Returns registered users in the order they were added, for paging through the list.
+   * @param afterId Only users with a greater id are returned.
+   * @param limit The maximum number of users to return.
+   * @return The JSON representations of the users.
+   */
+  public List<JsonObject> listUsers(int afterId, int limit) {
+    final List<JsonObject> users = new ArrayList<>();
+    for (StandInUser user : mUsers.values()) {
+      if (user.mJson.get("id").getAsInt() > afterId) {
+        users.add(user.mJson);
+      }
+    }
+    Collections.sort(users, new Comparator<JsonObject>() {
+      @Override
+      public int compare(JsonObject lhs, JsonObject rhs) {
+        final int lhsId = lhs.get("id").getAsInt();
+        final int rhsId = rhs.get("id").getAsInt();
+        return (lhsId < rhsId ? -1 : (lhsId == rhsId ? 0 : 1));
+      }
+    });
+    return (users.size() > limit ? users.subList(0, limit) : users);
+  }
+
+  /**
+   * Returns the number of registered users.
+   * @return The number of users.
+   */
+  public int getUserCount() {
+    return mUsers.size();
+  }
+
+  /**
+   * Issues a new access token and refresh token to a user without checking credentials. Useful
+   * for seeding a client with a refresh token.
+   * @param username The username.
+   * @return The OAuth token response, or null if no such user is registered.
+   */
+  public JsonObject issueTokens(String username) {
+    final String canonical = canonicalize(username);
+    if (!mUsers.containsKey(canonical)) {
+      return null;
+    }
+    final int lifetimeSeconds = mServer.getConfig().getTokenLifetimeSeconds();
+    final String accessToken = newToken();
+    final String refreshToken = newToken();
+    mAccessTokens.put(
+        accessToken,
+        new AccessGrant(canonical, System.currentTimeMillis() + lifetimeSeconds * 1000L));
+    mRefreshTokens.put(refreshToken, canonical);
+
+    final JsonObject json = new JsonObject();
+    json.addProperty("access_token", accessToken);
+    json.addProperty("expires_in", lifetimeSeconds);
+    json.addProperty("token_type", "bearer");
+    json.add("scope", null);
+    json.addProperty("refresh_token", refreshToken);
+    return json;
+  }
+
+  /**
+   * Issues tokens for a password grant.
+   * @param username The username.
+   * @param password The password.
+   * @return The OAuth token response, or null if the credentials are invalid.
+   */
+  JsonObject grantPassword(String username, String password) {
+    final StandInUser user = (username == null ? null : mUsers.get(canonicalize(username)));
+    if (user == null || !user.mPassword.equals(password)) {
+      return null;
+    }
+    return issueTokens(username);
+  }
+
+  /**
+   * Issues tokens for a refresh token grant.
+   * @param refreshToken The refresh token.
+   * @return The OAuth token response, or null if the refresh token is unknown or was already
+   * used.
+   */
+  JsonObject grantRefreshToken(String refreshToken) {
+    if (refreshToken == null) {
+      return null;
+    }
+    final String canonical = mServer.getConfig().isRotateRefreshTokens() ?
+        mRefreshTokens.remove(refreshToken) :
+        mRefreshTokens.get(refreshToken);
+    return (canonical == null ? null : issueTokens(canonical));
+  }
+
+  /**
+   * Resolves an access token to the user it was issued to.
+   * @param accessToken The access token.
+   * @return The JSON representation of the user, or null if the token is unknown or expired.
+   */
+  JsonObject authenticate(String accessToken) {
+    final AccessGrant grant = (accessToken == null ? null : mAccessTokens.get(accessToken));
+    if (grant == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() >= grant.mExpiresAt) {
+      mAccessTokens.remove(accessToken, grant);
+      return null;
+    }
+    final StandInUser user = mUsers.get(grant.mUsername);
+    return (user == null ? null : user.mJson);
+  }
+
+  /**
+   * Immediately expires every issued access token. Clients that present one will be refused
+   * and must refresh, which is useful for reproducing a token-expiry thundering herd.
+   */
+  public void expireAccessTokens() {
+    mAccessTokens.clear();
+  }
+
+  /**
+   * Revokes every issued refresh token.
+   */
+  public void revokeRefreshTokens() {
+    mRefreshTokens.clear();
+  }
+
+  /**
+   * Returns the canonical form of a username.
+   * @param username The username.
+   * @return The canonical username.
+   */
+  private static String canonicalize(String username) {
+    return username.toLowerCase(Locale.US);
+  }
+
+  /**
+   * Generates a new opaque token.
+   * @return The token.
+   */
+  private static String newToken() {
+    return UUID.randomUUID().toString().replace("-", "");
+  }
+
+  /**
+   * A registered user.
+   */
+  private static class StandInUser {
+    final String mPassword;
+    final JsonObject mJson;
+
+    StandInUser(String password, JsonObject json) {
+      mPassword = password;
+      mJson = json;
+    }
+  }
+
+  /**
+   * An issued access token.
+   */
+  private static class AccessGrant {
+    final String mUsername;
+    final long mExpiresAt;
+
+    AccessGrant(String username, long expiresAt) {
+      mUsername = username;
+      mExpiresAt = expiresAt;
+    }
+  }
+}
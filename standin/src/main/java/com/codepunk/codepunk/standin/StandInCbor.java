@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * <p>
+ * Encodes JSON trees as CBOR (RFC 7049), so that a {@link StandInServer} can serve every JSON
+ * endpoint in both formats.
+ * </p>
+ *
+ * <p>
+ * The encoding is the preferred (shortest) one: integers use the smallest argument that holds
+ * them, other numbers are written as single-precision floats when that is lossless and as
+ * double-precision floats otherwise, and all strings, arrays and maps have definite lengths.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class StandInCbor {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int FLOAT = 0xfa;
+  private static final int DOUBLE = 0xfb;
+
+  private StandInCbor() {
+  }
+
+  /**
+   * Encodes a JSON tree as CBOR.
+   * @param json The JSON tree.
+   * @return The CBOR document.
+   */
+  public static byte[] encode(JsonElement json) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(out, json);
+    return out.toByteArray();
+  }
+
+  private static void write(ByteArrayOutputStream out, JsonElement json) {
+    if (json == null || json.isJsonNull()) {
+      out.write(NULL);
+    } else if (json.isJsonObject()) {
+      final JsonObject object = json.getAsJsonObject();
+      writeHeader(out, MAJOR_MAP, object.entrySet().size());
+      for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+        writeText(out, entry.getKey());
+        write(out, entry.getValue());
+      }
+    } else if (json.isJsonArray()) {
+      final JsonArray array = json.getAsJsonArray();
+      writeHeader(out, MAJOR_ARRAY, array.size());
+      for (JsonElement element : array) {
+        write(out, element);
+      }
+    } else {
+      final JsonPrimitive primitive = json.getAsJsonPrimitive();
+      if (primitive.isBoolean()) {
+        out.write(primitive.getAsBoolean() ? TRUE : FALSE);
+      } else if (primitive.isNumber()) {
+        writeNumber(out, primitive.getAsString());
+      } else {
+        writeText(out, primitive.getAsString());
+      }
+    }
+  }
+
+  private static void writeNumber(ByteArrayOutputStream out, String number) {
+    final BigDecimal decimal = new BigDecimal(number);
+    if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0
+        && decimal.toBigInteger().bitLength() < 64) {
+      final long value = decimal.longValue();
+      if (value < 0L) {
+        writeHeader(out, MAJOR_NEGATIVE, -1L - value);
+      } else {
+        writeHeader(out, MAJOR_UNSIGNED, value);
+      }
+      return;
+    }
+    final double value = decimal.doubleValue();
+    if ((float) value == value) {
+      out.write(FLOAT);
+      writeBytes(out, Float.floatToIntBits((float) value), 4);
+    } else {
+      out.write(DOUBLE);
+      writeBytes(out, Double.doubleToLongBits(value), 8);
+    }
+  }
+
+  private static void writeText(ByteArrayOutputStream out, String text) {
+    final byte[] bytes = text.getBytes(StandInResponse.UTF_8);
+    writeHeader(out, MAJOR_TEXT, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeHeader(ByteArrayOutputStream out, int major, long argument) {
+    final int type = major << 5;
+    if (argument < 24L) {
+      out.write(type | (int) argument);
+    } else if (argument < 0x100L) {
+      out.write(type | 24);
+      writeBytes(out, argument, 1);
+    } else if (argument < 0x10000L) {
+      out.write(type | 25);
+      writeBytes(out, argument, 2);
+    } else if (argument < 0x100000000L) {
+      out.write(type | 26);
+      writeBytes(out, argument, 4);
+    } else {
+      out.write(type | 27);
+      writeBytes(out, argument, 8);
+    }
+  }
+
+  private static void writeBytes(ByteArrayOutputStream out, long value, int count) {
+    for (int shift = (count - 1) * 8; shift >= 0; shift -= 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+}
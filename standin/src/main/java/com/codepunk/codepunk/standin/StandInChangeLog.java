@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * The change log of a {@link StandInServer}, which backs the sync endpoint. Every change to an
+ * entity is appended with the next sequence number, and a client's sync token is simply the
+ * sequence number of the last change it has seen.
+ * </p>
+ *
+ * <p>
+ * {@link #getChanges(long, int)} collapses the changes after a token into one change per
+ * entity, whose {@code fields} hold only the fields written since the token and whose
+ * {@code version} is the sequence number of the entity's latest change. A deletion collapses
+ * into a tombstone ({@code "deleted": true} with no fields). The response therefore grows with
+ * the number of entities that changed, not with the number of entities.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInChangeLog {
+
+  /**
+   * The changes, in sequence order. Guarded by this.
+   */
+  private final List<Entry> mEntries = new ArrayList<>();
+
+  /**
+   * The sequence number of the latest change. Guarded by this.
+   */
+  private long mSequence;
+
+  /**
+   * Appends a change that writes some fields of an entity, creating it if it doesn't exist.
+   * @param type The entity type, for instance {@code "user"}.
+   * @param id The entity id.
+   * @param fields The fields written. A copy is kept.
+   * @return The sequence number of the change.
+   */
+  public synchronized long recordUpdate(String type, String id, JsonObject fields) {
+    final JsonObject copy = new JsonObject();
+    for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+      copy.add(field.getKey(), field.getValue());
+    }
+    mEntries.add(new Entry(++mSequence, type, id, copy));
+    return mSequence;
+  }
+
+  /**
+   * Appends a change that deletes an entity.
+   * @param type The entity type.
+   * @param id The entity id.
+   * @return The sequence number of the change.
+   */
+  public synchronized long recordDeletion(String type, String id) {
+    mEntries.add(new Entry(++mSequence, type, id, null));
+    return mSequence;
+  }
+
+  /**
+   * Returns the sequence number of the latest change.
+   * @return The sequence number, or 0 if nothing has changed.
+   */
+  public synchronized long getSequence() {
+    return mSequence;
+  }
+
+  /**
+   * Returns the changes after a sync token, collapsed into one change per entity.
+   * @param since The sync token: the sequence number of the last change the client has seen.
+   * @param limit The maximum number of entities to return.
+   * @return The change set, with {@code changes}, {@code next_token} and {@code has_more}
+   * members.
+   */
+  public synchronized JsonObject getChanges(long since, int limit) {
+    final Map<String, JsonObject> changes = new LinkedHashMap<>();
+    long nextToken = Math.max(since, 0L);
+    int index = firstIndexAfter(since);
+    for (; index < mEntries.size(); index++) {
+      final Entry entry = mEntries.get(index);
+      final String key = entry.mType + '/' + entry.mId;
+      JsonObject change = changes.get(key);
+      if (change == null) {
+        if (changes.size() >= limit) {
+          break;
+        }
+        change = new JsonObject();
+        change.addProperty("type", entry.mType);
+        change.addProperty("id", entry.mId);
+        change.add("fields", new JsonObject());
+        changes.put(key, change);
+      }
+      change.addProperty("version", entry.mSequence);
+      if (entry.mFields == null) {
+        change.addProperty("deleted", true);
+        change.add("fields", new JsonObject());
+      } else {
+        change.addProperty("deleted", false);
+        final JsonObject fields = change.getAsJsonObject("fields");
+        for (Map.Entry<String, JsonElement> field : entry.mFields.entrySet()) {
+          fields.add(field.getKey(), field.getValue());
+        }
+      }
+      nextToken = entry.mSequence;
+    }
+
+    final JsonArray array = new JsonArray();
+    for (JsonObject change : changes.values()) {
+      array.add(change);
+    }
+    final JsonObject json = new JsonObject();
+    json.add("changes", array);
+    json.addProperty("next_token", String.valueOf(nextToken));
+    json.addProperty("has_more", index < mEntries.size());
+    return json;
+  }
+
+  /**
+   * Returns the index of the first entry after a sequence number. Sequence numbers start at 1
+   * and have no gaps, so this is just the sequence number itself.
+   * @param since The sequence number.
+   * @return The index.
+   */
+  private int firstIndexAfter(long since) {
+    return (int) Math.max(0L, Math.min(since, mEntries.size()));
+  }
+
+  /**
+   * A change to an entity.
+   */
+  private static class Entry {
+    final long mSequence;
+    final String mType;
+    final String mId;
+    final JsonObject mFields;
+
+    Entry(long sequence, String type, String id, JsonObject fields) {
+      mSequence = sequence;
+      mType = type;
+      mId = id;
+      mFields = fields;
+    }
+  }
+}
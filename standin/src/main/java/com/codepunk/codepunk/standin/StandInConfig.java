@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Immutable configuration for a {@link StandInServer}. Controls the simulated network conditions
+ * (latency, bandwidth, injected errors) as well as the OAuth behavior (token lifetime and
+ * refresh-token rotation) of the stand-in server.
+ * </p>
+ *
+ * <p>
+ * Use {@link Builder} to create an instance:
+ * <pre>
+ * StandInConfig config = new StandInConfig.Builder()
+ *     .setLatency(150, TimeUnit.MILLISECONDS)
+ *     .setLatencyJitter(50, TimeUnit.MILLISECONDS)
+ *     .setBandwidth(64 * 1024)
+ *     .setErrorRate(0.01)
+ *     .setTokenLifetime(60, TimeUnit.SECONDS)
+ *     .build();
+ * </pre>
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInConfig {
+
+  /**
+   * The client ID the stand-in server accepts by default.
+   */
+  public static final String DEFAULT_CLIENT_ID = "standin_client_id";
+
+  /**
+   * The client secret the stand-in server accepts by default.
+   */
+  public static final String DEFAULT_CLIENT_SECRET = "standin_client_secret";
+
+  /**
+   * The default lifetime of issued access tokens, in seconds.
+   */
+  public static final int DEFAULT_TOKEN_LIFETIME_SECONDS = 3600;
+
+  /**
+   * The port to bind to. 0 means an ephemeral port chosen by the system.
+   */
+  private final int mPort;
+
+  /**
+   * The client ID that token requests must present.
+   */
+  private final String mClientId;
+
+  /**
+   * The client secret that token requests must present.
+   */
+  private final String mClientSecret;
+
+  /**
+   * Fixed latency added before every response, in milliseconds.
+   */
+  private final long mLatencyMillis;
+
+  /**
+   * Maximum random latency added on top of {@link #mLatencyMillis}, in milliseconds.
+   */
+  private final long mLatencyJitterMillis;
+
+  /**
+   * Bandwidth cap for response bodies, in bytes per second. 0 means unlimited.
+   */
+  private final int mBandwidthBytesPerSecond;
+
+  /**
+   * Probability (0.0 to 1.0) that a request is answered with an injected 5xx error.
+   */
+  private final double mErrorRate;
+
+  /**
+   * Probability (0.0 to 1.0) that a request's connection is dropped without a response.
+   */
+  private final double mDropRate;
+
+  /**
+   * Lifetime of issued access tokens, in seconds.
+   */
+  private final int mTokenLifetimeSeconds;
+
+  /**
+   * Whether each refresh issues a new refresh token and invalidates the one that was used.
+   */
+  private final boolean mRotateRefreshTokens;
+
+  /**
+   * Seed for the random number generator used for jitter and fault injection.
+   */
+  private final long mSeed;
+
+  /**
+   * Private constructor. Use {@link Builder} to create instances.
+   * @param builder The builder holding the configured values.
+   */
+  private StandInConfig(Builder builder) {
+    mPort = builder.mPort;
+    mClientId = builder.mClientId;
+    mClientSecret = builder.mClientSecret;
+    mLatencyMillis = builder.mLatencyMillis;
+    mLatencyJitterMillis = builder.mLatencyJitterMillis;
+    mBandwidthBytesPerSecond = builder.mBandwidthBytesPerSecond;
+    mErrorRate = builder.mErrorRate;
+    mDropRate = builder.mDropRate;
+    mTokenLifetimeSeconds = builder.mTokenLifetimeSeconds;
+    mRotateRefreshTokens = builder.mRotateRefreshTokens;
+    mSeed = builder.mSeed;
+  }
+
+  /**
+   * Returns a configuration with no latency, no bandwidth cap and no injected faults.
+   * @return The default configuration.
+   */
+  public static StandInConfig defaults() {
+    return new Builder().build();
+  }
+
+  /**
+   * Returns the port to bind to.
+   * @return The port, or 0 for an ephemeral port.
+   */
+  public int getPort() {
+    return mPort;
+  }
+
+  /**
+   * Returns the client ID that token requests must present.
+   * @return The client ID.
+   */
+  public String getClientId() {
+    return mClientId;
+  }
+
+  /**
+   * Returns the client secret that token requests must present.
+   * @return The client secret.
+   */
+  public String getClientSecret() {
+    return mClientSecret;
+  }
+
+  /**
+   * Returns the fixed latency added before every response.
+   * @return The latency, in milliseconds.
+   */
+  public long getLatencyMillis() {
+    return mLatencyMillis;
+  }
+
+  /**
+   * Returns the maximum random latency added on top of the fixed latency.
+   * @return The jitter, in milliseconds.
+   */
+  public long getLatencyJitterMillis() {
+    return mLatencyJitterMillis;
+  }
+
+  /**
+   * Returns the bandwidth cap for response bodies.
+   * @return The cap in bytes per second, or 0 if unlimited.
+   */
+  public int getBandwidthBytesPerSecond() {
+    return mBandwidthBytesPerSecond;
+  }
+
+  /**
+   * Returns the probability that a request is answered with an injected 5xx error.
+   * @return The error rate.
+   */
+  public double getErrorRate() {
+    return mErrorRate;
+  }
+
+  /**
+   * Returns the probability that a request's connection is dropped without a response.
+   * @return The drop rate.
+   */
+  public double getDropRate() {
+    return mDropRate;
+  }
+
+  /**
+   * Returns the lifetime of issued access tokens.
+   * @return The token lifetime, in seconds.
+   */
+  public int getTokenLifetimeSeconds() {
+    return mTokenLifetimeSeconds;
+  }
+
+  /**
+   * Returns whether refresh tokens are rotated on every refresh.
+   * @return True if refresh tokens are single-use.
+   */
+  public boolean isRotateRefreshTokens() {
+    return mRotateRefreshTokens;
+  }
+
+  /**
+   * Returns the seed used for jitter and fault injection.
+   * @return The seed.
+   */
+  public long getSeed() {
+    return mSeed;
+  }
+
+  /**
+   * Returns a builder pre-populated with this configuration's values.
+   * @return A new {@link Builder}.
+   */
+  public Builder buildUpon() {
+    return new Builder(this);
+  }
+
+  /**
+   * Builder class for {@link StandInConfig}.
+   */
+  public static class Builder {
+    private int mPort = 0;
+    private String mClientId = DEFAULT_CLIENT_ID;
+    private String mClientSecret = DEFAULT_CLIENT_SECRET;
+    private long mLatencyMillis = 0L;
+    private long mLatencyJitterMillis = 0L;
+    private int mBandwidthBytesPerSecond = 0;
+    private double mErrorRate = 0.0d;
+    private double mDropRate = 0.0d;
+    private int mTokenLifetimeSeconds = DEFAULT_TOKEN_LIFETIME_SECONDS;
+    private boolean mRotateRefreshTokens = true;
+    private long mSeed = 0xC0DEL;
+
+    /**
+     * Creates a builder with default values.
+     */
+    public Builder() {
+    }
+
+    /**
+     * Creates a builder pre-populated with the values of an existing configuration.
+     * @param config The configuration to copy.
+     */
+    private Builder(StandInConfig config) {
+      mPort = config.mPort;
+      mClientId = config.mClientId;
+      mClientSecret = config.mClientSecret;
+      mLatencyMillis = config.mLatencyMillis;
+      mLatencyJitterMillis = config.mLatencyJitterMillis;
+      mBandwidthBytesPerSecond = config.mBandwidthBytesPerSecond;
+      mErrorRate = config.mErrorRate;
+      mDropRate = config.mDropRate;
+      mTokenLifetimeSeconds = config.mTokenLifetimeSeconds;
+      mRotateRefreshTokens = config.mRotateRefreshTokens;
+      mSeed = config.mSeed;
+    }
+
+    public Builder setPort(int port) {
+      mPort = port;
+      return this;
+    }
+
+    public Builder setClientCredentials(String clientId, String clientSecret) {
+      mClientId = clientId;
+      mClientSecret = clientSecret;
+      return this;
+    }
+
+    public Builder setLatency(long duration, TimeUnit unit) {
+      mLatencyMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    public Builder setLatencyJitter(long duration, TimeUnit unit) {
+      mLatencyJitterMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    public Builder setBandwidth(int bytesPerSecond) {
+      mBandwidthBytesPerSecond = bytesPerSecond;
+      return this;
+    }
+
+    public Builder setErrorRate(double errorRate) {
+      mErrorRate = checkRate(errorRate);
+      return this;
+    }
+
+    public Builder setDropRate(double dropRate) {
+      mDropRate = checkRate(dropRate);
+      return this;
+    }
+
+    public Builder setTokenLifetime(long duration, TimeUnit unit) {
+      mTokenLifetimeSeconds = (int) unit.toSeconds(duration);
+      return this;
+    }
+
+    public Builder setRotateRefreshTokens(boolean rotateRefreshTokens) {
+      mRotateRefreshTokens = rotateRefreshTokens;
+      return this;
+    }
+
+    public Builder setSeed(long seed) {
+      mSeed = seed;
+      return this;
+    }
+
+    public StandInConfig build() {
+      return new StandInConfig(this);
+    }
+
+    private static double checkRate(double rate) {
+      if (rate < 0.0d || rate > 1.0d) {
+        throw new IllegalArgumentException("Rate must be between 0.0 and 1.0: " + rate);
+      }
+      return rate;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.io.IOException;
+
+/**
+ * Interface for an endpoint served by a {@link StandInServer}.
+ */
+public interface StandInHandler {
+
+  /**
+   * Handles a request. Called on one of the server's connection threads; implementations must be
+   * thread-safe.
+   * @param request The request.
+   * @return The response to send.
+   * @throws IOException If the request cannot be handled.
+   */
+  StandInResponse handle(StandInRequest request) throws IOException;
+}
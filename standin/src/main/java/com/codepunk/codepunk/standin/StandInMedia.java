@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The media store of a {@link StandInServer}. Holds the files served by
+ * {@value StandInServer#ENDPOINT_MEDIA}, keyed by name.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInMedia {
+
+  /**
+   * Hex digits used when formatting checksums.
+   */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Stored files, keyed by name.
+   */
+  private final ConcurrentMap<String, MediaFile> mFiles = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new, empty media store.
+   */
+  StandInMedia() {
+  }
+
+  /**
+   * Stores a file, replacing any file with the same name.
+   * @param name The name of the file.
+   * @param contents The contents of the file.
+   * @return The hex-encoded SHA-256 checksum of the contents.
+   */
+  public String put(String name, byte[] contents) {
+    final MediaFile file = new MediaFile(contents);
+    mFiles.put(name, file);
+    return file.mSha256;
+  }
+
+  /**
+   * Stores a file of pseudo-random bytes.
+   * @param name The name of the file.
+   * @param length The length of the file.
+   * @param seed The seed used to generate the contents.
+   * @return The contents of the file.
+   */
+  public byte[] putRandom(String name, int length, long seed) {
+    final byte[] contents = new byte[length];
+    new Random(seed).nextBytes(contents);
+    put(name, contents);
+    return contents;
+  }
+
+  /**
+   * Returns the contents of a file.
+   * @param name The name of the file.
+   * @return The contents, or null if there is no such file.
+   */
+  public byte[] get(String name) {
+    final MediaFile file = mFiles.get(name);
+    return (file == null ? null : file.mContents);
+  }
+
+  /**
+   * Returns the checksum of a file.
+   * @param name The name of the file.
+   * @return The hex-encoded SHA-256 checksum, or null if there is no such file.
+   */
+  public String getSha256(String name) {
+    final MediaFile file = mFiles.get(name);
+    return (file == null ? null : file.mSha256);
+  }
+
+  /**
+   * Removes a file.
+   * @param name The name of the file.
+   * @return True if the file existed.
+   */
+  public boolean remove(String name) {
+    return mFiles.remove(name) != null;
+  }
+
+  /**
+   * Computes the hex-encoded SHA-256 checksum of a byte array.
+   * @param bytes The bytes.
+   * @return The checksum.
+   */
+  public static String sha256(byte[] bytes) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+      final char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+        hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A stored file and its checksum, which doubles as its entity tag.
+   */
+  private static class MediaFile {
+    private final byte[] mContents;
+    private final String mSha256;
+
+    MediaFile(byte[] contents) {
+      mContents = contents;
+      mSha256 = sha256(contents);
+    }
+  }
+}
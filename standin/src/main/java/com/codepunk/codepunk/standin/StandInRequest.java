@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An HTTP request as received by a {@link StandInServer}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInRequest {
+
+  /**
+   * The charset used to decode form and query parameters.
+   */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * The content type of url-encoded form bodies (as sent by Volley for POST params).
+   */
+  private static final String CONTENT_TYPE_FORM = "application/x-www-form-urlencoded";
+
+  /**
+   * The request method (GET, POST, etc.).
+   */
+  private final String mMethod;
+
+  /**
+   * The decoded request path, without the query string.
+   */
+  private final String mPath;
+
+  /**
+   * The decoded query parameters.
+   */
+  private final Map<String, String> mQueryParams;
+
+  /**
+   * The request headers, keyed by lower-case header name.
+   */
+  private final Map<String, String> mHeaders;
+
+  /**
+   * The raw request body.
+   */
+  private final byte[] mBody;
+
+  /**
+   * The decoded form parameters, lazily parsed from the body.
+   */
+  private Map<String, String> mFormParams;
+
+  /**
+   * Creates a new request.
+   * @param method The request method.
+   * @param target The request target (path and optional query string).
+   * @param headers The request headers, keyed by lower-case header name.
+   * @param body The raw request body.
+   */
+  StandInRequest(String method, String target, Map<String, String> headers, byte[] body) {
+    mMethod = method;
+    final int queryIndex = target.indexOf('?');
+    if (queryIndex < 0) {
+      mPath = decode(target);
+      mQueryParams = Collections.emptyMap();
+    } else {
+      mPath = decode(target.substring(0, queryIndex));
+      mQueryParams = parseParams(target.substring(queryIndex + 1));
+    }
+    mHeaders = headers;
+    mBody = body;
+  }
+
+  /**
+   * Returns the request method.
+   * @return The request method.
+   */
+  public String getMethod() {
+    return mMethod;
+  }
+
+  /**
+   * Returns the decoded request path, without the query string.
+   * @return The request path.
+   */
+  public String getPath() {
+    return mPath;
+  }
+
+  /**
+   * Returns the value of a query parameter.
+   * @param name The name of the query parameter.
+   * @return The value of the query parameter, or null if it is not present.
+   */
+  public String getQueryParam(String name) {
+    return mQueryParams.get(name);
+  }
+
+  /**
+   * Returns the value of a header.
+   * @param name The name of the header (case-insensitive).
+   * @return The value of the header, or null if it is not present.
+   */
+  public String getHeader(String name) {
+    return mHeaders.get(name.toLowerCase(Locale.US));
+  }
+
+  /**
+   * Returns all request headers.
+   * @return The request headers, keyed by lower-case header name.
+   */
+  public Map<String, String> getHeaders() {
+    return Collections.unmodifiableMap(mHeaders);
+  }
+
+  /**
+   * Returns the raw request body.
+   * @return The request body.
+   */
+  public byte[] getBody() {
+    return mBody;
+  }
+
+  /**
+   * Returns the value of a url-encoded form parameter from the request body.
+   * @param name The name of the form parameter.
+   * @return The value of the form parameter, or null if it is not present.
+   */
+  public String getFormParam(String name) {
+    if (mFormParams == null) {
+      final String contentType = getHeader("Content-Type");
+      if (contentType != null && contentType.startsWith(CONTENT_TYPE_FORM)) {
+        mFormParams = parseParams(new String(mBody, UTF_8));
+      } else {
+        mFormParams = Collections.emptyMap();
+      }
+    }
+    return mFormParams.get(name);
+  }
+
+  /**
+   * Returns the bearer token from the Authorization header.
+   * @return The bearer token, or null if the request carries none.
+   */
+  public String getBearerToken() {
+    final String authorization = getHeader("Authorization");
+    if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+      return null;
+    }
+    return authorization.substring(7).trim();
+  }
+
+  /**
+   * Returns whether the client prefers the connection to be closed after this request.
+   * @return True if the connection should be closed.
+   */
+  boolean isConnectionClose() {
+    return "close".equalsIgnoreCase(getHeader("Connection"));
+  }
+
+  /**
+   * Parses url-encoded parameters.
+   * @param encoded The url-encoded string.
+   * @return A map of decoded parameters.
+   */
+  private static Map<String, String> parseParams(String encoded) {
+    final Map<String, String> params = new LinkedHashMap<>();
+    for (String pair : encoded.split("&")) {
+      if (pair.isEmpty()) {
+        continue;
+      }
+      final int index = pair.indexOf('=');
+      if (index < 0) {
+        params.put(decode(pair), "");
+      } else {
+        params.put(decode(pair.substring(0, index)), decode(pair.substring(index + 1)));
+      }
+    }
+    return params;
+  }
+
+  /**
+   * Decodes a url-encoded string.
+   * @param encoded The url-encoded string.
+   * @return The decoded string.
+   */
+  private static String decode(String encoded) {
+    try {
+      return URLDecoder.decode(encoded, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An HTTP response to be written by a {@link StandInServer}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInResponse {
+
+  /**
+   * The charset used for text bodies.
+   */
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Content type for JSON bodies.
+   */
+  public static final String CONTENT_TYPE_JSON = "application/json";
+
+  /**
+   * Content type for CBOR bodies.
+   */
+  public static final String CONTENT_TYPE_CBOR = "application/cbor";
+
+  /**
+   * Content type for HTML bodies.
+   */
+  public static final String CONTENT_TYPE_HTML = "text/html; charset=UTF-8";
+
+  /**
+   * The Gson instance used to serialize JSON bodies.
+   */
+  private static final Gson sGson = new Gson();
+
+  /**
+   * The HTTP status code.
+   */
+  private final int mStatus;
+
+  /**
+   * The response headers.
+   */
+  private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+  /**
+   * The response body.
+   */
+  private final byte[] mBody;
+
+  /**
+   * The JSON tree the body was serialized from, or null if the body is not JSON.
+   */
+  private JsonElement mJson;
+
+  /**
+   * Creates a new response.
+   * @param status The HTTP status code.
+   * @param contentType The content type of the body, or null if there is no body.
+   * @param body The response body.
+   */
+  public StandInResponse(int status, String contentType, byte[] body) {
+    mStatus = status;
+    mBody = (body == null ? new byte[0] : body);
+    if (contentType != null) {
+      mHeaders.put("Content-Type", contentType);
+    }
+  }
+
+  /**
+   * Creates a JSON response.
+   * @param status The HTTP status code.
+   * @param json The JSON body.
+   * @return The response.
+   */
+  public static StandInResponse json(int status, JsonElement json) {
+    final StandInResponse response =
+        new StandInResponse(status, CONTENT_TYPE_JSON, sGson.toJson(json).getBytes(UTF_8));
+    response.mJson = json;
+    return response;
+  }
+
+  /**
+   * Creates a Codepunk api response that wraps a result, mirroring
+   * {@code com.codepunk.codepunk.model.CodepunkResponse}.
+   * @param result The result.
+   * @return The response.
+   */
+  public static StandInResponse result(JsonElement result) {
+    final JsonObject json = new JsonObject();
+    json.add("result", result);
+    return json(200, json);
+  }
+
+  /**
+   * Creates a Symfony OAuth error response, as read by
+   * {@code com.codepunk.codepunk.api.ErrorBodyParser}.
+   * @param status The HTTP status code.
+   * @param error The OAuth error type (i.e. "invalid_grant").
+   * @param description A description of the error.
+   * @return The response.
+   */
+  public static StandInResponse authError(int status, String error, String description) {
+    final JsonObject json = new JsonObject();
+    json.addProperty("error", error);
+    json.addProperty("error_description", description);
+    return json(status, json);
+  }
+
+  /**
+   * Creates an HTML error page, like the ones served by a proxy or a failing web server.
+   * @param status The HTTP status code.
+   * @param reason The reason phrase.
+   * @return The response.
+   */
+  public static StandInResponse htmlError(int status, String reason) {
+    final String html = String.format(
+        Locale.US,
+        "<!DOCTYPE html>\n<html><head><title>%1$d %2$s</title></head>"
+            + "<body><h1>%1$d %2$s</h1><hr><p>stand-in</p></body></html>\n",
+        status,
+        reason);
+    return new StandInResponse(status, CONTENT_TYPE_HTML, html.getBytes(UTF_8));
+  }
+
+  /**
+   * Returns a copy of this JSON response whose body is encoded as CBOR instead. Headers other
+   * than {@code Content-Type} are kept.
+   * @return The CBOR response.
+   * @throws IllegalStateException If this response was not created by
+   * {@link #json(int, JsonElement)}.
+   */
+  public StandInResponse toCbor() {
+    if (mJson == null) {
+      throw new IllegalStateException("Not a JSON response");
+    }
+    final StandInResponse response =
+        new StandInResponse(mStatus, CONTENT_TYPE_CBOR, StandInCbor.encode(mJson));
+    for (Map.Entry<String, String> entry : mHeaders.entrySet()) {
+      if (!"Content-Type".equalsIgnoreCase(entry.getKey())) {
+        response.mHeaders.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Sets a response header.
+   * @param name The header name.
+   * @param value The header value.
+   * @return This response.
+   */
+  public StandInResponse setHeader(String name, String value) {
+    mHeaders.put(name, value);
+    return this;
+  }
+
+  /**
+   * Returns the HTTP status code.
+   * @return The status code.
+   */
+  public int getStatus() {
+    return mStatus;
+  }
+
+  /**
+   * Returns the response headers.
+   * @return The response headers.
+   */
+  public Map<String, String> getHeaders() {
+    return mHeaders;
+  }
+
+  /**
+   * Returns the response body.
+   * @return The response body.
+   */
+  public byte[] getBody() {
+    return mBody;
+  }
+
+  /**
+   * Returns the JSON tree the body was serialized from.
+   * @return The JSON tree, or null if the body is not JSON.
+   */
+  public JsonElement getJson() {
+    return mJson;
+  }
+}
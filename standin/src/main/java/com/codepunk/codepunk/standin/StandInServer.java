@@ -0,0 +1,787 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * An in-process HTTP/1.1 server that stands in for the Symfony backend. It serves the endpoints
+ * used by {@code ApiAuthDelegate} ({@value #ENDPOINT_GET_AUTH_TOKEN}), {@code ApiUserDelegate}
+ * ({@value #ENDPOINT_GET_AUTHENTICATED_USER}, {@value #ENDPOINT_GET_USERS},
+ * {@value #ENDPOINT_GET_ALL_USERS} and {@value #ENDPOINT_GET_CHANGES}),
+ * {@code ApiDownloadDelegate} ({@value #ENDPOINT_MEDIA}) and {@code ApiUploadDelegate}
+ * ({@value #ENDPOINT_UPLOADS}) and can inject latency, bandwidth caps, errors and dropped
+ * connections as described by its {@link StandInConfig}. Additional endpoints can be added with
+ * {@link #register(String, StandInHandler)}. JSON responses are served as CBOR to requests whose
+ * {@code Accept} header names {@value StandInResponse#CONTENT_TYPE_CBOR}.
+ * </p>
+ *
+ * <p>
+ * Typical usage:
+ * <pre>
+ * StandInServer server = new StandInServer(config);
+ * server.getAccounts().addUser("alice", "secret");
+ * server.start();
+ * Api.ApiStandIn.setAuthority(server.getAuthority());
+ * SessionManager.getInstance().setEnvironment(Environment.STAND_IN);
+ * ...
+ * server.shutdown();
+ * </pre>
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInServer {
+
+  /**
+   * The endpoint for getting and refreshing auth tokens.
+   */
+  public static final String ENDPOINT_GET_AUTH_TOKEN = "oauth/v2/token";
+
+  /**
+   * The endpoint for getting the authenticated user.
+   */
+  public static final String ENDPOINT_GET_AUTHENTICATED_USER =
+      "api/v1/authenticated_user/get.json";
+
+  /**
+   * The endpoint for listing users.
+   */
+  public static final String ENDPOINT_GET_USERS = "api/v1/users/list.json";
+
+  /**
+   * The endpoint for getting every user in a single array.
+   */
+  public static final String ENDPOINT_GET_ALL_USERS = "api/v1/users/all.json";
+
+  /**
+   * The endpoint for getting the changes since a sync token.
+   */
+  public static final String ENDPOINT_GET_CHANGES = "api/v1/sync/changes.json";
+
+  /**
+   * The endpoint prefix for downloading media files.
+   */
+  public static final String ENDPOINT_MEDIA = "api/v1/media/";
+
+  /**
+   * The endpoint prefix for chunked uploads.
+   */
+  public static final String ENDPOINT_UPLOADS = "api/v1/uploads/";
+
+  /**
+   * Charset for the request line and headers.
+   */
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  /**
+   * How often (per second) a bandwidth-capped response body is flushed.
+   */
+  private static final int BANDWIDTH_SLICES_PER_SECOND = 20;
+
+  /**
+   * Read timeout for idle keep-alive connections, in milliseconds.
+   */
+  private static final int IDLE_TIMEOUT_MILLIS = 30000;
+
+  /**
+   * Reason phrases for the status codes the stand-in server uses.
+   */
+  private static final Map<Integer, String> REASON_PHRASES;
+
+  static {
+    final Map<Integer, String> reasons = new LinkedHashMap<>();
+    reasons.put(200, "OK");
+    reasons.put(201, "Created");
+    reasons.put(204, "No Content");
+    reasons.put(206, "Partial Content");
+    reasons.put(304, "Not Modified");
+    reasons.put(400, "Bad Request");
+    reasons.put(401, "Unauthorized");
+    reasons.put(403, "Forbidden");
+    reasons.put(404, "Not Found");
+    reasons.put(409, "Conflict");
+    reasons.put(410, "Gone");
+    reasons.put(416, "Range Not Satisfiable");
+    reasons.put(500, "Internal Server Error");
+    reasons.put(502, "Bad Gateway");
+    reasons.put(503, "Service Unavailable");
+    REASON_PHRASES = Collections.unmodifiableMap(reasons);
+  }
+
+  /**
+   * The current configuration.
+   */
+  private volatile StandInConfig mConfig;
+
+  /**
+   * The change log behind the sync endpoint. Created before the accounts, which record into it.
+   */
+  private final StandInChangeLog mChangeLog = new StandInChangeLog();
+
+  /**
+   * The user and token database.
+   */
+  private final StandInAccounts mAccounts;
+
+  /**
+   * The media store.
+   */
+  private final StandInMedia mMedia = new StandInMedia();
+
+  /**
+   * The upload sessions.
+   */
+  private final StandInUploads mUploads;
+
+  /**
+   * Request counters.
+   */
+  private final StandInStats mStats = new StandInStats();
+
+  /**
+   * Handlers registered for exact endpoints.
+   */
+  private final Map<String, StandInHandler> mHandlers = new ConcurrentHashMap<>();
+
+  /**
+   * Handlers registered for endpoint prefixes (endpoints ending in '/').
+   */
+  private final Map<String, StandInHandler> mPrefixHandlers = new ConcurrentHashMap<>();
+
+  /**
+   * Sockets that are currently open, so they can be closed on shutdown.
+   */
+  private final Set<Socket> mOpenSockets =
+      Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+  /**
+   * Random number generator for jitter and fault injection.
+   */
+  private Random mRandom;
+
+  /**
+   * The listening socket, or null if the server is not running.
+   */
+  private ServerSocket mServerSocket;
+
+  /**
+   * Executor that runs the accept loop and one task per connection.
+   */
+  private ExecutorService mExecutor;
+
+  /**
+   * Creates a server with the default configuration.
+   */
+  public StandInServer() {
+    this(StandInConfig.defaults());
+  }
+
+  /**
+   * Creates a server with the supplied configuration.
+   * @param config The configuration.
+   */
+  public StandInServer(StandInConfig config) {
+    mAccounts = new StandInAccounts(this);
+    mUploads = new StandInUploads(this);
+    setConfig(config);
+    register(ENDPOINT_GET_AUTH_TOKEN, new TokenHandler(this));
+    register(ENDPOINT_GET_AUTHENTICATED_USER, new AuthenticatedUserHandler(this));
+    register(ENDPOINT_GET_USERS, new UsersListHandler(this));
+    register(ENDPOINT_GET_ALL_USERS, new AllUsersHandler(this));
+    register(ENDPOINT_GET_CHANGES, new SyncChangesHandler(this));
+    register(ENDPOINT_MEDIA, new MediaDownloadHandler(this));
+    register(ENDPOINT_UPLOADS, new MediaUploadHandler(this));
+  }
+
+  /**
+   * Returns the current configuration.
+   * @return The configuration.
+   */
+  public StandInConfig getConfig() {
+    return mConfig;
+  }
+
+  /**
+   * Replaces the configuration. Takes effect for the next request; the port only takes effect
+   * on the next {@link #start()}.
+   * @param config The new configuration.
+   */
+  public void setConfig(StandInConfig config) {
+    synchronized (this) {
+      mRandom = new Random(config.getSeed());
+    }
+    mConfig = config;
+  }
+
+  /**
+   * Returns the user and token database.
+   * @return The accounts.
+   */
+  public StandInAccounts getAccounts() {
+    return mAccounts;
+  }
+
+  /**
+   * Returns the change log behind the sync endpoint.
+   * @return The change log.
+   */
+  public StandInChangeLog getChangeLog() {
+    return mChangeLog;
+  }
+
+  /**
+   * Returns the media store.
+   * @return The media store.
+   */
+  public StandInMedia getMedia() {
+    return mMedia;
+  }
+
+  /**
+   * Returns the upload sessions.
+   * @return The upload sessions.
+   */
+  public StandInUploads getUploads() {
+    return mUploads;
+  }
+
+  /**
+   * Returns the request counters.
+   * @return The stats.
+   */
+  public StandInStats getStats() {
+    return mStats;
+  }
+
+  /**
+   * Registers a handler for an endpoint. An endpoint ending with '/' matches every endpoint that
+   * starts with it, unless a more specific handler is registered.
+   * @param endpoint The endpoint, relative to the server root (i.e. "oauth/v2/token").
+   * @param handler The handler.
+   */
+  public void register(String endpoint, StandInHandler handler) {
+    if (endpoint.endsWith("/")) {
+      mPrefixHandlers.put(endpoint, handler);
+    } else {
+      mHandlers.put(endpoint, handler);
+    }
+  }
+
+  /**
+   * Starts listening on the loopback interface.
+   * @throws IOException If the server socket cannot be bound.
+   */
+  public synchronized void start() throws IOException {
+    if (mServerSocket != null) {
+      throw new IllegalStateException("StandInServer is already running");
+    }
+    final ServerSocket serverSocket = new ServerSocket();
+    serverSocket.setReuseAddress(true);
+    serverSocket.bind(
+        new InetSocketAddress(InetAddress.getByName("127.0.0.1"), mConfig.getPort()),
+        128);
+    mServerSocket = serverSocket;
+    mExecutor = Executors.newCachedThreadPool(new StandInThreadFactory());
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        acceptLoop(serverSocket);
+      }
+    });
+  }
+
+  /**
+   * Stops the server and closes all open connections.
+   */
+  public synchronized void shutdown() {
+    if (mServerSocket == null) {
+      return;
+    }
+    closeQuietly(mServerSocket);
+    for (Socket socket : mOpenSockets) {
+      closeQuietly(socket);
+    }
+    mExecutor.shutdownNow();
+    mServerSocket = null;
+    mExecutor = null;
+  }
+
+  /**
+   * Returns the reason phrase for a status code.
+   * @param status The HTTP status code.
+   * @return The reason phrase, or "Unknown" if the stand-in server does not use the status code.
+   */
+  static String getReasonPhrase(int status) {
+    final String reason = REASON_PHRASES.get(status);
+    return (reason == null ? "Unknown" : reason);
+  }
+
+  /**
+   * Returns whether the server is running.
+   * @return True if the server is running.
+   */
+  public synchronized boolean isRunning() {
+    return mServerSocket != null;
+  }
+
+  /**
+   * Returns the port the server is listening on.
+   * @return The port.
+   */
+  public synchronized int getPort() {
+    if (mServerSocket == null) {
+      throw new IllegalStateException("StandInServer is not running");
+    }
+    return mServerSocket.getLocalPort();
+  }
+
+  /**
+   * Returns the URL authority (host and port) of the server, suitable for
+   * {@code Api.ApiStandIn.setAuthority(String)}.
+   * @return The authority.
+   */
+  public String getAuthority() {
+    return "127.0.0.1:" + getPort();
+  }
+
+  /**
+   * Returns the base URL of the server, with a trailing slash.
+   * @return The base URL.
+   */
+  public String getBaseUrl() {
+    return "http://" + getAuthority() + "/";
+  }
+
+  /**
+   * Accepts connections until the server socket is closed.
+   * @param serverSocket The server socket.
+   */
+  private void acceptLoop(ServerSocket serverSocket) {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        mStats.increment(StandInStats.CONNECTIONS);
+        mOpenSockets.add(socket);
+        mExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serve(socket);
+            } finally {
+              mOpenSockets.remove(socket);
+              closeQuietly(socket);
+            }
+          }
+        });
+      } catch (IOException e) {
+        // Server socket closed
+      } catch (RuntimeException e) {
+        // Executor shut down
+        return;
+      }
+    }
+  }
+
+  /**
+   * Serves requests on a connection until the client closes it or asks for it to be closed.
+   * @param socket The connection.
+   */
+  private void serve(Socket socket) {
+    try {
+      socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+      socket.setTcpNoDelay(true);
+      final InputStream in = new BufferedInputStream(socket.getInputStream());
+      final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+      while (true) {
+        final StandInRequest request = readRequest(in);
+        if (request == null) {
+          return;
+        }
+        mStats.increment(StandInStats.REQUESTS);
+
+        final StandInConfig config = mConfig;
+        if (roll(config.getDropRate())) {
+          mStats.increment(StandInStats.DROPPED_CONNECTIONS);
+          return;
+        }
+        sleep(config.getLatencyMillis() + jitter(config.getLatencyJitterMillis()));
+
+        StandInResponse response;
+        if (roll(config.getErrorRate())) {
+          mStats.increment(StandInStats.INJECTED_ERRORS);
+          response = StandInResponse.htmlError(503, REASON_PHRASES.get(503));
+        } else {
+          response = negotiate(request, dispatch(request));
+        }
+        writeResponse(out, request, response, config.getBandwidthBytesPerSecond());
+        if (request.isConnectionClose()) {
+          return;
+        }
+      }
+    } catch (SocketException | EOFException e) {
+      // Client went away
+    } catch (IOException e) {
+      // Malformed request or client went away
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Finds the handler for a request and invokes it.
+   * @param request The request.
+   * @return The response.
+   */
+  private StandInResponse dispatch(StandInRequest request) {
+    String endpoint = request.getPath();
+    while (endpoint.startsWith("/")) {
+      endpoint = endpoint.substring(1);
+    }
+    StandInHandler handler = mHandlers.get(endpoint);
+    if (handler == null) {
+      String bestPrefix = null;
+      for (Map.Entry<String, StandInHandler> entry : mPrefixHandlers.entrySet()) {
+        final String prefix = entry.getKey();
+        if (endpoint.startsWith(prefix)
+            && (bestPrefix == null || prefix.length() > bestPrefix.length())) {
+          bestPrefix = prefix;
+          handler = entry.getValue();
+        }
+      }
+    }
+    if (handler == null) {
+      mStats.increment(StandInStats.NOT_FOUND);
+      return StandInResponse.htmlError(404, REASON_PHRASES.get(404));
+    }
+    try {
+      return handler.handle(request);
+    } catch (IOException | RuntimeException e) {
+      return StandInResponse.htmlError(500, REASON_PHRASES.get(500));
+    }
+  }
+
+  /**
+   * Encodes a JSON response as CBOR if the request's {@code Accept} header asks for CBOR. Every
+   * JSON endpoint can therefore be benchmarked in both formats.
+   * @param request The request.
+   * @param response The response returned by the request's handler.
+   * @return The response to write.
+   */
+  private StandInResponse negotiate(StandInRequest request, StandInResponse response) {
+    if (response.getJson() == null) {
+      return response;
+    }
+    final StandInResponse result;
+    if (accepts(request.getHeader("Accept"), StandInResponse.CONTENT_TYPE_CBOR)) {
+      mStats.increment(StandInStats.CBOR_RESPONSES);
+      result = response.toCbor();
+    } else {
+      result = response;
+    }
+    return result.setHeader("Vary", "Accept");
+  }
+
+  /**
+   * Returns whether an {@code Accept} header accepts a media type, i.e. names it without
+   * {@code q=0}. Wildcards are not honored, so clients only get CBOR when they ask for it by name.
+   * @param accept The {@code Accept} header, or null if the request had none.
+   * @param mediaType The media type.
+   * @return Whether the media type is accepted.
+   */
+  private static boolean accepts(String accept, String mediaType) {
+    if (accept == null) {
+      return false;
+    }
+    for (String range : accept.split(",")) {
+      final String[] parts = range.split(";");
+      if (!parts[0].trim().equalsIgnoreCase(mediaType)) {
+        continue;
+      }
+      for (int i = 1; i < parts.length; i++) {
+        final String parameter = parts[i].trim();
+        if (parameter.startsWith("q=")) {
+          try {
+            return Double.parseDouble(parameter.substring(2)) > 0.0;
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Reads a request from a connection.
+   * @param in The connection's input stream.
+   * @return The request, or null if the client closed the connection.
+   * @throws IOException If the request is malformed or cannot be read.
+   */
+  private static StandInRequest readRequest(InputStream in) throws IOException {
+    String requestLine = readLine(in);
+    if (requestLine == null) {
+      return null;
+    }
+    if (requestLine.isEmpty()) {
+      // Tolerate a stray CRLF between pipelined requests
+      requestLine = readLine(in);
+      if (requestLine == null) {
+        return null;
+      }
+    }
+    final String[] parts = requestLine.split(" ");
+    if (parts.length < 2) {
+      throw new IOException("Malformed request line: " + requestLine);
+    }
+
+    final Map<String, String> headers = new LinkedHashMap<>();
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      final int index = line.indexOf(':');
+      if (index > 0) {
+        headers.put(
+            line.substring(0, index).trim().toLowerCase(Locale.US),
+            line.substring(index + 1).trim());
+      }
+    }
+    if (line == null) {
+      throw new EOFException();
+    }
+
+    final byte[] body;
+    final String contentLength = headers.get("content-length");
+    if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+      body = readChunkedBody(in);
+    } else if (contentLength != null) {
+      body = readFully(in, Integer.parseInt(contentLength.trim()));
+    } else {
+      body = new byte[0];
+    }
+    return new StandInRequest(parts[0], parts[1], headers, body);
+  }
+
+  /**
+   * Reads a body sent with chunked transfer encoding.
+   * @param in The connection's input stream.
+   * @return The decoded body.
+   * @throws IOException If the body cannot be read.
+   */
+  private static byte[] readChunkedBody(InputStream in) throws IOException {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    while (true) {
+      final String sizeLine = readLine(in);
+      if (sizeLine == null) {
+        throw new EOFException();
+      }
+      final int extension = sizeLine.indexOf(';');
+      final int size = Integer.parseInt(
+          (extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+      if (size == 0) {
+        String trailer;
+        do {
+          trailer = readLine(in);
+        } while (trailer != null && !trailer.isEmpty());
+        return body.toByteArray();
+      }
+      body.write(readFully(in, size));
+      readLine(in);
+    }
+  }
+
+  /**
+   * Reads exactly the specified number of bytes.
+   * @param in The input stream.
+   * @param length The number of bytes to read.
+   * @return The bytes.
+   * @throws IOException If the stream ends early.
+   */
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+    final byte[] bytes = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      final int read = in.read(bytes, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      offset += read;
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads a CRLF- (or LF-) terminated line.
+   * @param in The input stream.
+   * @return The line without its terminator, or null if the stream ended before any byte was
+   * read.
+   * @throws IOException If the line cannot be read.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    int b;
+    while ((b = in.read()) >= 0) {
+      if (b == '\n') {
+        break;
+      }
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    if (b < 0 && line.size() == 0) {
+      return null;
+    }
+    return new String(line.toByteArray(), ISO_8859_1);
+  }
+
+  /**
+   * Writes a response, throttling the body if a bandwidth cap is configured.
+   * @param out The connection's output stream.
+   * @param request The request being answered.
+   * @param response The response.
+   * @param bytesPerSecond The bandwidth cap, or 0 if unlimited.
+   * @throws IOException If the response cannot be written.
+   * @throws InterruptedException If the thread is interrupted while throttling.
+   */
+  private static void writeResponse(
+      OutputStream out,
+      StandInRequest request,
+      StandInResponse response,
+      int bytesPerSecond) throws IOException, InterruptedException {
+    final int status = response.getStatus();
+    final String reason = REASON_PHRASES.get(status);
+    final byte[] body = "HEAD".equals(request.getMethod()) ? new byte[0] : response.getBody();
+    final StringBuilder head = new StringBuilder(256)
+        .append("HTTP/1.1 ").append(status).append(' ')
+        .append(reason == null ? "Unknown" : reason).append("\r\n");
+    for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+      head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    head.append("Content-Length: ").append(response.getBody().length).append("\r\n")
+        .append("Connection: ").append(request.isConnectionClose() ? "close" : "keep-alive")
+        .append("\r\n\r\n");
+    out.write(head.toString().getBytes(ISO_8859_1));
+
+    if (bytesPerSecond <= 0) {
+      out.write(body);
+    } else {
+      final int slice = Math.max(1, bytesPerSecond / BANDWIDTH_SLICES_PER_SECOND);
+      final long start = System.nanoTime();
+      int written = 0;
+      while (written < body.length) {
+        final int count = Math.min(slice, body.length - written);
+        out.write(body, written, count);
+        out.flush();
+        written += count;
+        final long dueMillis = written * 1000L / bytesPerSecond;
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+        sleep(dueMillis - elapsedMillis);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Returns true with the given probability.
+   * @param probability The probability.
+   * @return The result of the roll.
+   */
+  private synchronized boolean roll(double probability) {
+    return probability > 0.0d && mRandom.nextDouble() < probability;
+  }
+
+  /**
+   * Returns a random jitter value.
+   * @param maxMillis The maximum jitter.
+   * @return A value between 0 and maxMillis.
+   */
+  private synchronized long jitter(long maxMillis) {
+    return maxMillis <= 0L ? 0L : (long) (mRandom.nextDouble() * maxMillis);
+  }
+
+  /**
+   * Sleeps for the given duration, if positive.
+   * @param millis The duration in milliseconds.
+   * @throws InterruptedException If the thread is interrupted.
+   */
+  private static void sleep(long millis) throws InterruptedException {
+    if (millis > 0L) {
+      Thread.sleep(millis);
+    }
+  }
+
+  /**
+   * Closes a socket, ignoring errors.
+   * @param socket The socket to close.
+   */
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Ignore
+    }
+  }
+
+  /**
+   * Closes a server socket, ignoring errors.
+   * @param serverSocket The server socket to close.
+   */
+  private static void closeQuietly(ServerSocket serverSocket) {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // Ignore
+    }
+  }
+
+  /**
+   * Creates daemon threads so a forgotten server never keeps a test process alive.
+   */
+  private static class StandInThreadFactory implements ThreadFactory {
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "StandInServer-" + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JUnit rule that starts a {@link StandInServer} with a signed-up user before each test, issues
+ * the user an access token, and shuts the server down and deletes any files created through the
+ * rule after each test.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInServerRule extends ExternalResource {
+
+  /**
+   * The username of the user signed up before each test.
+   */
+  public static final String USERNAME = "alice";
+
+  /**
+   * The default password of the user signed up before each test, also used for any additional
+   * users.
+   */
+  public static final String PASSWORD = "secret";
+
+  /**
+   * The configuration the server starts with, or null to start it with the defaults.
+   */
+  private final StandInConfig mConfig;
+
+  /**
+   * The files and directories created through this rule during the current test.
+   */
+  private final List<File> mFiles = new ArrayList<>();
+
+  /**
+   * The password of the {@link #USERNAME} user.
+   */
+  private String mPassword = PASSWORD;
+
+  /**
+   * The total number of users signed up before each test.
+   */
+  private int mUserCount = 1;
+
+  /**
+   * The server started for the current test.
+   */
+  private StandInServer mServer;
+
+  /**
+   * An access token issued to the {@link #USERNAME} user for the current test.
+   */
+  private String mAccessToken;
+
+  /**
+   * Creates a rule that starts a server with the default configuration.
+   */
+  public StandInServerRule() {
+    this(null);
+  }
+
+  /**
+   * Creates a rule that starts a server with the given configuration.
+   * @param config The configuration, or null to use the defaults.
+   */
+  public StandInServerRule(StandInConfig config) {
+    mConfig = config;
+  }
+
+  /**
+   * Sets the password of the {@link #USERNAME} user.
+   * @param password The password.
+   * @return This rule.
+   */
+  public StandInServerRule setPassword(String password) {
+    mPassword = password;
+    return this;
+  }
+
+  /**
+   * Sets the total number of users signed up before each test. Users other than
+   * {@link #USERNAME} are named "user1", "user2" and so on, with the password {@link #PASSWORD}.
+   * @param userCount The number of users, at least 1.
+   * @return This rule.
+   */
+  public StandInServerRule setUserCount(int userCount) {
+    if (userCount < 1) {
+      throw new IllegalArgumentException("userCount must be at least 1");
+    }
+    mUserCount = userCount;
+    return this;
+  }
+
+  /**
+   * Returns the server started for the current test.
+   * @return The server.
+   */
+  public StandInServer getServer() {
+    return mServer;
+  }
+
+  /**
+   * Returns an access token issued to the {@link #USERNAME} user for the current test.
+   * @return The access token.
+   */
+  public String getAccessToken() {
+    return mAccessToken;
+  }
+
+  /**
+   * Creates an empty file that is deleted after the current test.
+   * @param prefix The prefix of the file name.
+   * @param suffix The suffix of the file name, or null to use ".tmp".
+   * @param directory The directory to create the file in, or null to use the default temporary
+   * directory.
+   * @return The file.
+   * @throws IOException If the file could not be created.
+   */
+  public File newFile(String prefix, String suffix, File directory) throws IOException {
+    final File file = File.createTempFile(prefix, suffix, directory);
+    mFiles.add(file);
+    return file;
+  }
+
+  /**
+   * Creates an empty file in the default temporary directory that is deleted after the current
+   * test.
+   * @param prefix The prefix of the file name.
+   * @param suffix The suffix of the file name, or null to use ".tmp".
+   * @return The file.
+   * @throws IOException If the file could not be created.
+   */
+  public File newFile(String prefix, String suffix) throws IOException {
+    return newFile(prefix, suffix, null);
+  }
+
+  /**
+   * Creates an empty directory in the default temporary directory that is deleted, along with
+   * its contents, after the current test.
+   * @param prefix The prefix of the directory name.
+   * @return The directory.
+   * @throws IOException If the directory could not be created.
+   */
+  public File newFolder(String prefix) throws IOException {
+    final File dir = File.createTempFile(prefix, "");
+    if (!dir.delete() || !dir.mkdir()) {
+      throw new IOException("Could not create directory " + dir);
+    }
+    mFiles.add(dir);
+    return dir;
+  }
+
+  @Override
+  protected void before() throws Throwable {
+    mServer = (mConfig == null ? new StandInServer() : new StandInServer(mConfig));
+    final StandInAccounts accounts = mServer.getAccounts();
+    accounts.addUser(USERNAME, mPassword);
+    for (int i = 1; i < mUserCount; i++) {
+      accounts.addUser("user" + i, PASSWORD);
+    }
+    mServer.start();
+    mAccessToken = accounts.issueTokens(USERNAME).get("access_token").getAsString();
+  }
+
+  @Override
+  protected void after() {
+    mServer.shutdown();
+    for (File file : mFiles) {
+      delete(file);
+    }
+    mFiles.clear();
+  }
+
+  /**
+   * Deletes a file, or a directory and its contents.
+   * @param file The file or directory.
+   */
+  private static void delete(File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.delete();
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe named counters kept by a {@link StandInServer}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInStats {
+
+  /**
+   * Total number of requests received.
+   */
+  public static final String REQUESTS = "requests";
+
+  /**
+   * Number of connections accepted.
+   */
+  public static final String CONNECTIONS = "connections";
+
+  /**
+   * Number of successful password grants.
+   */
+  public static final String PASSWORD_GRANTS = "password_grants";
+
+  /**
+   * Number of successful refresh token grants.
+   */
+  public static final String REFRESH_GRANTS = "refresh_grants";
+
+  /**
+   * Number of rejected token requests.
+   */
+  public static final String REJECTED_GRANTS = "rejected_grants";
+
+  /**
+   * Number of successful authenticated user requests.
+   */
+  public static final String USER_REQUESTS = "user_requests";
+
+  /**
+   * Number of successful list users requests.
+   */
+  public static final String USER_LIST_REQUESTS = "user_list_requests";
+
+  /**
+   * Number of successful all users requests.
+   */
+  public static final String ALL_USERS_REQUESTS = "all_users_requests";
+
+  /**
+   * Number of requests rejected because of a missing, unknown or expired access token.
+   */
+  public static final String UNAUTHORIZED = "unauthorized";
+
+  /**
+   * Number of requests answered with an injected error.
+   */
+  public static final String INJECTED_ERRORS = "injected_errors";
+
+  /**
+   * Number of connections dropped by fault injection.
+   */
+  public static final String DROPPED_CONNECTIONS = "dropped_connections";
+
+  /**
+   * Number of requests for which no handler was registered.
+   */
+  public static final String NOT_FOUND = "not_found";
+
+  /**
+   * Number of media download requests.
+   */
+  public static final String DOWNLOADS = "downloads";
+
+  /**
+   * Number of media download requests answered with a byte range.
+   */
+  public static final String RANGE_REQUESTS = "range_requests";
+
+  /**
+   * Number of upload chunks accepted.
+   */
+  public static final String UPLOAD_CHUNKS = "upload_chunks";
+
+  /**
+   * Number of uploads completed.
+   */
+  public static final String UPLOADS_COMPLETED = "uploads_completed";
+
+  /**
+   * Number of successful sync requests.
+   */
+  public static final String SYNC_REQUESTS = "sync_requests";
+
+  /**
+   * Number of entity changes returned by sync requests.
+   */
+  public static final String SYNC_CHANGES = "sync_changes";
+
+  /**
+   * Number of responses served as CBOR because the request's {@code Accept} header asked for it.
+   */
+  public static final String CBOR_RESPONSES = "cbor_responses";
+
+  /**
+   * The counters, keyed by name.
+   */
+  private final ConcurrentMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+  /**
+   * Increments a counter.
+   * @param name The name of the counter.
+   * @return The new value of the counter.
+   */
+  public long increment(String name) {
+    return add(name, 1L);
+  }
+
+  /**
+   * Adds to a counter.
+   * @param name The name of the counter.
+   * @param delta The amount to add.
+   * @return The new value of the counter.
+   */
+  public long add(String name, long delta) {
+    AtomicLong counter = mCounters.get(name);
+    if (counter == null) {
+      final AtomicLong newCounter = new AtomicLong();
+      counter = mCounters.putIfAbsent(name, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    return counter.addAndGet(delta);
+  }
+
+  /**
+   * Returns the value of a counter.
+   * @param name The name of the counter.
+   * @return The value of the counter, or 0 if it was never incremented.
+   */
+  public long get(String name) {
+    final AtomicLong counter = mCounters.get(name);
+    return (counter == null ? 0L : counter.get());
+  }
+
+  /**
+   * Resets all counters to zero.
+   */
+  public void reset() {
+    mCounters.clear();
+  }
+
+  /**
+   * Returns a sorted snapshot of all counters.
+   * @return A map of counter names to values.
+   */
+  public Map<String, Long> snapshot() {
+    final Map<String, Long> snapshot = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> entry : mCounters.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    }
+    return snapshot;
+  }
+
+  @Override
+  public String toString() {
+    return snapshot().toString();
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * The upload sessions of a {@link StandInServer}, as used by {@code ChunkedUploader}. A client
+ * creates a session for a file of known length and checksum, sends the file in fixed-size chunks
+ * (in any order, and more than once if it likes), then completes the session, at which point the
+ * chunks are assembled, verified and stored in the {@link StandInMedia}.
+ * </p>
+ *
+ * <p>
+ * For testing, the next chunk requests can be made to fail with
+ * {@link #failNextChunks(int)}, and chunk requests can be slowed down with
+ * {@link #setChunkDelayMillis(long)} so that concurrency is observable through
+ * {@link #getMaxConcurrentChunks()}.
+ * </p>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class StandInUploads {
+
+  /**
+   * The default chunk size.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+  /**
+   * The smallest chunk size the server accepts.
+   */
+  public static final int MIN_CHUNK_SIZE = 4 * 1024;
+
+  /**
+   * The largest chunk size the server accepts.
+   */
+  public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * The server that owns these sessions.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Open sessions, keyed by id.
+   */
+  private final ConcurrentMap<String, Session> mSessions = new ConcurrentHashMap<>();
+
+  /**
+   * The number of chunk requests that will fail before chunks are accepted again.
+   */
+  private final AtomicInteger mChunkFailures = new AtomicInteger();
+
+  /**
+   * The number of chunk requests being handled right now.
+   */
+  private final AtomicInteger mConcurrentChunks = new AtomicInteger();
+
+  /**
+   * The largest number of chunk requests that have been handled at the same time.
+   */
+  private final AtomicInteger mMaxConcurrentChunks = new AtomicInteger();
+
+  /**
+   * How long each chunk request is held, in milliseconds.
+   */
+  private volatile long mChunkDelayMillis;
+
+  /**
+   * Creates a new, empty set of sessions.
+   * @param server The server that owns these sessions.
+   */
+  StandInUploads(StandInServer server) {
+    mServer = server;
+  }
+
+  /**
+   * Makes the next chunk requests fail with 503 Service Unavailable.
+   * @param count The number of chunk requests to fail.
+   */
+  public void failNextChunks(int count) {
+    mChunkFailures.set(count);
+  }
+
+  /**
+   * Holds each chunk request for a while before accepting it.
+   * @param chunkDelayMillis The delay, in milliseconds.
+   */
+  public void setChunkDelayMillis(long chunkDelayMillis) {
+    mChunkDelayMillis = chunkDelayMillis;
+  }
+
+  /**
+   * Returns the largest number of chunk requests that have been handled at the same time.
+   * @return The number of chunk requests.
+   */
+  public int getMaxConcurrentChunks() {
+    return mMaxConcurrentChunks.get();
+  }
+
+  /**
+   * Returns the number of open sessions.
+   * @return The number of sessions.
+   */
+  public int getSessionCount() {
+    return mSessions.size();
+  }
+
+  /**
+   * Creates a session.
+   * @param name The name the file will be stored under.
+   * @param length The length of the file.
+   * @param sha256 The hex-encoded SHA-256 checksum of the file.
+   * @param chunkSize The chunk size requested by the client, or 0 for the default.
+   * @return The JSON representation of the session.
+   */
+  JsonObject create(String name, long length, String sha256, int chunkSize) {
+    final int size = (chunkSize <= 0 ?
+        DEFAULT_CHUNK_SIZE :
+        Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize)));
+    final Session session = new Session(UUID.randomUUID().toString(), name, length, sha256, size);
+    mSessions.put(session.mId, session);
+    return session.toJson();
+  }
+
+  /**
+   * Returns a session.
+   * @param id The id of the session.
+   * @return The JSON representation of the session, or null if there is no such session.
+   */
+  JsonObject get(String id) {
+    final Session session = mSessions.get(id);
+    return (session == null ? null : session.toJson());
+  }
+
+  /**
+   * Stores a chunk.
+   * @param id The id of the session.
+   * @param index The index of the chunk.
+   * @param chunk The contents of the chunk.
+   * @return The HTTP status code to answer with: 200 if the chunk was stored, 404 if there is no
+   * such session, 400 if the chunk has the wrong length or index, or 503 if a failure was
+   * requested with {@link #failNextChunks(int)}.
+   * @throws InterruptedException If the thread is interrupted during the chunk delay.
+   */
+  int putChunk(String id, int index, byte[] chunk) throws InterruptedException {
+    final int concurrent = mConcurrentChunks.incrementAndGet();
+    try {
+      int max;
+      while (concurrent > (max = mMaxConcurrentChunks.get())
+          && !mMaxConcurrentChunks.compareAndSet(max, concurrent)) {
+        // Retry
+      }
+      if (mChunkDelayMillis > 0L) {
+        Thread.sleep(mChunkDelayMillis);
+      }
+      int failures;
+      while ((failures = mChunkFailures.get()) > 0) {
+        if (mChunkFailures.compareAndSet(failures, failures - 1)) {
+          return 503;
+        }
+      }
+      final Session session = mSessions.get(id);
+      if (session == null) {
+        return 404;
+      }
+      if (index < 0 || index >= session.getChunkCount()
+          || chunk.length != session.getChunkLength(index)) {
+        return 400;
+      }
+      session.mChunks.put(index, chunk);
+      return 200;
+    } finally {
+      mConcurrentChunks.decrementAndGet();
+    }
+  }
+
+  /**
+   * Completes a session, storing the assembled file in the {@link StandInMedia}.
+   * @param id The id of the session.
+   * @return The HTTP status code to answer with: 200 if the file was stored, 404 if there is no
+   * such session, 409 if chunks are missing or 400 if the checksum does not match.
+   */
+  int complete(String id) {
+    final Session session = mSessions.get(id);
+    if (session == null) {
+      return 404;
+    }
+    if (session.mChunks.size() != session.getChunkCount()) {
+      return 409;
+    }
+    final ByteArrayOutputStream contents = new ByteArrayOutputStream((int) session.mLength);
+    for (byte[] chunk : session.mChunks.values()) {
+      contents.write(chunk, 0, chunk.length);
+    }
+    final byte[] bytes = contents.toByteArray();
+    if (!StandInMedia.sha256(bytes).equalsIgnoreCase(session.mSha256)) {
+      mSessions.remove(id);
+      return 400;
+    }
+    mServer.getMedia().put(session.mName, bytes);
+    mSessions.remove(id);
+    return 200;
+  }
+
+  /**
+   * An upload session.
+   */
+  private static class Session {
+    private final String mId;
+    private final String mName;
+    private final long mLength;
+    private final String mSha256;
+    private final int mChunkSize;
+    private final Map<Integer, byte[]> mChunks = new ConcurrentSkipListMap<>();
+
+    Session(String id, String name, long length, String sha256, int chunkSize) {
+      mId = id;
+      mName = name;
+      mLength = length;
+      mSha256 = sha256;
+      mChunkSize = chunkSize;
+    }
+
+    int getChunkCount() {
+      return (int) ((mLength + mChunkSize - 1) / mChunkSize);
+    }
+
+    int getChunkLength(int index) {
+      return (int) Math.min(mChunkSize, mLength - (long) index * mChunkSize);
+    }
+
+    JsonObject toJson() {
+      final JsonObject json = new JsonObject();
+      json.addProperty("id", mId);
+      json.addProperty("name", mName);
+      json.addProperty("length", mLength);
+      json.addProperty("sha256", mSha256);
+      json.addProperty("chunk_size", mChunkSize);
+      final JsonArray received = new JsonArray();
+      for (Integer index : mChunks.keySet()) {
+        received.add(new JsonPrimitive(index));
+      }
+      json.add("received", received);
+      return json;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Serves {@code api/v1/sync/changes.json}, as called by {@code ApiUserDelegate.getChanges}. The
+ * {@code since} parameter is the sync token returned by the previous call (none for a first
+ * sync), and {@code limit} caps the number of entities in one response; see
+ * {@link StandInChangeLog#getChanges(long, int)}.
+ */
+class SyncChangesHandler implements StandInHandler {
+
+  /**
+   * The number of entities returned when the client does not ask for a number.
+   */
+  private static final int DEFAULT_LIMIT = 100;
+
+  /**
+   * The largest number of entities returned in one response.
+   */
+  private static final int MAX_LIMIT = 500;
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  SyncChangesHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) {
+    if (mServer.getAccounts().authenticate(request.getBearerToken()) == null) {
+      mServer.getStats().increment(StandInStats.UNAUTHORIZED);
+      return StandInResponse.authError(
+          401,
+          "invalid_grant",
+          "The access token provided is invalid.");
+    }
+
+    final long since;
+    final int limit;
+    try {
+      final String sinceParam = request.getQueryParam("since");
+      final String limitParam = request.getQueryParam("limit");
+      since = (sinceParam == null ? 0L : Long.parseLong(sinceParam));
+      limit = (limitParam == null ?
+          DEFAULT_LIMIT :
+          Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limitParam))));
+    } catch (NumberFormatException e) {
+      return StandInResponse.htmlError(400, "Bad Request");
+    }
+    if (since > mServer.getChangeLog().getSequence()) {
+      // A token from the future (or from another server): the client must sync from scratch
+      return StandInResponse.htmlError(410, "Gone");
+    }
+
+    final JsonObject changeSet = mServer.getChangeLog().getChanges(since, limit);
+    final JsonArray changes = changeSet.getAsJsonArray("changes");
+    mServer.getStats().increment(StandInStats.SYNC_REQUESTS);
+    mServer.getStats().add(StandInStats.SYNC_CHANGES, changes.size());
+    return StandInResponse.result(changeSet);
+  }
+}
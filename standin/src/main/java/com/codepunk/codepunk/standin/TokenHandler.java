@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Serves {@code oauth/v2/token}, supporting the "password" and "refresh_token" grant types used by
+ * {@code ApiAuthDelegate}.
+ */
+class TokenHandler implements StandInHandler {
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  TokenHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) {
+    final StandInConfig config = mServer.getConfig();
+    final StandInStats stats = mServer.getStats();
+    if (!config.getClientId().equals(request.getFormParam("client_id"))
+        || !config.getClientSecret().equals(request.getFormParam("client_secret"))) {
+      stats.increment(StandInStats.REJECTED_GRANTS);
+      return StandInResponse.authError(400, "invalid_client", "The client credentials are invalid");
+    }
+
+    final String grantType = request.getFormParam("grant_type");
+    final StandInAccounts accounts = mServer.getAccounts();
+    final JsonObject tokens;
+    final String statName;
+    if ("password".equals(grantType)) {
+      tokens = accounts.grantPassword(
+          request.getFormParam("username"),
+          request.getFormParam("password"));
+      statName = StandInStats.PASSWORD_GRANTS;
+    } else if ("refresh_token".equals(grantType)) {
+      tokens = accounts.grantRefreshToken(request.getFormParam("refresh_token"));
+      statName = StandInStats.REFRESH_GRANTS;
+    } else {
+      stats.increment(StandInStats.REJECTED_GRANTS);
+      return StandInResponse.authError(
+          400,
+          "unsupported_grant_type",
+          "Invalid grant_type parameter or parameter missing");
+    }
+
+    if (tokens == null) {
+      stats.increment(StandInStats.REJECTED_GRANTS);
+      return StandInResponse.authError(400, "invalid_grant", "Invalid " + grantType);
+    }
+    stats.increment(statName);
+    return StandInResponse.json(200, tokens);
+  }
+}
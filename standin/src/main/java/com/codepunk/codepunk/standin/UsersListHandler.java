@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.List;
+
+/**
+ * Serves {@code api/v1/users/list.json}, as called by {@code ApiUserDelegate.getUsers}. Users are
+ * listed in the order they were added, {@code limit} at a time; the {@code next_cursor} of each
+ * page is the id of its last user.
+ */
+class UsersListHandler implements StandInHandler {
+
+  /**
+   * The number of users returned when the client does not ask for a number.
+   */
+  private static final int DEFAULT_LIMIT = 50;
+
+  /**
+   * The largest number of users returned in one page.
+   */
+  private static final int MAX_LIMIT = 200;
+
+  /**
+   * The server that owns this handler.
+   */
+  private final StandInServer mServer;
+
+  /**
+   * Creates a new handler.
+   * @param server The server that owns this handler.
+   */
+  UsersListHandler(StandInServer server) {
+    mServer = server;
+  }
+
+  @Override
+  public StandInResponse handle(StandInRequest request) {
+    if (mServer.getAccounts().authenticate(request.getBearerToken()) == null) {
+      mServer.getStats().increment(StandInStats.UNAUTHORIZED);
+      return StandInResponse.authError(
+          401,
+          "invalid_grant",
+          "The access token provided is invalid.");
+    }
+
+    final int afterId;
+    final int limit;
+    try {
+      final String cursor = request.getQueryParam("cursor");
+      final String limitParam = request.getQueryParam("limit");
+      afterId = (cursor == null ? 0 : Integer.parseInt(cursor));
+      limit = (limitParam == null ?
+          DEFAULT_LIMIT :
+          Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limitParam))));
+    } catch (NumberFormatException e) {
+      return StandInResponse.htmlError(400, "Bad Request");
+    }
+
+    // Ask for one more than the limit to find out whether there is a next page
+    final List<JsonObject> users = mServer.getAccounts().listUsers(afterId, limit + 1);
+    final JsonArray items = new JsonArray();
+    for (int i = 0; i < Math.min(limit, users.size()); i++) {
+      items.add(users.get(i));
+    }
+    final JsonObject page = new JsonObject();
+    page.add("items", items);
+    if (users.size() > limit) {
+      page.addProperty("next_cursor", users.get(limit - 1).get("id").getAsString());
+    } else {
+      page.add("next_cursor", null);
+    }
+    mServer.getStats().increment(StandInStats.USER_LIST_REQUESTS);
+    return StandInResponse.result(page);
+  }
+}
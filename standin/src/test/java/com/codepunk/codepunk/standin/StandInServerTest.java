@@ -0,0 +1,188 @@
+/*
+ * Copyright 2016 Codepunk, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.codepunk.codepunk.standin;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link StandInServer}.
+ */
+public class StandInServerTest {
+
+  private static final String CLIENT_PARAMS =
+      "client_id=" + StandInConfig.DEFAULT_CLIENT_ID
+          + "&client_secret=" + StandInConfig.DEFAULT_CLIENT_SECRET;
+
+  private StandInServer mServer;
+
+  @Before
+  public void setUp() throws Exception {
+    mServer = new StandInServer();
+    mServer.getAccounts().addUser("Alice", "secret");
+    mServer.start();
+  }
+
+  @After
+  public void tearDown() {
+    mServer.shutdown();
+  }
+
+  @Test
+  public void passwordGrantThenAuthenticatedUser() throws Exception {
+    JsonObject tokens = post(
+        StandInServer.ENDPOINT_GET_AUTH_TOKEN,
+        "grant_type=password&username=alice&password=secret&" + CLIENT_PARAMS,
+        200);
+    String accessToken = tokens.get("access_token").getAsString();
+
+    JsonObject response = get(StandInServer.ENDPOINT_GET_AUTHENTICATED_USER, accessToken, 200);
+    assertEquals("alice", response.getAsJsonObject("result").get("username_canonical").getAsString());
+    assertEquals(1, mServer.getStats().get(StandInStats.PASSWORD_GRANTS));
+    assertEquals(1, mServer.getStats().get(StandInStats.USER_REQUESTS));
+  }
+
+  @Test
+  public void refreshTokensAreRotated() throws Exception {
+    String refreshToken = mServer.getAccounts().issueTokens("alice").get("refresh_token").getAsString();
+    String body = "grant_type=refresh_token&refresh_token=" + refreshToken + "&" + CLIENT_PARAMS;
+
+    JsonObject tokens = post(StandInServer.ENDPOINT_GET_AUTH_TOKEN, body, 200);
+    assertNotEquals(refreshToken, tokens.get("refresh_token").getAsString());
+
+    JsonObject error = post(StandInServer.ENDPOINT_GET_AUTH_TOKEN, body, 400);
+    assertEquals("invalid_grant", error.get("error").getAsString());
+    assertEquals(1, mServer.getStats().get(StandInStats.REFRESH_GRANTS));
+    assertEquals(1, mServer.getStats().get(StandInStats.REJECTED_GRANTS));
+  }
+
+  @Test
+  public void expiredAccessTokenIsRejected() throws Exception {
+    mServer.setConfig(
+        mServer.getConfig().buildUpon().setTokenLifetime(0, TimeUnit.SECONDS).build());
+    String accessToken = mServer.getAccounts().issueTokens("alice").get("access_token").getAsString();
+
+    JsonObject error = get(StandInServer.ENDPOINT_GET_AUTHENTICATED_USER, accessToken, 401);
+    assertEquals("invalid_grant", error.get("error").getAsString());
+    assertEquals(1, mServer.getStats().get(StandInStats.UNAUTHORIZED));
+  }
+
+  @Test
+  public void errorRateInjectsServiceUnavailable() throws Exception {
+    mServer.setConfig(mServer.getConfig().buildUpon().setErrorRate(1.0d).build());
+    HttpURLConnection connection = open(StandInServer.ENDPOINT_GET_AUTHENTICATED_USER);
+    assertEquals(503, connection.getResponseCode());
+    assertTrue(connection.getContentType().startsWith("text/html"));
+    assertEquals(1, mServer.getStats().get(StandInStats.INJECTED_ERRORS));
+  }
+
+  @Test
+  public void latencyAndBandwidthAreApplied() throws Exception {
+    mServer.setConfig(
+        mServer.getConfig().buildUpon()
+            .setLatency(100, TimeUnit.MILLISECONDS)
+            .setBandwidth(1000)
+            .build());
+    String accessToken = mServer.getAccounts().issueTokens("alice").get("access_token").getAsString();
+
+    long start = System.nanoTime();
+    get(StandInServer.ENDPOINT_GET_AUTHENTICATED_USER, accessToken, 200);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // ~250 byte body at 1000 bytes/second, plus 100ms latency
+    assertTrue("elapsed=" + elapsedMillis, elapsedMillis >= 300);
+  }
+
+  @Test
+  public void usersAreListedByCursor() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      mServer.getAccounts().addUser("user" + i, "secret");
+    }
+    String accessToken = mServer.getAccounts().issueTokens("alice").get("access_token").getAsString();
+
+    JsonObject first = get(StandInServer.ENDPOINT_GET_USERS + "?limit=3", accessToken, 200)
+        .getAsJsonObject("result");
+    assertEquals(3, first.getAsJsonArray("items").size());
+    assertEquals("Alice",
+        first.getAsJsonArray("items").get(0).getAsJsonObject().get("username").getAsString());
+    String cursor = first.get("next_cursor").getAsString();
+
+    JsonObject second = get(
+        StandInServer.ENDPOINT_GET_USERS + "?limit=3&cursor=" + cursor, accessToken, 200)
+        .getAsJsonObject("result");
+    assertEquals(2, second.getAsJsonArray("items").size());
+    assertEquals("user3",
+        second.getAsJsonArray("items").get(1).getAsJsonObject().get("username").getAsString());
+    assertTrue(!second.has("next_cursor") || second.get("next_cursor").isJsonNull());
+    assertEquals(2, mServer.getStats().get(StandInStats.USER_LIST_REQUESTS));
+  }
+
+  private HttpURLConnection open(String endpoint) throws IOException {
+    return (HttpURLConnection) new URL(mServer.getBaseUrl() + endpoint).openConnection();
+  }
+
+  private JsonObject post(String endpoint, String form, int expectedStatus) throws IOException {
+    HttpURLConnection connection = open(endpoint);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty(
+        "Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+    OutputStream out = connection.getOutputStream();
+    out.write(form.getBytes("UTF-8"));
+    out.close();
+    return read(connection, expectedStatus);
+  }
+
+  private JsonObject get(String endpoint, String accessToken, int expectedStatus)
+      throws IOException {
+    HttpURLConnection connection = open(endpoint);
+    connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+    return read(connection, expectedStatus);
+  }
+
+  private static JsonObject read(HttpURLConnection connection, int expectedStatus)
+      throws IOException {
+    assertEquals(expectedStatus, connection.getResponseCode());
+    InputStream in = (expectedStatus < 400 ?
+        connection.getInputStream() :
+        connection.getErrorStream());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, read);
+    }
+    in.close();
+    return new JsonParser().parse(bytes.toString("UTF-8")).getAsJsonObject();
+  }
+}